@@ -0,0 +1,143 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.EntryIDSet.EntryIDSetCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the codecs of the entry ID sets stored in the index trees. This benchmark lives in
+ * the package of the pluggable backends because the entry ID sets are not public, and its
+ * benchmark methods return them as objects to the code generated by JMH in another package.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntryIDSetBenchmark
+{
+  private static final ByteString KEY = ByteString.valueOfUtf8("benchmark");
+
+  /** The version of the codec, as stored in the backend. */
+  @Param({ "V1", "V2", "V4" })
+  public String codecVersion;
+
+  /** The number of entry IDs of the sets. */
+  @Param({ "16", "4000", "100000" })
+  public int size;
+
+  /**
+   * The average gap between consecutive entry IDs: 1 for the sets of an index key matching all the
+   * entries of a range, larger for the sets of selective index keys.
+   */
+  @Param({ "1", "64" })
+  public int averageGap;
+
+  private EntryIDSetCodec codec;
+  private EntryIDSet idSet;
+  private ByteString encodedIDSet;
+  private ByteString otherEncodedIDSet;
+
+  /** Generates the entry ID sets of the benchmark. */
+  @Setup
+  public void setUp()
+  {
+    codec = getCodec(codecVersion);
+    final Random random = new Random(1);
+    idSet = EntryIDSet.newDefinedSet(generateIDs(random));
+    encodedIDSet = codec.encode(idSet);
+    otherEncodedIDSet = codec.encode(EntryIDSet.newDefinedSet(generateIDs(random)));
+  }
+
+  private static EntryIDSetCodec getCodec(String version)
+  {
+    switch (version)
+    {
+    case "V1":
+      return EntryIDSet.CODEC_V1;
+    case "V2":
+      return EntryIDSet.CODEC_V2;
+    case "V4":
+      return EntryIDSet.CODEC_V4;
+    default:
+      throw new IllegalArgumentException("Unknown codec version " + version);
+    }
+  }
+
+  private long[] generateIDs(Random random)
+  {
+    final long[] ids = new long[size];
+    long id = 0;
+    for (int i = 0; i < size; i++)
+    {
+      id += averageGap == 1 ? 1 : 1 + random.nextInt(2 * averageGap - 1);
+      ids[i] = id;
+    }
+    return ids;
+  }
+
+  /**
+   * Encodes an entry ID set.
+   *
+   * @return The encoded entry ID set
+   */
+  @Benchmark
+  public ByteString encode()
+  {
+    return codec.encode(idSet);
+  }
+
+  /**
+   * Decodes an entry ID set.
+   *
+   * @return The decoded entry ID set
+   */
+  @Benchmark
+  public Object decode()
+  {
+    return codec.decode(KEY, encodedIDSet);
+  }
+
+  /**
+   * Decodes two entry ID sets and intersects them, as done when evaluating an AND filter with two
+   * indexed components.
+   *
+   * @return The intersection of the entry ID sets
+   */
+  @Benchmark
+  public Object decodeAndIntersect()
+  {
+    final EntryIDSet result = codec.decode(KEY, encodedIDSet);
+    result.retainAll(codec.decode(KEY, otherEncodedIDSet));
+    return result;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.benchmarks;
+
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.api.AccessControlHandler;
+import org.opends.server.core.AccessControlConfigManager;
+import org.opends.server.protocols.internal.InternalClientConnection;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.types.AuthenticationInfo;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchResultEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the access control evaluation of the entries returned by a search, using the access
+ * control instructions of the installed server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AciBenchmark
+{
+  private static final int NUM_ENTRIES = 1024;
+
+  /** Whether the search is performed anonymously or by an authenticated user. */
+  @Param({ "false", "true" })
+  public boolean authenticated;
+
+  private AccessControlHandler<?> accessControlHandler;
+  private InternalSearchOperation searchOperation;
+  private SearchResultEntry[] entries;
+  private int index;
+
+  /**
+   * Starts the server, and generates the entries and the search of the benchmark.
+   *
+   * @throws Exception
+   *           If the server cannot be started or the entries cannot be generated
+   */
+  @Setup
+  public void setUp() throws Exception
+  {
+    BenchmarkEnvironment.startServer();
+    final List<Entry> generatedEntries = BenchmarkEnvironment.generateEntries(NUM_ENTRIES);
+    entries = new SearchResultEntry[NUM_ENTRIES];
+    for (int i = 0; i < NUM_ENTRIES; i++)
+    {
+      entries[i] = new SearchResultEntry(generatedEntries.get(i));
+    }
+
+    final AuthenticationInfo authInfo =
+        authenticated ? new AuthenticationInfo(generatedEntries.get(0), false) : new AuthenticationInfo();
+    final InternalClientConnection connection = new InternalClientConnection(authInfo);
+    searchOperation = new InternalSearchOperation(connection, nextOperationID(), nextMessageID(),
+        newSearchRequest(BenchmarkEnvironment.PEOPLE, SearchScope.SINGLE_LEVEL, "(objectClass=person)"));
+    accessControlHandler = AccessControlConfigManager.getInstance().getAccessControlHandler();
+  }
+
+  /** Stops the server. */
+  @TearDown
+  public void tearDown()
+  {
+    BenchmarkEnvironment.stopServer();
+  }
+
+  private int next()
+  {
+    return index++ & (NUM_ENTRIES - 1);
+  }
+
+  /**
+   * Checks whether an entry may be returned by the search.
+   *
+   * @return Whether the entry may be returned
+   */
+  @Benchmark
+  public boolean maySend()
+  {
+    return accessControlHandler.maySend(searchOperation, entries[next()]);
+  }
+
+  /**
+   * Removes the attributes that may not be returned from a copy of an entry, as done for each
+   * entry returned by the search.
+   *
+   * @return The filtered copy of the entry
+   */
+  @Benchmark
+  public SearchResultEntry filterEntry()
+  {
+    final SearchResultEntry entry = entries[next()];
+    final SearchResultEntry filteredEntry = new SearchResultEntry(entry.duplicate(false));
+    accessControlHandler.filterEntry(searchOperation, entry, filteredEntry);
+    return filteredEntry;
+  }
+}
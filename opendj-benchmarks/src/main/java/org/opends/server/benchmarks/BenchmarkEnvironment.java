@@ -0,0 +1,217 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.benchmarks;
+
+import static org.forgerock.opendj.server.embedded.ConfigParameters.*;
+import static org.forgerock.opendj.server.embedded.EmbeddedDirectoryServer.*;
+import static org.opends.server.util.ServerConstants.*;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.embedded.EmbeddedDirectoryServer;
+import org.forgerock.opendj.server.embedded.EmbeddedDirectoryServerException;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.tools.makeldif.TemplateFile;
+import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.LDIFImportConfig;
+import org.opends.server.util.LDIFReader;
+
+/**
+ * Provides the benchmarks with an initialized server and with realistic data.
+ * <p>
+ * The benchmarks use the configuration, the schema and the MakeLDIF resources of an installed
+ * server, whose root directory is provided by the {@value #SERVER_ROOT_PROPERTY} system property.
+ * Benchmarks which only need the schema initialize the server offline, while benchmarks which
+ * need the server subsystems, like access control, start it with its connection handlers
+ * disabled.
+ * <p>
+ * Entries are generated by MakeLDIF with a fixed random seed, so that all the runs, and all the
+ * releases, are measured against the same data.
+ */
+public final class BenchmarkEnvironment
+{
+  /** The system property providing the root directory of the installed server. */
+  public static final String SERVER_ROOT_PROPERTY = "opendj.benchmarks.serverRoot";
+  /** The suffix of the generated entries. */
+  public static final DN SUFFIX = DN.valueOf("dc=example,dc=com");
+  /** The parent of the generated user entries. */
+  public static final DN PEOPLE = DN.valueOf("ou=People,dc=example,dc=com");
+
+  private static final long RANDOM_SEED = 1;
+
+  private static boolean initialized;
+  private static EmbeddedDirectoryServer server;
+
+  private BenchmarkEnvironment()
+  {
+    // Utility class.
+  }
+
+  /**
+   * Initializes the configuration and the schema of the server, without starting it. This method
+   * does nothing if the server is already initialized.
+   *
+   * @throws InitializationException
+   *           If the server cannot be initialized
+   */
+  public static synchronized void initializeServer() throws InitializationException
+  {
+    if (!initialized)
+    {
+      setServerRootProperty();
+      new DirectoryServer.InitializationBuilder(getConfigFile()).initialize();
+      initialized = true;
+    }
+  }
+
+  /**
+   * Starts the server with its connection handlers disabled. This method does nothing if the
+   * server is already started.
+   *
+   * @throws EmbeddedDirectoryServerException
+   *           If the server cannot be started
+   */
+  public static synchronized void startServer() throws EmbeddedDirectoryServerException
+  {
+    if (server == null)
+    {
+      setServerRootProperty();
+      server = manageEmbeddedDirectoryServerForRestrictedOps(
+          configParams()
+              .serverRootDirectory(getServerRoot())
+              .configurationFile(getConfigFile())
+              .disableConnectionHandlers(true),
+          System.out,
+          System.err);
+      server.start();
+      initialized = true;
+    }
+  }
+
+  /** Stops the server if it was started. */
+  public static synchronized void stopServer()
+  {
+    if (server != null)
+    {
+      server.stop(BenchmarkEnvironment.class.getName(), LocalizableMessage.raw("Benchmark finished"));
+      server = null;
+    }
+  }
+
+  /**
+   * Generates user entries like the ones of the {@code example.template} MakeLDIF template. The
+   * server must be initialized.
+   *
+   * @param numEntries
+   *          The number of entries to generate
+   * @return The generated entries, all of them immediately below {@link #PEOPLE}
+   * @throws Exception
+   *           If the entries cannot be generated
+   */
+  public static List<Entry> generateEntries(int numEntries) throws Exception
+  {
+    final TemplateFile templateFile =
+        new TemplateFile(Paths.get(getServerRoot(), "config", "MakeLDIF").toString(), new Random(RANDOM_SEED));
+    templateFile.parse(getTemplateLines(numEntries), new ArrayList<LocalizableMessage>());
+
+    final List<Entry> entries = new ArrayList<>(numEntries);
+    try (LDIFReader reader = new LDIFReader(new LDIFImportConfig(templateFile)))
+    {
+      Entry entry;
+      while (entries.size() < numEntries && (entry = reader.readEntry(false)) != null)
+      {
+        if (PEOPLE.equals(entry.getName().parent()))
+        {
+          entries.add(entry);
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static String[] getTemplateLines(int numEntries)
+  {
+    return new String[] {
+      "define suffix=" + SUFFIX,
+      "define maildomain=example.com",
+      "define numusers=" + numEntries,
+      "",
+      "branch: [suffix]",
+      "objectClass: top",
+      "objectClass: domain",
+      "",
+      "branch: " + PEOPLE,
+      "objectClass: top",
+      "objectClass: organizationalUnit",
+      "subordinateTemplate: person:[numusers]",
+      "",
+      "template: person",
+      "rdnAttr: uid",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "givenName: <first>",
+      "sn: <last>",
+      "cn: {givenName} {sn}",
+      "initials: {givenName:1}<random:chars:ABCDEFGHIJKLMNOPQRSTUVWXYZ:1>{sn:1}",
+      "employeeNumber: <sequential:0>",
+      "uid: user.{employeeNumber}",
+      "mail: {uid}@[maildomain]",
+      "userPassword: password",
+      "telephoneNumber: <random:telephone>",
+      "homePhone: <random:telephone>",
+      "pager: <random:telephone>",
+      "mobile: <random:telephone>",
+      "street: <random:numeric:5> <file:streets> Street",
+      "l: <file:cities>",
+      "st: <file:states>",
+      "postalCode: <random:numeric:5>",
+      "postalAddress: {cn}${street}${l}, {st}  {postalCode}",
+      "description: This is the description for {cn}.",
+      "" };
+  }
+
+  private static void setServerRootProperty()
+  {
+    if (System.getProperty(PROPERTY_SERVER_ROOT) == null)
+    {
+      System.setProperty(PROPERTY_SERVER_ROOT, getServerRoot());
+    }
+  }
+
+  private static String getConfigFile()
+  {
+    return Paths.get(getServerRoot(), "config", "config.ldif").toString();
+  }
+
+  private static String getServerRoot()
+  {
+    final String serverRoot = System.getProperty(SERVER_ROOT_PROPERTY);
+    if (serverRoot == null)
+    {
+      throw new IllegalStateException("The " + SERVER_ROOT_PROPERTY
+          + " system property must provide the root directory of an installed server");
+    }
+    return serverRoot;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs the benchmarks, accepting the JMH command line options.
+ * <p>
+ * Unless another result format is requested with {@code -rf}, the results are written as JSON to
+ * {@code jmh-result.json}, or to the file provided with {@code -rff}, so that the results of
+ * different releases can be compared by tools.
+ */
+public final class Benchmarks
+{
+  private Benchmarks()
+  {
+    // Not used.
+  }
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args
+   *          The JMH command line options
+   * @throws Exception
+   *           If the benchmarks cannot be run
+   */
+  public static void main(final String[] args) throws Exception
+  {
+    final List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+    if (!jmhArgs.contains("-rf"))
+    {
+      jmhArgs.add(0, "-rf");
+      jmhArgs.add(1, "json");
+    }
+    Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+  }
+}
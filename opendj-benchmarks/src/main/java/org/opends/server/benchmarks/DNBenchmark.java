@@ -0,0 +1,131 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.benchmarks;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.types.Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks the decoding, normalization and comparison of DNs. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DNBenchmark
+{
+  private static final int NUM_ENTRIES = 1024;
+
+  /** Whether the DNs are written as generated, or upper case with extra spaces. */
+  @Param({ "false", "true" })
+  public boolean denormalized;
+
+  private String[] dnStrings;
+  private DN[] dns;
+  private int index;
+
+  /**
+   * Generates the DNs of the benchmark.
+   *
+   * @throws Exception
+   *           If the DNs cannot be generated
+   */
+  @Setup
+  public void setUp() throws Exception
+  {
+    BenchmarkEnvironment.initializeServer();
+    final List<Entry> entries = BenchmarkEnvironment.generateEntries(NUM_ENTRIES);
+    dnStrings = new String[NUM_ENTRIES];
+    dns = new DN[NUM_ENTRIES];
+    for (int i = 0; i < NUM_ENTRIES; i++)
+    {
+      final String dn = entries.get(i).getName().toString();
+      dnStrings[i] = denormalized ? denormalize(dn) : dn;
+      dns[i] = DN.valueOf(dnStrings[i]);
+    }
+  }
+
+  private static String denormalize(String dn)
+  {
+    return dn.replace(",", ", ").toUpperCase(Locale.ENGLISH);
+  }
+
+  private int next()
+  {
+    return index++ & (NUM_ENTRIES - 1);
+  }
+
+  /**
+   * Decodes a DN string.
+   *
+   * @return The decoded DN
+   */
+  @Benchmark
+  public DN valueOf()
+  {
+    return DN.valueOf(dnStrings[next()]);
+  }
+
+  /**
+   * Decodes and normalizes a DN string, as done for the keys of the backends.
+   *
+   * @return The normalized DN
+   */
+  @Benchmark
+  public ByteString valueOfAndNormalize()
+  {
+    return DN.valueOf(dnStrings[next()]).toNormalizedByteString();
+  }
+
+  /**
+   * Compares two decoded DNs.
+   *
+   * @return The result of the comparison
+   */
+  @Benchmark
+  public int compareTo()
+  {
+    final int i = next();
+    return dns[i].compareTo(dns[(i + 1) & (NUM_ENTRIES - 1)]);
+  }
+
+  /**
+   * Checks whether a decoded DN is below another one, as done when routing operations.
+   *
+   * @return Whether the DN is below the other one
+   */
+  @Benchmark
+  public boolean isSubordinateOrEqualTo()
+  {
+    return dns[next()].isSubordinateOrEqualTo(BenchmarkEnvironment.SUFFIX);
+  }
+}
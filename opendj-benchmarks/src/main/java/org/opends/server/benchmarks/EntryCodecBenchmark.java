@@ -0,0 +1,113 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks the encoding and decoding of entries, as done when writing and reading the backends. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntryCodecBenchmark
+{
+  private static final int NUM_ENTRIES = 1024;
+
+  /** Whether the attribute descriptions and object class sets are compressed. */
+  @Param({ "false", "true" })
+  public boolean compressed;
+
+  private Entry[] entries;
+  private ByteString[] encodedEntries;
+  private EntryEncodeConfig encodeConfig;
+  private final ByteStringBuilder buffer = new ByteStringBuilder();
+  private int index;
+
+  /**
+   * Generates and encodes the entries of the benchmark.
+   *
+   * @throws Exception
+   *           If the entries cannot be generated
+   */
+  @Setup
+  public void setUp() throws Exception
+  {
+    BenchmarkEnvironment.initializeServer();
+    final List<Entry> generatedEntries = BenchmarkEnvironment.generateEntries(NUM_ENTRIES);
+    encodeConfig = new EntryEncodeConfig(false, compressed, compressed);
+    entries = generatedEntries.toArray(new Entry[NUM_ENTRIES]);
+    encodedEntries = new ByteString[NUM_ENTRIES];
+    for (int i = 0; i < NUM_ENTRIES; i++)
+    {
+      buffer.clear();
+      entries[i].encode(buffer, encodeConfig);
+      encodedEntries[i] = buffer.toByteString();
+    }
+  }
+
+  private int next()
+  {
+    return index++ & (NUM_ENTRIES - 1);
+  }
+
+  /**
+   * Encodes an entry.
+   *
+   * @return The buffer holding the encoded entry
+   * @throws DirectoryException
+   *           If the entry cannot be encoded
+   */
+  @Benchmark
+  public ByteStringBuilder encode() throws DirectoryException
+  {
+    buffer.clear();
+    entries[next()].encode(buffer, encodeConfig);
+    return buffer;
+  }
+
+  /**
+   * Decodes an entry.
+   *
+   * @return The decoded entry
+   * @throws DirectoryException
+   *           If the entry cannot be decoded
+   */
+  @Benchmark
+  public Entry decode() throws DirectoryException
+  {
+    return Entry.decode(encodedEntries[next()].asReader());
+  }
+}
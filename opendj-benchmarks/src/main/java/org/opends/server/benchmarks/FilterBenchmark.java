@@ -0,0 +1,104 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the evaluation of search filters against entries, as done for each candidate entry
+ * of a search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark
+{
+  private static final int NUM_ENTRIES = 1024;
+
+  /** The filter evaluated against the entries. */
+  @Param({
+    "(uid=user.512)",
+    "(objectClass=*)",
+    "(cn=*son*)",
+    "(mail=user.5*@example.com)",
+    "(&(objectClass=inetOrgPerson)(|(st=CA)(st=NY)(l=Austin)))",
+    "(!(description=*1*))" })
+  public String filter;
+
+  private SearchFilter searchFilter;
+  private Entry[] entries;
+  private int index;
+
+  /**
+   * Generates the entries and decodes the filter of the benchmark.
+   *
+   * @throws Exception
+   *           If the entries cannot be generated or the filter cannot be decoded
+   */
+  @Setup
+  public void setUp() throws Exception
+  {
+    BenchmarkEnvironment.initializeServer();
+    final List<Entry> generatedEntries = BenchmarkEnvironment.generateEntries(NUM_ENTRIES);
+    entries = generatedEntries.toArray(new Entry[NUM_ENTRIES]);
+    searchFilter = SearchFilter.createFilterFromString(filter);
+  }
+
+  /**
+   * Decodes the filter string.
+   *
+   * @return The decoded filter
+   * @throws DirectoryException
+   *           If the filter cannot be decoded
+   */
+  @Benchmark
+  public SearchFilter decode() throws DirectoryException
+  {
+    return SearchFilter.createFilterFromString(filter);
+  }
+
+  /**
+   * Evaluates the filter against an entry.
+   *
+   * @return Whether the entry matches the filter
+   * @throws DirectoryException
+   *           If the filter cannot be evaluated
+   */
+  @Benchmark
+  public boolean matchesEntry() throws DirectoryException
+  {
+    return searchFilter.matchesEntry(entries[index++ & (NUM_ENTRIES - 1)]);
+  }
+}
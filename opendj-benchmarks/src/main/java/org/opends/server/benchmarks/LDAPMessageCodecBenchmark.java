@@ -0,0 +1,132 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.ASN1Writer;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DereferenceAliasesPolicy;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.protocols.ldap.LDAPMessage;
+import org.opends.server.protocols.ldap.LDAPReader;
+import org.opends.server.protocols.ldap.SearchRequestProtocolOp;
+import org.opends.server.protocols.ldap.SearchResultEntryProtocolOp;
+import org.opends.server.types.Entry;
+import org.opends.server.types.LDAPException;
+import org.opends.server.types.RawFilter;
+import org.opends.server.types.SearchResultEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the ASN.1 decoding of the LDAP requests and the encoding of the LDAP responses, as
+ * done by the LDAP connection handler for each search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LDAPMessageCodecBenchmark
+{
+  private static final int NUM_ENTRIES = 1024;
+
+  private ByteString[] encodedSearchRequests;
+  private LDAPMessage[] searchResultEntries;
+  private final ByteStringBuilder buffer = new ByteStringBuilder();
+  private final ASN1Writer writer = ASN1.getWriter(buffer);
+  private int index;
+
+  /**
+   * Generates the requests and responses of the benchmark.
+   *
+   * @throws Exception
+   *           If the requests and responses cannot be generated
+   */
+  @Setup
+  public void setUp() throws Exception
+  {
+    BenchmarkEnvironment.initializeServer();
+    final List<Entry> entries = BenchmarkEnvironment.generateEntries(NUM_ENTRIES);
+    final ByteString baseDN = ByteString.valueOfUtf8(BenchmarkEnvironment.SUFFIX.toString());
+    final LinkedHashSet<String> attributes = new LinkedHashSet<>(Arrays.asList("cn", "mail", "telephoneNumber"));
+
+    encodedSearchRequests = new ByteString[NUM_ENTRIES];
+    searchResultEntries = new LDAPMessage[NUM_ENTRIES];
+    for (int i = 0; i < NUM_ENTRIES; i++)
+    {
+      final Entry entry = entries.get(i);
+      final RawFilter filter =
+          RawFilter.create("(&(objectClass=person)(uid=" + entry.parseAttribute("uid").asString() + "))");
+      final SearchRequestProtocolOp searchRequest = new SearchRequestProtocolOp(
+          baseDN, SearchScope.WHOLE_SUBTREE, DereferenceAliasesPolicy.NEVER, 0, 0, false, filter, attributes);
+      buffer.clear();
+      new LDAPMessage(i + 1, searchRequest).write(writer);
+      encodedSearchRequests[i] = buffer.toByteString();
+
+      searchResultEntries[i] = new LDAPMessage(i + 1, new SearchResultEntryProtocolOp(new SearchResultEntry(entry)));
+    }
+  }
+
+  private int next()
+  {
+    return index++ & (NUM_ENTRIES - 1);
+  }
+
+  /**
+   * Decodes a search request.
+   *
+   * @return The decoded search request
+   * @throws LDAPException
+   *           If the search request cannot be decoded
+   */
+  @Benchmark
+  public LDAPMessage decodeSearchRequest() throws LDAPException
+  {
+    return LDAPReader.readMessage(ASN1.getReader(encodedSearchRequests[next()]));
+  }
+
+  /**
+   * Encodes a search result entry.
+   *
+   * @return The buffer holding the encoded search result entry
+   * @throws IOException
+   *           If the search result entry cannot be encoded
+   */
+  @Benchmark
+  public ByteStringBuilder encodeSearchResultEntry() throws IOException
+  {
+    buffer.clear();
+    searchResultEntries[next()].write(writer);
+    return buffer;
+  }
+}
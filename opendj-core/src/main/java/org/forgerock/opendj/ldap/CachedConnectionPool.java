@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2009-2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.ldap;
 
@@ -22,38 +22,16 @@ import static org.forgerock.util.promise.Promises.*;
 import static com.forgerock.opendj.ldap.CoreMessages.*;
 import static com.forgerock.opendj.util.StaticUtils.*;
 
-import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
-import org.forgerock.opendj.ldap.requests.AbandonRequest;
-import org.forgerock.opendj.ldap.requests.AddRequest;
-import org.forgerock.opendj.ldap.requests.BindRequest;
-import org.forgerock.opendj.ldap.requests.CompareRequest;
-import org.forgerock.opendj.ldap.requests.DeleteRequest;
-import org.forgerock.opendj.ldap.requests.ExtendedRequest;
-import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
-import org.forgerock.opendj.ldap.requests.ModifyRequest;
-import org.forgerock.opendj.ldap.requests.SearchRequest;
-import org.forgerock.opendj.ldap.requests.UnbindRequest;
-import org.forgerock.opendj.ldap.responses.BindResult;
-import org.forgerock.opendj.ldap.responses.CompareResult;
-import org.forgerock.opendj.ldap.responses.ExtendedResult;
-import org.forgerock.opendj.ldap.responses.GenericExtendedResult;
-import org.forgerock.opendj.ldap.responses.Result;
-import org.forgerock.opendj.ldap.responses.SearchResultEntry;
-import org.forgerock.opendj.ldap.responses.SearchResultReference;
-import org.forgerock.opendj.ldif.ChangeRecord;
-import org.forgerock.opendj.ldif.ConnectionEntryReader;
 import org.forgerock.util.Reject;
 import org.forgerock.util.promise.ExceptionHandler;
 import org.forgerock.util.promise.Promise;
@@ -123,143 +101,14 @@ final class CachedConnectionPool implements ConnectionPool {
         }
     }
 
-    /**
-     * A pooled connection is passed to the client. It wraps an underlying
-     * "pooled" connection obtained from the underlying factory and lasts until
-     * the client application closes this connection. More specifically, pooled
-     * connections are not actually stored in the internal queue.
-     */
-    class PooledConnection implements Connection, ConnectionEventListener {
-        private final Connection connection;
-        private LdapException error;
-        private final AtomicBoolean isClosed = new AtomicBoolean(false);
-        private boolean isDisconnectNotification;
-        private List<ConnectionEventListener> listeners;
-        private final Object stateLock = new Object();
-
-        PooledConnection(final Connection connection) {
-            this.connection = connection;
-        }
-
-        @Override
-        public LdapPromise<Void> abandonAsync(final AbandonRequest request) {
-            return checkState().abandonAsync(request);
-        }
-
-        @Override
-        public Result add(final AddRequest request) throws LdapException {
-            return checkState().add(request);
-        }
-
-        @Override
-        public Result add(final Entry entry) throws LdapException {
-            return checkState().add(entry);
-        }
-
-        @Override
-        public Result add(final String... ldifLines) throws LdapException {
-            return checkState().add(ldifLines);
-        }
-
-        @Override
-        public LdapPromise<Result> addAsync(AddRequest request) {
-            return addAsync(request, null);
-        }
-
-        @Override
-        public LdapPromise<Result> addAsync(final AddRequest request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().addAsync(request, intermediateResponseHandler);
-        }
-
-        @Override
-        public void addConnectionEventListener(final ConnectionEventListener listener) {
-            Reject.ifNull(listener);
-            final boolean notifyClose;
-            final boolean notifyErrorOccurred;
-            synchronized (stateLock) {
-                notifyClose = isClosed.get();
-                notifyErrorOccurred = error != null;
-                if (!notifyClose) {
-                    if (listeners == null) {
-                        /*
-                         * Create and register first listener. If an error has
-                         * already occurred on the underlying connection, then
-                         * the listener may be immediately invoked so ensure
-                         * that it is already in the list.
-                         */
-                        listeners = new CopyOnWriteArrayList<>();
-                        listeners.add(listener);
-                        connection.addConnectionEventListener(this);
-                    } else {
-                        listeners.add(listener);
-                    }
-                }
-            }
-            if (notifyErrorOccurred) {
-                listener.handleConnectionError(isDisconnectNotification, error);
-            }
-            if (notifyClose) {
-                listener.handleConnectionClosed();
-            }
-        }
-
-        @Override
-        public Result applyChange(final ChangeRecord request) throws LdapException {
-            return checkState().applyChange(request);
-        }
-
-        @Override
-        public LdapPromise<Result> applyChangeAsync(final ChangeRecord request) {
-            return checkState().applyChangeAsync(request, null);
-        }
-
-        @Override
-        public LdapPromise<Result> applyChangeAsync(final ChangeRecord request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().applyChangeAsync(request, intermediateResponseHandler);
-        }
-
-        @Override
-        public BindResult bind(final BindRequest request) throws LdapException {
-            return checkState().bind(request);
-        }
-
-        @Override
-        public BindResult bind(final String name, final char[] password) throws LdapException {
-            return checkState().bind(name, password);
-        }
-
-        @Override
-        public LdapPromise<BindResult> bindAsync(BindRequest request) {
-            return bindAsync(request, null);
-        }
-
-        @Override
-        public LdapPromise<BindResult> bindAsync(final BindRequest request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().bindAsync(request, intermediateResponseHandler);
+    /** A pooled connection whose underlying connection is published back to this pool when it is closed. */
+    private class CachedPooledConnection extends PooledConnection {
+        CachedPooledConnection(final Connection connection) {
+            super(connection);
         }
 
         @Override
-        public void close() {
-            final List<ConnectionEventListener> tmpListeners;
-            synchronized (stateLock) {
-                if (!isClosed.compareAndSet(false, true)) {
-                    // Already closed.
-                    return;
-                }
-                tmpListeners = listeners;
-            }
-
-            /*
-             * Remove underlying listener if needed and do this before
-             * subsequent connection events may occur.
-             */
-            if (tmpListeners != null) {
-                connection.removeConnectionEventListener(this);
-            }
-
+        void release(final Connection connection) {
             // Don't put invalid connections back in the pool.
             if (connection.isValid()) {
                 publishConnection(connection);
@@ -280,286 +129,6 @@ final class CachedConnectionPool implements ConnectionPool {
                         "Connection no longer valid: availableConnections=%d, maxPoolSize=%d",
                         currentPoolSize(), maxPoolSize));
             }
-
-            // Invoke listeners.
-            if (tmpListeners != null) {
-                for (final ConnectionEventListener listener : tmpListeners) {
-                    listener.handleConnectionClosed();
-                }
-            }
-        }
-
-        @Override
-        public void close(final UnbindRequest request, final String reason) {
-            close();
-        }
-
-        @Override
-        public CompareResult compare(final CompareRequest request) throws LdapException {
-            return checkState().compare(request);
-        }
-
-        @Override
-        public CompareResult compare(final String name, final String attributeDescription,
-                final String assertionValue) throws LdapException {
-            return checkState().compare(name, attributeDescription, assertionValue);
-        }
-
-        @Override
-        public LdapPromise<CompareResult> compareAsync(CompareRequest request) {
-            return compareAsync(request, null);
-        }
-
-        @Override
-        public LdapPromise<CompareResult> compareAsync(final CompareRequest request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().compareAsync(request, intermediateResponseHandler);
-        }
-
-        @Override
-        public Result delete(final DeleteRequest request) throws LdapException {
-            return checkState().delete(request);
-        }
-
-        @Override
-        public Result delete(final String name) throws LdapException {
-            return checkState().delete(name);
-        }
-
-        @Override
-        public LdapPromise<Result> deleteAsync(DeleteRequest request) {
-            return deleteAsync(request, null);
-        }
-
-        @Override
-        public LdapPromise<Result> deleteAsync(final DeleteRequest request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().deleteAsync(request, intermediateResponseHandler);
-        }
-
-        @Override
-        public Result deleteSubtree(final String name) throws LdapException {
-            return checkState().deleteSubtree(name);
-        }
-
-        @Override
-        public <R extends ExtendedResult> R extendedRequest(final ExtendedRequest<R> request) throws LdapException {
-            return checkState().extendedRequest(request);
-        }
-
-        @Override
-        public <R extends ExtendedResult> R extendedRequest(final ExtendedRequest<R> request,
-                final IntermediateResponseHandler handler) throws LdapException {
-            return checkState().extendedRequest(request, handler);
-        }
-
-        @Override
-        public GenericExtendedResult extendedRequest(final String requestName,
-                final ByteString requestValue) throws LdapException {
-            return checkState().extendedRequest(requestName, requestValue);
-        }
-
-        @Override
-        public <R extends ExtendedResult> LdapPromise<R> extendedRequestAsync(ExtendedRequest<R> request) {
-            return extendedRequestAsync(request, null);
-        }
-
-        @Override
-        public <R extends ExtendedResult> LdapPromise<R> extendedRequestAsync(final ExtendedRequest<R> request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().extendedRequestAsync(request, intermediateResponseHandler);
-        }
-
-        @Override
-        public void handleConnectionClosed() {
-            /*
-             * The underlying connection was closed by the client. This can only
-             * occur when the pool is being shut down and the underlying
-             * connection is not in use.
-             */
-            throw new IllegalStateException(
-                    "Pooled connection received unexpected close notification");
-        }
-
-        @Override
-        public void handleConnectionError(final boolean isDisconnectNotification, final LdapException error) {
-            final List<ConnectionEventListener> tmpListeners;
-            synchronized (stateLock) {
-                tmpListeners = listeners;
-                this.isDisconnectNotification = isDisconnectNotification;
-                this.error = error;
-            }
-            if (tmpListeners != null) {
-                for (final ConnectionEventListener listener : tmpListeners) {
-                    listener.handleConnectionError(isDisconnectNotification, error);
-                }
-            }
-        }
-
-        @Override
-        public void handleUnsolicitedNotification(final ExtendedResult notification) {
-            final List<ConnectionEventListener> tmpListeners;
-            synchronized (stateLock) {
-                tmpListeners = listeners;
-            }
-            if (tmpListeners != null) {
-                for (final ConnectionEventListener listener : tmpListeners) {
-                    listener.handleUnsolicitedNotification(notification);
-                }
-            }
-        }
-
-        @Override
-        public boolean isClosed() {
-            return isClosed.get();
-        }
-
-        @Override
-        public boolean isValid() {
-            return connection.isValid() && !isClosed();
-        }
-
-        @Override
-        public Result modify(final ModifyRequest request) throws LdapException {
-            return checkState().modify(request);
-        }
-
-        @Override
-        public Result modify(final String... ldifLines) throws LdapException {
-            return checkState().modify(ldifLines);
-        }
-
-        @Override
-        public LdapPromise<Result> modifyAsync(ModifyRequest request) {
-            return modifyAsync(request, null);
-        }
-
-        @Override
-        public LdapPromise<Result> modifyAsync(final ModifyRequest request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().modifyAsync(request, intermediateResponseHandler);
-        }
-
-        @Override
-        public Result modifyDN(final ModifyDNRequest request) throws LdapException {
-            return checkState().modifyDN(request);
-        }
-
-        @Override
-        public Result modifyDN(final String name, final String newRDN) throws LdapException {
-            return checkState().modifyDN(name, newRDN);
-        }
-
-        @Override
-        public LdapPromise<Result> modifyDNAsync(ModifyDNRequest request) {
-            return modifyDNAsync(request, null);
-        }
-
-        @Override
-        public LdapPromise<Result> modifyDNAsync(final ModifyDNRequest request,
-                final IntermediateResponseHandler intermediateResponseHandler) {
-            return checkState().modifyDNAsync(request, intermediateResponseHandler);
-        }
-
-        @Override
-        public SearchResultEntry readEntry(final DN name, final String... attributeDescriptions)
-                throws LdapException {
-            return checkState().readEntry(name, attributeDescriptions);
-        }
-
-        @Override
-        public SearchResultEntry readEntry(final String name, final String... attributeDescriptions)
-                throws LdapException {
-            return checkState().readEntry(name, attributeDescriptions);
-        }
-
-        @Override
-        public LdapPromise<SearchResultEntry> readEntryAsync(final DN name,
-                final Collection<String> attributeDescriptions) {
-            return checkState().readEntryAsync(name, attributeDescriptions);
-        }
-
-        @Override
-        public void removeConnectionEventListener(final ConnectionEventListener listener) {
-            Reject.ifNull(listener);
-            synchronized (stateLock) {
-                if (listeners != null) {
-                    listeners.remove(listener);
-                }
-            }
-        }
-
-        @Override
-        public ConnectionEntryReader search(final SearchRequest request) {
-            return checkState().search(request);
-        }
-
-        @Override
-        public Result search(final SearchRequest request, final Collection<? super SearchResultEntry> entries)
-                throws LdapException {
-            return checkState().search(request, entries);
-        }
-
-        @Override
-        public Result search(final SearchRequest request, final Collection<? super SearchResultEntry> entries,
-                final Collection<? super SearchResultReference> references) throws LdapException {
-            return checkState().search(request, entries, references);
-        }
-
-        @Override
-        public Result search(final SearchRequest request, final SearchResultHandler handler)
-                throws LdapException {
-            return checkState().search(request, handler);
-        }
-
-        @Override
-        public ConnectionEntryReader search(final String baseObject, final SearchScope scope, final String filter,
-                final String... attributeDescriptions) {
-            return checkState().search(baseObject, scope, filter, attributeDescriptions);
-        }
-
-        @Override
-        public LdapPromise<Result> searchAsync(SearchRequest request, SearchResultHandler resultHandler) {
-            return searchAsync(request, null, resultHandler);
-        }
-
-        @Override
-        public LdapPromise<Result> searchAsync(final SearchRequest request,
-                final IntermediateResponseHandler intermediateResponseHandler, final SearchResultHandler entryHandler) {
-            return checkState().searchAsync(request, intermediateResponseHandler, entryHandler);
-        }
-
-        @Override
-        public SearchResultEntry searchSingleEntry(final SearchRequest request) throws LdapException {
-            return checkState().searchSingleEntry(request);
-        }
-
-        @Override
-        public SearchResultEntry searchSingleEntry(final String baseObject, final SearchScope scope,
-                final String filter, final String... attributeDescriptions) throws LdapException {
-            return checkState().searchSingleEntry(baseObject, scope, filter, attributeDescriptions);
-        }
-
-        @Override
-        public LdapPromise<SearchResultEntry> searchSingleEntryAsync(final SearchRequest request) {
-            return checkState().searchSingleEntryAsync(request);
-        }
-
-        @Override
-        public String toString() {
-            final StringBuilder builder = new StringBuilder();
-            builder.append("PooledConnection(");
-            builder.append(connection);
-            builder.append(')');
-            return builder.toString();
-        }
-
-        /** Checks that this pooled connection has not been closed. */
-        private Connection checkState() {
-            if (isClosed()) {
-                throw new IllegalStateException();
-            }
-            return connection;
         }
     }
 
@@ -608,7 +177,7 @@ final class CachedConnectionPool implements ConnectionPool {
         }
     }
 
-    private final class DebugEnabledPooledConnection extends PooledConnection {
+    private final class DebugEnabledPooledConnection extends CachedPooledConnection {
         private final StackTraceElement[] stackTrace;
 
         private DebugEnabledPooledConnection(final Connection connection,
@@ -916,7 +485,7 @@ final class CachedConnectionPool implements ConnectionPool {
     private PooledConnection newPooledConnection(final Connection connection,
             final StackTraceElement[] stack) {
         if (!DEBUG_ENABLED) {
-            return new PooledConnection(connection);
+            return new CachedPooledConnection(connection);
         } else {
             return new DebugEnabledPooledConnection(connection, stack);
         }
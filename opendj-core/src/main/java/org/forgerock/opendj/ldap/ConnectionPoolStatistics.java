@@ -0,0 +1,177 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the connections obtained from a connection pool: how long
+ * the applications waited for them and how long they kept them.
+ * <p>
+ * The durations are recorded in histograms whose buckets have the upper bounds
+ * returned by {@link #getHistogramUpperBounds(TimeUnit)}, the last bucket
+ * counting the durations greater than the last upper bound.
+ * <p>
+ * A statistics instance may be shared by several connection pools, in which
+ * case it reports their aggregated statistics.
+ *
+ * @see Connections#CONNECTION_POOL_STATISTICS
+ */
+public final class ConnectionPoolStatistics {
+    /** The upper bounds of the histogram buckets, in nanoseconds. */
+    private static final long[] UPPER_BOUNDS_NANOS = {
+        TimeUnit.MICROSECONDS.toNanos(1),
+        TimeUnit.MICROSECONDS.toNanos(10),
+        TimeUnit.MICROSECONDS.toNanos(100),
+        TimeUnit.MILLISECONDS.toNanos(1),
+        TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(100),
+        TimeUnit.SECONDS.toNanos(1),
+        TimeUnit.SECONDS.toNanos(10),
+    };
+
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder failedCheckouts = new LongAdder();
+    private final LongAdder waitingCheckouts = new LongAdder();
+    private final LongAdder totalWaitTimeNanos = new LongAdder();
+    private final AtomicLongArray waitTimeHistogram = new AtomicLongArray(UPPER_BOUNDS_NANOS.length + 1);
+    private final AtomicLongArray checkoutTimeHistogram = new AtomicLongArray(UPPER_BOUNDS_NANOS.length + 1);
+
+    /** Creates new connection pool statistics, initially empty. */
+    public ConnectionPoolStatistics() {
+        // Nothing to do.
+    }
+
+    /**
+     * Returns the upper bounds of the histogram buckets.
+     *
+     * @param unit
+     *            The time unit of the returned upper bounds.
+     * @return The upper bounds of the histogram buckets.
+     */
+    public static long[] getHistogramUpperBounds(final TimeUnit unit) {
+        final long[] upperBounds = new long[UPPER_BOUNDS_NANOS.length];
+        for (int i = 0; i < upperBounds.length; i++) {
+            upperBounds[i] = unit.convert(UPPER_BOUNDS_NANOS[i], TimeUnit.NANOSECONDS);
+        }
+        return upperBounds;
+    }
+
+    /**
+     * Returns the number of connections successfully obtained from the pool.
+     *
+     * @return The number of connections successfully obtained from the pool.
+     */
+    public long getCheckoutCount() {
+        return checkouts.sum();
+    }
+
+    /**
+     * Returns the number of connection requests which failed, e.g. because a new
+     * connection could not be established.
+     *
+     * @return The number of connection requests which failed.
+     */
+    public long getFailedCheckoutCount() {
+        return failedCheckouts.sum();
+    }
+
+    /**
+     * Returns the number of connections which could not be obtained
+     * immediately, because all the connections of the pool were in use.
+     *
+     * @return The number of connections which could not be obtained
+     *         immediately.
+     */
+    public long getWaitingCheckoutCount() {
+        return waitingCheckouts.sum();
+    }
+
+    /**
+     * Returns the total time spent waiting for connections.
+     *
+     * @param unit
+     *            The time unit of the returned time.
+     * @return The total time spent waiting for connections.
+     */
+    public long getTotalWaitTime(final TimeUnit unit) {
+        return unit.convert(totalWaitTimeNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the histogram of the times spent waiting for connections.
+     *
+     * @return The number of connections per wait time bucket.
+     * @see #getHistogramUpperBounds(TimeUnit)
+     */
+    public long[] getWaitTimeHistogram() {
+        return toArray(waitTimeHistogram);
+    }
+
+    /**
+     * Returns the histogram of the times during which the connections were
+     * used before being released to the pool.
+     *
+     * @return The number of connections per checkout time bucket.
+     * @see #getHistogramUpperBounds(TimeUnit)
+     */
+    public long[] getCheckoutTimeHistogram() {
+        return toArray(checkoutTimeHistogram);
+    }
+
+    void recordCheckout(final long waitTimeNanos, final boolean waited) {
+        checkouts.increment();
+        if (waited) {
+            waitingCheckouts.increment();
+        }
+        totalWaitTimeNanos.add(waitTimeNanos);
+        waitTimeHistogram.incrementAndGet(bucket(waitTimeNanos));
+    }
+
+    void recordFailedCheckout() {
+        failedCheckouts.increment();
+    }
+
+    void recordRelease(final long checkoutTimeNanos) {
+        checkoutTimeHistogram.incrementAndGet(bucket(checkoutTimeNanos));
+    }
+
+    private static int bucket(final long durationNanos) {
+        final int index = Arrays.binarySearch(UPPER_BOUNDS_NANOS, durationNanos);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static long[] toArray(final AtomicLongArray histogram) {
+        final long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics(checkouts=" + getCheckoutCount()
+                + ", failedCheckouts=" + getFailedCheckoutCount()
+                + ", waitingCheckouts=" + getWaitingCheckoutCount()
+                + ", totalWaitTimeMillis=" + getTotalWaitTime(TimeUnit.MILLISECONDS)
+                + ", waitTimeHistogram=" + Arrays.toString(getWaitTimeHistogram())
+                + ", checkoutTimeHistogram=" + Arrays.toString(getCheckoutTimeHistogram()) + ")";
+    }
+}
@@ -82,6 +82,36 @@ public final class Connections {
     public static final Option<ScheduledExecutorService> LOAD_BALANCER_SCHEDULER =
             Option.of(ScheduledExecutorService.class, null);
 
+    /**
+     * Specifies the time out period after which the unused non-core connections of a connection pool are closed. The
+     * default configuration is to close them after sixty seconds. A zero duration disables the time out.
+     */
+    public static final Option<Duration> CONNECTION_POOL_IDLE_TIMEOUT = Option.withDefault(duration("60 seconds"));
+
+    /**
+     * Specifies the scheduler which will be used for periodically checking for the idle connections of a connection
+     * pool. A system-wide scheduler will be used by default.
+     */
+    public static final Option<ScheduledExecutorService> CONNECTION_POOL_SCHEDULER =
+            Option.of(ScheduledExecutorService.class, null);
+
+    /**
+     * Specifies whether connection pools should obtain and release connections without locking, which reduces
+     * contention when many threads use the same pool. Threads first reuse the connection they released last, idle
+     * connections are kept in a lock-free stack and the connection requests which cannot be satisfied immediately wait
+     * in a lock-free queue. By default, connection pools use a queue protected by a lock.
+     */
+    public static final Option<Boolean> CONNECTION_POOL_LOCK_FREE = Option.withDefault(false);
+
+    /**
+     * Specifies the statistics which should be updated whenever a connection is obtained from or released to a
+     * lock-free connection pool. By default, no statistics are recorded.
+     *
+     * @see #CONNECTION_POOL_LOCK_FREE
+     */
+    public static final Option<ConnectionPoolStatistics> CONNECTION_POOL_STATISTICS =
+            Option.of(ConnectionPoolStatistics.class, null);
+
     /**
      * Creates a new connection pool which creates new connections as needed
      * using the provided connection factory, but will reuse previously
@@ -218,6 +248,64 @@ public final class Connections {
                 scheduler);
     }
 
+    /**
+     * Creates a new connection pool which creates new connections as needed
+     * using the provided connection factory, but will reuse previously
+     * allocated connections when they are available.
+     * <p>
+     * Attempts to use more than {@code maximumPoolSize} connections at once
+     * will block until a connection is released back to the pool. In other
+     * words, this pool will prevent applications from using more than
+     * {@code maximumPoolSize} connections at the same time.
+     * <p>
+     * Connections which have not been used for the
+     * {@link #CONNECTION_POOL_IDLE_TIMEOUT idle timeout} period are closed and
+     * removed from the pool, until there are only {@code corePoolSize}
+     * connections remaining.
+     * <p>
+     * Connections obtained from the connection pool are guaranteed to be valid
+     * immediately before being returned to the calling application. More
+     * specifically, connections which have remained idle in the connection pool
+     * for a long time and which have been remotely closed due to a time out
+     * will never be returned. However, once a pooled connection has been
+     * obtained it is the responsibility of the calling application to handle
+     * subsequent connection failures, these being signaled via a
+     * {@link ConnectionException}.
+     *
+     * @param factory
+     *            The connection factory to use for creating new connections.
+     * @param corePoolSize
+     *            The minimum number of connections to keep in the pool, even if
+     *            they are idle.
+     * @param maximumPoolSize
+     *            The maximum number of connections to allow in the pool.
+     * @param options
+     *            The configuration options for the connection pool.
+     * @return The new connection pool.
+     * @throws IllegalArgumentException
+     *             If {@code corePoolSize}, {@code maximumPoolSize} are less
+     *             than or equal to zero, or if the idle timeout is negative,
+     *             or if {@code corePoolSize} is greater than
+     *             {@code maximumPoolSize}.
+     * @throws NullPointerException
+     *             If {@code factory} or {@code options} was {@code null}.
+     * @see #CONNECTION_POOL_IDLE_TIMEOUT
+     * @see #CONNECTION_POOL_SCHEDULER
+     * @see #CONNECTION_POOL_LOCK_FREE
+     * @see #CONNECTION_POOL_STATISTICS
+     */
+    public static ConnectionPool newCachedConnectionPool(final ConnectionFactory factory,
+            final int corePoolSize, final int maximumPoolSize, final Options options) {
+        final long idleTimeoutMillis = options.get(CONNECTION_POOL_IDLE_TIMEOUT).to(TimeUnit.MILLISECONDS);
+        final ScheduledExecutorService scheduler = options.get(CONNECTION_POOL_SCHEDULER);
+        if (options.get(CONNECTION_POOL_LOCK_FREE)) {
+            return new LockFreeConnectionPool(factory, corePoolSize, maximumPoolSize, idleTimeoutMillis,
+                    TimeUnit.MILLISECONDS, scheduler, options.get(CONNECTION_POOL_STATISTICS));
+        }
+        return new CachedConnectionPool(factory, corePoolSize, maximumPoolSize, idleTimeoutMillis,
+                TimeUnit.MILLISECONDS, scheduler);
+    }
+
     /**
      * Creates a new connection pool which will maintain {@code poolSize}
      * connections created using the provided connection factory.
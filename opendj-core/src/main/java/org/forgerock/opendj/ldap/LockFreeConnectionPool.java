@@ -0,0 +1,498 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.forgerock.opendj.ldap.LdapException.*;
+import static org.forgerock.util.promise.Promises.*;
+
+import static com.forgerock.opendj.ldap.CoreMessages.*;
+import static com.forgerock.opendj.util.StaticUtils.*;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.util.Reject;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.TimeService;
+
+import com.forgerock.opendj.util.ReferenceCountedObject;
+
+/**
+ * A connection pool implementation with the same policy as
+ * {@link CachedConnectionPool}, but which does not lock when obtaining and
+ * releasing connections:
+ * <ul>
+ * <li>each thread first tries to reuse the connection it released last,</li>
+ * <li>the idle connections are kept in a lock-free stack, so that the most
+ * recently used connections are reused first and the others can expire,</li>
+ * <li>the connection requests which cannot be satisfied because all the
+ * connections are in use wait in a lock-free queue, the released connections
+ * being handed directly to them.</li>
+ * </ul>
+ */
+final class LockFreeConnectionPool implements ConnectionPool {
+
+    /** The states of the underlying connections. */
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = 2;
+
+    /** An underlying connection of this pool. */
+    private static final class PoolEntry {
+        private final Connection connection;
+        private final AtomicInteger state = new AtomicInteger(IN_USE);
+        /**
+         * Whether this entry is in the idle stack, possibly as a stale element
+         * if it has been reused by the thread which released it.
+         */
+        private final AtomicBoolean inIdleStack = new AtomicBoolean();
+        private volatile long releaseTimeMillis;
+
+        private PoolEntry(final Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /** A connection request waiting for a connection to be released. */
+    private static final class Waiter {
+        private final PromiseImpl<Connection, LdapException> promise = PromiseImpl.create();
+        private final long startNanos;
+        private final StackTraceElement[] stack;
+
+        private Waiter(final long startNanos, final StackTraceElement[] stack) {
+            this.startNanos = startNanos;
+            this.stack = stack;
+        }
+    }
+
+    /** A pooled connection whose underlying connection is released to this pool when it is closed. */
+    private class LockFreePooledConnection extends PooledConnection {
+        private final PoolEntry entry;
+        private final long checkoutNanos = System.nanoTime();
+
+        LockFreePooledConnection(final PoolEntry entry) {
+            super(entry.connection);
+            this.entry = entry;
+        }
+
+        @Override
+        void release(final Connection connection) {
+            if (statistics != null) {
+                statistics.recordRelease(System.nanoTime() - checkoutNanos);
+            }
+            releaseEntry(entry);
+        }
+    }
+
+    private final class DebugEnabledPooledConnection extends LockFreePooledConnection {
+        private final StackTraceElement[] stackTrace;
+
+        private DebugEnabledPooledConnection(final PoolEntry entry, final StackTraceElement[] stackTrace) {
+            super(entry);
+            this.stackTrace = stackTrace;
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            if (!isClosed()) {
+                logIfDebugEnabled("CONNECTION POOL: connection leaked! It was allocated here: ", stackTrace);
+            }
+        }
+    }
+
+    /**
+     * Scheduled task responsible for purging non-core pooled connections which
+     * have been idle for longer than the idle timeout limit.
+     */
+    private final class PurgeIdleConnectionsTask implements Runnable {
+        @Override
+        public void run() {
+            if (isClosed) {
+                return;
+            }
+
+            // The least recently used connections are at the bottom of the stack.
+            final long timeoutMillis = timeService.now() - idleTimeoutMillis;
+            int closedConnections = 0;
+            final Iterator<PoolEntry> iterator = idleEntries.descendingIterator();
+            while (iterator.hasNext() && poolSize.get() > corePoolSize) {
+                final PoolEntry entry = iterator.next();
+                if (entry.releaseTimeMillis < timeoutMillis && entry.state.compareAndSet(IDLE, REMOVED)) {
+                    iterator.remove();
+                    poolSize.decrementAndGet();
+                    entry.connection.close();
+                    closedConnections++;
+                }
+            }
+
+            if (closedConnections > 0) {
+                logger.debug(LocalizableMessage.raw(
+                        "Closed %d idle pooled connections: poolSize=%d, maxPoolSize=%d",
+                        closedConnections, poolSize.get(), maxPoolSize));
+            }
+        }
+    }
+
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    /**
+     * This is package private in order to allow unit tests to inject fake time
+     * stamps.
+     */
+    TimeService timeService = TimeService.SYSTEM;
+
+    private final ConnectionFactory factory;
+    private final int corePoolSize;
+    private final int maxPoolSize;
+    private final ConnectionPoolStatistics statistics;
+    /** The number of underlying connections, whether idle, in use or being established. */
+    private final AtomicInteger poolSize = new AtomicInteger();
+    /** The idle connections, the most recently released first. */
+    private final ConcurrentLinkedDeque<PoolEntry> idleEntries = new ConcurrentLinkedDeque<>();
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    /** The connection released last by each thread. */
+    private final ThreadLocal<PoolEntry> lastReleasedEntry = new ThreadLocal<>();
+    private final AtomicBoolean closeRequested = new AtomicBoolean();
+    private volatile boolean isClosed;
+    private final ScheduledFuture<?> idleTimeoutFuture;
+    private final long idleTimeoutMillis;
+    private final ReferenceCountedObject<ScheduledExecutorService>.Reference scheduler;
+
+    LockFreeConnectionPool(final ConnectionFactory factory, final int corePoolSize,
+            final int maximumPoolSize, final long idleTimeout, final TimeUnit unit,
+            final ScheduledExecutorService scheduler, final ConnectionPoolStatistics statistics) {
+        Reject.ifNull(factory);
+        Reject.ifFalse(corePoolSize >= 0, "corePoolSize < 0");
+        Reject.ifFalse(maximumPoolSize > 0, "maxPoolSize <= 0");
+        Reject.ifFalse(corePoolSize <= maximumPoolSize, "corePoolSize > maxPoolSize");
+        Reject.ifFalse(idleTimeout >= 0, "idleTimeout < 0");
+        Reject.ifFalse(idleTimeout == 0 || unit != null, "time unit is null");
+
+        this.factory = factory;
+        this.corePoolSize = corePoolSize;
+        this.maxPoolSize = maximumPoolSize;
+        this.statistics = statistics;
+
+        if (corePoolSize < maximumPoolSize && idleTimeout > 0) {
+            // Dynamic pool.
+            this.scheduler = DEFAULT_SCHEDULER.acquireIfNull(scheduler);
+            this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+            this.idleTimeoutFuture =
+                    this.scheduler.get().scheduleWithFixedDelay(new PurgeIdleConnectionsTask(),
+                            idleTimeout, idleTimeout, unit);
+        } else {
+            // Fixed pool.
+            this.scheduler = null;
+            this.idleTimeoutMillis = 0;
+            this.idleTimeoutFuture = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closeRequested.compareAndSet(false, true)) {
+            return;
+        }
+        isClosed = true;
+
+        logger.debug(LocalizableMessage.raw(
+                "Connection pool is closing: poolSize=%d, maxPoolSize=%d", poolSize.get(), maxPoolSize));
+
+        if (idleTimeoutFuture != null) {
+            idleTimeoutFuture.cancel(false);
+            scheduler.release();
+        }
+
+        closeIdleEntries();
+        failWaiters(newPoolClosingException());
+
+        // Close the underlying factory.
+        factory.close();
+    }
+
+    @Override
+    public Connection getConnection() throws LdapException {
+        try {
+            return getConnectionAsync().getOrThrow();
+        } catch (final InterruptedException e) {
+            throw newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED, e);
+        }
+    }
+
+    @Override
+    public Promise<Connection, LdapException> getConnectionAsync() {
+        if (isClosed) {
+            throw new IllegalStateException("LockFreeConnectionPool is already closed");
+        }
+
+        final long startNanos = System.nanoTime();
+        final StackTraceElement[] stack = getStackTraceIfDebugEnabled();
+        final PoolEntry entry = acquireIdleEntry();
+        if (entry != null) {
+            recordCheckout(startNanos, false);
+            return newResultPromise(newPooledConnection(entry, stack));
+        }
+        if (tryIncrementPoolSize()) {
+            return connect(startNanos, stack);
+        }
+
+        final Waiter waiter = new Waiter(startNanos, stack);
+        waiters.add(waiter);
+        // A connection may have been released or closed before the waiter was queued.
+        final PoolEntry releasedEntry = acquireIdleEntry();
+        if (releasedEntry != null) {
+            releaseEntry(releasedEntry);
+        } else if (tryIncrementPoolSize()) {
+            connectForWaiters();
+        }
+        if (isClosed) {
+            failWaiters(newPoolClosingException());
+        }
+        return waiter.promise;
+    }
+
+    @Override
+    public String toString() {
+        int idle = 0;
+        for (final PoolEntry entry : idleEntries) {
+            if (entry.state.get() == IDLE) {
+                idle++;
+            }
+        }
+        return String.format("LockFreeConnectionPool(size=%d[idle:%d], maxSize=%d, blocked=%d, factory=%s)",
+                poolSize.get(), idle, maxPoolSize, waiters.size(), String.valueOf(factory));
+    }
+
+    /**
+     * Provide a finalizer because connection pools are expensive resources to
+     * accidentally leave around. Also, since they won't be created all that
+     * frequently, there's little risk of overloading the finalizer.
+     */
+    @Override
+    protected void finalize() throws Throwable {
+        close();
+    }
+
+    /** Package private for unit testing. */
+    int currentPoolSize() {
+        return poolSize.get();
+    }
+
+    private boolean tryIncrementPoolSize() {
+        for (;;) {
+            final int size = poolSize.get();
+            if (size >= maxPoolSize) {
+                return false;
+            }
+            if (poolSize.compareAndSet(size, size + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Returns an idle connection, now in use, or {@code null} if there are none. */
+    private PoolEntry acquireIdleEntry() {
+        // Fast path: reuse the connection released last by this thread.
+        PoolEntry entry = lastReleasedEntry.get();
+        if (entry != null && entry.state.compareAndSet(IDLE, IN_USE) && isValidOrRemove(entry)) {
+            return entry;
+        }
+
+        while ((entry = idleEntries.pollFirst()) != null) {
+            // Clear the flag before acquiring, so that a concurrent release pushes the entry back.
+            entry.inIdleStack.set(false);
+            if (entry.state.compareAndSet(IDLE, IN_USE) && isValidOrRemove(entry)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private boolean isValidOrRemove(final PoolEntry entry) {
+        if (entry.connection.isValid()) {
+            return true;
+        }
+        logger.debug(LocalizableMessage.raw("Connection no longer valid: poolSize=%d, maxPoolSize=%d",
+                poolSize.get(), maxPoolSize));
+        removeEntry(entry);
+        return false;
+    }
+
+    /** Releases a connection in use, handing it to a waiting connection request if there is one. */
+    private void releaseEntry(final PoolEntry entry) {
+        if (isClosed || !entry.connection.isValid()) {
+            removeEntry(entry);
+            return;
+        }
+        if (handOffToWaiter(entry)) {
+            return;
+        }
+
+        entry.releaseTimeMillis = timeService.now();
+        entry.state.set(IDLE);
+        lastReleasedEntry.set(entry);
+        if (entry.inIdleStack.compareAndSet(false, true)) {
+            idleEntries.addFirst(entry);
+        }
+
+        // A connection request may have been queued after the waiters were checked.
+        if (!waiters.isEmpty()) {
+            final PoolEntry idleEntry = acquireIdleEntry();
+            if (idleEntry != null) {
+                releaseEntry(idleEntry);
+            }
+        }
+        if (isClosed) {
+            closeIdleEntries();
+        }
+    }
+
+    private boolean handOffToWaiter(final PoolEntry entry) {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.promise.isDone()) {
+                continue;
+            }
+            final long checkoutNanos = System.nanoTime();
+            // The request may have completed meanwhile, in which case the connection goes back to the pool.
+            if (waiter.promise.tryHandleResult(newPooledConnection(entry, waiter.stack))) {
+                recordCheckout(waiter.startNanos, checkoutNanos, true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Closes a connection which is no longer usable, and replaces it if connection requests are waiting. */
+    private void removeEntry(final PoolEntry entry) {
+        entry.state.set(REMOVED);
+        poolSize.decrementAndGet();
+        entry.connection.close();
+        if (!isClosed && !waiters.isEmpty() && tryIncrementPoolSize()) {
+            connectForWaiters();
+        }
+    }
+
+    private void closeIdleEntries() {
+        PoolEntry entry;
+        while ((entry = idleEntries.pollFirst()) != null) {
+            if (entry.state.compareAndSet(IDLE, REMOVED)) {
+                poolSize.decrementAndGet();
+                entry.connection.close();
+            }
+        }
+    }
+
+    /** Opens a new connection for a connection request, the pool size having been incremented. */
+    private Promise<Connection, LdapException> connect(final long startNanos, final StackTraceElement[] stack) {
+        final PromiseImpl<Connection, LdapException> promise = PromiseImpl.create();
+        factory.getConnectionAsync().thenOnResult(new ResultHandler<Connection>() {
+            @Override
+            public void handleResult(final Connection connection) {
+                final PoolEntry entry = new PoolEntry(connection);
+                if (isClosed) {
+                    removeEntry(entry);
+                    connectionFailed(promise, newPoolClosingException());
+                } else {
+                    final long checkoutNanos = System.nanoTime();
+                    if (promise.tryHandleResult(newPooledConnection(entry, stack))) {
+                        recordCheckout(startNanos, checkoutNanos, false);
+                    } else {
+                        releaseEntry(entry);
+                    }
+                }
+            }
+        }).thenOnException(new ExceptionHandler<LdapException>() {
+            @Override
+            public void handleException(final LdapException exception) {
+                poolSize.decrementAndGet();
+                logger.debug(LocalizableMessage.raw("Connection attempt failed: poolSize=%d, maxPoolSize=%d",
+                        poolSize.get(), maxPoolSize, exception));
+                connectionFailed(promise, exception);
+                // If this connection attempt failed, then the next ones are likely to fail too.
+                failWaiters(exception);
+            }
+        });
+        return promise;
+    }
+
+    /** Opens a new connection for the waiting connection requests, the pool size having been incremented. */
+    private void connectForWaiters() {
+        factory.getConnectionAsync().thenOnResult(new ResultHandler<Connection>() {
+            @Override
+            public void handleResult(final Connection connection) {
+                releaseEntry(new PoolEntry(connection));
+            }
+        }).thenOnException(new ExceptionHandler<LdapException>() {
+            @Override
+            public void handleException(final LdapException exception) {
+                poolSize.decrementAndGet();
+                logger.debug(LocalizableMessage.raw("Connection attempt failed: poolSize=%d, maxPoolSize=%d",
+                        poolSize.get(), maxPoolSize, exception));
+                failWaiters(exception);
+            }
+        });
+    }
+
+    private void failWaiters(final LdapException exception) {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            connectionFailed(waiter.promise, exception);
+        }
+    }
+
+    private void connectionFailed(final PromiseImpl<Connection, LdapException> promise,
+            final LdapException exception) {
+        if (promise.tryHandleException(exception) && statistics != null) {
+            statistics.recordFailedCheckout();
+        }
+    }
+
+    private LdapException newPoolClosingException() {
+        return newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED,
+                ERR_CONNECTION_POOL_CLOSING.get(toString()).toString());
+    }
+
+    private void recordCheckout(final long startNanos, final boolean waited) {
+        recordCheckout(startNanos, System.nanoTime(), waited);
+    }
+
+    /** Must only be called once the connection has been handed to the connection request. */
+    private void recordCheckout(final long startNanos, final long checkoutNanos, final boolean waited) {
+        if (statistics != null) {
+            statistics.recordCheckout(checkoutNanos - startNanos, waited);
+        }
+    }
+
+    private PooledConnection newPooledConnection(final PoolEntry entry, final StackTraceElement[] stack) {
+        if (!DEBUG_ENABLED) {
+            return new LockFreePooledConnection(entry);
+        } else {
+            return new DebugEnabledPooledConnection(entry, stack);
+        }
+    }
+}
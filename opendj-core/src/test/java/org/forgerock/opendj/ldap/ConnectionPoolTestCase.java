@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.ldap;
@@ -26,6 +26,7 @@ import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.util.Options;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.PromiseImpl;
 import org.mockito.invocation.InvocationOnMock;
@@ -536,4 +537,123 @@ public class ConnectionPoolTestCase extends SdkTestCase {
         }
     }
 
+    /**
+     * Test behavior of the lock-free pool at capacity: the released connections
+     * are handed to the waiting connection requests, and the statistics record
+     * the waits.
+     */
+    @Test
+    public void testLockFreePoolGetConnectionAtCapacity() throws Exception {
+        final Connection connection1 = mock(Connection.class);
+        when(connection1.isValid()).thenReturn(true);
+        final BindRequest bind2 = Requests.newSimpleBindRequest("cn=test2", "password".toCharArray());
+        final Connection connection2 = mock(Connection.class);
+        when(connection2.bind(bind2)).thenReturn(Responses.newBindResult(ResultCode.SUCCESS));
+        when(connection2.isValid()).thenReturn(true);
+
+        final ConnectionFactory factory = mockConnectionFactory(connection1, connection2);
+        final ConnectionPoolStatistics statistics = new ConnectionPoolStatistics();
+        final ConnectionPool pool = newCachedConnectionPool(factory, 2, 2, Options.defaultOptions()
+                .set(CONNECTION_POOL_LOCK_FREE, true)
+                .set(CONNECTION_POOL_STATISTICS, statistics));
+
+        final Connection pc1 = pool.getConnection();
+        final Connection pc2 = pool.getConnection();
+        final Promise<? extends Connection, LdapException> promise = pool.getConnectionAsync();
+        assertThat(promise.isDone()).isFalse();
+
+        pc2.close();
+        assertThat(promise.isDone()).isTrue();
+        final Connection pc3 = promise.get();
+        assertThat(pc3.bind(bind2).getResultCode()).isEqualTo(ResultCode.SUCCESS);
+        verify(factory, times(2)).getConnectionAsync();
+
+        assertThat(statistics.getCheckoutCount()).isEqualTo(3);
+        assertThat(statistics.getWaitingCheckoutCount()).isEqualTo(1);
+        assertThat(sum(statistics.getWaitTimeHistogram())).isEqualTo(3);
+        assertThat(sum(statistics.getCheckoutTimeHistogram())).isEqualTo(1);
+
+        pc1.close();
+        pc3.close();
+        pool.close();
+        verify(connection1).close();
+        verify(connection2).close();
+    }
+
+    /** A connection which could not be handed to its request goes back to the pool, and is not a checkout. */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLockFreePoolCheckoutStatisticsOnlyCountHandedOffConnections() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(connection.isValid()).thenReturn(true);
+        final PromiseImpl<Connection, LdapException> connectPromise = PromiseImpl.create();
+        final ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.getConnectionAsync()).thenReturn(connectPromise);
+        final ConnectionPoolStatistics statistics = new ConnectionPoolStatistics();
+        final ConnectionPool pool = newCachedConnectionPool(factory, 0, 1, Options.defaultOptions()
+                .set(CONNECTION_POOL_LOCK_FREE, true)
+                .set(CONNECTION_POOL_STATISTICS, statistics));
+
+        // The request completes, e.g. times out, before the connection is established
+        final Promise<? extends Connection, LdapException> promise = pool.getConnectionAsync();
+        ((PromiseImpl<Connection, LdapException>) promise).handleException(
+                newLdapException(ResultCode.CLIENT_SIDE_TIMEOUT));
+        connectPromise.handleResult(connection);
+        assertThat(statistics.getCheckoutCount()).isEqualTo(0);
+
+        final Connection pc = pool.getConnection();
+        assertThat(statistics.getCheckoutCount()).isEqualTo(1);
+        verify(factory, times(1)).getConnectionAsync();
+
+        pc.close();
+        pool.close();
+        verify(connection).close();
+    }
+
+    /** A thread should get back the connection it released last, and stale connections should be skipped. */
+    @Test
+    public void testLockFreePoolReusesReleasedConnections() throws Exception {
+        final Connection connection1 = mock(Connection.class);
+        when(connection1.isValid()).thenReturn(true);
+        final Connection connection2 = mock(Connection.class);
+        when(connection2.isValid()).thenReturn(true);
+        final Connection connection3 = mock(Connection.class);
+        when(connection3.isValid()).thenReturn(true);
+
+        final ConnectionFactory factory = mockConnectionFactory(connection1, connection2, connection3);
+        final ConnectionPool pool = newCachedConnectionPool(factory, 0, 2, Options.defaultOptions()
+                .set(CONNECTION_POOL_LOCK_FREE, true));
+
+        final Connection pc1 = pool.getConnection();
+        final Connection pc2 = pool.getConnection();
+        pc1.close();
+        pc2.close();
+        assertThat(((LockFreeConnectionPool) pool).currentPoolSize()).isEqualTo(2);
+
+        // The connection released last by this thread is reused first
+        final Connection pc3 = pool.getConnection();
+        assertThat(pc3.toString()).isEqualTo(pc2.toString());
+        verify(factory, times(2)).getConnectionAsync();
+
+        // Connection 1 is stale and must be replaced
+        when(connection1.isValid()).thenReturn(false);
+        final Connection pc4 = pool.getConnection();
+        verify(connection1).close();
+        verify(factory, times(3)).getConnectionAsync();
+        assertThat(((LockFreeConnectionPool) pool).currentPoolSize()).isEqualTo(2);
+
+        pc3.close();
+        pc4.close();
+        pool.close();
+        verify(connection2).close();
+        verify(connection3).close();
+    }
+
+    private static long sum(final long[] counts) {
+        long sum = 0;
+        for (final long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
 }
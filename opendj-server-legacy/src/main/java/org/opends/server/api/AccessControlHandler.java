@@ -109,6 +109,21 @@ public abstract class AccessControlHandler
   public abstract void finalizeAccessControlHandler();
 
 
+
+  /**
+   * Indicates that the provided client connection has been finalized,
+   * so that any state kept for it can be released. This default
+   * implementation does nothing.
+   *
+   * @param clientConnection
+   *          The client connection which has been finalized.
+   */
+  public void clientConnectionFinalized(ClientConnection clientConnection)
+  {
+    // No state is kept by default.
+  }
+
+
   /**
    * Checks whether the ACIs prevent sending information about the provided
    * entry, or entryDN if entry is null.
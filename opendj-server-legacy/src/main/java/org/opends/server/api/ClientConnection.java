@@ -34,6 +34,7 @@ import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.ldap.schema.Schema;
 import org.opends.server.api.plugin.PluginResult;
+import org.opends.server.core.AccessControlConfigManager;
 import org.opends.server.core.AuthenticatedUsers;
 import org.opends.server.core.CoreConfigManager;
 import org.opends.server.core.DirectoryServer;
@@ -154,8 +155,9 @@ public abstract class ClientConnection
    * Performs any internal cleanup that may be necessary when this
    * client connection is disconnected.  In
    * this case, it will be used to ensure that the connection is
-   * deregistered with the {@code AuthenticatedUsers} manager, and
-   * will then invoke the {@code finalizeClientConnection} method.
+   * deregistered with the {@code AuthenticatedUsers} manager and
+   * with the access control handler, and will then invoke the
+   * {@code finalizeClientConnection} method.
    */
  @org.opends.server.types.PublicAPI(
       stability=org.opends.server.types.StabilityLevel.PRIVATE,
@@ -194,6 +196,8 @@ public abstract class ClientConnection
     {
       authenticatedUsers.remove(authZEntry.getName(), this);
     }
+
+    AccessControlConfigManager.getInstance().getAccessControlHandler().clientConnectionFinalized(this);
   }
 
 
@@ -1413,15 +1417,7 @@ public abstract class ClientConnection
       return Collections.<Group<?>>emptySet();
     }
 
-    HashSet<Group<?>> groupSet = new HashSet<>();
-    for (Group<?> g : DirectoryServer.getGroupManager().getGroupInstances())
-    {
-      if (g.isMember(userEntry))
-      {
-        groupSet.add(g);
-      }
-    }
-    return groupSet;
+    return DirectoryServer.getGroupManager().getGroupInstancesOfMember(userEntry);
   }
 
 
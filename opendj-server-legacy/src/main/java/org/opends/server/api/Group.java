@@ -24,6 +24,7 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.config.server.ConfigException;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.server.config.server.GroupImplementationCfg;
 import org.opends.server.core.ServerContext;
 import org.opends.server.types.DirectoryException;
@@ -415,6 +416,24 @@ public abstract class Group<T extends GroupImplementationCfg>
    */
   public abstract boolean mayAlterMemberList();
 
+  /**
+   * Retrieves the attribute type used to list the DNs of the members
+   * of this group in the group entry.  The group manager uses it to
+   * maintain an index of the groups listing each member, so that the
+   * groups of a user can be found without checking the membership of
+   * the user in every group.  The default implementation returns
+   * {@code null}, indicating that the membership of a user can only
+   * be determined by calling {@link #isMember(Entry)}.
+   *
+   * @return  The attribute type used to list the DNs of the members
+   *          of this group in the group entry, or {@code null} if the
+   *          members of this group are not listed in its entry.
+   */
+  public AttributeType getMemberListAttributeType()
+  {
+    return null;
+  }
+
   /**
    * Attempt to make multiple changes to the group's member list.
    *
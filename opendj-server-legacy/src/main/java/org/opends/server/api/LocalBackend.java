@@ -21,7 +21,6 @@ import static org.opends.messages.BackendMessages.*;
 import java.util.Collection;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.forgerock.opendj.config.Configuration;
 import org.forgerock.opendj.config.server.ConfigException;
@@ -40,6 +39,7 @@ import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyOperation;
 import org.opends.server.core.PersistentSearch;
 import org.opends.server.core.PersistentSearch.CancellationCallback;
+import org.opends.server.core.PersistentSearchRegistry;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.core.ServerContext;
 import org.opends.server.monitors.LocalBackendMonitor;
@@ -77,8 +77,8 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
   /** The writability mode for this backend. */
   private WritabilityMode writabilityMode = WritabilityMode.ENABLED;
 
-  /** The set of persistent searches registered with this backend. */
-  private final ConcurrentLinkedQueue<PersistentSearch> persistentSearches = new ConcurrentLinkedQueue<>();
+  /** The persistent searches registered with this backend. */
+  private final PersistentSearchRegistry persistentSearches = new PersistentSearchRegistry();
 
   /** The backend monitor associated with this backend. */
   private LocalBackendMonitor backendMonitor;
@@ -100,11 +100,7 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
   @Override
   public final void finalizeBackend()
   {
-    for (PersistentSearch psearch : persistentSearches)
-    {
-      psearch.cancel();
-    }
-    persistentSearches.clear();
+    persistentSearches.close();
     closeBackend();
   }
 
@@ -667,14 +663,14 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
    */
   public void registerPersistentSearch(PersistentSearch persistentSearch) throws DirectoryException
   {
-    persistentSearches.add(persistentSearch);
+    persistentSearches.register(persistentSearch);
 
     persistentSearch.registerCancellationCallback(new CancellationCallback()
     {
       @Override
       public void persistentSearchCancelled(PersistentSearch psearch)
       {
-        persistentSearches.remove(psearch);
+        persistentSearches.deregister(psearch);
       }
     });
   }
@@ -687,6 +683,18 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
    *         backend
    */
   public Queue<PersistentSearch> getPersistentSearches()
+  {
+    return persistentSearches.getPersistentSearches();
+  }
+
+  /**
+   * Returns the registry of the persistent searches active against this local
+   * backend, which notifies them of the changes made to this backend.
+   *
+   * @return the registry of the persistent searches active against this local
+   *         backend
+   */
+  public PersistentSearchRegistry getPersistentSearchRegistry()
   {
     return persistentSearches;
   }
@@ -700,6 +708,19 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
    */
   public abstract long getEntryCount();
 
+  /**
+   * Retrieves the compressed schema used by this backend for encoding
+   * object class sets and attribute descriptions of its entries.
+   *
+   * @return  The compressed schema used by this backend, which is the
+   *          default compressed schema unless this backend persists
+   *          its own.
+   */
+  public CompressedSchema getCompressedSchema()
+  {
+    return DirectoryServer.getDefaultCompressedSchema();
+  }
+
   /**
    * Indicates whether this backend should be used to handle
    * operations for the provided entry.
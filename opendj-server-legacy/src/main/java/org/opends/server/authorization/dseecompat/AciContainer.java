@@ -99,6 +99,9 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
      */
     private boolean seenEntry;
 
+    /** The cache of the bind rule results, null if the bind rules must always be evaluated. */
+    private AciDecisionCache decisionCache;
+
     /** True if geteffectiverights evaluation is in progress. */
     private boolean isGetEffectiveRightsEval;
     /** True if the operation has a geteffectiverights control. */
@@ -796,6 +799,26 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
       return clientConnection.getSSF();
   }
 
+  @Override
+  public long getConnectionID() {
+      return clientConnection.getConnectionID();
+  }
+
+  @Override
+  public AciDecisionCache getDecisionCache() {
+      return decisionCache;
+  }
+
+  /**
+   * Set the cache of the bind rule results to use in the evaluation.
+   *
+   * @param decisionCache The cache of the bind rule results, or
+   *                      {@code null} to always evaluate the bind rules.
+   */
+  public void setDecisionCache(AciDecisionCache decisionCache) {
+      this.decisionCache = decisionCache;
+  }
+
   @Override
   public String toString()
   {
@@ -0,0 +1,502 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.authorization.dseecompat;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.api.Group;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Entry;
+
+/**
+ * Caches, for each client connection and authorization DN, the results of the
+ * bind rules which only depend on the client identity and connection: the
+ * userdn bind rules other than "self" and "parent", and the groupdn, ip and dns
+ * bind rules. The other bind rules of an ACI, such as the time based or the
+ * userattr bind rules, are still evaluated for each access check.
+ * <p>
+ * The cached results are invalidated when the ACIs or a group change. When
+ * the entry of an authorization DN with cached results changes, only the
+ * results of this authorization DN which depend on the content of its entry
+ * are removed: the userdn URL filters and, when some groups compute their
+ * members, the groupdn bind rules. When an entry is deleted or renamed, the
+ * results of the authorization DNs at or below it are removed, found by
+ * looking up the DN of the entry in an index of the ancestors of the
+ * authorization DNs. The changes of the other entries, including the
+ * ancestors of the authorization DNs, do not affect the cached results. The
+ * cached results of a client connection are removed when it is finalized.
+ * <p>
+ * This class also keeps the statistics of the access checks.
+ */
+public final class AciDecisionCache
+{
+  /** The maximum number of cached results, the cache being cleared once reached. */
+  private static final int MAX_CACHED_RESULTS = 100000;
+
+  /** The key of a result cached for a client connection. */
+  private static final class Key
+  {
+    private final DN clientDN;
+    private final boolean anonymous;
+    private final BindRule bindRule;
+
+    private Key(DN clientDN, boolean anonymous, BindRule bindRule)
+    {
+      this.clientDN = clientDN;
+      this.anonymous = anonymous;
+      this.bindRule = bindRule;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+      {
+        return true;
+      }
+      if (!(obj instanceof Key))
+      {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return anonymous == other.anonymous
+          && bindRule == other.bindRule
+          && clientDN.equals(other.clientDN);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int hash = clientDN.hashCode();
+      hash = 31 * hash + System.identityHashCode(bindRule);
+      return anonymous ? ~hash : hash;
+    }
+  }
+
+  /** The cached results, keyed by client connection ID. */
+  private final ConcurrentMap<Long, ConcurrentMap<Key, EnumEvalResult>> results = new ConcurrentHashMap<>();
+  /** The number of cached results. */
+  private final AtomicInteger size = new AtomicInteger();
+  /** The IDs of the client connections having cached results, keyed by authorization DN. */
+  private final ConcurrentMap<DN, Set<Long>> clientConnections = new ConcurrentHashMap<>();
+  /**
+   * The authorization DNs having cached results, keyed by each of their ancestors and by themselves.
+   * Only updated while computing the entry of the authorization DN in {@link #clientConnections}.
+   */
+  private final ConcurrentMap<DN, Set<DN>> clientDNsByAncestor = new ConcurrentHashMap<>();
+  /** Incremented by each invalidation or removal, so that a result evaluated concurrently is not cached. */
+  private final AtomicLong generation = new AtomicLong();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  private final LongAdder accessChecks = new LongAdder();
+  private final LongAdder accessCheckTimeNanos = new LongAdder();
+
+  /**
+   * Evaluates a bind rule which only depends on the client identity and
+   * connection, or returns its cached result.
+   *
+   * @param bindRule
+   *          The bind rule to evaluate.
+   * @param evalCtx
+   *          The evaluation context.
+   * @return The result of the evaluation.
+   */
+  EnumEvalResult evaluate(BindRule bindRule, AciEvalContext evalCtx)
+  {
+    final DN clientDN = evalCtx.getClientDN();
+    final Key key = new Key(clientDN, evalCtx.isAnonymousUser(), bindRule);
+    final Long connectionID = evalCtx.getConnectionID();
+    ConcurrentMap<Key, EnumEvalResult> connectionResults = results.get(connectionID);
+    EnumEvalResult result = connectionResults != null ? connectionResults.get(key) : null;
+    if (result != null)
+    {
+      hits.increment();
+      return result;
+    }
+
+    misses.increment();
+    final long currentGeneration = generation.get();
+    result = bindRule.evaluateUncached(evalCtx);
+    // Failures may be transient, e.g. an internal search which failed
+    if (result == EnumEvalResult.TRUE || result == EnumEvalResult.FALSE)
+    {
+      if (size.get() >= MAX_CACHED_RESULTS)
+      {
+        clear();
+      }
+      connectionResults = getConnectionResults(connectionID);
+      if (connectionResults.put(key, result) == null)
+      {
+        size.incrementAndGet();
+      }
+      // Indexed once cached, so that a concurrent removal cannot leave it out of the index
+      addClientConnection(clientDN, connectionID);
+      if (generation.get() != currentGeneration && connectionResults.remove(key) != null)
+      {
+        // Invalidated during the evaluation
+        size.decrementAndGet();
+      }
+    }
+    return result;
+  }
+
+  private ConcurrentMap<Key, EnumEvalResult> getConnectionResults(Long connectionID)
+  {
+    ConcurrentMap<Key, EnumEvalResult> connectionResults = results.get(connectionID);
+    if (connectionResults == null)
+    {
+      connectionResults = new ConcurrentHashMap<>();
+      final ConcurrentMap<Key, EnumEvalResult> existing = results.putIfAbsent(connectionID, connectionResults);
+      if (existing != null)
+      {
+        connectionResults = existing;
+      }
+    }
+    return connectionResults;
+  }
+
+  private void addClientConnection(final DN clientDN, final Long connectionID)
+  {
+    clientConnections.compute(clientDN, (dn, connectionIDs) ->
+    {
+      if (connectionIDs == null)
+      {
+        connectionIDs = ConcurrentHashMap.newKeySet();
+        for (DN ancestor = dn; ancestor != null; ancestor = ancestor.parent())
+        {
+          clientDNsByAncestor.computeIfAbsent(ancestor, k -> ConcurrentHashMap.newKeySet()).add(dn);
+        }
+      }
+      connectionIDs.add(connectionID);
+      return connectionIDs;
+    });
+  }
+
+  private void removeClientConnection(final DN clientDN, final Long connectionID)
+  {
+    clientConnections.computeIfPresent(clientDN, (dn, connectionIDs) ->
+    {
+      connectionIDs.remove(connectionID);
+      if (!connectionIDs.isEmpty())
+      {
+        return connectionIDs;
+      }
+      for (DN ancestor = dn; ancestor != null; ancestor = ancestor.parent())
+      {
+        clientDNsByAncestor.computeIfPresent(ancestor, (k, clientDNs) ->
+        {
+          clientDNs.remove(dn);
+          return clientDNs.isEmpty() ? null : clientDNs;
+        });
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Removes the cached results of a client connection which has been
+   * finalized.
+   *
+   * @param connectionID
+   *          The ID of the finalized client connection.
+   */
+  void connectionFinalized(long connectionID)
+  {
+    final Map<Key, EnumEvalResult> connectionResults = results.remove(connectionID);
+    if (connectionResults != null)
+    {
+      size.addAndGet(-connectionResults.size());
+      for (Key key : connectionResults.keySet())
+      {
+        removeClientConnection(key.clientDN, connectionID);
+      }
+    }
+  }
+
+  /** Invalidates all the cached results. */
+  void invalidate()
+  {
+    invalidations.increment();
+    generation.incrementAndGet();
+    clear();
+  }
+
+  private void clear()
+  {
+    results.clear();
+    size.set(0);
+    clientConnections.clear();
+    clientDNsByAncestor.clear();
+  }
+
+  /**
+   * Invalidates the cached results if the provided entry, which has been
+   * added, is a group, or removes the results of its DN which depend on its
+   * content.
+   *
+   * @param entry
+   *          The entry which has been added.
+   */
+  void entryAdded(Entry entry)
+  {
+    clientEntryChanged(entry, entry);
+  }
+
+  /**
+   * Invalidates the cached results if the provided entry, which has been
+   * modified, is a group, or removes the results of its DN which depend on
+   * its content. The modifications of the ancestors of the authorization
+   * DNs, for instance of the replication state of a base entry, do not
+   * affect the cached results.
+   *
+   * @param oldEntry
+   *          The entry before the modification.
+   * @param newEntry
+   *          The entry after the modification.
+   */
+  void entryModified(Entry oldEntry, Entry newEntry)
+  {
+    clientEntryChanged(oldEntry, newEntry);
+  }
+
+  private void clientEntryChanged(Entry oldEntry, Entry newEntry)
+  {
+    if (results.isEmpty())
+    {
+      return;
+    }
+    if (isGroup(oldEntry) || (newEntry != oldEntry && isGroup(newEntry)))
+    {
+      invalidate();
+      return;
+    }
+    final DN clientDN = newEntry.getName();
+    if (clientConnections.containsKey(clientDN))
+    {
+      removeClientResults(clientDN, DirectoryServer.getGroupManager().hasComputedGroupInstances(), true);
+    }
+  }
+
+  /**
+   * Invalidates the cached results if the provided entry, which has been
+   * deleted, is a group, or removes the results of the authorization DNs at
+   * or below it.
+   *
+   * @param entry
+   *          The entry which has been deleted.
+   */
+  void entryDeleted(Entry entry)
+  {
+    if (results.isEmpty())
+    {
+      return;
+    }
+    if (isGroup(entry))
+    {
+      invalidate();
+      return;
+    }
+    removeSubtreeResults(entry.getName());
+  }
+
+  /**
+   * Invalidates the cached results if the renamed subtree contains groups,
+   * or removes the results of the authorization DNs in the renamed subtree.
+   *
+   * @param fromDN
+   *          The DN of the entry before it was renamed.
+   * @param toDN
+   *          The DN of the entry after it was renamed.
+   */
+  void subtreeRenamed(DN fromDN, DN toDN)
+  {
+    if (results.isEmpty())
+    {
+      return;
+    }
+    if (hasGroupInstances(fromDN) || hasGroupInstances(toDN))
+    {
+      invalidate();
+      return;
+    }
+    removeSubtreeResults(fromDN);
+    removeSubtreeResults(toDN);
+  }
+
+  private boolean isGroup(Entry entry)
+  {
+    for (Group<?> groupImplementation : DirectoryServer.getGroupManager().getGroupImplementations())
+    {
+      if (groupImplementation.isGroupDefinition(entry))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean hasGroupInstances(DN baseDN)
+  {
+    for (Group<?> group : DirectoryServer.getGroupManager().getGroupInstances())
+    {
+      if (group.getGroupDN().isSubordinateOrEqualTo(baseDN))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void removeSubtreeResults(DN baseDN)
+  {
+    final Set<DN> clientDNs = clientDNsByAncestor.get(baseDN);
+    if (clientDNs != null)
+    {
+      // Copy since the removals update the index
+      for (DN clientDN : clientDNs.toArray(new DN[0]))
+      {
+        removeClientResults(clientDN, true, false);
+      }
+    }
+  }
+
+  /**
+   * Removes the cached results of the provided authorization DN, either all
+   * of them or only the ones which depend on the content of its entry.
+   */
+  private void removeClientResults(DN clientDN, boolean computedGroups, boolean onlyClientEntryDependent)
+  {
+    final Set<Long> connectionIDs = clientConnections.get(clientDN);
+    if (connectionIDs == null)
+    {
+      return;
+    }
+    generation.incrementAndGet();
+    for (Long connectionID : connectionIDs.toArray(new Long[0]))
+    {
+      final Map<Key, EnumEvalResult> connectionResults = results.get(connectionID);
+      if (connectionResults == null)
+      {
+        continue;
+      }
+      boolean hasOtherResults = false;
+      for (Iterator<Key> it = connectionResults.keySet().iterator(); it.hasNext();)
+      {
+        final Key key = it.next();
+        if (!key.clientDN.equals(clientDN))
+        {
+          continue;
+        }
+        if (onlyClientEntryDependent && !key.bindRule.dependsOnClientEntry(computedGroups))
+        {
+          hasOtherResults = true;
+          continue;
+        }
+        it.remove();
+        size.decrementAndGet();
+      }
+      if (!hasOtherResults)
+      {
+        removeClientConnection(clientDN, connectionID);
+      }
+    }
+  }
+
+  /**
+   * Records the duration of an access check.
+   *
+   * @param durationNanos
+   *          The duration of the access check, in nanoseconds.
+   */
+  void recordAccessCheck(long durationNanos)
+  {
+    accessChecks.increment();
+    accessCheckTimeNanos.add(durationNanos);
+  }
+
+  /**
+   * Returns the number of bind rule evaluations answered from the cache.
+   *
+   * @return the number of bind rule evaluations answered from the cache
+   */
+  public long getHitCount()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of bind rule evaluations not answered from the cache.
+   *
+   * @return the number of bind rule evaluations not answered from the cache
+   */
+  public long getMissCount()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the number of times the cache has been invalidated.
+   *
+   * @return the number of times the cache has been invalidated
+   */
+  public long getInvalidationCount()
+  {
+    return invalidations.sum();
+  }
+
+  /**
+   * Returns the number of results currently cached.
+   *
+   * @return the number of results currently cached
+   */
+  public int getSize()
+  {
+    return Math.max(size.get(), 0);
+  }
+
+  /**
+   * Returns the number of access checks performed.
+   *
+   * @return the number of access checks performed
+   */
+  public long getAccessCheckCount()
+  {
+    return accessChecks.sum();
+  }
+
+  /**
+   * Returns the total time spent in access checks.
+   *
+   * @param unit
+   *          the unit of the returned time
+   * @return the total time spent in access checks
+   */
+  public long getAccessCheckTime(TimeUnit unit)
+  {
+    return unit.convert(accessCheckTimeNanos.sum(), TimeUnit.NANOSECONDS);
+  }
+}
@@ -296,4 +296,19 @@ public interface AciEvalContext
      * @return The current SSF of the connection.
      */
     int getCurrentSSF();
+
+    /**
+     * Return the ID of the client connection.
+     *
+     * @return The ID of the client connection.
+     */
+    long getConnectionID();
+
+    /**
+     * Return the cache of the bind rule results of the client, if any.
+     *
+     * @return The cache of the bind rule results of the client, or
+     *         {@code null} if the bind rules must always be evaluated.
+     */
+    AciDecisionCache getDecisionCache();
 }
@@ -44,6 +44,7 @@ import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.ExtendedOperation;
 import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.SearchOperation;
+import org.opends.server.monitors.AccessControlHandlerMonitor;
 import org.opends.server.protocols.ldap.LDAPControl;
 import org.opends.server.types.Attribute;
 import org.opends.server.types.AttributeBuilder;
@@ -148,6 +149,12 @@ public final class AciHandler extends
    */
   private AciListenerManager aciListenerMgr;
 
+  /** The cache of the bind rule results which only depend on the client identity. */
+  private AciDecisionCache decisionCache;
+
+  /** The monitor of the access checks. */
+  private AccessControlHandlerMonitor monitor;
+
   /** Creates a new DSEE-compatible access control handler. */
   public AciHandler()
   {
@@ -180,10 +187,17 @@ public final class AciHandler extends
     }
   }
 
+  @Override
+  public void clientConnectionFinalized(ClientConnection clientConnection)
+  {
+    decisionCache.connectionFinalized(clientConnection.getConnectionID());
+  }
+
   @Override
   public void finalizeAccessControlHandler()
   {
     aciListenerMgr.finalizeListenerManager();
+    DirectoryServer.deregisterMonitorProvider(monitor);
     AciEffectiveRights.finalizeOnShutdown();
     DirectoryServer.deregisterSupportedControl(OID_GET_EFFECTIVE_RIGHTS);
   }
@@ -196,8 +210,12 @@ public final class AciHandler extends
     initStatics();
     DN configurationDN = configuration.dn();
     aciList = new AciList(configurationDN);
-    aciListenerMgr = new AciListenerManager(aciList, configurationDN);
+    decisionCache = new AciDecisionCache();
+    aciListenerMgr = new AciListenerManager(aciList, decisionCache, configurationDN);
     processGlobalAcis(configuration);
+    monitor = new AccessControlHandlerMonitor(decisionCache);
+    monitor.initializeMonitorProvider(null);
+    DirectoryServer.registerMonitorProvider(monitor);
     DirectoryServer.registerSupportedControl(OID_GET_EFFECTIVE_RIGHTS);
   }
 
@@ -477,6 +495,20 @@ public final class AciHandler extends
    * @return True if access is allowed.
    */
   boolean accessAllowed(AciContainer container)
+  {
+    final long startTime = System.nanoTime();
+    try
+    {
+      container.setDecisionCache(decisionCache);
+      return evaluateAccess(container);
+    }
+    finally
+    {
+      decisionCache.recordAccessCheck(System.nanoTime() - startTime);
+    }
+  }
+
+  private boolean evaluateAccess(AciContainer container)
   {
     DN dn = container.getResourceDN();
     // For ACI_WRITE_ADD and ACI_WRITE_DELETE set the ACI_WRITE
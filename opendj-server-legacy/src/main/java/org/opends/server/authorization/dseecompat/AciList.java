@@ -396,8 +396,9 @@ public class AciList {
    * interaction over the entire list is performed.
    * @param oldDN The DN of the original entry that was moved.
    * @param newDN The DN of the new entry.
+   * @return True if ACIs have been renamed.
    */
-  public void renameAci(DN oldDN, DN newDN ) {
+  public boolean renameAci(DN oldDN, DN newDN ) {
 
     lock.writeLock().lock();
     try
@@ -428,6 +429,7 @@ public class AciList {
         }
       }
       aciList.putAll(tempAciList);
+      return !tempAciList.isEmpty();
     }
     finally
     {
@@ -208,6 +208,11 @@ public class AciListenerManager implements
         List<LocalizableMessage> failedACIMsgs = new LinkedList<>();
 
         aciList.addAci(addedEntry, hasAci, hasGlobalAci, failedACIMsgs);
+        decisionCache.invalidate();
+      }
+      else
+      {
+        decisionCache.entryAdded(addedEntry);
       }
     }
 
@@ -218,12 +223,27 @@ public class AciListenerManager implements
               AciHandler.aciType);
       boolean hasGlobalAci = deletedEntry.hasAttribute(
               AciHandler.globalAciType);
-      aciList.removeAci(deletedEntry, hasAci, hasGlobalAci);
+      if (aciList.removeAci(deletedEntry, hasAci, hasGlobalAci))
+      {
+        decisionCache.invalidate();
+      }
+      else
+      {
+        decisionCache.entryDeleted(deletedEntry);
+      }
     }
 
     private void doPostModifyDN(DN fromDN, DN toDN)
     {
-      aciList.renameAci(fromDN, toDN);
+      // The renamed subtree may contain ACIs, groups or authorization entries
+      if (aciList.renameAci(fromDN, toDN))
+      {
+        decisionCache.invalidate();
+      }
+      else
+      {
+        decisionCache.subtreeRenamed(fromDN, toDN);
+      }
     }
 
     private void doPostModify(List<Modification> mods, Entry oldEntry,
@@ -256,6 +276,11 @@ public class AciListenerManager implements
       {
         aciList.modAciOldNewEntry(oldEntry, newEntry, hasAci,
             hasGlobalAci);
+        decisionCache.invalidate();
+      }
+      else
+      {
+        decisionCache.entryModified(oldEntry, newEntry);
       }
     }
   }
@@ -269,6 +294,9 @@ public class AciListenerManager implements
   /** The AciList caches the ACIs. */
   private final AciList aciList;
 
+  /** The cache of the bind rule results, invalidated by the ACI and group changes. */
+  private final AciDecisionCache decisionCache;
+
   /** Search filter used in context search for "aci" attribute types. */
   private final static SearchFilter aciFilter = buildAciFilter();
   private static SearchFilter buildAciFilter()
@@ -299,12 +327,15 @@ public class AciListenerManager implements
    *
    * @param aciList
    *          The list object created and loaded by the handler.
+   * @param decisionCache
+   *          The cache of the bind rule results created by the handler.
    * @param cfgDN
    *          The DN of the access control configuration entry.
    */
-  public AciListenerManager(AciList aciList, DN cfgDN)
+  public AciListenerManager(AciList aciList, AciDecisionCache decisionCache, DN cfgDN)
   {
     this.aciList = aciList;
+    this.decisionCache = decisionCache;
     this.configurationDN = cfgDN;
     this.plugin = new AciChangeListenerPlugin();
 
@@ -399,6 +430,7 @@ public class AciListenerManager implements
         logger.debug(INFO_ACI_ADD_LIST_ACIS, validAcis, baseDN);
       }
     }
+    decisionCache.invalidate();
   }
 
   /**
@@ -411,6 +443,7 @@ public class AciListenerManager implements
   public void performBackendPostFinalizationProcessing(LocalBackend<?> backend)
   {
     aciList.removeAci(backend);
+    decisionCache.invalidate();
   }
 
   @Override
@@ -19,8 +19,6 @@ package org.opends.server.authorization.dseecompat;
 import static org.opends.messages.AccessControlMessages.*;
 import static org.opends.server.authorization.dseecompat.Aci.*;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,8 +26,18 @@ import org.forgerock.i18n.LocalizableMessage;
 
 /** This class represents a single bind rule of an ACI permission-bind rule pair. */
 public class BindRule {
-    /** This hash table holds the keyword bind rule mapping. */
-    private final Map<String, KeywordBindRule> keywordRuleMap = new HashMap<>();
+    /** The keyword bind rule of a simple bind rule, {@code null} for complex bind rules. */
+    private final KeywordBindRule keywordRule;
+
+    /**
+     * True if the result of this bind rule only depends on the client identity and connection,
+     * and can be cached in a {@link AciDecisionCache}.
+     */
+    private final boolean identityOnly;
+    /** True if this bind rule matches the client entry against userdn URL filters. */
+    private final boolean filtersClientEntry;
+    /** True if this bind rule checks the membership of the client in groups. */
+    private final boolean checksGroups;
 
     /** True is a boolean "not" was seen. */
     private boolean negate;
@@ -73,7 +81,7 @@ public class BindRule {
     /**
      * Constructor that takes an keyword enumeration and corresponding
      * simple bind rule. The keyword string is the key for the keyword rule in
-     * the keywordRuleMap. This is a simple bind rule representation:
+     * the keyword rule. This is a simple bind rule representation:
 
      * keyword  op  rule
      *
@@ -86,10 +94,30 @@ public class BindRule {
      */
     private BindRule(EnumBindRuleKeyword keyword, KeywordBindRule rule) {
         this.keyword=keyword;
-        this.keywordRuleMap.put(keyword.toString(), rule);
+        this.keywordRule = rule;
         this.booleanType = null;
         this.left = null;
         this.right = null;
+        this.identityOnly = isIdentityOnly(keyword, rule);
+        this.filtersClientEntry = keyword == EnumBindRuleKeyword.USERDN && ((UserDN) rule).hasURLFilter();
+        this.checksGroups = keyword == EnumBindRuleKeyword.GROUPDN;
+    }
+
+    /**
+     * Returns whether the result of a keyword bind rule only depends on the client identity and connection.
+     * The time based, the resource entry based and the authentication based bind rules are excluded.
+     */
+    private static boolean isIdentityOnly(EnumBindRuleKeyword keyword, KeywordBindRule rule) {
+        switch (keyword) {
+        case USERDN:
+            return ((UserDN) rule).isIdentityOnly();
+        case GROUPDN:
+        case IP:
+        case DNS:
+            return true;
+        default:
+            return false;
+        }
     }
 
     /*
@@ -127,9 +155,25 @@ public class BindRule {
      */
     private BindRule(BindRule left, BindRule right, EnumBooleanTypes booleanType) {
         this.keyword = null;
+        this.keywordRule = null;
         this.booleanType = booleanType;
         this.left = left;
         this.right = right;
+        this.identityOnly = left.identityOnly && right.identityOnly;
+        this.filtersClientEntry = left.filtersClientEntry || right.filtersClientEntry;
+        this.checksGroups = left.checksGroups || right.checksGroups;
+    }
+
+    /**
+     * Returns whether the result of this bind rule may depend on the content
+     * of the client entry, and not only on its DN: the userdn URL filters and
+     * the member URLs of the dynamic groups are matched against it.
+     * @param computedGroups True if some groups compute their members, as
+     * the dynamic groups do.
+     * @return True if the result may depend on the content of the client entry.
+     */
+    boolean dependsOnClientEntry(boolean computedGroups) {
+        return filtersClientEntry || (computedGroups && checksGroups);
     }
 
     /*
@@ -451,20 +495,35 @@ public class BindRule {
     }
 
     /**
-     * Evaluate an bind rule against an evaluation context. If it is a simple
-     * bind rule (no boolean type) then grab the keyword rule from the map
-     * table and call the corresponding evaluate function. If it is a
-     * complex rule call the routine above "evalComplex()".
+     * Evaluate an bind rule against an evaluation context. If the bind rule
+     * only depends on the client identity and connection, its result is
+     * looked up in the decision cache of the evaluation context, if any.
      * @param evalCtx The evaluation context to pass to the keyword
      * evaluation function.
      * @return An result enumeration containing the result of the evaluation.
      */
     public EnumEvalResult evaluate(AciEvalContext evalCtx) {
+        final AciDecisionCache decisionCache = evalCtx.getDecisionCache();
+        if (identityOnly && decisionCache != null) {
+            return decisionCache.evaluate(this, evalCtx);
+        }
+        return evaluateUncached(evalCtx);
+    }
+
+    /**
+     * Evaluate an bind rule against an evaluation context, without looking up
+     * the decision cache. If it is a simple bind rule (no boolean type) then
+     * call the evaluate function of the keyword rule. If it is a
+     * complex rule call the routine above "evalComplex()".
+     * @param evalCtx The evaluation context to pass to the keyword
+     * evaluation function.
+     * @return An result enumeration containing the result of the evaluation.
+     */
+    EnumEvalResult evaluateUncached(AciEvalContext evalCtx) {
         EnumEvalResult ret;
         //Simple bind rules have a null booleanType enumeration.
         if(this.booleanType == null) {
-            KeywordBindRule rule=keywordRuleMap.get(keyword.toString());
-            ret = rule.evaluate(evalCtx);
+            ret = keywordRule.evaluate(evalCtx);
         } else {
             ret = evalComplex(left.evaluate(evalCtx),right.evaluate(evalCtx));
         }
@@ -486,11 +545,9 @@ public class BindRule {
      *          should be appended.
      */
     public final void toString(StringBuilder buffer) {
-        if (this.keywordRuleMap != null) {
-            for (KeywordBindRule rule : this.keywordRuleMap.values()) {
-                rule.toString(buffer);
-                buffer.append(";");
-            }
+        if (this.keywordRule != null) {
+            this.keywordRule.toString(buffer);
+            buffer.append(";");
         }
     }
 }
@@ -183,6 +183,37 @@ public class UserDN implements KeywordBindRule {
         return matched.getRet(type, undefined);
     }
 
+    /**
+     * Returns whether the evaluation of this userdn bind rule only depends
+     * on the client identity, and not on the resource entry as the
+     * "ldap:///self" and "ldap:///parent" URLs do.
+     * @return True if the evaluation only depends on the client identity.
+     */
+    boolean isIdentityOnly() {
+        for (UserDNTypeURL dnTypeURL : urlList) {
+            if (dnTypeURL.getUserDNType() == EnumUserDNType.SELF
+                || dnTypeURL.getUserDNType() == EnumUserDNType.PARENT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether this userdn bind rule matches the client entry against
+     * the filter of an URL, so that its evaluation depends on the content of
+     * the client entry and not only on its DN.
+     * @return True if one of the URLs has a filter.
+     */
+    boolean hasURLFilter() {
+        for (UserDNTypeURL dnTypeURL : urlList) {
+            if (dnTypeURL.getUserDNType() == EnumUserDNType.URL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Performs an evaluation of a single UserDNTypeURL of a userdn bind
      * rule using the evaluation context provided. This method is called
@@ -215,7 +246,7 @@ public class UserDN implements KeywordBindRule {
                 DN parentDN = resDN.parent();
                 return parentDN != null && parentDN.equals(clientDN);
             case DNPATTERN:
-                return evalDNPattern(evalCtx, url);
+                return evalDNPattern(evalCtx, dnTypeURL);
             case DN:
                 return evalDN(clientDN, url);
             default:
@@ -256,18 +287,12 @@ public class UserDN implements KeywordBindRule {
     /**
      * This method evaluates a DN pattern userdn expression.
      * @param evalCtx  The evaluation context to use.
-     * @param url The LDAP URL containing the pattern.
+     * @param dnTypeURL The URL containing the pattern.
      * @return An enumeration evaluation result.
      */
-    private boolean evalDNPattern(AciEvalContext evalCtx, LDAPURL url) {
-        PatternDN pattern;
-        try {
-          pattern = PatternDN.decode(url.getRawBaseDN());
-        } catch (DirectoryException ex) {
-          return false;
-        }
-
-        return pattern.matchesDN(evalCtx.getClientDN());
+    private boolean evalDNPattern(AciEvalContext evalCtx, UserDNTypeURL dnTypeURL) {
+        PatternDN pattern = dnTypeURL.getPattern();
+        return pattern != null && pattern.matchesDN(evalCtx.getClientDN());
     }
 
 
@@ -16,6 +16,7 @@
  */
 package org.opends.server.authorization.dseecompat;
 
+import org.opends.server.types.DirectoryException;
 import org.opends.server.types.LDAPURL;
 
 /**
@@ -28,6 +29,11 @@ public class UserDNTypeURL {
     private final EnumUserDNType dnType;
     /** The URL value. Maybe a dummy value for types such as ANYONE or SELF. */
     private final LDAPURL url;
+    /**
+     * The DN pattern of the URL, decoded once for the DNPATTERN type. Null for the
+     * other types or if the pattern is not valid.
+     */
+    private final PatternDN pattern;
 
     /**
      * Create a class representing the "userdn" URL decoded by the
@@ -39,6 +45,15 @@ public class UserDNTypeURL {
     UserDNTypeURL(EnumUserDNType dnType, LDAPURL url) {
         this.url=url;
         this.dnType=dnType;
+        this.pattern = dnType == EnumUserDNType.DNPATTERN ? decodePattern(url) : null;
+    }
+
+    private static PatternDN decodePattern(LDAPURL url) {
+        try {
+            return PatternDN.decode(url.getRawBaseDN());
+        } catch (DirectoryException ex) {
+            return null;
+        }
     }
 
     /**
@@ -55,4 +70,13 @@ public class UserDNTypeURL {
     public LDAPURL getURL() {
         return this.url;
     }
+
+    /**
+     * Returns the DN pattern of a DNPATTERN URL.
+     * @return The DN pattern decoded from the URL, or null if the URL is not
+     * of the DNPATTERN type or if its pattern is not valid.
+     */
+    PatternDN getPattern() {
+        return this.pattern;
+    }
 }
@@ -42,6 +42,8 @@ public class RebuildConfig
   private final List<String> rebuildList = new ArrayList<>();
   private String tmpDirectory;
   private boolean isClearDegradedState;
+  private boolean isOnlineRebuild;
+  private int maxEntriesPerSecond;
 
   /**
    * Get the base DN to rebuild.
@@ -228,4 +230,52 @@ public class RebuildConfig
     this.isClearDegradedState = isClearDegradedState;
   }
 
+  /**
+   * Returns {@code true} if the indexes should be rebuilt while the backend
+   * remains online, without degrading them while they are rebuilt.
+   *
+   * @return {@code true} if the indexes should be rebuilt online.
+   */
+  public boolean isOnlineRebuild()
+  {
+    return isOnlineRebuild;
+  }
+
+  /**
+   * Sets the 'online rebuild' status.
+   *
+   * @param isOnlineRebuild
+   *          {@code true} if the indexes should be rebuilt while the backend
+   *          remains online.
+   */
+  public void setOnlineRebuild(boolean isOnlineRebuild)
+  {
+    this.isOnlineRebuild = isOnlineRebuild;
+  }
+
+  /**
+   * Returns the maximum number of entries processed per second by an online
+   * rebuild.
+   *
+   * @return The maximum number of entries processed per second, or 0 if
+   *         there is no limit.
+   */
+  public int getMaxEntriesPerSecond()
+  {
+    return maxEntriesPerSecond;
+  }
+
+  /**
+   * Sets the maximum number of entries processed per second by an online
+   * rebuild.
+   *
+   * @param maxEntriesPerSecond
+   *          The maximum number of entries processed per second, or 0 if
+   *          there is no limit.
+   */
+  public void setMaxEntriesPerSecond(int maxEntriesPerSecond)
+  {
+    this.maxEntriesPerSecond = maxEntriesPerSecond;
+  }
+
 }
@@ -291,6 +291,8 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
   private IndexingOptions indexingOptions;
   private final State state;
   private final CryptoSuite cryptoSuite;
+  /** The cardinality statistics used for planning the evaluation of search filters. */
+  private final IndexStatistics statistics = new IndexStatistics();
 
   AttributeIndex(BackendIndexCfg config, State state, EntryContainer entryContainer, CryptoSuite cryptoSuite)
       throws ConfigException
@@ -940,6 +942,7 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
       config = newConfiguration;
       indexingOptions = newIndexingOptions;
       indexIdToIndexes = Collections.unmodifiableMap(newIndexIdToIndexes);
+      statistics.clear();
 
       // We get exclusive lock to ensure that no query is actually using the indexes that will be deleted.
       entryContainer.lock();
@@ -1067,6 +1070,11 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     return indexIdToIndexes;
   }
 
+  IndexStatistics getStatistics()
+  {
+    return statistics;
+  }
+
   /**
    * Retrieve the entry IDs that might match an extensible filter.
    *
@@ -42,6 +42,7 @@ import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.server.config.server.PluggableBackendCfg;
 import org.forgerock.util.Reject;
+import org.opends.server.api.CompressedSchema;
 import org.opends.server.api.LocalBackend;
 import org.opends.server.api.MonitorProvider;
 import org.opends.server.backends.RebuildConfig;
@@ -323,6 +324,13 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends LocalBa
     return -1;
   }
 
+  @Override
+  public CompressedSchema getCompressedSchema()
+  {
+    final RootContainer rc = rootContainer;
+    return rc != null ? rc.getCompressedSchema() : super.getCompressedSchema();
+  }
+
   @Override
   public ConditionResult hasSubordinates(DN entryDN) throws DirectoryException
   {
@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -102,7 +103,7 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
   @Override
   public MonitorData getMonitorData()
   {
-    MonitorData monitorAttrs = new MonitorData(5);
+    MonitorData monitorAttrs = new MonitorData(11);
 
     Collection<String> needReindexValues = createNeedReindexValues();
     if (!needReindexValues.isEmpty())
@@ -118,6 +119,23 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
       monitorAttrs.add("filter-use-unindexed", unindexedSearchCount);
     }
 
+    final WriteCombiner writeCombiner = rootContainer.getWriteCombiner();
+    final long batchCount = writeCombiner.getBatchCount();
+    monitorAttrs.add("write-batch-count", batchCount);
+    monitorAttrs.add("write-batch-operations", writeCombiner.getBatchedOperationCount());
+    monitorAttrs.add("write-batch-average-size",
+        batchCount > 0 ? (double) writeCombiner.getBatchedOperationCount() / batchCount : 0D);
+    monitorAttrs.add("write-batch-fallbacks", writeCombiner.getFallbackCount());
+    monitorAttrs.add("write-batch-pending", writeCombiner.getPendingWriteCount());
+    monitorAttrs.add("write-batch-average-commit-time",
+        batchCount > 0 ? writeCombiner.getCommitTime(TimeUnit.MICROSECONDS) / 1000D / batchCount : 0D);
+
+    Collection<String> onlineIndexRebuildValues = createOnlineIndexRebuildValues();
+    if (!onlineIndexRebuildValues.isEmpty())
+    {
+      monitorAttrs.add("online-index-rebuild", onlineIndexRebuildValues);
+    }
+
     return monitorAttrs;
   }
 
@@ -137,6 +155,16 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
     return values;
   }
 
+  private Collection<String> createOnlineIndexRebuildValues()
+  {
+    Collection<String> values = new ArrayList<>();
+    for (OnlineIndexRebuilder rebuilder : rootContainer.getOnlineIndexRebuilders())
+    {
+      values.add(rebuilder.toString());
+    }
+    return values;
+  }
+
   private List<String> createFilterUseValues()
   {
     List<String> values = new ArrayList<>();
@@ -30,6 +30,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -42,6 +43,7 @@ import org.forgerock.opendj.server.config.server.BackendCfg;
 import org.forgerock.opendj.server.config.server.PluggableBackendCfg;
 import org.forgerock.util.Option;
 import org.forgerock.util.Options;
+import org.opends.server.api.CompressedSchema;
 import org.opends.server.api.LocalBackend;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
@@ -232,6 +234,7 @@ public class BackendStat
   private static final String LIST_BASE_DNS = "list-base-dns";
   private static final String LIST_INDEXES = "list-indexes";
   private static final String SHOW_INDEX_STATUS = "show-index-status";
+  private static final String SHOW_COMPRESSION_STATS = "show-compression-stats";
   private static final String DUMP_INDEX = "dump-index";
   private static final String LIST_RAW_DBS = "list-raw-dbs";
   private static final String DUMP_RAW_DB = "dump-raw-db";
@@ -392,6 +395,11 @@ public class BackendStat
       showIndexStatus.setDocDescriptionSupplement(SUPPLEMENT_DESCRIPTION_BACKEND_TOOL_SUBCMD_LIST_INDEX_STATUS.get());
       addBackendBaseDNArguments(showIndexStatus, true, true);
 
+      // show-compression-stats
+      final SubCommand showCompressionStats = new SubCommand(
+              parser, SHOW_COMPRESSION_STATS, INFO_DESCRIPTION_BACKEND_TOOL_SUBCMD_SHOW_COMPRESSION_STATS.get());
+      addBackendBaseDNArguments(showCompressionStats, true, false);
+
       // dump-index
       final SubCommand dumpIndex = new SubCommand(
               parser, DUMP_INDEX, INFO_DESCRIPTION_BACKEND_TOOL_SUBCMD_DUMP_INDEX.get());
@@ -618,6 +626,8 @@ public class BackendStat
         return dumpTree(rootContainer, backend, subCommand, true);
       case SHOW_INDEX_STATUS:
         return showIndexStatus(rootContainer, backend, subCommand.getArgument(BASEDN_NAME));
+      case SHOW_COMPRESSION_STATS:
+        return showCompressionStats(rootContainer, backend, subCommand.getArgument(BASEDN_NAME));
       default:
         return 1;
       }
@@ -1090,6 +1100,88 @@ public class BackendStat
     }
   }
 
+  /** Statistics about the entries compressed with a given compression. */
+  private static final class CompressionStats
+  {
+    private long recordCount;
+    private long storedSize;
+    private long uncompressedSize;
+    private long decodeTimeNanos;
+  }
+
+  private int showCompressionStats(final RootContainer rc, BackendImpl<?> backend, Argument baseDNArg)
+      throws DirectoryException
+  {
+    DN base = getBaseDNFromArg(baseDNArg);
+    final EntryContainer ec = rc.getEntryContainer(base);
+    if (ec == null)
+    {
+      return printEntryContainerError(backend, base);
+    }
+
+    final Map<String, CompressionStats> statsByCompression = new TreeMap<>();
+    try
+    {
+      rc.getStorage().read(new ReadOperation<Void>()
+      {
+        @Override
+        public Void run(ReadableTransaction txn) throws Exception
+        {
+          final ID2Entry id2entry = ec.getID2Entry();
+          final CompressedSchema compressedSchema = rc.getCompressedSchema();
+          try (Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
+          {
+            while (cursor.next())
+            {
+              final ByteString value = cursor.getValue();
+              final String compression = ID2Entry.getCompressionName(value);
+              CompressionStats stats = statsByCompression.get(compression);
+              if (stats == null)
+              {
+                stats = new CompressionStats();
+                statsByCompression.put(compression, stats);
+              }
+              final long startTime = System.nanoTime();
+              id2entry.entryFromDatabase(value, compressedSchema);
+              stats.decodeTimeNanos += System.nanoTime() - startTime;
+              stats.recordCount++;
+              stats.storedSize += value.length();
+              stats.uncompressedSize += ID2Entry.getUncompressedLength(value);
+            }
+          }
+          return null;
+        }
+      });
+    }
+    catch (Exception e)
+    {
+      printWrappedText(err, ERR_BACKEND_TOOL_ERROR_READING_TREE.get(stackTraceToSingleLineString(e)));
+      return 1;
+    }
+
+    TableBuilder builder = new TableBuilder();
+    builder.appendHeading(INFO_LABEL_BACKEND_TOOL_COMPRESSION.get());
+    builder.appendHeading(INFO_LABEL_BACKEND_DEBUG_RECORD_COUNT.get());
+    builder.appendHeading(INFO_LABEL_BACKEND_TOOL_STORED_SIZE.get());
+    builder.appendHeading(INFO_LABEL_BACKEND_TOOL_UNCOMPRESSED_SIZE.get());
+    builder.appendHeading(INFO_LABEL_BACKEND_TOOL_COMPRESSION_RATIO.get());
+    builder.appendHeading(INFO_LABEL_BACKEND_TOOL_AVERAGE_DECODE_TIME.get());
+    for (Map.Entry<String, CompressionStats> e : statsByCompression.entrySet())
+    {
+      final CompressionStats stats = e.getValue();
+      builder.startRow();
+      builder.appendCell(e.getKey());
+      builder.appendCell(stats.recordCount);
+      builder.appendCell(stats.storedSize);
+      builder.appendCell(stats.uncompressedSize);
+      builder.appendCell(String.format("%.2f", (double) stats.uncompressedSize / Math.max(1, stats.storedSize)));
+      builder.appendCell(String.format("%.1f", stats.decodeTimeNanos / 1000.0 / stats.recordCount));
+    }
+    builder.print(new TextTablePrinter(out));
+    out.print(INFO_LABEL_BACKEND_TOOL_TOTAL.get(statsByCompression.size()).toString());
+    return 0;
+  }
+
   private void appendStatsNoData(TableBuilder builder, int columns)
   {
     while (columns > 0)
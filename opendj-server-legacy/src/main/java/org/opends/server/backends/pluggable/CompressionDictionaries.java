@@ -0,0 +1,154 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+
+/**
+ * Represents the tree containing the dictionaries used for compressing the entries of the id2entry tree.
+ * The key is the dictionary ID and the value is the dictionary contents.
+ * <p>
+ * Dictionaries are never modified once stored since the compressed entries reference them by ID. All the dictionaries
+ * are cached in memory, they are small and must be available for decoding any entry.
+ */
+class CompressionDictionaries extends AbstractTree
+{
+  /** The dictionary ID written in the records compressed without a dictionary. */
+  static final int NO_DICTIONARY = 0;
+
+  private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+  /** The ID of the dictionary to use for compressing new records. */
+  private volatile int currentID = NO_DICTIONARY;
+
+  CompressionDictionaries(TreeName name)
+  {
+    super(name);
+  }
+
+  @Override
+  void afterOpen(WriteableTransaction txn, boolean createOnDemand) throws StorageRuntimeException
+  {
+    dictionaries.clear();
+    int highestID = NO_DICTIONARY;
+    try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(getName()))
+    {
+      while (cursor.next())
+      {
+        final int id = cursor.getKey().toInt();
+        dictionaries.put(id, cursor.getValue().toByteArray());
+        highestID = Math.max(highestID, id);
+      }
+    }
+    catch (StorageRuntimeException e)
+    {
+      if (createOnDemand)
+      {
+        throw e;
+      }
+      // Backends written by previous versions have no dictionaries tree: it cannot be created in read-only mode.
+    }
+    currentID = highestID;
+  }
+
+  @Override
+  void beforeDelete(WriteableTransaction txn) throws StorageRuntimeException
+  {
+    // Entries written from now on must not reference the deleted dictionaries.
+    currentID = NO_DICTIONARY;
+    dictionaries.clear();
+  }
+
+  /**
+   * Returns the ID of the dictionary to use for compressing new records.
+   *
+   * @return the ID of the dictionary to use for compressing new records, or {@link #NO_DICTIONARY}
+   */
+  int getCurrentID()
+  {
+    return currentID;
+  }
+
+  /**
+   * Returns the dictionary having the provided ID.
+   *
+   * @param id
+   *          the dictionary ID
+   * @return the dictionary having the provided ID, or {@code null} if there is none
+   */
+  byte[] get(int id)
+  {
+    return id != NO_DICTIONARY ? dictionaries.get(id) : null;
+  }
+
+  /**
+   * Stores a new dictionary. The dictionary is not used until {@link #install(int, byte[])} is called, which must
+   * only happen once the transaction is committed: records must never reference a dictionary missing from the
+   * storage.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param dictionary
+   *          the dictionary contents
+   * @return the ID of the new dictionary
+   * @throws StorageRuntimeException
+   *           If an error occurs in the storage.
+   */
+  int add(WriteableTransaction txn, byte[] dictionary) throws StorageRuntimeException
+  {
+    final int id = currentID + 1;
+    txn.put(getName(), ByteString.valueOfInt(id), ByteString.wrap(dictionary));
+    return id;
+  }
+
+  /**
+   * Makes a dictionary stored by a committed transaction the one used for compressing new records.
+   *
+   * @param id
+   *          the dictionary ID returned by {@link #add(WriteableTransaction, byte[])}
+   * @param dictionary
+   *          the dictionary contents
+   */
+  void install(int id, byte[] dictionary)
+  {
+    dictionaries.put(id, dictionary);
+    currentID = id;
+  }
+
+  @Override
+  public String keyToString(ByteString key)
+  {
+    return Integer.toString(key.toInt());
+  }
+
+  @Override
+  public String valueToString(ByteString value)
+  {
+    return value.length() + " bytes";
+  }
+
+  @Override
+  public ByteString generateKey(String key)
+  {
+    return ByteString.valueOfInt(Integer.parseInt(key));
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Trains compression dictionaries from a sample of encoded entries.
+ * <p>
+ * This is a simplified version of the COVER algorithm: the samples are cut into fixed size segments, each segment being
+ * scored by the number of samples containing each of its 8 bytes sequences (d-mers). Segments are then greedily picked
+ * by decreasing score, the d-mers of a picked segment no longer contributing to the score of the remaining ones so
+ * that the dictionary does not contain the same content twice. The best segments are written last in the dictionary
+ * because compressors reference the end of the dictionary more cheaply.
+ */
+final class CompressionDictionaryTrainer
+{
+  /** Size of the sequences whose frequency is measured. Exactly fits in a long. */
+  private static final int DMER_SIZE = 8;
+  private static final int SEGMENT_SIZE = 64;
+  /** Segments are considered every {@code SEGMENT_STEP} bytes of the samples. */
+  private static final int SEGMENT_STEP = SEGMENT_SIZE / 4;
+
+  /** A candidate segment of the dictionary. */
+  private static final class Segment implements Comparable<Segment>
+  {
+    private final byte[] sample;
+    private final int offset;
+    private final int length;
+    private long score;
+
+    private Segment(byte[] sample, int offset, int length)
+    {
+      this.sample = sample;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int compareTo(Segment o)
+    {
+      // Highest scores first
+      return Long.compare(o.score, score);
+    }
+  }
+
+  private final List<byte[]> samples = new ArrayList<>();
+  private final Map<Long, Integer> frequencies = new HashMap<>();
+
+  /**
+   * Adds a sample of the data to compress.
+   *
+   * @param sample
+   *          the sample, typically an encoded entry
+   */
+  void addSample(ByteStringBuilder sample)
+  {
+    final byte[] bytes = sample.toByteArray();
+    samples.add(bytes);
+    final Set<Long> dmers = new HashSet<>();
+    for (int i = 0; i + DMER_SIZE <= bytes.length; i++)
+    {
+      final Long dmer = readDmer(bytes, i);
+      if (dmers.add(dmer))
+      {
+        final Integer frequency = frequencies.get(dmer);
+        frequencies.put(dmer, frequency != null ? frequency + 1 : 1);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of samples added so far.
+   *
+   * @return the number of samples added so far
+   */
+  int getSampleCount()
+  {
+    return samples.size();
+  }
+
+  /**
+   * Trains a dictionary from the samples added so far.
+   *
+   * @param maxSize
+   *          the maximum size of the dictionary
+   * @return the dictionary, which is empty if the samples have nothing in common
+   */
+  byte[] train(int maxSize)
+  {
+    final PriorityQueue<Segment> candidates = new PriorityQueue<>();
+    for (byte[] sample : samples)
+    {
+      for (int offset = 0; offset + DMER_SIZE <= sample.length; offset += SEGMENT_STEP)
+      {
+        final Segment segment = new Segment(sample, offset, Math.min(SEGMENT_SIZE, sample.length - offset));
+        segment.score = score(segment);
+        if (segment.score > 0)
+        {
+          candidates.add(segment);
+        }
+      }
+    }
+
+    final List<Segment> selected = new ArrayList<>();
+    int size = 0;
+    while (size < maxSize && !candidates.isEmpty())
+    {
+      // Scores only ever decrease: lazily recompute the score of the best candidate,
+      // and only select it if it is still better than the next candidate.
+      final Segment best = candidates.poll();
+      best.score = score(best);
+      if (best.score == 0)
+      {
+        continue;
+      }
+      final Segment next = candidates.peek();
+      if (next != null && best.score < next.score)
+      {
+        candidates.add(best);
+        continue;
+      }
+      selected.add(best);
+      size += best.length;
+      for (int i = best.offset; i + DMER_SIZE <= best.offset + best.length; i++)
+      {
+        frequencies.remove(readDmer(best.sample, i));
+      }
+    }
+
+    final ByteStringBuilder dictionary = new ByteStringBuilder(size);
+    for (int i = selected.size() - 1; i >= 0; i--)
+    {
+      final Segment segment = selected.get(i);
+      dictionary.appendBytes(segment.sample, segment.offset, segment.length);
+    }
+    // The last selected segment may not entirely fit: truncate the least valuable bytes.
+    return dictionary.subSequence(Math.max(0, size - maxSize), size).toByteArray();
+  }
+
+  /** Only d-mers occurring in several samples are worth being in the dictionary. */
+  private long score(Segment segment)
+  {
+    long score = 0;
+    final Set<Long> seen = new HashSet<>();
+    for (int i = segment.offset; i + DMER_SIZE <= segment.offset + segment.length; i++)
+    {
+      final Long dmer = readDmer(segment.sample, i);
+      final Integer frequency = frequencies.get(dmer);
+      if (frequency != null && frequency > 1 && seen.add(dmer))
+      {
+        score += frequency;
+      }
+    }
+    return score;
+  }
+
+  private static long readDmer(byte[] bytes, int index)
+  {
+    long dmer = 0;
+    for (int i = index; i < index + DMER_SIZE; i++)
+    {
+      dmer = (dmer << 8) | (bytes[i] & 0xFF);
+    }
+    return dmer;
+  }
+}
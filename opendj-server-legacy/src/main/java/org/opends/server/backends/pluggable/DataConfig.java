@@ -33,6 +33,8 @@ final class DataConfig
   static final class Builder
   {
     private boolean compressed;
+    private EntryCompressor compressor = EntryCompressors.DEFLATE;
+    private int dictionarySize;
     private boolean encrypted;
     private boolean compactEncoding;
     private CompressedSchema compressedSchema;
@@ -55,6 +57,18 @@ final class DataConfig
       return this;
     }
 
+    public Builder compressor(EntryCompressor compressor)
+    {
+      this.compressor = compressor;
+      return this;
+    }
+
+    public Builder dictionarySize(int size)
+    {
+      this.dictionarySize = size;
+      return this;
+    }
+
     public Builder encrypt(boolean enabled)
     {
       this.encrypted = enabled;
@@ -80,6 +94,10 @@ final class DataConfig
   }
   /** Indicates whether data should be compressed before writing to the storage. */
   private final boolean compressed;
+  /** The compressor to use when data is compressed. */
+  private final EntryCompressor compressor;
+  /** The maximum size of the trained compression dictionaries, 0 if dictionaries are disabled. */
+  private final int dictionarySize;
 
   /** The configuration to use when encoding entries in the tree. */
   private final EntryEncodeConfig encodeConfig;
@@ -95,6 +113,8 @@ final class DataConfig
   private DataConfig(Builder builder)
   {
     this.compressed = builder.compressed;
+    this.compressor = builder.compressor;
+    this.dictionarySize = builder.dictionarySize;
     this.encrypted = builder.encrypted;
     this.cryptoSuite = builder.cryptoSuite;
 
@@ -115,6 +135,16 @@ final class DataConfig
     return compressed;
   }
 
+  EntryCompressor getCompressor()
+  {
+    return compressor;
+  }
+
+  int getDictionarySize()
+  {
+    return dictionarySize;
+  }
+
   boolean isEncrypted()
   {
     return encrypted;
@@ -136,6 +166,13 @@ final class DataConfig
     final StringBuilder builder = new StringBuilder();
     builder.append("DataConfig(compressed=");
     builder.append(compressed);
+    if (compressed)
+    {
+      builder.append(", compressor=");
+      builder.append(compressor.getName());
+      builder.append(", dictionarySize=");
+      builder.append(dictionarySize);
+    }
     builder.append(", encrypted=");
     builder.append(encrypted);
     builder.append(", ");
@@ -22,6 +22,7 @@ import static org.opends.server.backends.pluggable.EntryIDSet.*;
 import static org.opends.server.backends.pluggable.State.IndexFlag.*;
 
 import java.util.EnumSet;
+import java.util.Set;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteSequence;
@@ -47,6 +48,9 @@ class DefaultIndex extends AbstractTree implements Index
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** Suffix of the name of the shadow tree in which an online rebuild builds the new content of an index. */
+  private static final String SHADOW_INDEX_SUFFIX = "#rebuild";
+
   private final State state;
   private final EntryContainer entryContainer;
   /** The limit on the number of entry IDs that may be indexed by one key. */
@@ -67,6 +71,16 @@ class DefaultIndex extends AbstractTree implements Index
    */
   private volatile boolean trusted;
 
+  /**
+   * Whether this index is the shadow index of an online rebuild. Its keys are built while the entries
+   * are scanned, so removing entry IDs from a missing key is expected.
+   */
+  private final boolean isShadow;
+  /** The shadow index of the online rebuild of this index, or {@code null} if it is not being rebuilt online. */
+  private volatile DefaultIndex shadowIndex;
+  /** Records the keys updated in this index, or {@code null} if they are not recorded. */
+  private volatile Set<ByteString> updatedKeys;
+
   /**
    * Create a new index object.
    *
@@ -84,19 +98,72 @@ class DefaultIndex extends AbstractTree implements Index
    */
   DefaultIndex(TreeName name, State state, int indexEntryLimit, EntryContainer entryContainer, CryptoSuite cryptoSuite)
       throws StorageRuntimeException
+  {
+    this(name, state, indexEntryLimit, entryContainer, cryptoSuite, false);
+  }
+
+  private DefaultIndex(TreeName name, State state, int indexEntryLimit, EntryContainer entryContainer,
+      CryptoSuite cryptoSuite, boolean isShadow)
   {
     super(name);
     this.indexEntryLimit = indexEntryLimit;
     this.state = state;
     this.entryContainer = entryContainer;
     this.cryptoSuite = cryptoSuite;
+    this.isShadow = isShadow;
+  }
+
+  /**
+   * Creates the shadow index in which an online rebuild builds the new content of this index. The
+   * shadow index must be opened before being used.
+   *
+   * @return the shadow index of this index
+   */
+  final DefaultIndex newShadowIndex()
+  {
+    final TreeName name = getName();
+    return new DefaultIndex(new TreeName(name.getBaseDN(), name.getIndexId() + SHADOW_INDEX_SUFFIX),
+        state, indexEntryLimit, entryContainer, cryptoSuite, true);
+  }
+
+  /**
+   * Returns the shadow index to which the index buffers also apply the changes of this index.
+   *
+   * @return the shadow index of the online rebuild of this index, or {@code null}
+   */
+  final DefaultIndex getShadowIndex()
+  {
+    return shadowIndex;
+  }
+
+  /**
+   * Sets the shadow index to which the index buffers also apply the changes of this index. Must be
+   * called while no write operation is in progress.
+   *
+   * @param shadowIndex
+   *          the shadow index of the online rebuild of this index, or {@code null}
+   */
+  final void setShadowIndex(DefaultIndex shadowIndex)
+  {
+    this.shadowIndex = shadowIndex;
+  }
+
+  /**
+   * Records the keys updated from now on in this index into the provided set.
+   *
+   * @param updatedKeys
+   *          the thread safe set recording the updated keys, or {@code null} to stop recording them
+   */
+  final void setUpdatedKeys(Set<ByteString> updatedKeys)
+  {
+    this.updatedKeys = updatedKeys;
   }
 
   @Override
   final void afterOpen(WriteableTransaction txn, boolean createOnDemand)
   {
     final EnumSet<IndexFlag> flags = state.getIndexFlags(txn, getName());
-    codec = flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+    codec = getCodec(flags);
     if (cryptoSuite.isEncrypted())
     {
       codec = new EntryIDSet.EntryIDSetCodecV3(codec, cryptoSuite);
@@ -110,6 +177,15 @@ class DefaultIndex extends AbstractTree implements Index
     }
   }
 
+  private static EntryIDSetCodec getCodec(EnumSet<IndexFlag> flags)
+  {
+    if (flags.contains(BITMAP))
+    {
+      return CODEC_V4;
+    }
+    return flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+  }
+
   @Override
   public String valueToString(ByteString value)
   {
@@ -175,6 +251,12 @@ class DefaultIndex extends AbstractTree implements Index
       return;
     }
 
+    final Set<ByteString> keys = updatedKeys;
+    if (keys != null)
+    {
+      keys.add(key);
+    }
+
     /*
      * Avoid taking a write lock on a record which has hit all IDs because it is likely to be a
      * point of contention.
@@ -202,7 +284,7 @@ class DefaultIndex extends AbstractTree implements Index
         }
         else if (trusted)
         {
-          if (deletedIDs != null)
+          if (deletedIDs != null && !isShadow)
           {
             logIndexCorruptError(txn, key);
           }
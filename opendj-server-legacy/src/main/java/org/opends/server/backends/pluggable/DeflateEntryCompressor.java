@@ -0,0 +1,150 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compresses entries with the zlib flavor of Deflate, using the dictionary as a preset dictionary. The output is the
+ * same as the one of {@link java.util.zip.DeflaterOutputStream} when no dictionary is used.
+ */
+final class DeflateEntryCompressor implements EntryCompressor
+{
+  private static final int BUFFER_SIZE = 4096;
+
+  /** Deflater and inflater are expensive to create, and their native memory is only released when finalized. */
+  private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>()
+  {
+    @Override
+    protected Deflater initialValue()
+    {
+      return new Deflater();
+    }
+  };
+  private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>()
+  {
+    @Override
+    protected Inflater initialValue()
+    {
+      return new Inflater();
+    }
+  };
+  private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>()
+  {
+    @Override
+    protected byte[] initialValue()
+    {
+      return new byte[BUFFER_SIZE];
+    }
+  };
+
+  private final byte id;
+
+  DeflateEntryCompressor(byte id)
+  {
+    this.id = id;
+  }
+
+  @Override
+  public byte getID()
+  {
+    return id;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "deflate";
+  }
+
+  @Override
+  public void compress(byte[] input, int length, byte[] dictionary, ByteStringBuilder output)
+  {
+    final Deflater deflater = DEFLATERS.get();
+    final byte[] buffer = BUFFERS.get();
+    deflater.reset();
+    try
+    {
+      if (dictionary != null)
+      {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(input, 0, length);
+      deflater.finish();
+      while (!deflater.finished())
+      {
+        output.appendBytes(buffer, 0, deflater.deflate(buffer));
+      }
+    }
+    finally
+    {
+      deflater.reset();
+    }
+  }
+
+  @Override
+  public void decompress(byte[] input, int offset, int length, byte[] dictionary, byte[] output)
+      throws DataFormatException
+  {
+    final Inflater inflater = INFLATERS.get();
+    inflater.reset();
+    try
+    {
+      inflater.setInput(input, offset, length);
+      int position = 0;
+      while (position < output.length)
+      {
+        final int inflated = inflater.inflate(output, position, output.length - position);
+        if (inflated == 0)
+        {
+          if (!inflater.needsDictionary() || dictionary == null)
+          {
+            throw new DataFormatException("Truncated compressed entry, or missing dictionary");
+          }
+          setDictionary(inflater, dictionary);
+        }
+        position += inflated;
+      }
+    }
+    finally
+    {
+      inflater.reset();
+    }
+  }
+
+  private static void setDictionary(Inflater inflater, byte[] dictionary) throws DataFormatException
+  {
+    try
+    {
+      inflater.setDictionary(dictionary);
+    }
+    catch (IllegalArgumentException e)
+    {
+      // The checksum of the dictionary does not match the one expected by the compressed data
+      throw new DataFormatException("Wrong dictionary for the compressed entry");
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getName();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.zip.DataFormatException;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compresses the encoded entries stored in the id2entry tree.
+ * <p>
+ * Each compressor is identified by an ID which is written in every record it has compressed, so that records remain
+ * readable whatever the compressor currently configured for the backend. Compressors may optionally be primed with a
+ * dictionary trained from the backend contents, which greatly improves the compression ratio of small entries.
+ * Implementations must be thread-safe.
+ */
+interface EntryCompressor
+{
+  /**
+   * Returns the ID written in the records compressed by this compressor. IDs must never be reused.
+   *
+   * @return the ID written in the records compressed by this compressor
+   */
+  byte getID();
+
+  /**
+   * Returns the name of this compressor, as displayed by tools.
+   *
+   * @return the name of this compressor
+   */
+  String getName();
+
+  /**
+   * Compresses the provided bytes.
+   *
+   * @param input
+   *          the bytes to compress
+   * @param length
+   *          the number of bytes to compress, starting at index 0
+   * @param dictionary
+   *          the dictionary to use, or {@code null} when compressing without a dictionary
+   * @param output
+   *          where the compressed bytes are appended
+   */
+  void compress(byte[] input, int length, byte[] dictionary, ByteStringBuilder output);
+
+  /**
+   * Decompresses the provided bytes.
+   *
+   * @param input
+   *          the compressed bytes
+   * @param offset
+   *          the index of the first compressed byte
+   * @param length
+   *          the number of compressed bytes
+   * @param dictionary
+   *          the dictionary which was used for compressing, or {@code null} if none was used
+   * @param output
+   *          where the decompressed bytes are written, sized to the exact length of the decompressed data
+   * @throws DataFormatException
+   *           if the compressed bytes are corrupted or do not decompress to the expected length
+   */
+  void decompress(byte[] input, int offset, int length, byte[] dictionary, byte[] output) throws DataFormatException;
+}
@@ -0,0 +1,72 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import org.forgerock.opendj.server.config.meta.PluggableBackendCfgDefn.EntriesCompressionAlgorithm;
+
+/** Registry of the available {@link EntryCompressor}s. */
+final class EntryCompressors
+{
+  /** Deflate, as also used by the entries written before compressors became pluggable. */
+  static final EntryCompressor DEFLATE = new DeflateEntryCompressor((byte) 0x01);
+  /** LZ4, favoring speed over compression ratio. */
+  static final EntryCompressor LZ4 = new LZ4EntryCompressor((byte) 0x02);
+
+  private static final EntryCompressor[] COMPRESSORS = { DEFLATE, LZ4 };
+
+  private EntryCompressors()
+  {
+    // Prevent instantiation.
+  }
+
+  /**
+   * Returns the compressor having the provided ID.
+   *
+   * @param id
+   *          the ID read from a record
+   * @return the compressor having the provided ID, or {@code null} if there is none
+   */
+  static EntryCompressor forID(byte id)
+  {
+    for (EntryCompressor compressor : COMPRESSORS)
+    {
+      if (compressor.getID() == id)
+      {
+        return compressor;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the compressor implementing the provided configured algorithm.
+   *
+   * @param algorithm
+   *          the configured algorithm
+   * @return the compressor implementing the provided configured algorithm
+   */
+  static EntryCompressor forAlgorithm(EntriesCompressionAlgorithm algorithm)
+  {
+    switch (algorithm)
+    {
+    case LZ4:
+      return LZ4;
+    case DEFLATE:
+    default:
+      return DEFLATE;
+    }
+  }
+}
@@ -19,6 +19,7 @@ package org.opends.server.backends.pluggable;
 
 import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.backends.pluggable.CompressionDictionaries.NO_DICTIONARY;
 import static org.opends.server.backends.pluggable.DnKeyFormat.*;
 import static org.opends.server.backends.pluggable.IndexFilter.*;
 import static org.opends.server.backends.pluggable.VLVIndex.*;
@@ -37,6 +38,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -66,6 +68,9 @@ import org.opends.server.api.EntryCache;
 import org.opends.server.api.VirtualAttributeProvider;
 import org.opends.server.api.plugin.PluginResult.SubordinateDelete;
 import org.opends.server.api.plugin.PluginResult.SubordinateModifyDN;
+import org.opends.server.backends.pluggable.ParallelSearchExecutor.CandidateBatch;
+import org.opends.server.backends.pluggable.ParallelSearchExecutor.CandidateEvaluator;
+import org.opends.server.backends.pluggable.ParallelSearchExecutor.ParallelSearch;
 import org.opends.server.backends.pluggable.spi.AccessMode;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
@@ -124,6 +129,10 @@ public class EntryContainer
   private static final String REFERRAL_TREE_NAME = REFERRAL_INDEX_NAME;
   /** The name of the state tree. */
   private static final String STATE_TREE_NAME = STATE_INDEX_NAME;
+  /** The name of the compression dictionaries tree. */
+  private static final String DICTIONARIES_TREE_NAME = COMPRESSION_DICTIONARIES_INDEX_NAME;
+  /** The maximum number of entries sampled for training a compression dictionary. */
+  private static final int DICTIONARY_TRAINING_SAMPLES = 1000;
 
   /** The attribute index configuration manager. */
   private final AttributeIndexCfgManager attributeIndexCfgManager;
@@ -151,6 +160,8 @@ public class EntryContainer
   private final DN2URI dn2uri;
   /** The state tree maps a config DN to config entries. */
   private final State state;
+  /** The dictionaries tree maps a dictionary ID to the dictionary used for compressing entries. */
+  private final CompressionDictionaries dictionaries;
 
   /** The set of attribute indexes. */
   private final Map<AttributeType, AttributeIndex> attrIndexMap = new HashMap<>();
@@ -361,6 +372,7 @@ public class EntryContainer
     this.dn2id = new DN2ID(getIndexName(DN2ID_TREE_NAME), baseDN);
     this.dn2uri = new DN2URI(getIndexName(REFERRAL_TREE_NAME), this);
     this.state = new State(getIndexName(STATE_TREE_NAME));
+    this.dictionaries = new CompressionDictionaries(getIndexName(DICTIONARIES_TREE_NAME));
 
     config.addPluggableChangeListener(this);
 
@@ -388,6 +400,8 @@ public class EntryContainer
   {
     return new DataConfig.Builder()
         .compress(config.isEntriesCompressed())
+        .compressor(EntryCompressors.forAlgorithm(config.getEntriesCompressionAlgorithm()))
+        .dictionarySize((int) config.getEntriesCompressionDictionarySize())
         .encode(config.isCompactEncoding())
         .encrypt(config.isConfidentialityEnabled())
         .cryptoSuite(serverContext.getCryptoManager().newCryptoSuite(config.getCipherTransformation(),
@@ -414,12 +428,14 @@ public class EntryContainer
     boolean shouldCreate = accessMode.isWriteable();
     try
     {
-      id2entry = new ID2Entry(getIndexName(ID2ENTRY_TREE_NAME), newDataConfig(config));
+      final DataConfig dataConfig = newDataConfig(config);
+      id2entry = new ID2Entry(getIndexName(ID2ENTRY_TREE_NAME), dataConfig, dictionaries);
       id2entry.open(txn, shouldCreate);
       id2childrenCount.open(txn, shouldCreate);
       dn2id.open(txn, shouldCreate);
       state.open(txn, shouldCreate);
       dn2uri.open(txn, shouldCreate);
+      dictionaries.open(txn, shouldCreate);
 
       final boolean isNotEmpty = !isEmpty(txn);
       for (String idx : config.listBackendIndexes())
@@ -459,6 +475,113 @@ public class EntryContainer
     }
   }
 
+  /**
+   * Trains in the background a compression dictionary from a sample of the entries, unless compression does not use
+   * dictionaries, a dictionary has already been trained or there are no entries. The entries are sampled in a read
+   * transaction, and only the trained dictionary is stored, in its own short write transaction. The dictionary is only
+   * used for compressing new entries once this transaction is committed. Failures are logged since entries can be
+   * compressed without dictionary.
+   */
+  void trainCompressionDictionaryIfNeeded()
+  {
+    if (isCompressionDictionaryNeeded())
+    {
+      rootContainer.executeInBackground(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          trainCompressionDictionary();
+        }
+      });
+    }
+  }
+
+  private boolean isCompressionDictionaryNeeded()
+  {
+    final DataConfig dataConfig = id2entry.getDataConfig();
+    return dataConfig.isCompressed()
+        && dataConfig.getDictionarySize() != 0
+        && dictionaries.getCurrentID() == NO_DICTIONARY;
+  }
+
+  private void trainCompressionDictionary()
+  {
+    // The configuration may have changed, or a dictionary may have been trained, since this training was requested
+    if (!isCompressionDictionaryNeeded())
+    {
+      return;
+    }
+
+    try
+    {
+      final DataConfig dataConfig = id2entry.getDataConfig();
+      final CompressionDictionaryTrainer trainer = new CompressionDictionaryTrainer();
+      final boolean isSampled = storage.read(new ReadOperation<Boolean>()
+      {
+        @Override
+        public Boolean run(ReadableTransaction txn) throws Exception
+        {
+          return !isEmpty(txn) && sampleEntries(txn, dataConfig, trainer);
+        }
+      });
+      if (!isSampled)
+      {
+        return;
+      }
+      final byte[] dictionary = trainer.train(dataConfig.getDictionarySize());
+      if (dictionary.length == 0 || Thread.currentThread().isInterrupted())
+      {
+        return;
+      }
+
+      final AtomicInteger dictionaryID = new AtomicInteger(NO_DICTIONARY);
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          dictionaryID.set(dictionaries.add(txn, dictionary));
+        }
+      });
+      dictionaries.install(dictionaryID.get(), dictionary);
+      logger.info(NOTE_BACKEND_COMPRESSION_DICTIONARY_TRAINED,
+          dictionary.length, trainer.getSampleCount(), baseDN, dictionaryID.get());
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.warn(WARN_BACKEND_COMPRESSION_DICTIONARY_TRAINING_FAILED, baseDN, stackTraceToSingleLineString(e));
+    }
+  }
+
+  /** Returns whether the entries were sampled, {@code false} if the backend was closed meanwhile. */
+  private boolean sampleEntries(ReadableTransaction txn, DataConfig dataConfig,
+      CompressionDictionaryTrainer trainer) throws Exception
+  {
+    final ByteStringBuilder sample = new ByteStringBuilder();
+    final long highestID = getHighestEntryID(txn).longValue();
+    final long step = Math.max(1, highestID / DICTIONARY_TRAINING_SAMPLES);
+    try (Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
+    {
+      // Sample entries evenly spread across the whole tree
+      long entryID = 0;
+      while (cursor.positionToKeyOrNext(new EntryID(entryID).toByteString()))
+      {
+        if (Thread.currentThread().isInterrupted())
+        {
+          return false;
+        }
+        final Entry entry = id2entry.entryFromDatabase(cursor.getValue(), rootContainer.getCompressedSchema());
+        sample.clear();
+        entry.encode(sample, dataConfig.getEntryEncodeConfig());
+        trainer.addSample(sample);
+        entryID = new EntryID(cursor.getKey()).longValue() + step;
+      }
+    }
+    return true;
+  }
+
   boolean isEmpty(ReadableTransaction txn)
   {
     return getHighestEntryID(txn).longValue() == 0;
@@ -1148,6 +1271,17 @@ public class EntryContainer
       // Initialize the cursor very close to the starting value.
       boolean success = cursor.positionToKeyOrNext(begin);
 
+      if (rootContainer.getParallelSearchExecutor().isParallelSearchEnabled(
+          getNotIndexedCandidatesCount(txn, aBaseDN, searchScope)))
+      {
+        if (searchNotIndexedInParallel(cursor, success, baseDNKey, afterLastChild, searchOperation, pageRequest))
+        {
+          // Indicate no more pages.
+          addPagedResultsControl(searchOperation, pageRequest, null);
+        }
+        return;
+      }
+
       // Step forward until we pass the ending value.
       while (success && cursor.getKey().compareTo(afterLastChild) < 0)
       {
@@ -1208,6 +1342,161 @@ public class EntryContainer
     addPagedResultsControl(searchOperation, pageRequest, null);
   }
 
+  /**
+   * Returns an upper bound of the number of entries evaluated by a search which is not indexed: the number of
+   * children of the base entry for a one level search, or the number of entries of this entry container otherwise.
+   */
+  private int getNotIndexedCandidatesCount(ReadableTransaction txn, DN aBaseDN, SearchScope searchScope)
+  {
+    final long count;
+    if (searchScope == SearchScope.SINGLE_LEVEL)
+    {
+      final EntryID baseID = dn2id.get(txn, aBaseDN);
+      count = baseID != null ? id2childrenCount.getCount(txn, baseID) : 0;
+    }
+    else
+    {
+      count = id2childrenCount.getTotalCount(txn);
+    }
+    return (int) Math.min(count, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Evaluates the candidate entries of a non indexed search in parallel, and returns the matching
+   * entries in the order of the DN tree.
+   *
+   * @return {@code false} if the search must end without processing the remaining candidates
+   */
+  private boolean searchNotIndexedInParallel(Cursor<ByteString, ByteString> cursor, boolean success,
+      ByteString baseDNKey, ByteSequence afterLastChild, SearchOperation searchOperation,
+      PagedResultsControl pageRequest) throws DirectoryException, CanceledOperationException
+  {
+    final boolean singleLevel = searchOperation.getScope() == SearchScope.SINGLE_LEVEL;
+    int lookthroughCount = 0;
+    int lookthroughLimit = searchOperation.getClientConnection().getLookthroughLimit();
+    boolean hasMoreCandidates = success && cursor.getKey().compareTo(afterLastChild) < 0;
+
+    // The scope of the candidates is checked with their DN keys, so every candidate is in scope.
+    try (ParallelSearch parallelSearch = rootContainer.getParallelSearchExecutor().newSearch(
+        newCandidateEvaluator(searchOperation, true)))
+    {
+      while (hasMoreCandidates || parallelSearch.hasPendingBatches())
+      {
+        while (hasMoreCandidates && parallelSearch.canSubmit())
+        {
+          final CandidateBatch batch = new CandidateBatch(pageRequest != null);
+          while (hasMoreCandidates && !batch.isFull())
+          {
+            // Check if this entry is an immediate child if the search scope is single level.
+            if (!singleLevel || findDNKeyParent(cursor.getKey()) == baseDNKey.length())
+            {
+              batch.add(new EntryID(cursor.getValue()).longValue(), cursor.getKey());
+            }
+            hasMoreCandidates = cursor.next() && cursor.getKey().compareTo(afterLastChild) < 0;
+          }
+          if (batch.size > 0)
+          {
+            parallelSearch.submit(batch);
+          }
+        }
+        if (!parallelSearch.hasPendingBatches())
+        {
+          break;
+        }
+
+        final CandidateBatch batch = parallelSearch.take();
+        for (int i = 0; i < batch.size; i++)
+        {
+          if (lookthroughLimit > 0 && lookthroughCount > lookthroughLimit)
+          {
+            // Lookthrough limit exceeded
+            searchOperation.setResultCode(ResultCode.ADMIN_LIMIT_EXCEEDED);
+            searchOperation.appendErrorMessage(NOTE_LOOKTHROUGH_LIMIT_EXCEEDED.get(lookthroughLimit));
+            return false;
+          }
+          if (batch.found[i])
+          {
+            lookthroughCount++;
+          }
+
+          final Entry entry = batch.matchingEntries[i];
+          if (entry != null)
+          {
+            if (isPageFull(searchOperation, pageRequest))
+            {
+              // Set the cookie to remember where we were.
+              addPagedResultsControl(searchOperation, pageRequest, batch.cookies[i]);
+              return false;
+            }
+
+            if (!searchOperation.returnEntry(entry, null))
+            {
+              // We have been told to discontinue processing of the search.
+              // This could be due to size limit exceeded or operation cancelled
+              return false;
+            }
+          }
+        }
+
+        searchOperation.checkIfCanceled(false);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns an evaluator fetching candidate entries and matching them against the scope and the
+   * filter of the provided search.
+   */
+  private CandidateEvaluator newCandidateEvaluator(final SearchOperation searchOperation,
+      final boolean candidatesAreInScope)
+  {
+    final SearchScope searchScope = searchOperation.getScope();
+    final DN aBaseDN = searchOperation.getBaseDN();
+    final boolean manageDsaIT = isManageDsaITOperation(searchOperation);
+    final SearchFilter filter = searchOperation.getFilter();
+    return new CandidateEvaluator()
+    {
+      @Override
+      public void evaluate(final CandidateBatch batch) throws Exception
+      {
+        // Transactions are bound to the thread which opened them, so each batch is read in its own.
+        storage.read(new ReadOperation<Void>()
+        {
+          @Override
+          public Void run(ReadableTransaction txn) throws Exception
+          {
+            for (int i = 0; i < batch.size; i++)
+            {
+              final Entry entry;
+              try
+              {
+                entry = getEntry(txn, new EntryID(batch.entryIDs[i]));
+              }
+              catch (Exception e)
+              {
+                logger.traceException(e);
+                continue;
+              }
+
+              if (entry != null)
+              {
+                batch.found[i] = true;
+                if (isInScope(candidatesAreInScope, searchScope, aBaseDN, entry)
+                    && (manageDsaIT || entry.getReferralURLs() == null)
+                    && filter.matchesEntry(entry))
+                {
+                  batch.matchingEntries[i] = entry;
+                }
+              }
+            }
+            return null;
+          }
+        });
+      }
+    };
+  }
+
   private boolean isPageFull(SearchOperation searchOperation, PagedResultsControl pageRequest)
   {
     return pageRequest != null && searchOperation.getEntriesSent() == pageRequest.getSize();
@@ -1316,10 +1605,19 @@ public class EntryContainer
     }
 
     // Iterate through the index candidates.
-    if (continueSearch)
+    final int startIndex = findStartIndex(beginEntryID, entryIDReorderedSet);
+    if (continueSearch
+        && rootContainer.getParallelSearchExecutor().isParallelSearchEnabled(entryIDReorderedSet.length - startIndex))
+    {
+      if (!searchIndexedInParallel(entryIDReorderedSet, startIndex, candidatesAreInScope, searchOperation, pageRequest))
+      {
+        return;
+      }
+    }
+    else if (continueSearch)
     {
       final SearchFilter filter = searchOperation.getFilter();
-      for (int i = findStartIndex(beginEntryID, entryIDReorderedSet); i < entryIDReorderedSet.length; i++)
+      for (int i = startIndex; i < entryIDReorderedSet.length; i++)
       {
         EntryID entryID = new EntryID(entryIDReorderedSet[i]);
         Entry entry;
@@ -1374,6 +1672,59 @@ public class EntryContainer
     addPagedResultsControl(searchOperation, pageRequest, null);
   }
 
+  /**
+   * Evaluates the candidate entries of an indexed search in parallel, and returns the matching
+   * entries in the order of the candidates.
+   *
+   * @return {@code false} if the page of results is full
+   */
+  private boolean searchIndexedInParallel(long[] entryIDReorderedSet, int startIndex, boolean candidatesAreInScope,
+      SearchOperation searchOperation, PagedResultsControl pageRequest) throws DirectoryException,
+      CanceledOperationException
+  {
+    int nextCandidate = startIndex;
+    try (ParallelSearch parallelSearch = rootContainer.getParallelSearchExecutor().newSearch(
+        newCandidateEvaluator(searchOperation, candidatesAreInScope)))
+    {
+      while (nextCandidate < entryIDReorderedSet.length || parallelSearch.hasPendingBatches())
+      {
+        while (nextCandidate < entryIDReorderedSet.length && parallelSearch.canSubmit())
+        {
+          final CandidateBatch batch = new CandidateBatch(false);
+          while (nextCandidate < entryIDReorderedSet.length && !batch.isFull())
+          {
+            batch.add(entryIDReorderedSet[nextCandidate++], null);
+          }
+          parallelSearch.submit(batch);
+        }
+
+        final CandidateBatch batch = parallelSearch.take();
+        for (int i = 0; i < batch.size; i++)
+        {
+          final Entry entry = batch.matchingEntries[i];
+          if (entry != null)
+          {
+            if (isPageFull(searchOperation, pageRequest))
+            {
+              // Set the cookie to remember where we were.
+              addPagedResultsControl(searchOperation, pageRequest, new EntryID(batch.entryIDs[i]).toByteString());
+              return false;
+            }
+
+            if (!searchOperation.returnEntry(entry, null))
+            {
+              // We have been told to discontinue processing of the search.
+              // This could be due to size limit exceeded or operation cancelled
+              return true;
+            }
+          }
+        }
+        searchOperation.checkIfCanceled(false);
+      }
+    }
+    return true;
+  }
+
   private int findStartIndex(Long beginEntryID, long[] entryIDReorderedSet)
   {
     if (beginEntryID == null)
@@ -1453,7 +1804,7 @@ public class EntryContainer
 
     try
     {
-      storage.write(new WriteOperation()
+      rootContainer.getWriteCombiner().write(new WriteOperation()
       {
         @Override
         public void run(WriteableTransaction txn) throws Exception
@@ -1510,6 +1861,7 @@ public class EntryContainer
           }
         }
       });
+      indexBuffer.afterCommit();
     }
     catch (Exception e)
     {
@@ -1579,7 +1931,9 @@ public class EntryContainer
     final IndexBuffer indexBuffer = new IndexBuffer();
     try
     {
-      storage.write(new WriteOperation()
+      // Delete the subordinate entries in dn2id if requested.
+      final boolean isSubtreeDelete = deleteOperation.getRequestControl(SubtreeDeleteControl.DECODER) != null;
+      final WriteOperation deleteEntry = new WriteOperation()
       {
         @Override
         public void run(WriteableTransaction txn) throws Exception
@@ -1606,9 +1960,6 @@ public class EntryContainer
               }
             }
 
-            // Delete the subordinate entries in dn2id if requested.
-            final boolean isSubtreeDelete = deleteOperation.getRequestControl(SubtreeDeleteControl.DECODER) != null;
-
             /* draft-armijo-ldap-treedelete, 4.1 Tree Delete Semantics: The server MUST NOT chase referrals stored in
              * the tree. If information about referrals is stored in this section of the tree, this pointer will be
              * deleted.
@@ -1722,7 +2073,17 @@ public class EntryContainer
             }
           }
         }
-      });
+      };
+      if (isSubtreeDelete)
+      {
+        // Subtree deletes may be large and invoke plugins: commit them in their own transaction
+        storage.write(deleteEntry);
+      }
+      else
+      {
+        rootContainer.getWriteCombiner().write(deleteEntry);
+      }
+      indexBuffer.afterCommit();
     }
     catch (Exception e)
     {
@@ -1862,7 +2223,7 @@ public class EntryContainer
     final ByteString encodedNewEntry = id2entry.encode(newEntry);
     try
     {
-      storage.write(new WriteOperation()
+      rootContainer.getWriteCombiner().write(new WriteOperation()
       {
         @Override
         public void run(WriteableTransaction txn) throws Exception
@@ -1920,6 +2281,7 @@ public class EntryContainer
           }
         }
       });
+      indexBuffer.afterCommit();
     }
     catch (Exception e)
     {
@@ -2162,6 +2524,7 @@ public class EntryContainer
           return modifications;
         }
       });
+      indexBuffer.afterCommit();
     }
     catch (Exception e)
     {
@@ -2419,10 +2782,12 @@ public class EntryContainer
         @Override
         public void run(WriteableTransaction txn) throws Exception
         {
-          id2entry.setDataConfig(newDataConfig(cfg));
+          final DataConfig dataConfig = newDataConfig(cfg);
+          id2entry.setDataConfig(dataConfig);
           EntryContainer.this.config = cfg;
         }
       });
+      trainCompressionDictionaryIfNeeded();
       for (CryptoSuite indexCrypto : attrCryptoMap.values())
       {
         indexCrypto.newParameters(cfg.getCipherTransformation(), cfg.getCipherKeyLength(), indexCrypto.isEncrypted());
@@ -2477,6 +2842,7 @@ public class EntryContainer
     allTrees.add(dn2uri);
     allTrees.add(id2childrenCount);
     allTrees.add(state);
+    allTrees.add(dictionaries);
 
     for (AttributeIndex index : attrIndexMap.values())
     {
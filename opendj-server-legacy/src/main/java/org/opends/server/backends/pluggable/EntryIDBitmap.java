@@ -0,0 +1,1058 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Reject.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compressed bitmap of entry IDs, organized like a Roaring bitmap.
+ * <p>
+ * The 64 bits entry IDs are split into a high part (the upper 48 bits) used as a container key and a low part (the
+ * lower 16 bits) stored in the container. Containers are kept sorted by key. Sparse containers hold a sorted array of
+ * low parts, whereas dense containers hold a fixed size bitmap of 65536 bits. This allows in-place insertions and
+ * deletions which do not copy the whole set, and word-level intersections and unions of dense ranges.
+ * <p>
+ * This class is not thread safe.
+ */
+final class EntryIDBitmap
+{
+  /** Number of bits of an entry ID stored inside a container. */
+  private static final int CONTAINER_BITS = 16;
+  private static final int CONTAINER_MASK = (1 << CONTAINER_BITS) - 1;
+  /** Number of 64 bits words of a bitmap container. */
+  private static final int BITMAP_WORDS = (1 << CONTAINER_BITS) / Long.SIZE;
+  /** Maximum cardinality of an array container. Above this, a bitmap container takes less space. */
+  static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+  private static final byte ARRAY_CONTAINER = 0x00;
+  private static final byte BITMAP_CONTAINER = 0x01;
+
+  /** Container keys (upper bits of the entry IDs), in ascending order. */
+  private long[] keys;
+  private Container[] containers;
+  private int nbContainers;
+  private long cardinality;
+
+  /** Creates a new empty bitmap. */
+  EntryIDBitmap()
+  {
+    this(4);
+  }
+
+  private EntryIDBitmap(int initialCapacity)
+  {
+    this.keys = new long[initialCapacity];
+    this.containers = new Container[initialCapacity];
+  }
+
+  /**
+   * Creates a new bitmap holding the provided entry IDs.
+   *
+   * @param sortedIDs
+   *          entry IDs, in ascending order and without duplicates
+   * @return a new bitmap holding the provided entry IDs
+   */
+  static EntryIDBitmap valueOf(long[] sortedIDs)
+  {
+    checkNotNull(sortedIDs, "sortedIDs must not be null");
+    final EntryIDBitmap bitmap = new EntryIDBitmap();
+    int i = 0;
+    while (i < sortedIDs.length)
+    {
+      final long key = highBits(sortedIDs[i]);
+      int j = i + 1;
+      while (j < sortedIDs.length && highBits(sortedIDs[j]) == key)
+      {
+        j++;
+      }
+
+      final int count = j - i;
+      final Container container;
+      if (count <= ARRAY_CONTAINER_MAX_SIZE)
+      {
+        final char[] content = new char[count];
+        for (int k = 0; k < count; k++)
+        {
+          content[k] = lowBits(sortedIDs[i + k]);
+        }
+        container = new ArrayContainer(content, count);
+      }
+      else
+      {
+        final BitmapContainer bitmapContainer = new BitmapContainer();
+        for (int k = i; k < j; k++)
+        {
+          bitmapContainer.add(lowBits(sortedIDs[k]));
+        }
+        container = bitmapContainer;
+      }
+      bitmap.append(key, container);
+      i = j;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Decodes a bitmap previously encoded with {@link #encode(ByteStringBuilder)}.
+   *
+   * @param reader
+   *          the reader positioned at the beginning of the encoded bitmap
+   * @return the decoded bitmap
+   */
+  static EntryIDBitmap decode(ByteSequenceReader reader)
+  {
+    final int nbEncodedContainers = reader.readCompactUnsignedInt();
+    final EntryIDBitmap bitmap = new EntryIDBitmap(Math.max(nbEncodedContainers, 1));
+    long key = 0;
+    for (int i = 0; i < nbEncodedContainers; i++)
+    {
+      key += reader.readCompactUnsignedLong();
+      if (reader.readByte() == BITMAP_CONTAINER)
+      {
+        final long[] words = new long[BITMAP_WORDS];
+        int containerCardinality = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++)
+        {
+          words[w] = reader.readLong();
+          containerCardinality += Long.bitCount(words[w]);
+        }
+        bitmap.append(key, new BitmapContainer(words, containerCardinality));
+      }
+      else
+      {
+        final int containerCardinality = reader.readCompactUnsignedInt();
+        final char[] content = new char[containerCardinality];
+        int value = 0;
+        for (int k = 0; k < containerCardinality; k++)
+        {
+          value += reader.readCompactUnsignedInt();
+          content[k] = (char) value;
+        }
+        bitmap.append(key, new ArrayContainer(content, containerCardinality));
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * Encodes this bitmap. Container keys and array container values are delta-encoded with compact unsigned integers,
+   * bitmap containers are written as raw 64 bits words.
+   *
+   * @param builder
+   *          the builder where to append the encoded bitmap
+   * @return the provided builder
+   */
+  ByteStringBuilder encode(ByteStringBuilder builder)
+  {
+    builder.appendCompactUnsigned(nbContainers);
+    long previousKey = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      builder.appendCompactUnsigned(keys[i] - previousKey);
+      previousKey = keys[i];
+      containers[i].encode(builder);
+    }
+    return builder;
+  }
+
+  /**
+   * Returns an estimation of the number of bytes needed to encode this bitmap.
+   *
+   * @return an estimation of the number of bytes needed to encode this bitmap
+   */
+  int getEstimatedEncodedSize()
+  {
+    int size = ByteStringBuilder.MAX_COMPACT_SIZE;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      size += ByteStringBuilder.MAX_COMPACT_SIZE + 1 + containers[i].getEstimatedEncodedSize();
+    }
+    return size;
+  }
+
+  long cardinality()
+  {
+    return cardinality;
+  }
+
+  boolean isEmpty()
+  {
+    return cardinality == 0;
+  }
+
+  /**
+   * Returns the smallest entry ID of this bitmap.
+   *
+   * @return the smallest entry ID of this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long first()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return (keys[0] << CONTAINER_BITS) | containers[0].first();
+  }
+
+  /**
+   * Returns the greatest entry ID of this bitmap.
+   *
+   * @return the greatest entry ID of this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long last()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return (keys[nbContainers - 1] << CONTAINER_BITS) | containers[nbContainers - 1].last();
+  }
+
+  boolean contains(long id)
+  {
+    final int pos = indexOfKey(highBits(id));
+    return pos >= 0 && containers[pos].contains(lowBits(id));
+  }
+
+  boolean add(long id)
+  {
+    final long key = highBits(id);
+    int pos = indexOfKey(key);
+    if (pos < 0)
+    {
+      pos = -(pos + 1);
+      insertContainerAt(pos, key, new ArrayContainer());
+    }
+    final Container container = containers[pos];
+    final int before = container.cardinality();
+    containers[pos] = container.add(lowBits(id));
+    if (containers[pos].cardinality() != before)
+    {
+      cardinality++;
+      return true;
+    }
+    return false;
+  }
+
+  boolean remove(long id)
+  {
+    final int pos = indexOfKey(highBits(id));
+    if (pos < 0)
+    {
+      return false;
+    }
+    final Container container = containers[pos];
+    final int before = container.cardinality();
+    containers[pos] = container.remove(lowBits(id));
+    if (containers[pos].cardinality() == before)
+    {
+      return false;
+    }
+    cardinality--;
+    if (containers[pos].cardinality() == 0)
+    {
+      removeContainerAt(pos);
+    }
+    return true;
+  }
+
+  /**
+   * Retains only the entry IDs contained in the provided bitmap.
+   *
+   * @param other
+   *          the bitmap to intersect with. It is not modified.
+   */
+  void and(EntryIDBitmap other)
+  {
+    int newNbContainers = 0;
+    long newCardinality = 0;
+    for (int i = 0, j = 0; i < nbContainers && j < other.nbContainers;)
+    {
+      if (keys[i] < other.keys[j])
+      {
+        i++;
+      }
+      else if (keys[i] > other.keys[j])
+      {
+        j++;
+      }
+      else
+      {
+        final Container result = containers[i].and(other.containers[j]);
+        if (result.cardinality() > 0)
+        {
+          keys[newNbContainers] = keys[i];
+          containers[newNbContainers++] = result;
+          newCardinality += result.cardinality();
+        }
+        i++;
+        j++;
+      }
+    }
+    Arrays.fill(containers, newNbContainers, nbContainers, null);
+    nbContainers = newNbContainers;
+    cardinality = newCardinality;
+  }
+
+  /**
+   * Adds all the entry IDs contained in the provided bitmap.
+   *
+   * @param other
+   *          the bitmap to merge with. It is not modified.
+   */
+  void or(EntryIDBitmap other)
+  {
+    if (other.nbContainers == 0)
+    {
+      return;
+    }
+    final long[] newKeys = new long[nbContainers + other.nbContainers];
+    final Container[] newContainers = new Container[newKeys.length];
+    int n = 0;
+    long newCardinality = 0;
+    int i = 0, j = 0;
+    while (i < nbContainers || j < other.nbContainers)
+    {
+      final Container result;
+      if (j == other.nbContainers || (i < nbContainers && keys[i] < other.keys[j]))
+      {
+        newKeys[n] = keys[i];
+        result = containers[i++];
+      }
+      else if (i == nbContainers || keys[i] > other.keys[j])
+      {
+        newKeys[n] = other.keys[j];
+        result = other.containers[j++].copy();
+      }
+      else
+      {
+        newKeys[n] = keys[i];
+        result = containers[i++].or(other.containers[j++]);
+      }
+      newContainers[n++] = result;
+      newCardinality += result.cardinality();
+    }
+    keys = newKeys;
+    containers = newContainers;
+    nbContainers = n;
+    cardinality = newCardinality;
+  }
+
+  /**
+   * Removes all the entry IDs contained in the provided bitmap.
+   *
+   * @param other
+   *          the bitmap containing the entry IDs to remove. It is not modified.
+   */
+  void andNot(EntryIDBitmap other)
+  {
+    int newNbContainers = 0;
+    long newCardinality = 0;
+    for (int i = 0, j = 0; i < nbContainers; i++)
+    {
+      while (j < other.nbContainers && other.keys[j] < keys[i])
+      {
+        j++;
+      }
+      final Container result =
+          j < other.nbContainers && other.keys[j] == keys[i] ? containers[i].andNot(other.containers[j]) : containers[i];
+      if (result.cardinality() > 0)
+      {
+        keys[newNbContainers] = keys[i];
+        containers[newNbContainers++] = result;
+        newCardinality += result.cardinality();
+      }
+    }
+    Arrays.fill(containers, newNbContainers, nbContainers, null);
+    nbContainers = newNbContainers;
+    cardinality = newCardinality;
+  }
+
+  /**
+   * Returns a deep copy of this bitmap.
+   *
+   * @return a deep copy of this bitmap
+   */
+  EntryIDBitmap copy()
+  {
+    final EntryIDBitmap copy = new EntryIDBitmap(Math.max(nbContainers, 1));
+    for (int i = 0; i < nbContainers; i++)
+    {
+      copy.append(keys[i], containers[i].copy());
+    }
+    return copy;
+  }
+
+  /**
+   * Returns the entry IDs of this bitmap as a sorted array.
+   *
+   * @return a new array containing the entry IDs of this bitmap, in ascending order
+   */
+  long[] toArray()
+  {
+    final long[] ids = new long[(int) cardinality];
+    int offset = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      offset = containers[i].toArray(keys[i] << CONTAINER_BITS, ids, offset);
+    }
+    return ids;
+  }
+
+  Iterator<EntryID> iterator()
+  {
+    return new BitmapIterator();
+  }
+
+  private void append(long key, Container container)
+  {
+    ensureCapacity(nbContainers + 1);
+    keys[nbContainers] = key;
+    containers[nbContainers++] = container;
+    cardinality += container.cardinality();
+  }
+
+  private void insertContainerAt(int pos, long key, Container container)
+  {
+    ensureCapacity(nbContainers + 1);
+    System.arraycopy(keys, pos, keys, pos + 1, nbContainers - pos);
+    System.arraycopy(containers, pos, containers, pos + 1, nbContainers - pos);
+    keys[pos] = key;
+    containers[pos] = container;
+    nbContainers++;
+    cardinality += container.cardinality();
+  }
+
+  private void removeContainerAt(int pos)
+  {
+    System.arraycopy(keys, pos + 1, keys, pos, nbContainers - pos - 1);
+    System.arraycopy(containers, pos + 1, containers, pos, nbContainers - pos - 1);
+    containers[--nbContainers] = null;
+  }
+
+  private void ensureCapacity(int capacity)
+  {
+    if (capacity > keys.length)
+    {
+      final int newCapacity = Math.max(capacity, keys.length * 2);
+      keys = Arrays.copyOf(keys, newCapacity);
+      containers = Arrays.copyOf(containers, newCapacity);
+    }
+  }
+
+  private int indexOfKey(long key)
+  {
+    // Fast path for the most common case: IDs are allocated in ascending order.
+    if (nbContainers > 0 && keys[nbContainers - 1] == key)
+    {
+      return nbContainers - 1;
+    }
+    return Arrays.binarySearch(keys, 0, nbContainers, key);
+  }
+
+  private static long highBits(long id)
+  {
+    return id >>> CONTAINER_BITS;
+  }
+
+  private static char lowBits(long id)
+  {
+    return (char) (id & CONTAINER_MASK);
+  }
+
+  /** Iterates over the entry IDs of this bitmap in ascending order. */
+  private final class BitmapIterator implements Iterator<EntryID>
+  {
+    private int containerIndex;
+    private int nextLowBits;
+
+    BitmapIterator()
+    {
+      seek(0, 0);
+    }
+
+    private void seek(int fromContainer, int fromLowBits)
+    {
+      int from = fromLowBits;
+      for (int i = fromContainer; i < nbContainers; i++)
+      {
+        final int value = containers[i].nextValue(from);
+        if (value >= 0)
+        {
+          containerIndex = i;
+          nextLowBits = value;
+          return;
+        }
+        from = 0;
+      }
+      containerIndex = nbContainers;
+      nextLowBits = -1;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return nextLowBits >= 0;
+    }
+
+    @Override
+    public EntryID next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      final long id = (keys[containerIndex] << CONTAINER_BITS) | nextLowBits;
+      if (nextLowBits == CONTAINER_MASK)
+      {
+        seek(containerIndex + 1, 0);
+      }
+      else
+      {
+        seek(containerIndex, nextLowBits + 1);
+      }
+      return new EntryID(id);
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Holds the lower 16 bits of the entry IDs sharing the same upper bits. */
+  private abstract static class Container
+  {
+    abstract int cardinality();
+
+    abstract boolean contains(char value);
+
+    /** Returns the container holding the result: either this container or a new one with a better representation. */
+    abstract Container add(char value);
+
+    /** Returns the container holding the result: either this container or a new one with a better representation. */
+    abstract Container remove(char value);
+
+    /** Returns a new container, this container and the provided one are left untouched. */
+    abstract Container and(Container other);
+
+    /** Returns a new container, this container and the provided one are left untouched. */
+    abstract Container or(Container other);
+
+    /** Returns either this container or a new one. The provided container is left untouched. */
+    abstract Container andNot(Container other);
+
+    abstract Container copy();
+
+    abstract int first();
+
+    abstract int last();
+
+    /** Returns the smallest value greater or equal to the provided one, or -1 if there is none. */
+    abstract int nextValue(int from);
+
+    abstract int toArray(long high, long[] dest, int offset);
+
+    abstract void encode(ByteStringBuilder builder);
+
+    abstract int getEstimatedEncodedSize();
+  }
+
+  /** Sparse container storing a sorted array of values. */
+  private static final class ArrayContainer extends Container
+  {
+    private char[] content;
+    private int cardinality;
+
+    ArrayContainer()
+    {
+      this(new char[4], 0);
+    }
+
+    ArrayContainer(char[] content, int cardinality)
+    {
+      this.content = content;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return Arrays.binarySearch(content, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      int pos;
+      if (cardinality == 0 || value > content[cardinality - 1])
+      {
+        pos = cardinality;
+      }
+      else
+      {
+        pos = Arrays.binarySearch(content, 0, cardinality, value);
+        if (pos >= 0)
+        {
+          // The value is already present.
+          return this;
+        }
+        pos = -(pos + 1);
+      }
+
+      if (cardinality == ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().add(value);
+      }
+      if (cardinality == content.length)
+      {
+        content = Arrays.copyOf(content, Math.min(Math.max(4, cardinality * 2), ARRAY_CONTAINER_MAX_SIZE));
+      }
+      System.arraycopy(content, pos, content, pos + 1, cardinality - pos);
+      content[pos] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value)
+    {
+      final int pos = Arrays.binarySearch(content, 0, cardinality, value);
+      if (pos >= 0)
+      {
+        System.arraycopy(content, pos + 1, content, pos, cardinality - pos - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    Container and(Container other)
+    {
+      final char[] result = new char[Math.min(cardinality, other.cardinality())];
+      int count = 0;
+      if (other instanceof ArrayContainer)
+      {
+        final ArrayContainer that = (ArrayContainer) other;
+        for (int i = 0, j = 0; i < cardinality && j < that.cardinality;)
+        {
+          if (content[i] < that.content[j])
+          {
+            i++;
+          }
+          else if (content[i] > that.content[j])
+          {
+            j++;
+          }
+          else
+          {
+            result[count++] = content[i];
+            i++;
+            j++;
+          }
+        }
+      }
+      else
+      {
+        for (int i = 0; i < cardinality && count < result.length; i++)
+        {
+          if (other.contains(content[i]))
+          {
+            result[count++] = content[i];
+          }
+        }
+      }
+      return new ArrayContainer(result, count);
+    }
+
+    @Override
+    Container or(Container other)
+    {
+      if (other instanceof BitmapContainer)
+      {
+        return other.or(this);
+      }
+
+      final ArrayContainer that = (ArrayContainer) other;
+      if (cardinality + that.cardinality > ARRAY_CONTAINER_MAX_SIZE)
+      {
+        final BitmapContainer result = toBitmapContainer();
+        for (int j = 0; j < that.cardinality; j++)
+        {
+          result.add(that.content[j]);
+        }
+        return result.cardinality() > ARRAY_CONTAINER_MAX_SIZE ? result : result.toArrayContainer();
+      }
+
+      final char[] result = new char[cardinality + that.cardinality];
+      int i = 0, j = 0, count = 0;
+      while (i < cardinality && j < that.cardinality)
+      {
+        if (content[i] < that.content[j])
+        {
+          result[count++] = content[i++];
+        }
+        else if (content[i] > that.content[j])
+        {
+          result[count++] = that.content[j++];
+        }
+        else
+        {
+          result[count++] = content[i++];
+          j++;
+        }
+      }
+      while (i < cardinality)
+      {
+        result[count++] = content[i++];
+      }
+      while (j < that.cardinality)
+      {
+        result[count++] = that.content[j++];
+      }
+      return new ArrayContainer(result, count);
+    }
+
+    @Override
+    Container andNot(Container other)
+    {
+      int count = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        if (!other.contains(content[i]))
+        {
+          content[count++] = content[i];
+        }
+      }
+      cardinality = count;
+      return this;
+    }
+
+    @Override
+    Container copy()
+    {
+      return new ArrayContainer(Arrays.copyOf(content, cardinality), cardinality);
+    }
+
+    @Override
+    int first()
+    {
+      return content[0];
+    }
+
+    @Override
+    int last()
+    {
+      return content[cardinality - 1];
+    }
+
+    @Override
+    int nextValue(int from)
+    {
+      int pos = Arrays.binarySearch(content, 0, cardinality, (char) from);
+      if (pos < 0)
+      {
+        pos = -(pos + 1);
+      }
+      return pos < cardinality ? content[pos] : -1;
+    }
+
+    @Override
+    int toArray(long high, long[] dest, int offset)
+    {
+      for (int i = 0; i < cardinality; i++)
+      {
+        dest[offset++] = high | content[i];
+      }
+      return offset;
+    }
+
+    @Override
+    void encode(ByteStringBuilder builder)
+    {
+      builder.appendByte(ARRAY_CONTAINER);
+      builder.appendCompactUnsigned(cardinality);
+      int previous = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        builder.appendCompactUnsigned(content[i] - previous);
+        previous = content[i];
+      }
+    }
+
+    @Override
+    int getEstimatedEncodedSize()
+    {
+      // Deltas of values below 65536 need at most 3 bytes
+      return ByteStringBuilder.MAX_COMPACT_SIZE + cardinality * 3;
+    }
+
+    private BitmapContainer toBitmapContainer()
+    {
+      final BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < cardinality; i++)
+      {
+        bitmap.add(content[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  /** Dense container storing one bit per possible value. */
+  private static final class BitmapContainer extends Container
+  {
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer()
+    {
+      this(new long[BITMAP_WORDS], 0);
+    }
+
+    BitmapContainer(long[] words, int cardinality)
+    {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      final int index = value >>> 6;
+      final long bit = 1L << value;
+      if ((words[index] & bit) == 0)
+      {
+        words[index] |= bit;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container remove(char value)
+    {
+      final int index = value >>> 6;
+      final long bit = 1L << value;
+      if ((words[index] & bit) != 0)
+      {
+        words[index] &= ~bit;
+        cardinality--;
+        if (cardinality <= ARRAY_CONTAINER_MAX_SIZE)
+        {
+          return toArrayContainer();
+        }
+      }
+      return this;
+    }
+
+    @Override
+    Container and(Container other)
+    {
+      if (other instanceof ArrayContainer)
+      {
+        return other.and(this);
+      }
+      final long[] otherWords = ((BitmapContainer) other).words;
+      final long[] result = new long[BITMAP_WORDS];
+      int count = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        result[i] = words[i] & otherWords[i];
+        count += Long.bitCount(result[i]);
+      }
+      return newContainer(result, count);
+    }
+
+    @Override
+    Container or(Container other)
+    {
+      final long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+      if (other instanceof ArrayContainer)
+      {
+        final BitmapContainer bitmap = new BitmapContainer(result, cardinality);
+        final ArrayContainer that = (ArrayContainer) other;
+        for (int j = 0; j < that.cardinality; j++)
+        {
+          bitmap.add(that.content[j]);
+        }
+        return bitmap;
+      }
+      final long[] otherWords = ((BitmapContainer) other).words;
+      int count = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        result[i] |= otherWords[i];
+        count += Long.bitCount(result[i]);
+      }
+      return new BitmapContainer(result, count);
+    }
+
+    @Override
+    Container andNot(Container other)
+    {
+      if (other instanceof ArrayContainer)
+      {
+        final ArrayContainer that = (ArrayContainer) other;
+        for (int j = 0; j < that.cardinality; j++)
+        {
+          final int index = that.content[j] >>> 6;
+          final long bit = 1L << that.content[j];
+          if ((words[index] & bit) != 0)
+          {
+            words[index] &= ~bit;
+            cardinality--;
+          }
+        }
+      }
+      else
+      {
+        final long[] otherWords = ((BitmapContainer) other).words;
+        int count = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++)
+        {
+          words[i] &= ~otherWords[i];
+          count += Long.bitCount(words[i]);
+        }
+        cardinality = count;
+      }
+      return cardinality > ARRAY_CONTAINER_MAX_SIZE ? this : toArrayContainer();
+    }
+
+    @Override
+    Container copy()
+    {
+      return new BitmapContainer(Arrays.copyOf(words, BITMAP_WORDS), cardinality);
+    }
+
+    @Override
+    int first()
+    {
+      return nextValue(0);
+    }
+
+    @Override
+    int last()
+    {
+      for (int i = BITMAP_WORDS - 1; i >= 0; i--)
+      {
+        if (words[i] != 0)
+        {
+          return i * Long.SIZE + Long.SIZE - 1 - Long.numberOfLeadingZeros(words[i]);
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    int nextValue(int from)
+    {
+      int index = from >>> 6;
+      long word = words[index] & (-1L << from);
+      while (word == 0)
+      {
+        if (++index == BITMAP_WORDS)
+        {
+          return -1;
+        }
+        word = words[index];
+      }
+      return index * Long.SIZE + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    int toArray(long high, long[] dest, int offset)
+    {
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          dest[offset++] = high | (i * Long.SIZE + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return offset;
+    }
+
+    @Override
+    void encode(ByteStringBuilder builder)
+    {
+      builder.appendByte(BITMAP_CONTAINER);
+      for (long word : words)
+      {
+        builder.appendLong(word);
+      }
+    }
+
+    @Override
+    int getEstimatedEncodedSize()
+    {
+      return BITMAP_WORDS * Long.SIZE / Byte.SIZE;
+    }
+
+    private ArrayContainer toArrayContainer()
+    {
+      final char[] content = new char[cardinality];
+      int count = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          content[count++] = (char) (i * Long.SIZE + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return new ArrayContainer(content, count);
+    }
+
+    private static Container newContainer(long[] words, int cardinality)
+    {
+      final BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+      return cardinality > ARRAY_CONTAINER_MAX_SIZE ? bitmap : bitmap.toArrayContainer();
+    }
+  }
+}
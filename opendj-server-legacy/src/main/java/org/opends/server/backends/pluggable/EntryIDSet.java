@@ -43,6 +43,7 @@ final class EntryIDSet implements Iterable<EntryID>
 {
   public static final EntryIDSetCodec CODEC_V1 = new EntryIDSetCodecV1();
   public static final EntryIDSetCodec CODEC_V2 = new EntryIDSetCodecV2();
+  public static final EntryIDSetCodec CODEC_V4 = new EntryIDSetCodecV4();
 
   private static final ByteSequence NO_KEY = ByteString.valueOfUtf8("<none>");
   private static final long[] EMPTY_LONG_ARRAY = new long[0];
@@ -272,6 +273,97 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /**
+   * Concrete implementation representing a set of EntryIDs as a compressed bitmap. Contrary to {@link DefinedImpl},
+   * insertions and deletions are performed in place and intersections or unions with other bitmaps are computed
+   * word by word.
+   */
+  private static final class BitmapImpl implements EntryIDSetImplementor
+  {
+    private final EntryIDBitmap bitmap;
+
+    BitmapImpl(EntryIDBitmap bitmap)
+    {
+      this.bitmap = checkNotNull(bitmap, "bitmap must not be null");
+    }
+
+    @Override
+    public long size()
+    {
+      return bitmap.cardinality();
+    }
+
+    @Override
+    public void toString(StringBuilder buffer)
+    {
+      buffer.append("[COUNT:").append(size()).append("]");
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return true;
+    }
+
+    @Override
+    public boolean add(EntryID entryID)
+    {
+      return bitmap.add(entryID.longValue());
+    }
+
+    @Override
+    public boolean remove(EntryID entryID)
+    {
+      return bitmap.remove(entryID.longValue());
+    }
+
+    @Override
+    public boolean contains(EntryID entryID)
+    {
+      return bitmap.contains(entryID.longValue());
+    }
+
+    @Override
+    public void addAll(EntryIDSet that)
+    {
+      if (that.size() != 0)
+      {
+        bitmap.or(asBitmap(that));
+      }
+    }
+
+    @Override
+    public void removeAll(EntryIDSet that)
+    {
+      if (that.size() != 0)
+      {
+        bitmap.andNot(asBitmap(that));
+      }
+    }
+
+    @Override
+    public Iterator<EntryID> iterator()
+    {
+      return bitmap.iterator();
+    }
+
+    @Override
+    public long[] getRange()
+    {
+      if (!bitmap.isEmpty())
+      {
+        return new long[] { bitmap.first(), bitmap.last() };
+      }
+      return NO_ENTRY_IDS_RANGE;
+    }
+
+    @Override
+    public long[] getIDs()
+    {
+      return bitmap.toArray();
+    }
+  }
+
   /**
    * Concrete implementation where the EntryIDs are not defined, for example when the index entry
    * limit has been exceeded.
@@ -485,6 +577,10 @@ final class EntryIDSet implements Iterable<EntryID>
     {
       checkNotNull(key, "key must not be null");
       checkNotNull(value, "value must not be null");
+      if (value.isEmpty())
+      {
+        return newDefinedSet();
+      }
       if (value.byteAt(0) == UNDEFINED_SET)
       {
         return newUndefinedSetWithKey(key);
@@ -539,7 +635,55 @@ final class EntryIDSet implements Iterable<EntryID>
   }
 
   /**
-   * Decorate a V1 or V2 codec with encryption. When writing EntryIDSets to disk,
+   * Compressed bitmap EntryIDSet codec implementation. IDs are stored in containers sharing the same upper 48 bits:
+   * sparse containers are delta-encoded like {@link EntryIDSetCodecV2}, dense containers are written as raw bitmaps.
+   * Decoded sets support in-place updates and word-level intersections and unions.
+   * <p>
+   * The empty set is encoded as an empty value, so that no encoded value starts with the tag of
+   * {@link EntryIDSetCodecV3}.
+   *
+   * @see EntryIDBitmap
+   */
+  private static final class EntryIDSetCodecV4 implements EntryIDSetCodec
+  {
+    private static final byte UNDEFINED_SET = (byte) 0xFF;
+
+    @Override
+    public ByteString encode(EntryIDSet idSet)
+    {
+      checkNotNull(idSet, "idSet must not be null");
+      if (!idSet.isDefined())
+      {
+        return ByteString.valueOfBytes(new byte[] { UNDEFINED_SET });
+      }
+      if (idSet.size() == 0)
+      {
+        return ByteString.empty();
+      }
+      final EntryIDBitmap bitmap = asBitmap(idSet);
+      final ByteStringBuilder builder = new ByteStringBuilder(bitmap.getEstimatedEncodedSize());
+      return ByteString.wrap(bitmap.encode(builder).getBackingArray(), 0, builder.length());
+    }
+
+    @Override
+    public EntryIDSet decode(ByteSequence key, ByteString value)
+    {
+      checkNotNull(key, "key must not be null");
+      checkNotNull(value, "value must not be null");
+      if (value.isEmpty())
+      {
+        return newBitmapSet();
+      }
+      if (value.byteAt(0) == UNDEFINED_SET)
+      {
+        return newUndefinedSetWithKey(key);
+      }
+      return new EntryIDSet(new BitmapImpl(EntryIDBitmap.decode(value.asReader())));
+    }
+  }
+
+  /**
+   * Decorate a V1, V2 or V4 codec with encryption. When writing EntryIDSets to disk,
    * prepend two bytes, {0, 1} to mark them as encrypted.
    * The first is tag zero (unused in other encodings), followed by a byte
    * indicating version 1 of encryption.
@@ -579,7 +723,7 @@ final class EntryIDSet implements Iterable<EntryID>
     public EntryIDSet decode(ByteSequence key, ByteString value)
     {
       checkNotNull(value, "value must not be null");
-      if (value.byteAt(0) == CODEC_V3_TAG)
+      if (!value.isEmpty() && value.byteAt(0) == CODEC_V3_TAG)
       {
         try
         {
@@ -628,6 +772,36 @@ final class EntryIDSet implements Iterable<EntryID>
     return new EntryIDSet(new DefinedImpl(entryIDs));
   }
 
+  /**
+   * Creates a new defined entry ID set with the specified sorted entryIDs, backed by a compressed bitmap.
+   * <p>
+   * If the provided array is not sorted, then the resulting EntryIDSet will misbehave.
+   *
+   * @param entryIDs
+   *          Sorted Entry IDs contained in the set.
+   * @return A new defined {@link EntryIDSet} containing the provided entryIDs
+   * @throws NullPointerException
+   *           if entryIDs is null
+   */
+  static EntryIDSet newBitmapSet(long... entryIDs)
+  {
+    checkNotNull(entryIDs, "ids must not be null");
+    return new EntryIDSet(new BitmapImpl(EntryIDBitmap.valueOf(entryIDs)));
+  }
+
+  /**
+   * Returns the bitmap backing the provided defined set, or a new bitmap holding its IDs. The returned bitmap must not
+   * be modified.
+   */
+  private static EntryIDBitmap asBitmap(EntryIDSet idSet)
+  {
+    if (idSet.concreteImpl instanceof BitmapImpl)
+    {
+      return ((BitmapImpl) idSet.concreteImpl).bitmap;
+    }
+    return EntryIDBitmap.valueOf(idSet.getIDs());
+  }
+
   private static long[] intersection(long[] set1, long[] set2)
   {
     long[] target = new long[Math.min(set1.length, set2.length)];
@@ -689,6 +863,16 @@ final class EntryIDSet implements Iterable<EntryID>
       return newUndefinedSet();
     }
 
+    if (containsBitmapSet(sets))
+    {
+      final EntryIDBitmap union = new EntryIDBitmap();
+      for (EntryIDSet l : sets)
+      {
+        union.or(asBitmap(l));
+      }
+      return new EntryIDSet(new BitmapImpl(union));
+    }
+
     boolean needSort = false;
     long[] n = new long[count];
     int pos = 0;
@@ -723,6 +907,18 @@ final class EntryIDSet implements Iterable<EntryID>
     return newDefinedSet(Arrays.copyOf(n1, j));
   }
 
+  private static boolean containsBitmapSet(List<EntryIDSet> sets)
+  {
+    for (EntryIDSet l : sets)
+    {
+      if (l.concreteImpl instanceof BitmapImpl)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private EntryIDSetImplementor concreteImpl;
 
   private EntryIDSet(EntryIDSetImplementor concreteImpl)
@@ -889,7 +1085,10 @@ final class EntryIDSet implements Iterable<EntryID>
     checkNotNull(that, "that must not be null");
     if (!concreteImpl.isDefined())
     {
-      if ( that.isDefined() ) {
+      if (that.concreteImpl instanceof BitmapImpl) {
+        // Bitmaps are updated in place and cannot be shared.
+        concreteImpl = new BitmapImpl(((BitmapImpl) that.concreteImpl).bitmap.copy());
+      } else if ( that.isDefined() ) {
         // NOTE: It's ok to share the same array instance here thanks to the copy-on-write
         // performed by the implementation.
         concreteImpl = new DefinedImpl(that.getIDs());
@@ -903,8 +1102,22 @@ final class EntryIDSet implements Iterable<EntryID>
       return;
     }
 
+    if (concreteImpl instanceof BitmapImpl && that.concreteImpl instanceof BitmapImpl)
+    {
+      ((BitmapImpl) concreteImpl).bitmap.and(((BitmapImpl) that.concreteImpl).bitmap);
+      return;
+    }
+
     final boolean thatSetOverlap = compareForOverlap(getRange(), that.getRange()) == 0;
-    if (thatSetOverlap)
+    if (thatSetOverlap && concreteImpl instanceof BitmapImpl)
+    {
+      concreteImpl = new DefinedImpl(retainContained(that.getIDs(), concreteImpl));
+    }
+    else if (thatSetOverlap && that.concreteImpl instanceof BitmapImpl)
+    {
+      concreteImpl = new DefinedImpl(retainContained(concreteImpl.getIDs(), that.concreteImpl));
+    }
+    else if (thatSetOverlap)
     {
       concreteImpl = new DefinedImpl(intersection(concreteImpl.getIDs(), that.getIDs()));
     }
@@ -952,6 +1165,21 @@ final class EntryIDSet implements Iterable<EntryID>
     return concreteImpl.getRange();
   }
 
+  /** Returns a new array holding the IDs of the provided sorted array which are contained in the provided bitmap. */
+  private static long[] retainContained(long[] entryIDs, EntryIDSetImplementor bitmap)
+  {
+    final long[] retained = new long[entryIDs.length];
+    int count = 0;
+    for (long entryID : entryIDs)
+    {
+      if (bitmap.contains(new EntryID(entryID)))
+      {
+        retained[count++] = entryID;
+      }
+    }
+    return count < retained.length ? Arrays.copyOf(retained, count) : retained;
+  }
+
   private static long[] mergeOverlappingEntryIDSet(long set1[], long set2[])
   {
     final long[] a, b;
@@ -16,14 +16,25 @@
  */
 package org.opends.server.backends.pluggable;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.util.annotations.VisibleForTesting;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
@@ -34,13 +45,29 @@ import org.opends.server.types.LDIFExportConfig;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.StaticUtils;
 
+import static org.forgerock.util.Utils.newThreadFactory;
 import static org.opends.messages.BackendMessages.*;
 
-/** Export a backend to LDIF. */
+/**
+ * Export a backend to LDIF.
+ * <p>
+ * When the export configuration requests several threads, the ID2Entry key space of each entry
+ * container is split into ranges of entry IDs, which are read, decoded and encoded to LDIF by a
+ * thread pool, each range in its own read transaction. The encoded ranges are then either written
+ * in order to the LDIF file, or written by each thread to its own shard of the LDIF file.
+ */
 class ExportJob
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  private static final String EXPORT_THREAD_NAME = "Export LDIF %d";
+
+  /** The default number of entry IDs of the ranges exported by the threads. */
+  private static final long DEFAULT_CHUNK_SIZE = 1000;
+  /** The number of entry IDs of the ranges exported by the threads, lowered by the tests to export several ranges. */
+  @VisibleForTesting
+  static long chunkSize = DEFAULT_CHUNK_SIZE;
+
   /** The requested LDIF export configuration. */
   private final LDIFExportConfig exportConfig;
 
@@ -48,10 +75,10 @@ class ExportJob
   private final long progressInterval = 10000;
 
   /** The current number of entries exported. */
-  private long exportedCount;
+  private final AtomicLong exportedCount = new AtomicLong();
 
   /** The current number of entries skipped. */
-  private long skippedCount;
+  private final AtomicLong skippedCount = new AtomicLong();
 
   /**
    * Create a new export job.
@@ -111,31 +138,14 @@ class ExportJob
     // Iterate through the containers.
     try
     {
-      rootContainer.getStorage().read(new ReadOperation<Void>()
+      if (exportConfig.getThreadCount() > 1)
       {
-        @Override
-        public Void run(ReadableTransaction txn) throws Exception
-        {
-          for (EntryContainer exportContainer : exportContainers)
-          {
-            if (exportConfig.isCancelled())
-            {
-              break;
-            }
-
-            exportContainer.sharedLock.lock();
-            try
-            {
-              exportContainer(txn, exportContainer);
-            }
-            finally
-            {
-              exportContainer.sharedLock.unlock();
-            }
-          }
-          return null;
-        }
-      });
+        exportContainersInParallel(rootContainer, exportContainers);
+      }
+      else
+      {
+        exportContainers(rootContainer, exportContainers);
+      }
     }
     catch (Exception e)
     {
@@ -152,10 +162,246 @@ class ExportJob
     float rate = 0;
     if (totalTime > 0)
     {
-      rate = 1000f*exportedCount / totalTime;
+      rate = 1000f*exportedCount.get() / totalTime;
     }
 
-    logger.info(NOTE_EXPORT_FINAL_STATUS, exportedCount, skippedCount, totalTime/1000, rate);
+    logger.info(NOTE_EXPORT_FINAL_STATUS, exportedCount.get(), skippedCount.get(), totalTime/1000, rate);
+  }
+
+  private void exportContainers(RootContainer rootContainer, final List<EntryContainer> exportContainers)
+      throws Exception
+  {
+    rootContainer.getStorage().read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        for (EntryContainer exportContainer : exportContainers)
+        {
+          if (exportConfig.isCancelled())
+          {
+            break;
+          }
+
+          exportContainer.sharedLock.lock();
+          try
+          {
+            exportContainer(txn, exportContainer);
+          }
+          finally
+          {
+            exportContainer.sharedLock.unlock();
+          }
+        }
+        return null;
+      }
+    });
+  }
+
+  private void exportContainersInParallel(RootContainer rootContainer, List<EntryContainer> exportContainers)
+      throws Exception
+  {
+    final int threadCount = exportConfig.getThreadCount();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(threadCount, newThreadFactory(null, EXPORT_THREAD_NAME, true));
+    final List<LDIFExportConfig> shardConfigs = new ArrayList<>();
+    try
+    {
+      if (exportConfig.isShardedOutput())
+      {
+        for (int i = 1; i <= threadCount; i++)
+        {
+          shardConfigs.add(exportConfig.newShardConfig(i));
+        }
+      }
+
+      for (EntryContainer exportContainer : exportContainers)
+      {
+        if (exportConfig.isCancelled())
+        {
+          break;
+        }
+
+        exportContainer.sharedLock.lock();
+        try
+        {
+          if (shardConfigs.isEmpty())
+          {
+            exportContainerInOrder(executor, threadCount, rootContainer, exportContainer);
+          }
+          else
+          {
+            exportContainerToShards(executor, shardConfigs, rootContainer, exportContainer);
+          }
+        }
+        finally
+        {
+          exportContainer.sharedLock.unlock();
+        }
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+      for (LDIFExportConfig shardConfig : shardConfigs)
+      {
+        shardConfig.close();
+      }
+    }
+  }
+
+  /**
+   * Exports the ranges of entry IDs of an entry container in parallel, and writes them in order. At
+   * most two ranges per thread are buffered in memory.
+   */
+  private void exportContainerInOrder(ExecutorService executor, int threadCount,
+      final RootContainer rootContainer, final EntryContainer entryContainer) throws Exception
+  {
+    final long highestID = getHighestEntryID(rootContainer, entryContainer);
+    final Deque<Future<String>> chunks = new ArrayDeque<>();
+    final BufferedWriter writer = exportConfig.getWriter();
+    try
+    {
+      long firstID = 1;
+      do
+      {
+        final long chunkFirstID = firstID;
+        final long chunkLastID = getChunkLastID(firstID, highestID);
+        chunks.add(executor.submit(new Callable<String>()
+        {
+          @Override
+          public String call() throws Exception
+          {
+            final StringWriter buffer = new StringWriter();
+            final BufferedWriter bufferWriter = new BufferedWriter(buffer);
+            exportChunk(rootContainer, entryContainer, chunkFirstID, chunkLastID,
+                exportConfig.newBufferConfig(bufferWriter));
+            bufferWriter.flush();
+            return buffer.toString();
+          }
+        }));
+        firstID += chunkSize;
+
+        while (chunks.size() >= 2 * threadCount || (firstID > highestID && !chunks.isEmpty()))
+        {
+          writer.write(getResult(chunks.poll()));
+        }
+      }
+      while (firstID <= highestID && !exportConfig.isCancelled());
+    }
+    finally
+    {
+      for (Future<String> chunk : chunks)
+      {
+        chunk.cancel(true);
+      }
+    }
+  }
+
+  /** Exports the ranges of entry IDs of an entry container in parallel, each thread writing its own shard. */
+  private void exportContainerToShards(ExecutorService executor, List<LDIFExportConfig> shardConfigs,
+      final RootContainer rootContainer, final EntryContainer entryContainer) throws Exception
+  {
+    final long highestID = getHighestEntryID(rootContainer, entryContainer);
+    final AtomicLong nextFirstID = new AtomicLong(1);
+    final List<Future<Void>> shards = new ArrayList<>();
+    try
+    {
+      for (final LDIFExportConfig shardConfig : shardConfigs)
+      {
+        shards.add(executor.submit(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws Exception
+          {
+            long firstID = nextFirstID.getAndAdd(chunkSize);
+            // Range 1 is always exported, even when the entry container looks empty
+            while ((firstID == 1 || firstID <= highestID) && !exportConfig.isCancelled())
+            {
+              exportChunk(rootContainer, entryContainer, firstID, getChunkLastID(firstID, highestID), shardConfig);
+              firstID = nextFirstID.getAndAdd(chunkSize);
+            }
+            shardConfig.getWriter().flush();
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> shard : shards)
+      {
+        getResult(shard);
+      }
+    }
+    finally
+    {
+      for (Future<Void> shard : shards)
+      {
+        shard.cancel(true);
+      }
+    }
+  }
+
+  private long getHighestEntryID(RootContainer rootContainer, final EntryContainer entryContainer) throws Exception
+  {
+    return rootContainer.getStorage().read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return entryContainer.getHighestEntryID(txn).longValue();
+      }
+    });
+  }
+
+  /** The last range also holds the entries added since the export started. */
+  private static long getChunkLastID(long firstID, long highestID)
+  {
+    final long lastID = firstID + chunkSize - 1;
+    return lastID < highestID ? lastID : Long.MAX_VALUE;
+  }
+
+  private static <T> T getResult(Future<T> future) throws Exception
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof Exception)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /** Exports the entries of an entry container whose IDs are in the provided range, in a read transaction. */
+  private void exportChunk(RootContainer rootContainer, final EntryContainer entryContainer, final long firstID,
+      final long lastID, final LDIFExportConfig chunkConfig) throws Exception
+  {
+    rootContainer.getStorage().read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        ID2Entry id2entry = entryContainer.getID2Entry();
+        try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
+        {
+          boolean found = cursor.positionToKeyOrNext(new EntryID(firstID).toByteString());
+          while (found && !exportConfig.isCancelled())
+          {
+            ByteString key = cursor.getKey();
+            if (key.length() == 8 && key.toLong() > lastID)
+            {
+              break;
+            }
+            exportEntry(entryContainer, key, cursor.getValue(), chunkConfig);
+            found = cursor.next();
+          }
+        }
+        return null;
+      }
+    });
   }
 
   /**
@@ -181,58 +427,64 @@ class ExportJob
           break;
         }
 
-        ByteString key = cursor.getKey();
-        EntryID entryID = null;
-        try
-        {
-          entryID = new EntryID(key);
-        }
-        catch (Exception e)
-        {
-          if (logger.isTraceEnabled())
-          {
-            logger.traceException(e);
+        exportEntry(entryContainer, cursor.getKey(), cursor.getValue(), exportConfig);
+      }
+    }
+  }
 
-            logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
-          }
-          skippedCount++;
-          continue;
-        }
+  /** Decodes an ID2Entry record and writes the entry to the LDIF output of the provided configuration. */
+  private void exportEntry(EntryContainer entryContainer, ByteString key, ByteString value,
+      LDIFExportConfig entryConfig) throws IOException, LDIFException
+  {
+    EntryID entryID = null;
+    try
+    {
+      entryID = new EntryID(key);
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
 
-        if (entryID.longValue() == 0)
-        {
-          // This is the stored entry count.
-          continue;
-        }
+        logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
+      }
+      skippedCount.incrementAndGet();
+      return;
+    }
 
-        ByteString value = cursor.getValue();
-        Entry entry = null;
-        try
-        {
-          entry = id2entry.entryFromDatabase(value, entryContainer.getRootContainer().getCompressedSchema());
-        }
-        catch (Exception e)
-        {
-          if (logger.isTraceEnabled())
-          {
-            logger.traceException(e);
+    if (entryID.longValue() == 0)
+    {
+      // This is the stored entry count.
+      return;
+    }
 
-            logger.trace("Malformed id2entry record for ID %d:%n%s%n",
-                       entryID, StaticUtils.bytesToHex(value));
-          }
-          skippedCount++;
-          continue;
-        }
+    Entry entry = null;
+    try
+    {
+      entry = entryContainer.getID2Entry().entryFromDatabase(
+          value, entryContainer.getRootContainer().getCompressedSchema());
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
 
-        if (entry.toLDIF(exportConfig))
-        {
-          exportedCount++;
-        }
-        else
-        {
-          skippedCount++;
-        }
+        logger.trace("Malformed id2entry record for ID %d:%n%s%n",
+                   entryID, StaticUtils.bytesToHex(value));
       }
+      skippedCount.incrementAndGet();
+      return;
+    }
+
+    if (entry.toLDIF(entryConfig))
+    {
+      exportedCount.incrementAndGet();
+    }
+    else
+    {
+      skippedCount.incrementAndGet();
     }
   }
 
@@ -255,7 +507,7 @@ class ExportJob
     @Override
     public void run()
     {
-      long latestCount = exportedCount;
+      long latestCount = exportedCount.get();
       long deltaCount = latestCount - previousCount;
       long latestTime = System.currentTimeMillis();
       long deltaTime = latestTime - previousTime;
@@ -267,7 +519,7 @@ class ExportJob
 
       float rate = 1000f*deltaCount / deltaTime;
 
-      logger.info(NOTE_EXPORT_PROGRESS_REPORT, latestCount, skippedCount, rate);
+      logger.info(NOTE_EXPORT_PROGRESS_REPORT, latestCount, skippedCount.get(), rate);
 
       previousCount = latestCount;
       previousTime = latestTime;
@@ -20,6 +20,7 @@ import static org.forgerock.opendj.ldap.ResultCode.UNWILLING_TO_PERFORM;
 import static org.forgerock.util.Reject.*;
 import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.backends.pluggable.CompressionDictionaries.NO_DICTIONARY;
 import static org.opends.server.backends.pluggable.CursorTransformer.transformKeysAndValues;
 import static org.opends.server.core.DirectoryServer.*;
 
@@ -81,6 +82,8 @@ class ID2Entry extends AbstractTree
 
   /** Parameters for compression and encryption. */
   private DataConfig dataConfig;
+  /** The dictionaries used for compressing entries, may be null. */
+  private final CompressionDictionaries dictionaries;
 
   /** Cached encoding buffers. */
   private static final ThreadLocal<EntryCodec> ENTRY_CODEC_CACHE = new ThreadLocal<EntryCodec>()
@@ -122,6 +125,12 @@ class ID2Entry extends AbstractTree
 
     /** The format version for entry encoding. */
     static final byte FORMAT_VERSION_V2 = 0x02;
+    /**
+     * The format version for entries compressed with a pluggable compressor. Only used for entries which cannot be
+     * encoded with {@link #FORMAT_VERSION_V2}, so that backends can still be downgraded when they do not use the new
+     * compression options.
+     */
+    static final byte FORMAT_VERSION_V3 = 0x03;
 
     private final ByteStringBuilder encodedBuffer = new ByteStringBuilder();
     private final ByteStringBuilder entryBuffer = new ByteStringBuilder();
@@ -140,7 +149,7 @@ class ID2Entry extends AbstractTree
       compressedEntryBuffer.clearAndTruncate(maxBufferSize, BUFFER_INIT_SIZE);
     }
 
-    private Entry decode(ByteString bytes, CompressedSchema compressedSchema)
+    private Entry decode(ByteString bytes, CompressedSchema compressedSchema, CompressionDictionaries dictionaries)
         throws DirectoryException, DecodeException, IOException
     {
       final byte formatVersion = bytes.byteAt(0);
@@ -150,6 +159,8 @@ class ID2Entry extends AbstractTree
         return decodeV1(bytes, compressedSchema);
       case FORMAT_VERSION_V2:
         return decodeV2(bytes, compressedSchema);
+      case FORMAT_VERSION_V3:
+        return decodeV3(bytes, compressedSchema, dictionaries);
       default:
         throw DecodeException.error(ERR_INCOMPATIBLE_ENTRY_VERSION.get(formatVersion));
       }
@@ -291,16 +302,111 @@ class ID2Entry extends AbstractTree
       }
     }
 
-    private ByteString encode(Entry entry, DataConfig dataConfig) throws DirectoryException
+    /**
+     * Decodes an entry compressed with a pluggable compressor.
+     * Entries are encoded according to the sequence
+     *   {VERSION_BYTE, FLAG_BYTE, [COMPRESSOR_BYTE, COMPACT_INTEGER_DICTIONARY], COMPACT_INTEGER_LENGTH, DATA}
+     * where
+     *
+     * VERSION_BYTE = 0x3
+     * FLAG_BYTE = as in decodeV2()
+     * COMPRESSOR_BYTE = ID of the compressor, only present with COMPRESS_ENTRY
+     * COMPACT_INTEGER_DICTIONARY = ID of the compression dictionary or 0 if none, only present with COMPRESS_ENTRY
+     * COMPACT_INTEGER_LENGTH = length of the uncompressed ID2ENTRY_VALUE
+     * DATA = ID2ENTRY_VALUE, compressed then encrypted according to FLAG_BYTE
+     *
+     * @param bytes A byte array containing the encoded tree value.
+     * @param compressedSchema The compressed schema manager to use when decoding.
+     * @param dictionaries The compression dictionaries, may be null.
+     * @return The decoded entry.
+     * @throws DecodeException If the data is not in the expected format, references an unknown compressor or
+     * dictionary, or a decryption error occurs.
+     * @throws DirectoryException If a Directory Server error occurs.
+     * @throws IOException if an error occurs while reading the data.
+     */
+    private Entry decodeV3(ByteString bytes, CompressedSchema compressedSchema, CompressionDictionaries dictionaries)
+        throws DirectoryException, DecodeException, IOException
     {
-      encodeVolatile(entry, dataConfig);
+      ByteSequenceReader reader = bytes.asReader();
+      // skip version byte
+      reader.position(1);
+      int format = reader.readByte();
+      EntryCompressor compressor = null;
+      byte[] dictionary = null;
+      if ((format & COMPRESS_ENTRY) == COMPRESS_ENTRY)
+      {
+        compressor = EntryCompressors.forID(reader.readByte());
+        int dictionaryID = reader.readCompactUnsignedInt();
+        dictionary = dictionaries != null ? dictionaries.get(dictionaryID) : null;
+        if (compressor == null || (dictionaryID != NO_DICTIONARY && dictionary == null))
+        {
+          throw DecodeException.error(ERR_CANNOT_DECODE_ENTRY.get());
+        }
+      }
+      int encodedEntryLen = reader.readCompactUnsignedInt();
+      try
+      {
+        if ((format & ENCRYPT_ENTRY) == ENCRYPT_ENTRY)
+        {
+          InputStream is = getCryptoManager().getCipherInputStream(reader.asInputStream());
+          while (compressedEntryBuffer.appendBytes(is, BUFFER_INIT_SIZE) >= 0)
+          {
+            // Read all the decrypted data.
+          }
+        }
+        else
+        {
+          compressedEntryBuffer.appendBytes(reader, reader.remaining());
+        }
+        if (compressor == null)
+        {
+          return Entry.decode(compressedEntryBuffer.asReader(), compressedSchema);
+        }
+        byte[] data = new byte[encodedEntryLen];
+        compressor.decompress(compressedEntryBuffer.getBackingArray(), 0, compressedEntryBuffer.length(), dictionary,
+            data);
+        return Entry.decode(ByteString.wrap(data).asReader(), compressedSchema);
+      }
+      catch (CryptoManagerException cme)
+      {
+        logger.traceException(cme);
+        throw DecodeException.error(cme.getMessageObject());
+      }
+      catch (DataFormatException dfe)
+      {
+        logger.traceException(dfe);
+        throw DecodeException.error(ERR_CANNOT_DECODE_ENTRY.get(), dfe);
+      }
+    }
+
+    private ByteString encode(Entry entry, DataConfig dataConfig, CompressionDictionaries dictionaries)
+        throws DirectoryException
+    {
+      encodeVolatile(entry, dataConfig, dictionaries);
       return encodedBuffer.toByteString();
     }
 
-    private void encodeVolatile(Entry entry, DataConfig dataConfig) throws DirectoryException
+    private void encodeVolatile(Entry entry, DataConfig dataConfig, CompressionDictionaries dictionaries)
+        throws DirectoryException
     {
       entry.encode(entryBuffer, dataConfig.getEntryEncodeConfig());
 
+      if (dataConfig.isCompressed())
+      {
+        int dictionaryID = NO_DICTIONARY;
+        byte[] dictionary = null;
+        if (dataConfig.getDictionarySize() > 0 && dictionaries != null)
+        {
+          dictionaryID = dictionaries.getCurrentID();
+          dictionary = dictionaries.get(dictionaryID);
+        }
+        if (dictionary != null || dataConfig.getCompressor() != EntryCompressors.DEFLATE)
+        {
+          encodeV3(dataConfig, dictionary != null ? dictionaryID : NO_DICTIONARY, dictionary);
+          return;
+        }
+      }
+
       OutputStream os = encodedBuffer.asOutputStream();
       try
       {
@@ -339,6 +445,42 @@ class ID2Entry extends AbstractTree
         }
       }
     }
+
+    /** Encodes the entry according to the sequence described in {@link #decodeV3}. */
+    private void encodeV3(DataConfig dataConfig, int dictionaryID, byte[] dictionary) throws DirectoryException
+    {
+      final EntryCompressor compressor = dataConfig.getCompressor();
+      byte formatFlags = COMPRESS_ENTRY;
+      if (dataConfig.isEncrypted())
+      {
+        formatFlags |= ENCRYPT_ENTRY;
+      }
+      encodedBuffer.appendByte(FORMAT_VERSION_V3);
+      encodedBuffer.appendByte(formatFlags);
+      encodedBuffer.appendByte(compressor.getID());
+      encodedBuffer.appendCompactUnsigned(dictionaryID);
+      encodedBuffer.appendCompactUnsigned(entryBuffer.length());
+      compressor.compress(entryBuffer.getBackingArray(), entryBuffer.length(), dictionary, compressedEntryBuffer);
+      if (!dataConfig.isEncrypted())
+      {
+        encodedBuffer.appendBytes(compressedEntryBuffer);
+        return;
+      }
+
+      OutputStream os = null;
+      try
+      {
+        os = dataConfig.getCryptoSuite().getCipherOutputStream(encodedBuffer.asOutputStream());
+        compressedEntryBuffer.copyTo(os);
+        os.close();
+      }
+      catch (CryptoManagerException | IOException e)
+      {
+        logger.traceException(e);
+        closeSilently(os);
+        throw new DirectoryException(UNWILLING_TO_PERFORM, ERR_CANNOT_ENCODE_ENTRY.get(e.getLocalizedMessage()));
+      }
+    }
   }
 
   /**
@@ -350,9 +492,25 @@ class ID2Entry extends AbstractTree
    * @throws StorageRuntimeException If an error occurs in the storage.
    */
   ID2Entry(TreeName name, DataConfig dataConfig) throws StorageRuntimeException
+  {
+    this(name, dataConfig, null);
+  }
+
+  /**
+   * Create a new ID2Entry object.
+   *
+   * @param name The name of the entry tree.
+   * @param dataConfig The desired compression and encryption options for data
+   * stored in the entry tree.
+   * @param dictionaries The dictionaries used for compressing entries, may be null.
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   */
+  ID2Entry(TreeName name, DataConfig dataConfig, CompressionDictionaries dictionaries)
+      throws StorageRuntimeException
   {
     super(name);
     this.dataConfig = dataConfig;
+    this.dictionaries = dictionaries;
   }
 
   @Override
@@ -388,7 +546,7 @@ class ID2Entry extends AbstractTree
     EntryCodec codec = acquireEntryCodec();
     try
     {
-      return codec.decode(bytes, compressedSchema);
+      return codec.decode(bytes, compressedSchema, dictionaries);
     }
     finally
     {
@@ -411,7 +569,7 @@ class ID2Entry extends AbstractTree
     EntryCodec codec = acquireEntryCodec();
     try
     {
-      return codec.encode(entry, dataConfig);
+      return codec.encode(entry, dataConfig, dictionaries);
     }
     finally
     {
@@ -502,6 +660,59 @@ class ID2Entry extends AbstractTree
     return entry;
   }
 
+  /**
+   * Returns the name of the compression used by the provided record.
+   *
+   * @param bytes A byte array containing the encoded tree value.
+   * @return The name of the compressor, suffixed with "+dictionary" if a dictionary was used,
+   * or "none" if the record is not compressed.
+   */
+  static String getCompressionName(ByteString bytes)
+  {
+    final ByteSequenceReader reader = bytes.asReader();
+    switch (reader.readByte())
+    {
+    case EntryCodec.FORMAT_VERSION_V2:
+      return (reader.readByte() & EntryCodec.COMPRESS_ENTRY) != 0 ? EntryCompressors.DEFLATE.getName() : "none";
+    case EntryCodec.FORMAT_VERSION_V3:
+      if ((reader.readByte() & EntryCodec.COMPRESS_ENTRY) != 0)
+      {
+        final EntryCompressor compressor = EntryCompressors.forID(reader.readByte());
+        final String name = compressor != null ? compressor.getName() : "unknown";
+        return reader.readCompactUnsignedInt() != NO_DICTIONARY ? name + "+dictionary" : name;
+      }
+      return "none";
+    default:
+      return "none";
+    }
+  }
+
+  /**
+   * Returns the length of the provided record once decompressed and decrypted.
+   *
+   * @param bytes A byte array containing the encoded tree value.
+   * @return The length of the provided record once decompressed and decrypted.
+   */
+  static int getUncompressedLength(ByteString bytes)
+  {
+    final ByteSequenceReader reader = bytes.asReader();
+    switch (reader.readByte())
+    {
+    case EntryCodec.FORMAT_VERSION_V2:
+      reader.skip(1);
+      return reader.readCompactUnsignedInt();
+    case EntryCodec.FORMAT_VERSION_V3:
+      if ((reader.readByte() & EntryCodec.COMPRESS_ENTRY) != 0)
+      {
+        reader.skip(1);
+        reader.readCompactUnsignedInt();
+      }
+      return reader.readCompactUnsignedInt();
+    default:
+      return bytes.length();
+    }
+  }
+
   /**
    * Set the desired compression and encryption options for data
    * stored in the entry tree.
@@ -514,6 +725,16 @@ class ID2Entry extends AbstractTree
     this.dataConfig = dataConfig;
   }
 
+  /**
+   * Returns the compression and encryption options for data stored in the entry tree.
+   *
+   * @return the compression and encryption options for data stored in the entry tree
+   */
+  DataConfig getDataConfig()
+  {
+    return dataConfig;
+  }
+
   @Override
   public String keyToString(ByteString key)
   {
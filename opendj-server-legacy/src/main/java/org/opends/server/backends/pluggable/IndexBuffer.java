@@ -47,6 +47,8 @@ class IndexBuffer
 
     void writeTrustState(WriteableTransaction txn) throws StorageRuntimeException;
 
+    void afterCommit();
+
     void put(DefaultIndex index, ByteString key, EntryID entryID);
 
     void put(VLVIndex index, ByteString sortKey);
@@ -207,6 +209,15 @@ class IndexBuffer
       }
     }
 
+    @Override
+    public void afterCommit()
+    {
+      for (Entry<VLVIndex, BufferedVLVIndexValues> entry : bufferedVLVIndexes.entrySet())
+      {
+        entry.getKey().afterCommit(entry.getValue().addedSortKeys, entry.getValue().deletedSortKeys);
+      }
+    }
+
     @Override
     public void writeTrustState(WriteableTransaction txn)
     {
@@ -226,6 +237,12 @@ class IndexBuffer
     public void put(DefaultIndex index, ByteString key, EntryID entryID)
     {
       createOrGetBufferedIndexValues(index, key).addEntryID(entryID);
+      final DefaultIndex shadowIndex = index.getShadowIndex();
+      if (shadowIndex != null)
+      {
+        // Keep the index being rebuilt online up to date
+        createOrGetBufferedIndexValues(shadowIndex, key).addEntryID(entryID);
+      }
     }
 
     @Override
@@ -244,6 +261,12 @@ class IndexBuffer
     public void remove(Index index, ByteString key, EntryID entryID)
     {
       createOrGetBufferedIndexValues(index, key).deleteEntryID(entryID);
+      final DefaultIndex shadowIndex = index instanceof DefaultIndex ? ((DefaultIndex) index).getShadowIndex() : null;
+      if (shadowIndex != null)
+      {
+        // Keep the index being rebuilt online up to date
+        createOrGetBufferedIndexValues(shadowIndex, key).deleteEntryID(entryID);
+      }
     }
 
     private static void flushIndex(Index index, WriteableTransaction txn,
@@ -304,6 +327,12 @@ class IndexBuffer
       // Nothing to do
     }
 
+    @Override
+    public void afterCommit()
+    {
+      // Nothing to do
+    }
+
     @Override
     public void remove(VLVIndex index, ByteString sortKey)
     {
@@ -368,6 +397,15 @@ class IndexBuffer
     impl.writeTrustState(txn);
   }
 
+  /**
+   * Notifies the indexes that the buffered index changes have been committed, so that they can update their in-memory
+   * state.
+   */
+  void afterCommit()
+  {
+    impl.afterCommit();
+  }
+
   void put(DefaultIndex index, ByteString key, EntryID entryID)
   {
     impl.put(index, key, entryID);
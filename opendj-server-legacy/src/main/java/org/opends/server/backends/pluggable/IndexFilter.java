@@ -20,7 +20,9 @@ import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.opends.server.backends.pluggable.AttributeIndex.IndexFilterType;
@@ -45,6 +47,56 @@ class IndexFilter
   /** Limit on the number of entry IDs that may be retrieved by cursoring through an index. */
   static final int CURSOR_ENTRY_LIMIT = 100000;
 
+  /**
+   * The estimated cost of fetching and filtering a candidate entry, relative to the cost of reading
+   * an entry ID from an index. An AND filter component is not evaluated against the indexes when
+   * reading its entry IDs is estimated to cost more than filtering the current candidate entries.
+   */
+  private static final int ENTRY_TO_ENTRY_ID_COST_RATIO = 64;
+
+  /** A component of an AND filter, with the estimated number of entries matching it. */
+  private static final class PlannedFilter implements Comparable<PlannedFilter>
+  {
+    private final SearchFilter filter;
+    private final long estimatedCardinality;
+
+    private PlannedFilter(SearchFilter filter, long estimatedCardinality)
+    {
+      this.filter = filter;
+      this.estimatedCardinality = estimatedCardinality;
+    }
+
+    /** The components without statistics come first, so that statistics get gathered about them. */
+    private long getCost()
+    {
+      return estimatedCardinality == IndexStatistics.UNKNOWN ? 0 : estimatedCardinality;
+    }
+
+    @Override
+    public int compareTo(PlannedFilter that)
+    {
+      return Long.compare(getCost(), that.getCost());
+    }
+
+    private void toString(StringBuilder buffer)
+    {
+      filter.toString(buffer);
+      buffer.append('=');
+      if (estimatedCardinality == IndexStatistics.UNKNOWN)
+      {
+        buffer.append("UNKNOWN");
+      }
+      else if (estimatedCardinality == IndexStatistics.LIMIT_EXCEEDED)
+      {
+        buffer.append("LIMIT-EXCEEDED");
+      }
+      else
+      {
+        buffer.append(estimatedCardinality);
+      }
+    }
+  }
+
   /** The entry container holding the attribute indexes. */
   private final EntryContainer entryContainer;
   private final ReadableTransaction txn;
@@ -205,11 +257,14 @@ class IndexFilter
       }
     }
 
-    EntryIDSet results = newUndefinedSet();
-    // First, process the fast components.
-    results = applyFiltersUntilThreshold(results, fastComps);
-    // Next, process the other (non-range) components.
-    results = applyFiltersUntilThreshold(results, otherComps);
+    // Process the fast and the other (non-range) components, cheapest first according to the
+    // index statistics, and the fast components first when there is no statistics about them.
+    final List<PlannedFilter> plan = new ArrayList<>(fastComps.size() + otherComps.size());
+    addToPlan(plan, fastComps);
+    addToPlan(plan, otherComps);
+    Collections.sort(plan);
+    appendPlanToDebugBuffer(plan);
+    EntryIDSet results = applyPlanUntilThreshold(newUndefinedSet(), plan);
 
     if ( isBelowFilterThreshold(results) || rangeComps.isEmpty() ) {
       return results;
@@ -259,6 +314,100 @@ class IndexFilter
     return applyFiltersUntilThreshold(results, remainComps);
   }
 
+  private void addToPlan(List<PlannedFilter> plan, List<SearchFilter> filters)
+  {
+    for (SearchFilter filter : filters)
+    {
+      plan.add(new PlannedFilter(filter, estimateCardinality(filter)));
+    }
+  }
+
+  private long estimateCardinality(SearchFilter filter)
+  {
+    final IndexFilterType indexFilterType = toIndexFilterType(filter.getFilterType());
+    if (indexFilterType != null)
+    {
+      final AttributeIndex attributeIndex = entryContainer.getAttributeIndex(filter.getAttributeType());
+      if (attributeIndex != null)
+      {
+        return attributeIndex.getStatistics().estimateCardinality(indexFilterType, filter);
+      }
+    }
+    return IndexStatistics.UNKNOWN;
+  }
+
+  private static IndexFilterType toIndexFilterType(FilterType filterType)
+  {
+    switch (filterType)
+    {
+    case EQUALITY:
+      return IndexFilterType.EQUALITY;
+    case GREATER_OR_EQUAL:
+      return IndexFilterType.GREATER_OR_EQUAL;
+    case SUBSTRING:
+      return IndexFilterType.SUBSTRING;
+    case LESS_OR_EQUAL:
+      return IndexFilterType.LESS_OR_EQUAL;
+    case PRESENT:
+      return IndexFilterType.PRESENCE;
+    case APPROXIMATE_MATCH:
+      return IndexFilterType.APPROXIMATE;
+    default:
+      return null;
+    }
+  }
+
+  private EntryIDSet applyPlanUntilThreshold(EntryIDSet results, List<PlannedFilter> plan)
+  {
+    for (PlannedFilter plannedFilter : plan)
+    {
+      if (isBelowFilterThreshold(results))
+      {
+        return results;
+      }
+      if (isCheaperToFilterCandidates(results, plannedFilter.estimatedCardinality))
+      {
+        if (buffer != null)
+        {
+          plannedFilter.filter.toString(buffer);
+          buffer.append("[SKIPPED]");
+        }
+        continue;
+      }
+      results.retainAll(evaluateFilter(plannedFilter.filter));
+    }
+    return results;
+  }
+
+  /**
+   * Returns whether reading the entry IDs matching a filter component from the indexes is expected
+   * to cost more than fetching and filtering the current candidate entries.
+   */
+  private static boolean isCheaperToFilterCandidates(EntryIDSet candidates, long estimatedCardinality)
+  {
+    return candidates.isDefined()
+        && estimatedCardinality != IndexStatistics.UNKNOWN
+        && (estimatedCardinality == IndexStatistics.LIMIT_EXCEEDED
+            || estimatedCardinality / ENTRY_TO_ENTRY_ID_COST_RATIO > candidates.size());
+  }
+
+  private void appendPlanToDebugBuffer(List<PlannedFilter> plan)
+  {
+    if (buffer != null && !plan.isEmpty())
+    {
+      buffer.append("[PLAN:");
+      for (int i = 0; i < plan.size(); i++)
+      {
+        if (i > 0)
+        {
+          buffer.append(' ');
+        }
+        plan.get(i).toString(buffer);
+      }
+      buffer.append(']');
+    }
+  }
+
   private EntryIDSet applyFiltersUntilThreshold(EntryIDSet results, ArrayList<SearchFilter> filters)
   {
     for(SearchFilter filter : filters) {
@@ -313,7 +462,10 @@ class IndexFilter
     if (attributeIndex != null)
     {
       final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex);
-      return attributeIndex.evaluateFilter(indexQueryFactory, indexFilterType, filter, buffer, monitor);
+      final EntryIDSet entryIDs =
+          attributeIndex.evaluateFilter(indexQueryFactory, indexFilterType, filter, buffer, monitor);
+      attributeIndex.getStatistics().record(indexFilterType, filter, entryIDs);
+      return entryIDs;
     }
 
     if (monitor.isFilterUseEnabled())
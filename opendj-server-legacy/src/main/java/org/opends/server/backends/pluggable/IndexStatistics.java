@@ -0,0 +1,184 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opends.server.backends.pluggable.AttributeIndex.IndexFilterType;
+import org.opends.server.types.SearchFilter;
+
+/**
+ * Cardinality statistics of an attribute index, used for planning the evaluation of search filters.
+ * <p>
+ * Maintaining exact per-key statistics would add a write to every index update, so the statistics
+ * are instead learned from the evaluation of search filters against the index, which yields the
+ * exact number of entries matching each evaluated filter for free. The statistics keep:
+ * <ul>
+ * <li>the last cardinality of a bounded number of recently used filters, which captures the
+ * frequently used and expensive keys such as {@code (objectClass=person)}. The least recently used
+ * filter is evicted when a new filter must be recorded;</li>
+ * <li>the average cardinality of the filters evaluated against each index type, which estimates the
+ * cost of the filters which have not been evaluated recently.</li>
+ * </ul>
+ * The statistics are estimates: they do not track the updates of the index. A filter whose
+ * cardinality has been estimated many times without being evaluated again, typically because it
+ * exceeded the index entry limit and is planned last, is forgotten so that its next evaluation
+ * samples its cardinality again.
+ */
+final class IndexStatistics
+{
+  /** The estimated cardinality of a filter which has never been evaluated against an index of the same type. */
+  static final long UNKNOWN = -1;
+  /** The estimated cardinality of a filter whose evaluation exceeds the index entry limit. */
+  static final long LIMIT_EXCEEDED = Long.MAX_VALUE;
+
+  /** The maximum number of filters whose cardinality is kept. */
+  static final int MAX_FILTERS = 256;
+  /** The number of estimations after which the cardinality of a filter which was not evaluated again is forgotten. */
+  static final int MAX_ESTIMATIONS_WITHOUT_EVALUATION = 100;
+
+  /** The statistics about the evaluations of a filter. */
+  private static final class FilterStatistics
+  {
+    private final long cardinality;
+    /** The number of estimations left before the cardinality is forgotten. */
+    private final AtomicInteger remainingEstimations = new AtomicInteger(MAX_ESTIMATIONS_WITHOUT_EVALUATION);
+    /** When this filter was last used, according to the clock of the statistics. */
+    private volatile long lastUse;
+
+    private FilterStatistics(long cardinality, long lastUse)
+    {
+      this.cardinality = cardinality;
+      this.lastUse = lastUse;
+    }
+  }
+
+  /** The statistics about the evaluations of all the filters against an index type. */
+  private static final class IndexTypeStatistics
+  {
+    /** The number of evaluations which did not exceed the index entry limit. */
+    private final LongAdder definedEvaluations = new LongAdder();
+    private final LongAdder totalCardinality = new LongAdder();
+  }
+
+  private final ConcurrentMap<SearchFilter, FilterStatistics> filterStatistics = new ConcurrentHashMap<>();
+  /** Orders the uses of the filters, for evicting the least recently used one. */
+  private final AtomicLong clock = new AtomicLong();
+  private final IndexTypeStatistics[] indexTypeStatistics = new IndexTypeStatistics[IndexFilterType.values().length];
+
+  IndexStatistics()
+  {
+    for (int i = 0; i < indexTypeStatistics.length; i++)
+    {
+      indexTypeStatistics[i] = new IndexTypeStatistics();
+    }
+  }
+
+  /**
+   * Records the result of the evaluation of a filter against the index.
+   *
+   * @param indexFilterType
+   *          the type of index used for evaluating the filter
+   * @param filter
+   *          the evaluated filter
+   * @param entryIDs
+   *          the entry IDs resulting from the evaluation
+   */
+  void record(IndexFilterType indexFilterType, SearchFilter filter, EntryIDSet entryIDs)
+  {
+    final long cardinality;
+    if (entryIDs.isDefined())
+    {
+      cardinality = entryIDs.size();
+      final IndexTypeStatistics stats = indexTypeStatistics[indexFilterType.ordinal()];
+      stats.definedEvaluations.increment();
+      stats.totalCardinality.add(cardinality);
+    }
+    else
+    {
+      cardinality = LIMIT_EXCEEDED;
+    }
+
+    if (filterStatistics.size() >= MAX_FILTERS && !filterStatistics.containsKey(filter))
+    {
+      evictLeastRecentlyUsedFilter();
+    }
+    filterStatistics.put(filter, new FilterStatistics(cardinality, clock.incrementAndGet()));
+  }
+
+  private void evictLeastRecentlyUsedFilter()
+  {
+    Map.Entry<SearchFilter, FilterStatistics> leastRecentlyUsed = null;
+    for (Map.Entry<SearchFilter, FilterStatistics> entry : filterStatistics.entrySet())
+    {
+      if (leastRecentlyUsed == null || entry.getValue().lastUse < leastRecentlyUsed.getValue().lastUse)
+      {
+        leastRecentlyUsed = entry;
+      }
+    }
+    if (leastRecentlyUsed != null)
+    {
+      filterStatistics.remove(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue());
+    }
+  }
+
+  /**
+   * Returns the estimated number of entries matching a filter according to the index.
+   *
+   * @param indexFilterType
+   *          the type of index used for evaluating the filter
+   * @param filter
+   *          the filter to evaluate
+   * @return the estimated number of entries matching the filter, {@link #LIMIT_EXCEEDED} if its
+   *         last evaluation exceeded the index entry limit, or {@link #UNKNOWN} if there is no
+   *         statistics about this type of index or if the statistics about this filter are stale
+   */
+  long estimateCardinality(IndexFilterType indexFilterType, SearchFilter filter)
+  {
+    final FilterStatistics filterStats = filterStatistics.get(filter);
+    if (filterStats != null)
+    {
+      filterStats.lastUse = clock.incrementAndGet();
+      if (filterStats.remainingEstimations.decrementAndGet() >= 0)
+      {
+        return filterStats.cardinality;
+      }
+      // Stale: the filter is planned first, so that it is evaluated and recorded again
+      filterStatistics.remove(filter, filterStats);
+      return UNKNOWN;
+    }
+
+    // Only the filters which have been evaluated are expected to exceed the index entry limit.
+    final IndexTypeStatistics stats = indexTypeStatistics[indexFilterType.ordinal()];
+    final long definedEvaluations = stats.definedEvaluations.sum();
+    return definedEvaluations > 0 ? stats.totalCardinality.sum() / definedEvaluations : UNKNOWN;
+  }
+
+  /** Forgets all the statistics, for example after the configuration of the index has changed. */
+  void clear()
+  {
+    filterStatistics.clear();
+    for (int i = 0; i < indexTypeStatistics.length; i++)
+    {
+      indexTypeStatistics[i] = new IndexTypeStatistics();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compresses entries with the LZ4 block format. Compression is a single pass greedy match finder over a hash table of
+ * 4 bytes sequences, which trades some compression ratio for much faster compression and decompression than Deflate.
+ * <p>
+ * The dictionary, if any, is used as a prefix of the data: matches may reference the dictionary as if it immediately
+ * preceded the entry. For this reason, only the last 64KB of a dictionary are ever referenced.
+ */
+final class LZ4EntryCompressor implements EntryCompressor
+{
+  private static final int MIN_MATCH = 4;
+  /** The last bytes of a block are always literals. */
+  private static final int LAST_LITERALS = 5;
+  /** The last match must start at least this number of bytes before the end of the block. */
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_DISTANCE = 0xFFFF;
+  private static final int RUN_MASK = 0x0F;
+  private static final int HASH_LOG = 12;
+
+  /** Per thread compression state. */
+  private static final class State
+  {
+    private final int[] hashTable = new int[1 << HASH_LOG];
+    private byte[] window = new byte[0];
+
+    private byte[] window(int size)
+    {
+      if (window.length < size)
+      {
+        window = new byte[size];
+      }
+      return window;
+    }
+  }
+
+  private static final ThreadLocal<State> STATES = new ThreadLocal<State>()
+  {
+    @Override
+    protected State initialValue()
+    {
+      return new State();
+    }
+  };
+
+  private final byte id;
+
+  LZ4EntryCompressor(byte id)
+  {
+    this.id = id;
+  }
+
+  @Override
+  public byte getID()
+  {
+    return id;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "lz4";
+  }
+
+  @Override
+  public void compress(byte[] input, int length, byte[] dictionary, ByteStringBuilder output)
+  {
+    final State state = STATES.get();
+    final int[] hashTable = state.hashTable;
+    Arrays.fill(hashTable, -1);
+
+    final byte[] src;
+    final int start;
+    if (dictionary == null || dictionary.length == 0)
+    {
+      src = input;
+      start = 0;
+    }
+    else
+    {
+      // Only the end of the dictionary can be referenced.
+      final int dictionaryLength = Math.min(dictionary.length, MAX_DISTANCE);
+      src = state.window(dictionaryLength + length);
+      System.arraycopy(dictionary, dictionary.length - dictionaryLength, src, 0, dictionaryLength);
+      System.arraycopy(input, 0, src, dictionaryLength, length);
+      start = dictionaryLength;
+      for (int i = 0; i + MIN_MATCH <= dictionaryLength; i++)
+      {
+        hashTable[hash(readInt(src, i))] = i;
+      }
+    }
+
+    final int end = start + length;
+    final int matchLimit = end - LAST_LITERALS;
+    final int mfLimit = end - MF_LIMIT;
+    int anchor = start;
+    int position = start;
+    while (position < mfLimit)
+    {
+      final int sequence = readInt(src, position);
+      final int h = hash(sequence);
+      int ref = hashTable[h];
+      hashTable[h] = position;
+      if (ref < 0 || position - ref > MAX_DISTANCE || readInt(src, ref) != sequence)
+      {
+        position++;
+        continue;
+      }
+
+      int matchLength = MIN_MATCH;
+      while (position + matchLength < matchLimit && src[ref + matchLength] == src[position + matchLength])
+      {
+        matchLength++;
+      }
+      while (position > anchor && ref > 0 && src[position - 1] == src[ref - 1])
+      {
+        position--;
+        ref--;
+        matchLength++;
+      }
+
+      writeSequence(src, anchor, position - anchor, position - ref, matchLength, output);
+      position += matchLength;
+      anchor = position;
+    }
+
+    final int literalLength = end - anchor;
+    output.appendByte(Math.min(literalLength, RUN_MASK) << 4);
+    if (literalLength >= RUN_MASK)
+    {
+      writeLength(literalLength - RUN_MASK, output);
+    }
+    output.appendBytes(src, anchor, literalLength);
+  }
+
+  private static void writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+      ByteStringBuilder output)
+  {
+    final int matchCode = matchLength - MIN_MATCH;
+    output.appendByte((Math.min(literalLength, RUN_MASK) << 4) | Math.min(matchCode, RUN_MASK));
+    if (literalLength >= RUN_MASK)
+    {
+      writeLength(literalLength - RUN_MASK, output);
+    }
+    output.appendBytes(src, literalStart, literalLength);
+    output.appendByte(offset & 0xFF);
+    output.appendByte(offset >>> 8);
+    if (matchCode >= RUN_MASK)
+    {
+      writeLength(matchCode - RUN_MASK, output);
+    }
+  }
+
+  private static void writeLength(int length, ByteStringBuilder output)
+  {
+    int remaining = length;
+    while (remaining >= 0xFF)
+    {
+      output.appendByte(0xFF);
+      remaining -= 0xFF;
+    }
+    output.appendByte(remaining);
+  }
+
+  @Override
+  public void decompress(byte[] input, int offset, int length, byte[] dictionary, byte[] output)
+      throws DataFormatException
+  {
+    final int dictionaryLength = dictionary != null ? dictionary.length : 0;
+    final int inputEnd = offset + length;
+    int ip = offset;
+    int op = 0;
+    try
+    {
+      while (true)
+      {
+        final int token = input[ip++] & 0xFF;
+        int literalLength = token >>> 4;
+        if (literalLength == RUN_MASK)
+        {
+          int b;
+          do
+          {
+            b = input[ip++] & 0xFF;
+            literalLength += b;
+          }
+          while (b == 0xFF);
+        }
+        if (op + literalLength > output.length || ip + literalLength > inputEnd)
+        {
+          throw new DataFormatException("Literals overflow the compressed entry");
+        }
+        System.arraycopy(input, ip, output, op, literalLength);
+        ip += literalLength;
+        op += literalLength;
+        if (ip == inputEnd)
+        {
+          break;
+        }
+
+        final int distance = (input[ip++] & 0xFF) | (input[ip++] & 0xFF) << 8;
+        int matchLength = token & RUN_MASK;
+        if (matchLength == RUN_MASK)
+        {
+          int b;
+          do
+          {
+            b = input[ip++] & 0xFF;
+            matchLength += b;
+          }
+          while (b == 0xFF);
+        }
+        matchLength += MIN_MATCH;
+        int ref = op - distance;
+        if (distance == 0 || ref < -dictionaryLength || op + matchLength > output.length)
+        {
+          throw new DataFormatException("Invalid match in the compressed entry");
+        }
+        // Byte by byte copy: the match may overlap with the bytes being written, or start in the dictionary.
+        for (final int matchEnd = op + matchLength; op < matchEnd; op++, ref++)
+        {
+          output[op] = ref < 0 ? dictionary[dictionaryLength + ref] : output[ref];
+        }
+      }
+    }
+    catch (ArrayIndexOutOfBoundsException e)
+    {
+      throw new DataFormatException("Truncated compressed entry");
+    }
+    if (op != output.length)
+    {
+      throw new DataFormatException("Compressed entry does not have the expected length");
+    }
+  }
+
+  private static int readInt(byte[] bytes, int index)
+  {
+    return (bytes[index] & 0xFF) << 24
+         | (bytes[index + 1] & 0xFF) << 16
+         | (bytes[index + 2] & 0xFF) << 8
+         | (bytes[index + 3] & 0xFF);
+  }
+
+  private static int hash(int sequence)
+  {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getName();
+  }
+}
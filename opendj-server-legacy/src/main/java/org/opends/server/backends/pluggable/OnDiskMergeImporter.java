@@ -110,6 +110,7 @@ import org.forgerock.util.Utils;
 import org.forgerock.util.promise.PromiseImpl;
 import org.opends.server.api.CompressedSchema;
 import org.opends.server.backends.RebuildConfig;
+import org.opends.server.backends.RebuildConfig.RebuildMode;
 import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
 import org.opends.server.backends.pluggable.CursorTransformer.SequentialCursorAdapter;
 import org.opends.server.backends.pluggable.DN2ID.TreeVisitor;
@@ -314,12 +315,57 @@ final class OnDiskMergeImporter
         clearDegradedState(entryContainer, indexesToRebuild);
         logger.info(NOTE_REBUILD_CLEARDEGRADEDSTATE_FINAL_STATUS, rebuildConfig.getRebuildList());
       }
+      else if (rebuildConfig.isOnlineRebuild())
+      {
+        rebuildIndexOnline(entryContainer, rebuildConfig, indexesToRebuild, totalEntries);
+      }
       else
       {
         rebuildIndex(entryContainer, rebuildConfig.getTmpDirectory(), indexesToRebuild, totalEntries);
       }
     }
 
+    /**
+     * Rebuilds the attribute indexes while the backend remains online. The other indexes cannot be
+     * rebuilt online: they are ignored when rebuilding all or the degraded indexes.
+     */
+    private void rebuildIndexOnline(EntryContainer entryContainer, RebuildConfig rebuildConfig,
+        Set<String> indexesToRebuild, long totalEntries) throws InitializationException, ExecutionException
+    {
+      final List<MatchingRuleIndex> indexes = new ArrayList<>();
+      final Set<String> unsupportedIndexes = new HashSet<>(indexesToRebuild);
+      for (AttributeIndex attributeIndex : entryContainer.getAttributeIndexes())
+      {
+        for (MatchingRuleIndex index : attributeIndex.getNameToIndexes().values())
+        {
+          if (unsupportedIndexes.remove(index.getName().getIndexId()))
+          {
+            indexes.add(index);
+          }
+        }
+      }
+      if (!unsupportedIndexes.isEmpty() && rebuildConfig.getRebuildMode() == RebuildMode.USER_DEFINED)
+      {
+        throw new InitializationException(ERR_REBUILD_ONLINE_UNSUPPORTED_INDEX.get(
+            Utils.joinAsString(", ", unsupportedIndexes)));
+      }
+      if (indexes.isEmpty())
+      {
+        logger.info(NOTE_REBUILD_NOTHING_TO_REBUILD);
+        return;
+      }
+
+      try
+      {
+        new OnlineIndexRebuilder(rootContainer, entryContainer, indexes, rebuildConfig.getMaxEntriesPerSecond(),
+            totalEntries).rebuild();
+      }
+      catch (Exception e)
+      {
+        throw new ExecutionException(e);
+      }
+    }
+
     private void clearDegradedState(final EntryContainer entryContainer, final Set<String> indexIds)
         throws ExecutionException
     {
@@ -0,0 +1,460 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Utils.joinAsString;
+import static org.opends.messages.BackendMessages.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.types.Entry;
+
+/**
+ * Rebuilds attribute indexes while the backend remains online.
+ * <p>
+ * The new content of each index is built into a shadow tree by scanning the entries in the
+ * background, one batch of entries per transaction, optionally throttled. Meanwhile, the index
+ * buffers of the write operations apply the index changes to both the index and its shadow tree.
+ * <p>
+ * Once the scan is complete, the shadow tree is merged into the index tree, one batch of keys per
+ * transaction. The storage cannot rename trees, so the index keeps serving the searches with its
+ * current trust state during the merge: each of its keys holds either its previous value or its
+ * rebuilt value. Finally, while the write operations are blocked, the keys updated during the merge
+ * are merged again, the index is marked as trusted and the shadow tree is deleted, all in a single
+ * transaction.
+ * <p>
+ * An entry modified while being scanned may leave its entry ID under keys which it no longer has,
+ * like a stale candidate, which the searches filter out.
+ */
+final class OnlineIndexRebuilder
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The number of entries scanned per transaction. */
+  private static final int SCAN_BATCH_SIZE = 500;
+  /** The number of keys merged per transaction. */
+  private static final int MERGE_BATCH_SIZE = 1000;
+  /** The number of milliseconds between progress reports. */
+  private static final long PROGRESS_INTERVAL = 10000;
+
+  private final RootContainer rootContainer;
+  private final EntryContainer entryContainer;
+  private final Storage storage;
+  /** The indexes to rebuild, mapped to their shadow index. */
+  private final Map<MatchingRuleIndex, DefaultIndex> shadowIndexes = new LinkedHashMap<>();
+  /** The keys updated in each shadow index during the merge. */
+  private final Map<DefaultIndex, Set<ByteString>> updatedKeys = new LinkedHashMap<>();
+  private final int maxEntriesPerSecond;
+  private final long totalEntries;
+
+  private volatile long startTime;
+  private volatile long scannedEntries;
+  private volatile boolean merging;
+
+  /**
+   * Creates a new online index rebuilder.
+   *
+   * @param rootContainer
+   *          The root container of the indexes.
+   * @param entryContainer
+   *          The entry container of the indexes.
+   * @param indexes
+   *          The attribute indexes to rebuild.
+   * @param maxEntriesPerSecond
+   *          The maximum number of entries scanned per second, or 0 for no limit.
+   * @param totalEntries
+   *          The number of entries of the entry container.
+   */
+  OnlineIndexRebuilder(RootContainer rootContainer, EntryContainer entryContainer, List<MatchingRuleIndex> indexes,
+      int maxEntriesPerSecond, long totalEntries)
+  {
+    this.rootContainer = rootContainer;
+    this.entryContainer = entryContainer;
+    this.storage = rootContainer.getStorage();
+    for (MatchingRuleIndex index : indexes)
+    {
+      shadowIndexes.put(index, index.newShadowIndex());
+    }
+    this.maxEntriesPerSecond = maxEntriesPerSecond;
+    this.totalEntries = totalEntries;
+  }
+
+  /**
+   * Rebuilds the indexes.
+   *
+   * @throws Exception
+   *           If the rebuild failed or was interrupted. The indexes are then left unchanged or
+   *           partially merged, with their previous trust state.
+   */
+  void rebuild() throws Exception
+  {
+    startTime = System.currentTimeMillis();
+    rootContainer.addOnlineIndexRebuilder(this);
+    try
+    {
+      createShadowIndexes();
+      boolean success = false;
+      try
+      {
+        scanEntries();
+        mergeShadowIndexes();
+        success = true;
+      }
+      finally
+      {
+        deleteShadowIndexes(success);
+      }
+    }
+    finally
+    {
+      rootContainer.removeOnlineIndexRebuilder(this);
+    }
+
+    final long totalTime = System.currentTimeMillis() - startTime;
+    final float rate = totalTime > 0 ? 1000f * scannedEntries / totalTime : 0;
+    logger.info(NOTE_REBUILD_FINAL_STATUS, scannedEntries, totalTime / 1000, rate);
+  }
+
+  private void createShadowIndexes() throws Exception
+  {
+    // Remove the shadow trees left by an interrupted online rebuild
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        for (DefaultIndex shadowIndex : shadowIndexes.values())
+        {
+          shadowIndex.open(txn, true);
+          entryContainer.deleteTree(txn, shadowIndex);
+        }
+      }
+    });
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        for (DefaultIndex shadowIndex : shadowIndexes.values())
+        {
+          shadowIndex.open(txn, true);
+          // The shadow trees must accept new keys
+          shadowIndex.setTrusted(txn, true);
+        }
+      }
+    });
+
+    entryContainer.exclusiveLock.lock();
+    try
+    {
+      for (Map.Entry<MatchingRuleIndex, DefaultIndex> entry : shadowIndexes.entrySet())
+      {
+        entry.getKey().setShadowIndex(entry.getValue());
+      }
+    }
+    finally
+    {
+      entryContainer.exclusiveLock.unlock();
+    }
+  }
+
+  private void scanEntries() throws Exception
+  {
+    final ID2Entry id2entry = entryContainer.getID2Entry();
+    final AtomicLong nextEntryID = new AtomicLong(1);
+    final AtomicLong batchSize = new AtomicLong();
+    final long scanStartTime = System.currentTimeMillis();
+    long previousReportTime = scanStartTime;
+    long previousReportCount = 0;
+    while (nextEntryID.get() > 0)
+    {
+      final ByteString firstKey = new EntryID(nextEntryID.get()).toByteString();
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          final IndexBuffer buffer = new IndexBuffer();
+          long count = 0;
+          try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
+          {
+            boolean found = cursor.positionToKeyOrNext(firstKey);
+            while (found && count < SCAN_BATCH_SIZE)
+            {
+              final EntryID entryID = new EntryID(cursor.getKey());
+              final Entry entry = id2entry.entryFromDatabase(cursor.getValue(), rootContainer.getCompressedSchema());
+              for (Map.Entry<MatchingRuleIndex, DefaultIndex> index : shadowIndexes.entrySet())
+              {
+                for (ByteString key : index.getKey().indexEntry(entry))
+                {
+                  buffer.put(index.getValue(), key, entryID);
+                }
+              }
+              count++;
+              found = cursor.next();
+            }
+            nextEntryID.set(found ? new EntryID(cursor.getKey()).longValue() : 0);
+          }
+          buffer.flush(txn);
+          batchSize.set(count);
+        }
+      });
+      scannedEntries += batchSize.get();
+
+      final long now = System.currentTimeMillis();
+      if (now - previousReportTime >= PROGRESS_INTERVAL)
+      {
+        final float progressPercent = totalEntries > 0 ? 100f * scannedEntries / totalEntries : 0;
+        final float rate = 1000f * (scannedEntries - previousReportCount) / (now - previousReportTime);
+        logger.info(NOTE_REBUILD_PROGRESS_REPORT, progressPercent, scannedEntries, totalEntries, rate);
+        previousReportTime = now;
+        previousReportCount = scannedEntries;
+      }
+      if (maxEntriesPerSecond > 0)
+      {
+        final long delay = scanStartTime + 1000 * scannedEntries / maxEntriesPerSecond - now;
+        if (delay > 0)
+        {
+          Thread.sleep(delay);
+        }
+      }
+    }
+  }
+
+  private void mergeShadowIndexes() throws Exception
+  {
+    // Wait for the in-progress write operations, so that all the later ones record their updated keys
+    entryContainer.exclusiveLock.lock();
+    try
+    {
+      for (DefaultIndex shadowIndex : shadowIndexes.values())
+      {
+        final Set<ByteString> keys = ConcurrentHashMap.newKeySet();
+        updatedKeys.put(shadowIndex, keys);
+        shadowIndex.setUpdatedKeys(keys);
+      }
+      merging = true;
+    }
+    finally
+    {
+      entryContainer.exclusiveLock.unlock();
+    }
+
+    for (final Map.Entry<MatchingRuleIndex, DefaultIndex> entry : shadowIndexes.entrySet())
+    {
+      final AtomicReference<ByteString> nextKey = new AtomicReference<>(ByteString.empty());
+      while (nextKey.get() != null)
+      {
+        final ByteString fromKey = nextKey.get();
+        storage.write(new WriteOperation()
+        {
+          @Override
+          public void run(WriteableTransaction txn) throws Exception
+          {
+            nextKey.set(mergeBatch(txn, entry.getKey(), entry.getValue(), fromKey));
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Merges a batch of keys of a shadow index into its index, starting at the provided key.
+   *
+   * @return the key from which the next batch starts, or {@code null} if the merge is complete
+   */
+  private static ByteString mergeBatch(WriteableTransaction txn, DefaultIndex index, DefaultIndex shadowIndex,
+      ByteString fromKey)
+  {
+    final List<ByteString> keysToPut = new ArrayList<>();
+    final List<ByteString> valuesToPut = new ArrayList<>();
+    final List<ByteString> keysToDelete = new ArrayList<>();
+    ByteString nextKey = null;
+    try (final Cursor<ByteString, ByteString> shadowCursor = txn.openCursor(shadowIndex.getName());
+        final Cursor<ByteString, ByteString> cursor = txn.openCursor(index.getName()))
+    {
+      boolean hasShadowKey = shadowCursor.positionToKeyOrNext(fromKey);
+      boolean hasKey = cursor.positionToKeyOrNext(fromKey);
+      for (int count = 0; (hasShadowKey || hasKey) && count < MERGE_BATCH_SIZE; count++)
+      {
+        final int cmp = !hasKey ? -1 : !hasShadowKey ? 1 : shadowCursor.getKey().compareTo(cursor.getKey());
+        if (cmp <= 0)
+        {
+          final ByteString key = shadowCursor.getKey();
+          final ByteString value = index.toValue(shadowIndex.decodeValue(key, shadowCursor.getValue()));
+          if (cmp < 0 || !value.equals(cursor.getValue()))
+          {
+            keysToPut.add(key);
+            valuesToPut.add(value);
+          }
+          hasShadowKey = shadowCursor.next();
+          if (cmp == 0)
+          {
+            hasKey = cursor.next();
+          }
+        }
+        else
+        {
+          keysToDelete.add(cursor.getKey());
+          hasKey = cursor.next();
+        }
+      }
+      if (hasShadowKey && (!hasKey || shadowCursor.getKey().compareTo(cursor.getKey()) <= 0))
+      {
+        nextKey = shadowCursor.getKey();
+      }
+      else if (hasKey)
+      {
+        nextKey = cursor.getKey();
+      }
+    }
+
+    // Do not update the trees while iterating over them
+    for (int i = 0; i < keysToPut.size(); i++)
+    {
+      txn.put(index.getName(), keysToPut.get(i), valuesToPut.get(i));
+    }
+    for (ByteString key : keysToDelete)
+    {
+      txn.delete(index.getName(), key);
+    }
+    return nextKey;
+  }
+
+  private void deleteShadowIndexes(final boolean success) throws Exception
+  {
+    // Block the write operations, so that the indexes do not change until they stop being rebuilt
+    entryContainer.exclusiveLock.lock();
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (Map.Entry<MatchingRuleIndex, DefaultIndex> entry : shadowIndexes.entrySet())
+          {
+            final MatchingRuleIndex index = entry.getKey();
+            final DefaultIndex shadowIndex = entry.getValue();
+            if (success)
+            {
+              for (ByteString key : updatedKeys.get(shadowIndex))
+              {
+                mergeKey(txn, index, shadowIndex, key);
+              }
+              index.setTrusted(txn, true);
+            }
+            entryContainer.deleteTree(txn, shadowIndex);
+          }
+        }
+      });
+    }
+    finally
+    {
+      for (Map.Entry<MatchingRuleIndex, DefaultIndex> entry : shadowIndexes.entrySet())
+      {
+        entry.getKey().setShadowIndex(null);
+        entry.getValue().setUpdatedKeys(null);
+      }
+      entryContainer.exclusiveLock.unlock();
+    }
+  }
+
+  private static void mergeKey(WriteableTransaction txn, DefaultIndex index, DefaultIndex shadowIndex,
+      ByteString key)
+  {
+    final ByteString value = txn.read(shadowIndex.getName(), key);
+    if (value != null)
+    {
+      txn.put(index.getName(), key, index.toValue(shadowIndex.decodeValue(key, value)));
+    }
+    else
+    {
+      txn.delete(index.getName(), key);
+    }
+  }
+
+  /**
+   * Returns the number of entries scanned so far.
+   *
+   * @return the number of entries scanned so far
+   */
+  long getScannedEntryCount()
+  {
+    return scannedEntries;
+  }
+
+  /**
+   * Returns the number of entries to scan.
+   *
+   * @return the number of entries to scan
+   */
+  long getTotalEntryCount()
+  {
+    return totalEntries;
+  }
+
+  /**
+   * Returns the estimated time remaining until all the entries are scanned, based on the average
+   * scan rate so far.
+   *
+   * @param unit
+   *          the unit of the returned time
+   * @return the estimated remaining time, or -1 if it cannot be estimated yet
+   */
+  long getEstimatedRemainingTime(TimeUnit unit)
+  {
+    final long scanned = scannedEntries;
+    if (merging || scanned >= totalEntries)
+    {
+      return 0;
+    }
+    if (scanned == 0)
+    {
+      return -1;
+    }
+    final long elapsedTime = System.currentTimeMillis() - startTime;
+    return unit.convert(elapsedTime * (totalEntries - scanned) / scanned, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String toString()
+  {
+    final List<String> names = new ArrayList<>();
+    for (MatchingRuleIndex index : shadowIndexes.keySet())
+    {
+      names.add(index.getName().toString());
+    }
+    return joinAsString(",", names) + (merging ? " merging" : " scanning") + " " + scannedEntries + "/"
+        + totalEntries + " entries, estimated remaining time "
+        + getEstimatedRemainingTime(TimeUnit.SECONDS) + "s";
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Arrays;
+
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * An in-memory sorted set of keys, which also returns the position of a key and the key at a
+ * position in logarithmic time.
+ * <p>
+ * The keys are stored in a B+tree whose inner nodes know the number of keys of each of their
+ * subtrees. Nodes which become empty are removed, but nodes are not merged: the height of the tree
+ * does not decrease when keys are removed, which is fine for the VLV indexes, whose size only
+ * changes slowly.
+ * <p>
+ * This class is not thread safe.
+ */
+final class OrderStatisticTree
+{
+  /** The maximum number of keys of a leaf node, and of children of an inner node. */
+  private static final int MAX_NODE_SIZE = 64;
+
+  /** A node of the tree. */
+  private static final class Node
+  {
+    /**
+     * The keys of a leaf node. For an inner node, element {@code i > 0} is a lower bound of the keys
+     * of child {@code i}, while element 0 is the lower bound of the node itself when it was split.
+     */
+    private final ByteString[] keys = new ByteString[MAX_NODE_SIZE + 1];
+    /** The children of an inner node, {@code null} for a leaf node. */
+    private final Node[] children;
+    /** The number of keys of a leaf node, or of children of an inner node. */
+    private int length;
+    /** The number of keys of the subtree rooted at this node. */
+    private int size;
+
+    private Node(boolean leaf)
+    {
+      children = leaf ? null : new Node[MAX_NODE_SIZE + 1];
+    }
+
+    private boolean isLeaf()
+    {
+      return children == null;
+    }
+
+    /** Returns the position, within this leaf node, of the provided key or of its insertion point. */
+    private int search(ByteString key)
+    {
+      return Arrays.binarySearch(keys, 0, length, key);
+    }
+
+    /** Returns the index of the child of this inner node which holds, or would hold, the provided key. */
+    private int childIndex(ByteString key)
+    {
+      int low = 1;
+      int high = length - 1;
+      while (low <= high)
+      {
+        final int mid = (low + high) >>> 1;
+        if (keys[mid].compareTo(key) <= 0)
+        {
+          low = mid + 1;
+        }
+        else
+        {
+          high = mid - 1;
+        }
+      }
+      return low - 1;
+    }
+
+    private void insert(int index, ByteString key, Node child)
+    {
+      System.arraycopy(keys, index, keys, index + 1, length - index);
+      keys[index] = key;
+      if (children != null)
+      {
+        System.arraycopy(children, index, children, index + 1, length - index);
+        children[index] = child;
+      }
+      length++;
+    }
+
+    private void remove(int index)
+    {
+      System.arraycopy(keys, index + 1, keys, index, length - index - 1);
+      keys[length - 1] = null;
+      if (children != null)
+      {
+        System.arraycopy(children, index + 1, children, index, length - index - 1);
+        children[length - 1] = null;
+      }
+      length--;
+    }
+
+    /** Moves the second half of this node to a new node, and returns it. */
+    private Node split()
+    {
+      final Node sibling = new Node(isLeaf());
+      final int mid = length / 2;
+      sibling.length = length - mid;
+      System.arraycopy(keys, mid, sibling.keys, 0, sibling.length);
+      Arrays.fill(keys, mid, length, null);
+      if (children != null)
+      {
+        System.arraycopy(children, mid, sibling.children, 0, sibling.length);
+        Arrays.fill(children, mid, length, null);
+        for (int i = 0; i < sibling.length; i++)
+        {
+          sibling.size += sibling.children[i].size;
+        }
+      }
+      else
+      {
+        sibling.size = sibling.length;
+      }
+      length = mid;
+      size -= sibling.size;
+      return sibling;
+    }
+  }
+
+  private Node root = new Node(true);
+  /** Whether the last add or remove modified the tree. */
+  private boolean modified;
+
+  /**
+   * Returns the number of keys of this tree.
+   *
+   * @return the number of keys of this tree
+   */
+  int size()
+  {
+    return root.size;
+  }
+
+  /**
+   * Adds a key to this tree.
+   *
+   * @param key
+   *          the key to add
+   * @return {@code true} if the key was added, {@code false} if it was already present
+   */
+  boolean add(ByteString key)
+  {
+    modified = false;
+    final Node sibling = add(root, key);
+    if (sibling != null)
+    {
+      final Node newRoot = new Node(false);
+      newRoot.insert(0, null, root);
+      newRoot.insert(1, sibling.keys[0], sibling);
+      newRoot.size = root.size + sibling.size;
+      root = newRoot;
+    }
+    return modified;
+  }
+
+  /** Adds a key to the subtree rooted at the provided node, and returns the new sibling of the node if it was split. */
+  private Node add(Node node, ByteString key)
+  {
+    if (node.isLeaf())
+    {
+      final int pos = node.search(key);
+      if (pos >= 0)
+      {
+        return null;
+      }
+      node.insert(-pos - 1, key, null);
+    }
+    else
+    {
+      final int index = node.childIndex(key);
+      final Node sibling = add(node.children[index], key);
+      if (!modified)
+      {
+        return null;
+      }
+      if (sibling != null)
+      {
+        node.insert(index + 1, sibling.keys[0], sibling);
+      }
+    }
+    modified = true;
+    node.size++;
+    return node.length > MAX_NODE_SIZE ? node.split() : null;
+  }
+
+  /**
+   * Removes a key from this tree.
+   *
+   * @param key
+   *          the key to remove
+   * @return {@code true} if the key was removed, {@code false} if it was not present
+   */
+  boolean remove(ByteString key)
+  {
+    modified = false;
+    remove(root, key);
+    while (!root.isLeaf() && root.length <= 1)
+    {
+      root = root.length == 1 ? root.children[0] : new Node(true);
+    }
+    return modified;
+  }
+
+  private void remove(Node node, ByteString key)
+  {
+    if (node.isLeaf())
+    {
+      final int pos = node.search(key);
+      if (pos < 0)
+      {
+        return;
+      }
+      node.remove(pos);
+    }
+    else
+    {
+      final int index = node.childIndex(key);
+      final Node child = node.children[index];
+      remove(child, key);
+      if (!modified)
+      {
+        return;
+      }
+      if (child.size == 0)
+      {
+        node.remove(index);
+      }
+    }
+    modified = true;
+    node.size--;
+  }
+
+  /**
+   * Returns the number of keys of this tree which are lower than the provided key.
+   *
+   * @param key
+   *          the key, which may not be present in this tree
+   * @return the position of the provided key, or of its insertion point, in this tree
+   */
+  int rank(ByteString key)
+  {
+    int rank = 0;
+    Node node = root;
+    while (!node.isLeaf())
+    {
+      final int index = node.childIndex(key);
+      for (int i = 0; i < index; i++)
+      {
+        rank += node.children[i].size;
+      }
+      node = node.children[index];
+    }
+    final int pos = node.search(key);
+    return rank + (pos >= 0 ? pos : -pos - 1);
+  }
+
+  /**
+   * Returns the key at the provided position of this tree.
+   *
+   * @param position
+   *          the position of the key, starting at 0
+   * @return the key at the provided position, or {@code null} if the position is out of range
+   */
+  ByteString get(int position)
+  {
+    if (position < 0 || position >= root.size)
+    {
+      return null;
+    }
+    int remaining = position;
+    Node node = root;
+    while (!node.isLeaf())
+    {
+      int i = 0;
+      while (remaining >= node.children[i].size)
+      {
+        remaining -= node.children[i].size;
+        i++;
+      }
+      node = node.children[i];
+    }
+    return node.keys[remaining];
+  }
+}
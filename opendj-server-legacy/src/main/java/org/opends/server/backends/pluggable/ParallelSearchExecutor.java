@@ -0,0 +1,275 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Utils.*;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.PluggableBackendCfg;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+
+/**
+ * Evaluates the candidate entries of the large searches of a backend concurrently.
+ * <p>
+ * The candidate entries of a search are split in batches which are fetched and matched against the
+ * search filter by a pool of threads shared by all the searches of the backend. The size of this
+ * pool caps the number of threads evaluating candidates in the backend, while the number of
+ * batches being evaluated for a search at any time caps the parallelism of each search. The
+ * evaluated batches are handed back to the search in submission order, so that the entries are
+ * returned in the same order as a sequential evaluation would return them.
+ */
+final class ParallelSearchExecutor
+{
+  /** The maximum number of candidate entries in a batch. */
+  static final int BATCH_SIZE = 256;
+
+  private static final String PARALLEL_SEARCH_THREAD_NAME = "Parallel Search %s-%%d";
+
+  /** A batch of candidate entries of a search. */
+  static final class CandidateBatch
+  {
+    /** The IDs of the candidate entries. */
+    final long[] entryIDs = new long[BATCH_SIZE];
+    /** The paged results cookies allowing to restart the search at each candidate entry, if needed. */
+    final ByteString[] cookies;
+    /** Whether each candidate entry was found in the backend. */
+    final boolean[] found = new boolean[BATCH_SIZE];
+    /** The candidate entries which must be returned, {@code null} for the other candidates. */
+    final Entry[] matchingEntries = new Entry[BATCH_SIZE];
+    /** The number of candidate entries in this batch. */
+    int size;
+
+    CandidateBatch(boolean withCookies)
+    {
+      cookies = withCookies ? new ByteString[BATCH_SIZE] : null;
+    }
+
+    boolean isFull()
+    {
+      return size == BATCH_SIZE;
+    }
+
+    void add(long entryID, ByteString cookie)
+    {
+      entryIDs[size] = entryID;
+      if (cookies != null)
+      {
+        cookies[size] = cookie;
+      }
+      size++;
+    }
+  }
+
+  /** Evaluates the candidate entries of a batch. */
+  interface CandidateEvaluator
+  {
+    /**
+     * Fetches the candidate entries of the provided batch, and records which ones were found and
+     * which ones must be returned.
+     *
+     * @param batch
+     *          the batch of candidate entries to evaluate
+     * @throws Exception
+     *           if the candidate entries cannot be evaluated
+     */
+    void evaluate(CandidateBatch batch) throws Exception;
+  }
+
+  /** The batches of candidate entries of a search being evaluated. */
+  final class ParallelSearch implements Closeable
+  {
+    private final CandidateEvaluator evaluator;
+    private final int maxPendingBatches;
+    private final Deque<Future<CandidateBatch>> pendingBatches = new ArrayDeque<>();
+
+    private ParallelSearch(CandidateEvaluator evaluator, int maxPendingBatches)
+    {
+      this.evaluator = evaluator;
+      this.maxPendingBatches = maxPendingBatches;
+    }
+
+    /**
+     * Returns whether another batch can be submitted without exceeding the parallelism of the
+     * search.
+     *
+     * @return whether another batch can be submitted
+     */
+    boolean canSubmit()
+    {
+      return pendingBatches.size() < maxPendingBatches;
+    }
+
+    /**
+     * Returns whether some batches have been submitted and not yet taken.
+     *
+     * @return whether some batches have been submitted and not yet taken
+     */
+    boolean hasPendingBatches()
+    {
+      return !pendingBatches.isEmpty();
+    }
+
+    /**
+     * Submits a batch of candidate entries for evaluation.
+     *
+     * @param batch
+     *          the batch of candidate entries
+     */
+    void submit(final CandidateBatch batch)
+    {
+      pendingBatches.add(executor.submit(new Callable<CandidateBatch>()
+      {
+        @Override
+        public CandidateBatch call() throws Exception
+        {
+          evaluator.evaluate(batch);
+          return batch;
+        }
+      }));
+    }
+
+    /**
+     * Waits for the evaluation of the oldest submitted batch, and returns it.
+     *
+     * @return the oldest submitted batch, once evaluated
+     * @throws DirectoryException
+     *           if the candidate entries could not be evaluated
+     */
+    CandidateBatch take() throws DirectoryException
+    {
+      try
+      {
+        return pendingBatches.remove().get();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new StorageRuntimeException(e);
+      }
+      catch (ExecutionException e)
+      {
+        final Throwable cause = e.getCause();
+        if (cause instanceof DirectoryException)
+        {
+          throw (DirectoryException) cause;
+        }
+        else if (cause instanceof RuntimeException)
+        {
+          throw (RuntimeException) cause;
+        }
+        throw new StorageRuntimeException(cause);
+      }
+    }
+
+    /** Cancels the evaluation of the batches which have not been taken. */
+    @Override
+    public void close()
+    {
+      for (Future<CandidateBatch> batch : pendingBatches)
+      {
+        // Do not interrupt the threads reading the storage, some storage engines do not support it.
+        batch.cancel(false);
+      }
+      pendingBatches.clear();
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private volatile int maxThreadsPerSearch;
+  private volatile int candidateThreshold;
+
+  /**
+   * Creates a new parallel search executor.
+   *
+   * @param backendID
+   *          the ID of the backend
+   * @param config
+   *          the configuration of the backend
+   */
+  ParallelSearchExecutor(String backendID, PluggableBackendCfg config)
+  {
+    final int nbThreads = Math.max(config.getParallelSearchThreads(), 1);
+    executor = new ThreadPoolExecutor(nbThreads, nbThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        newThreadFactory(null, String.format(PARALLEL_SEARCH_THREAD_NAME, backendID), true));
+    executor.allowCoreThreadTimeOut(true);
+    applyConfiguration(config);
+  }
+
+  /**
+   * Applies a new configuration of the backend.
+   *
+   * @param config
+   *          the new configuration of the backend
+   */
+  void applyConfiguration(PluggableBackendCfg config)
+  {
+    final int nbThreads = Math.max(config.getParallelSearchThreads(), 1);
+    if (nbThreads > executor.getMaximumPoolSize())
+    {
+      executor.setMaximumPoolSize(nbThreads);
+      executor.setCorePoolSize(nbThreads);
+    }
+    else
+    {
+      executor.setCorePoolSize(nbThreads);
+      executor.setMaximumPoolSize(nbThreads);
+    }
+    maxThreadsPerSearch = config.getParallelSearchThreads() > 0 ? config.getParallelSearchMaxThreadsPerSearch() : 0;
+    candidateThreshold = config.getParallelSearchCandidateThreshold();
+  }
+
+  /**
+   * Returns whether the candidate entries of a search should be evaluated in parallel.
+   *
+   * @param nbCandidates
+   *          the number of candidate entries of the search, or an upper bound of it
+   * @return whether the candidate entries of the search should be evaluated in parallel
+   */
+  boolean isParallelSearchEnabled(int nbCandidates)
+  {
+    return maxThreadsPerSearch > 1 && nbCandidates >= candidateThreshold;
+  }
+
+  /**
+   * Starts a new search whose candidate entries will be evaluated by the provided evaluator.
+   *
+   * @param evaluator
+   *          the evaluator of the candidate entries of the search
+   * @return the new search, which must be closed once done
+   */
+  ParallelSearch newSearch(CandidateEvaluator evaluator)
+  {
+    return new ParallelSearch(evaluator, Math.max(maxThreadsPerSearch, 1));
+  }
+
+  /** Stops the threads of this executor once they have evaluated the submitted batches. */
+  void shutdown()
+  {
+    executor.shutdown();
+  }
+}
@@ -16,6 +16,7 @@
  */
 package org.opends.server.backends.pluggable;
 
+import static org.forgerock.util.Utils.newThreadFactory;
 import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.util.StaticUtils.*;
 
@@ -26,6 +27,11 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -61,6 +67,11 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** The name of the thread running the background tasks of a backend. */
+  private static final String BACKGROUND_TASKS_THREAD_NAME = "Background Tasks %s";
+  /** The maximum time to wait for the background tasks to stop when the backend is closed. */
+  private static final long BACKGROUND_TASKS_STOP_TIMEOUT_SECONDS = 60;
+
   /** The tree storage. */
   private final Storage storage;
 
@@ -70,6 +81,14 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   private volatile PluggableBackendCfg config;
   /** The monitor for this backend. */
   private BackendMonitor monitor;
+  /** The executor evaluating the candidate entries of large searches in parallel. */
+  private final ParallelSearchExecutor parallelSearchExecutor;
+  /** Commits the concurrent LDAP write operations of the backend together. */
+  private final WriteCombiner writeCombiner;
+  /** Runs the background tasks of the backend one after the other, e.g. the compression dictionary trainings. */
+  private final ThreadPoolExecutor backgroundTasks;
+  /** The online index rebuilds in progress. */
+  private final Set<OnlineIndexRebuilder> onlineIndexRebuilders = ConcurrentHashMap.newKeySet();
 
   /** The base DNs contained in this root container. */
   private final ConcurrentMap<DN, EntryContainer> entryContainers = new ConcurrentHashMap<>();
@@ -102,6 +121,11 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 
     getMonitorProvider().enableFilterUseStats(config.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(config.getIndexFilterAnalyzerMaxFilters());
+    parallelSearchExecutor = new ParallelSearchExecutor(backendID, config);
+    writeCombiner = new WriteCombiner(storage, config);
+    backgroundTasks = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        newThreadFactory(null, String.format(BACKGROUND_TASKS_THREAD_NAME, backendID), true));
+    backgroundTasks.allowCoreThreadTimeOut(true);
 
     config.addPluggableChangeListener(this);
   }
@@ -140,6 +164,13 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
           openAndRegisterEntryContainers(txn, config.getBaseDN(), accessMode);
         }
       });
+      if (accessMode.isWriteable())
+      {
+        for (EntryContainer ec : entryContainers.values())
+        {
+          ec.trainCompressionDictionaryIfNeeded();
+        }
+      }
     }
     catch(StorageRuntimeException e)
     {
@@ -269,6 +300,70 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     return monitor;
   }
 
+  /**
+   * Get the executor evaluating the candidate entries of large searches in parallel.
+   *
+   * @return The parallel search executor.
+   */
+  ParallelSearchExecutor getParallelSearchExecutor()
+  {
+    return parallelSearchExecutor;
+  }
+
+  /**
+   * Get the combiner committing the concurrent LDAP write operations together.
+   *
+   * @return The write combiner.
+   */
+  WriteCombiner getWriteCombiner()
+  {
+    return writeCombiner;
+  }
+
+  /**
+   * Runs the provided task in the background, once the tasks submitted before it are done.
+   * <p>
+   * The task must stop as soon as its thread is interrupted: the tasks still running or waiting when this root
+   * container is closed are interrupted or discarded.
+   *
+   * @param task
+   *          the task to run
+   * @return the future of the task, which can be cancelled, or {@code null} if this root container is being closed
+   */
+  Future<?> executeInBackground(Runnable task)
+  {
+    try
+    {
+      return backgroundTasks.submit(task);
+    }
+    catch (RejectedExecutionException e)
+    {
+      // This root container is being closed
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  /**
+   * Get the online index rebuilds in progress.
+   *
+   * @return The online index rebuilds in progress.
+   */
+  Collection<OnlineIndexRebuilder> getOnlineIndexRebuilders()
+  {
+    return Collections.unmodifiableSet(onlineIndexRebuilders);
+  }
+
+  void addOnlineIndexRebuilder(OnlineIndexRebuilder rebuilder)
+  {
+    onlineIndexRebuilders.add(rebuilder);
+  }
+
+  void removeOnlineIndexRebuilder(OnlineIndexRebuilder rebuilder)
+  {
+    onlineIndexRebuilders.remove(rebuilder);
+  }
+
   /**
    * Preload the tree cache. There is no preload if the configured preload
    * time limit is zero.
@@ -319,6 +414,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
    */
   void close() throws StorageRuntimeException
   {
+    stopBackgroundTasks();
     for (DN baseDN : entryContainers.keySet())
     {
       EntryContainer ec = unregisterEntryContainer(baseDN);
@@ -333,12 +429,30 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
       }
     }
     config.removePluggableChangeListener(this);
+    parallelSearchExecutor.shutdown();
     if (storage != null)
     {
       storage.close();
     }
   }
 
+  /** Stops the background tasks before the trees they use are closed. */
+  private void stopBackgroundTasks()
+  {
+    backgroundTasks.shutdownNow();
+    try
+    {
+      if (!backgroundTasks.awaitTermination(BACKGROUND_TASKS_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+      {
+        logger.trace("The background tasks of backend %s did not stop in time", backendId);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Return all the entry containers in this root container.
    *
@@ -452,6 +566,8 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     config = configuration;
     getMonitorProvider().enableFilterUseStats(config.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(config.getIndexFilterAnalyzerMaxFilters());
+    parallelSearchExecutor.applyConfiguration(config);
+    writeCombiner.applyConfiguration(config);
 
     return new ConfigChangeResult();
   }
@@ -55,6 +55,8 @@ public interface SuffixContainer extends Closeable
    * does the index needs to be rebuilt ?
    */
   String STATE_INDEX_NAME = "state";
+  /** The name of the index associating dictionary ids to the dictionaries used for compressing entries. */
+  String COMPRESSION_DICTIONARIES_INDEX_NAME = "dictionaries";
   /** The attribute used to return a search index debug string to the client. */
   String ATTR_DEBUG_SEARCH_INDEX = "debugsearchindex";
 
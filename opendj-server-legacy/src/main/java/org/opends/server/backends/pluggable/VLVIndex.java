@@ -31,6 +31,9 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -55,6 +58,7 @@ import org.forgerock.util.Reject;
 import org.opends.server.backends.pluggable.State.IndexFlag;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
@@ -83,6 +87,10 @@ import org.opends.server.util.StaticUtils;
  * Records do not have a "value" since all required information is held within the key.
  * The entry ID is included in the key as a "tie-breaker" and ensures that keys correspond to one and only one entry.
  * This ensures that all tree updates can be performed using lock-free operations.
+ * <p>
+ * When order statistics are enabled, the committed keys are also kept in an in-memory
+ * {@link OrderStatisticTree}, so that the VLV requests locate their target entry without reading the
+ * index from its start.
  */
 class VLVIndex extends AbstractTree implements ConfigurationChangeListener<BackendVLVIndexCfg>, Closeable
 {
@@ -103,6 +111,8 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
 
   /** The storage associated with this index. */
   private final Storage storage;
+  /** The root container running the background load of the order statistics. */
+  private final RootContainer rootContainer;
   private final State state;
 
   /**
@@ -110,6 +120,31 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
    */
   private boolean trusted;
 
+  /** The sort keys added and deleted by a committed transaction. */
+  private static final class CommittedChanges
+  {
+    private final TreeSet<ByteString> addedKeys;
+    private final TreeSet<ByteString> deletedKeys;
+
+    private CommittedChanges(TreeSet<ByteString> addedKeys, TreeSet<ByteString> deletedKeys)
+    {
+      this.addedKeys = addedKeys;
+      this.deletedKeys = deletedKeys;
+    }
+  }
+
+  private volatile boolean orderStatisticsEnabled;
+  /** Guards the order statistics, the changes committed while loading them, and their generation. */
+  private final ReadWriteLock orderStatisticsLock = new ReentrantReadWriteLock();
+  /** The committed sort keys of this index, {@code null} until loaded. */
+  private OrderStatisticTree orderStatistics;
+  /** The changes committed while the order statistics are being loaded, {@code null} if they are not. */
+  private List<CommittedChanges> changesDuringLoad;
+  /** Incremented each time the order statistics are discarded, so that a concurrent load stops and is discarded too. */
+  private volatile long orderStatisticsGeneration;
+  /** The background load of the order statistics, {@code null} if they are not being loaded. */
+  private Future<?> orderStatisticsLoad;
+
   VLVIndex(final BackendVLVIndexCfg config, final State state, final Storage storage,
       final EntryContainer entryContainer, final WriteableTransaction txn) throws StorageRuntimeException,
       ConfigException
@@ -120,6 +155,8 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
     this.baseDN = config.getBaseDN();
     this.scope = convertScope(config.getScope());
     this.storage = storage;
+    this.rootContainer = entryContainer.getRootContainer();
+    this.orderStatisticsEnabled = config.isOrderStatisticsEnabled();
 
     final ConfigChangeResult ccr = new ConfigChangeResult();
     this.filter = parseSearchFilter(config, getName().toString(), ccr);
@@ -168,6 +205,7 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
   void beforeDelete(WriteableTransaction txn) throws StorageRuntimeException
   {
     counter.delete(txn);
+    discardOrderStatistics();
   }
 
   void importCount(Importer importer, long count)
@@ -270,9 +308,16 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
       ccr.setAdminActionRequired(true);
     }
 
+    if (config.isOrderStatisticsEnabled() != cfg.isOrderStatisticsEnabled())
+    {
+      orderStatisticsEnabled = cfg.isOrderStatisticsEnabled();
+      discardOrderStatistics();
+    }
+
     if (ccr.adminActionRequired())
     {
       trusted = false;
+      discardOrderStatistics();
       ccr.addMessage(NOTE_INDEX_ADD_REQUIRES_REBUILD.get(getName()));
       try
       {
@@ -339,6 +384,7 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
   public void close()
   {
     this.config.removeChangeListener(this);
+    discardOrderStatistics();
   }
 
   boolean isTrusted()
@@ -348,6 +394,11 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
 
   synchronized void setTrusted(final WriteableTransaction txn, final boolean trusted) throws StorageRuntimeException
   {
+    if (this.trusted != trusted)
+    {
+      // The index is being rebuilt
+      discardOrderStatistics();
+    }
     this.trusted = trusted;
     if ( trusted ) {
       state.addFlagsToIndex(txn, getName(), IndexFlag.TRUSTED);
@@ -475,6 +526,238 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
     return i.hasNext() ? i.next() : null;
   }
 
+  /**
+   * Applies the changes of a committed transaction to the order statistics.
+   *
+   * @param addedKeys
+   *          the sort keys added by the transaction, may be {@code null}
+   * @param deletedKeys
+   *          the sort keys deleted by the transaction, may be {@code null}
+   */
+  void afterCommit(final TreeSet<ByteString> addedKeys, final TreeSet<ByteString> deletedKeys)
+  {
+    if (!orderStatisticsEnabled)
+    {
+      return;
+    }
+    orderStatisticsLock.writeLock().lock();
+    try
+    {
+      if (orderStatistics != null)
+      {
+        applyChanges(orderStatistics, addedKeys, deletedKeys);
+      }
+      else if (changesDuringLoad != null)
+      {
+        changesDuringLoad.add(new CommittedChanges(addedKeys, deletedKeys));
+      }
+    }
+    finally
+    {
+      orderStatisticsLock.writeLock().unlock();
+    }
+  }
+
+  private static void applyChanges(final OrderStatisticTree orderStatistics, final TreeSet<ByteString> addedKeys,
+      final TreeSet<ByteString> deletedKeys)
+  {
+    for (ByteString key : iterable(deletedKeys))
+    {
+      orderStatistics.remove(key);
+    }
+    for (ByteString key : iterable(addedKeys))
+    {
+      orderStatistics.add(key);
+    }
+  }
+
+  private static Iterable<ByteString> iterable(final TreeSet<ByteString> keys)
+  {
+    return keys != null ? keys : Collections.<ByteString> emptySet();
+  }
+
+  private void discardOrderStatistics()
+  {
+    orderStatisticsLock.writeLock().lock();
+    try
+    {
+      orderStatistics = null;
+      changesDuringLoad = null;
+      orderStatisticsGeneration++;
+      if (orderStatisticsLoad != null)
+      {
+        // A running load stops on its own once it sees the new generation
+        orderStatisticsLoad.cancel(false);
+        orderStatisticsLoad = null;
+      }
+    }
+    finally
+    {
+      orderStatisticsLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns whether the order statistics of this index are available, starting to load them in the background if
+   * needed.
+   */
+  private boolean isOrderStatisticsAvailable()
+  {
+    if (!orderStatisticsEnabled)
+    {
+      return false;
+    }
+    if (getOrderStatisticsSize() >= 0)
+    {
+      return true;
+    }
+    orderStatisticsLock.writeLock().lock();
+    try
+    {
+      if (orderStatistics != null)
+      {
+        return true;
+      }
+      if (changesDuringLoad != null)
+      {
+        // Already loading
+        return false;
+      }
+
+      /*
+       * Load them in the background, so that the reading transaction only starts once the changes committed meanwhile
+       * are recorded, and does not delay the current search.
+       */
+      changesDuringLoad = new ArrayList<>();
+      final long generation = orderStatisticsGeneration;
+      orderStatisticsLoad = rootContainer.executeInBackground(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          loadOrderStatistics(generation);
+        }
+      });
+      if (orderStatisticsLoad == null)
+      {
+        // The backend is being closed
+        changesDuringLoad = null;
+      }
+      return false;
+    }
+    finally
+    {
+      orderStatisticsLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Reads all the sort keys of this index, then replays the changes committed meanwhile, since they may not be visible
+   * to the reading transaction.
+   */
+  private void loadOrderStatistics(final long generation)
+  {
+    OrderStatisticTree loaded = null;
+    try
+    {
+      loaded = storage.read(new ReadOperation<OrderStatisticTree>()
+      {
+        @Override
+        public OrderStatisticTree run(final ReadableTransaction txn) throws Exception
+        {
+          final OrderStatisticTree keys = new OrderStatisticTree();
+          try (Cursor<ByteString, ByteString> cursor = txn.openCursor(getName()))
+          {
+            while (cursor.next())
+            {
+              if (generation != orderStatisticsGeneration || Thread.currentThread().isInterrupted())
+              {
+                // Discarded, or the backend is being closed
+                return null;
+              }
+              keys.add(cursor.getKey());
+            }
+          }
+          return keys;
+        }
+      });
+    }
+    catch (final Exception e)
+    {
+      logger.traceException(e);
+    }
+
+    orderStatisticsLock.writeLock().lock();
+    try
+    {
+      if (generation == orderStatisticsGeneration)
+      {
+        if (loaded != null)
+        {
+          for (CommittedChanges changes : changesDuringLoad)
+          {
+            applyChanges(loaded, changes.addedKeys, changes.deletedKeys);
+          }
+          orderStatistics = loaded;
+        }
+        changesDuringLoad = null;
+        orderStatisticsLoad = null;
+      }
+    }
+    finally
+    {
+      orderStatisticsLock.writeLock().unlock();
+    }
+  }
+
+  /** Returns the number of committed sort keys, or -1 if the order statistics are not available. */
+  private int getOrderStatisticsSize()
+  {
+    orderStatisticsLock.readLock().lock();
+    try
+    {
+      return orderStatistics != null ? orderStatistics.size() : -1;
+    }
+    finally
+    {
+      orderStatisticsLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of committed sort keys lower than the provided key, or -1 if the order statistics are not
+   * available.
+   */
+  private int getOrderStatisticsRank(final ByteString key)
+  {
+    orderStatisticsLock.readLock().lock();
+    try
+    {
+      return orderStatistics != null ? orderStatistics.rank(key) : -1;
+    }
+    finally
+    {
+      orderStatisticsLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the committed sort key at the provided position, or {@code null} if the order statistics are not available
+   * or the position is out of range.
+   */
+  private ByteString getOrderStatisticsKey(final int position)
+  {
+    orderStatisticsLock.readLock().lock();
+    try
+    {
+      return orderStatistics != null ? orderStatistics.get(position) : null;
+    }
+    finally
+    {
+      orderStatisticsLock.readLock().unlock();
+    }
+  }
+
   EntryIDSet evaluate(final ReadableTransaction txn, final SearchOperation searchOperation,
       final ServerSideSortRequestControl sortControl, final VLVRequestControl vlvRequest,
       final StringBuilder debugBuilder) throws DirectoryException, StorageRuntimeException
@@ -497,9 +780,22 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
 
     if (vlvRequest != null)
     {
+      final boolean useOrderStatistics = isOrderStatisticsAvailable();
+      if (debugBuilder != null && useOrderStatistics)
+      {
+        debugBuilder.append("[ORDER-STATISTICS]");
+      }
       if (vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
       {
-        return evaluateVLVRequestByOffset(txn, searchOperation, vlvRequest, debugBuilder);
+        return evaluateVLVRequestByOffset(txn, searchOperation, vlvRequest, useOrderStatistics, debugBuilder);
+      }
+      if (useOrderStatistics)
+      {
+        final EntryIDSet result = evaluateVLVRequestByAssertionWithOrderStatistics(txn, searchOperation, vlvRequest);
+        if (result != null)
+        {
+          return result;
+        }
       }
       return evaluateVLVRequestByAssertion(txn, searchOperation, vlvRequest);
     }
@@ -601,6 +897,59 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
     }
   }
 
+  /**
+   * Reads the same page of entries as {@link #evaluateVLVRequestByAssertion(ReadableTransaction, SearchOperation,
+   * VLVRequestControl)}, using the order statistics to find the position of the target entry.
+   *
+   * @return the page of entries, or {@code null} if the order statistics are no longer available
+   */
+  private EntryIDSet evaluateVLVRequestByAssertionWithOrderStatistics(final ReadableTransaction txn,
+      final SearchOperation searchOperation, final VLVRequestControl vlvRequest) throws DirectoryException
+  {
+    final int currentCount = getOrderStatisticsSize();
+    final ByteString assertion = vlvRequest.getGreaterThanOrEqualAssertion();
+    final ByteSequence encodedTargetAssertion =
+        encodeTargetAssertion(sortKeys, assertion, searchOperation, Math.max(currentCount, 0));
+
+    // The target entry is the first one whose key is greater than or equal to the assertion.
+    final int targetPosition = getOrderStatisticsRank(encodedTargetAssertion.toByteString());
+    if (currentCount < 0 || targetPosition < 0)
+    {
+      return null;
+    }
+    long[] selectedIDs = new long[0];
+    if (targetPosition < currentCount)
+    {
+      final int startPos = Math.max(targetPosition - vlvRequest.getBeforeCount(), 0);
+      final int count = targetPosition - startPos + 1 + vlvRequest.getAfterCount();
+      try (Cursor<ByteString, ByteString> cursor = txn.openCursor(getName()))
+      {
+        if (positionToIndex(cursor, true, startPos))
+        {
+          selectedIDs = readRange(cursor, count, null);
+        }
+      }
+    }
+    addVLVResponseControl(searchOperation, targetPosition + 1, currentCount, LDAPResultCode.SUCCESS);
+    return newDefinedSet(selectedIDs); // FIXME not ordered like a defined EntryIDSet expects
+  }
+
+  /**
+   * Positions the cursor on the entry at the provided position of the index, reading the index from its start unless
+   * the order statistics are available.
+   */
+  private boolean positionToIndex(final Cursor<ByteString, ByteString> cursor, final boolean useOrderStatistics,
+      final int position)
+  {
+    final ByteString key = useOrderStatistics ? getOrderStatisticsKey(position) : null;
+    if (key == null)
+    {
+      return cursor.positionToIndex(position);
+    }
+    // The key may have been deleted since: its next key then holds its position
+    return cursor.positionToKeyOrNext(key);
+  }
+
   private long[] toPrimitiveLongArray(final List<Long> entryIDs)
   {
     final long[] result = new long[entryIDs.size()];
@@ -639,9 +988,11 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
   }
 
   private EntryIDSet evaluateVLVRequestByOffset(final ReadableTransaction txn, final SearchOperation searchOperation,
-      final VLVRequestControl vlvRequest, final StringBuilder debugBuilder) throws DirectoryException
+      final VLVRequestControl vlvRequest, final boolean useOrderStatistics, final StringBuilder debugBuilder)
+      throws DirectoryException
   {
-    final int currentCount = getEntryCount(txn);
+    final int orderStatisticsSize = useOrderStatistics ? getOrderStatisticsSize() : -1;
+    final int currentCount = orderStatisticsSize >= 0 ? orderStatisticsSize : getEntryCount(txn);
     int beforeCount = vlvRequest.getBeforeCount();
     int afterCount = vlvRequest.getAfterCount();
     int targetOffset = vlvRequest.getOffset();
@@ -692,7 +1043,7 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
     final int count = 1 + beforeCount + afterCount;
     try (Cursor<ByteString, ByteString> cursor = txn.openCursor(getName()))
     {
-      if (cursor.positionToIndex(startPos))
+      if (positionToIndex(cursor, orderStatisticsSize >= 0, startPos))
       {
         selectedIDs = readRange(cursor, count, debugBuilder);
       }
@@ -0,0 +1,396 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.opendj.server.config.server.PluggableBackendCfg;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+
+/**
+ * Commits the concurrent write operations of a backend together, so that they share the cost of a
+ * durable commit.
+ * <p>
+ * The first writer finding no commit in progress becomes the leader: it takes the pending write
+ * operations, up to the maximum batch size, and runs them one after the other in a single storage
+ * transaction. The write operations submitted meanwhile wait for the commit in progress and are
+ * committed by the next leader, which is the first of them to wake up. Under load, the commit
+ * latency is therefore the batching window, optionally extended by the configured maximum delay.
+ * <p>
+ * When a write operation of a batch fails, it fails with the same outcome as if the write
+ * operations preceding it had been committed on their own: it is not run again. The transaction
+ * is rolled back, and the other write operations of the batch are run again in the next
+ * transaction. When the transaction itself fails, or the storage fails while running a write
+ * operation, each write operation of the batch is run again in its own transaction, so that each
+ * writer gets its own outcome. The write operations must
+ * therefore be re-runnable, as already required by {@link Storage#write(WriteOperation)}. They
+ * must not submit other write operations to this combiner.
+ */
+final class WriteCombiner
+{
+  /** A write operation waiting to be committed, guarded by the lock of the combiner. */
+  private static final class PendingWrite
+  {
+    private final WriteOperation operation;
+    private boolean done;
+    private Exception error;
+
+    private PendingWrite(WriteOperation operation)
+    {
+      this.operation = operation;
+    }
+  }
+
+  /** Runs the write operations of a batch, remembering which one failed. */
+  private static final class BatchOperation implements WriteOperation
+  {
+    private final List<PendingWrite> batch;
+    private PendingWrite failedWrite;
+    private Exception failure;
+
+    private BatchOperation(List<PendingWrite> batch)
+    {
+      this.batch = batch;
+    }
+
+    @Override
+    public void run(WriteableTransaction txn) throws Exception
+    {
+      // The storage may run the batch again, e.g. after a conflict
+      failedWrite = null;
+      failure = null;
+      for (PendingWrite write : batch)
+      {
+        try
+        {
+          write.operation.run(txn);
+        }
+        catch (Exception e)
+        {
+          failedWrite = write;
+          failure = e;
+          throw e;
+        }
+      }
+    }
+  }
+
+  private final Storage storage;
+  private final ReentrantLock lock = new ReentrantLock();
+  /** Signaled when a write operation completes or when the leader steps down. */
+  private final Condition writeCompleted = lock.newCondition();
+  /** Signaled when enough write operations are pending to fill a batch. */
+  private final Condition batchFull = lock.newCondition();
+  /** The write operations waiting to be committed, guarded by {@link #lock}. */
+  private final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+  /** Whether a leader is committing a batch, guarded by {@link #lock}. */
+  private boolean committing;
+
+  private volatile int maxBatchSize;
+  private volatile long maxDelayNanos;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder batchedOperations = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+  private final LongAdder commitTimeNanos = new LongAdder();
+
+  /**
+   * Creates a new write combiner.
+   *
+   * @param storage
+   *          The storage in which the write operations are committed.
+   * @param config
+   *          The configuration of the backend.
+   */
+  WriteCombiner(Storage storage, PluggableBackendCfg config)
+  {
+    this.storage = storage;
+    applyConfiguration(config);
+  }
+
+  /**
+   * Applies a new configuration of the backend.
+   *
+   * @param config
+   *          The new configuration of the backend.
+   */
+  void applyConfiguration(PluggableBackendCfg config)
+  {
+    maxBatchSize = config.getWriteBatchMaxSize();
+    maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteBatchMaxDelay());
+  }
+
+  /**
+   * Runs a write operation in a storage transaction, possibly shared with other concurrent write
+   * operations, and waits until this transaction is committed.
+   *
+   * @param operation
+   *          The write operation to run.
+   * @throws Exception
+   *           If the write operation failed.
+   */
+  void write(WriteOperation operation) throws Exception
+  {
+    if (maxBatchSize <= 1)
+    {
+      storage.write(operation);
+      return;
+    }
+
+    final PendingWrite write = new PendingWrite(operation);
+    lock.lock();
+    try
+    {
+      pendingWrites.add(write);
+      if (pendingWrites.size() >= maxBatchSize)
+      {
+        // Wake up a leader waiting for a full batch
+        batchFull.signal();
+      }
+
+      for (;;)
+      {
+        // Once submitted, a write operation may be committed at any time: wait for its outcome.
+        // The interrupted status of the thread is kept.
+        while (!write.done && committing)
+        {
+          writeCompleted.awaitUninterruptibly();
+        }
+        if (write.done)
+        {
+          break;
+        }
+        committing = true;
+        commitNextBatch();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    if (write.error != null)
+    {
+      throw write.error;
+    }
+  }
+
+  /** Commits the next batch of pending write operations, as the leader holding the lock. */
+  private void commitNextBatch()
+  {
+    final List<PendingWrite> batch = new ArrayList<>();
+    try
+    {
+      waitForBatch();
+      final int batchSize = maxBatchSize;
+      while (batch.size() < batchSize && !pendingWrites.isEmpty())
+      {
+        batch.add(pendingWrites.poll());
+      }
+
+      // The writers submitting write operations meanwhile must not wait for this commit
+      lock.unlock();
+      try
+      {
+        commit(batch);
+      }
+      finally
+      {
+        lock.lock();
+      }
+    }
+    finally
+    {
+      for (PendingWrite write : batch)
+      {
+        if (!write.done)
+        {
+          // commit() did not complete, e.g. because of an Error
+          write.error = new StorageRuntimeException("The write operation was not committed");
+          write.done = true;
+        }
+      }
+      committing = false;
+      writeCompleted.signalAll();
+    }
+  }
+
+  /** Waits for the batch to fill up or for the maximum delay to expire, while holding the lock. */
+  private void waitForBatch()
+  {
+    long remainingNanos = maxDelayNanos;
+    while (pendingWrites.size() < maxBatchSize && remainingNanos > 0)
+    {
+      try
+      {
+        remainingNanos = batchFull.awaitNanos(remainingNanos);
+      }
+      catch (InterruptedException e)
+      {
+        // Commit what is pending now
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void commit(List<PendingWrite> batch)
+  {
+    List<PendingWrite> remainingWrites = batch;
+    while (remainingWrites.size() > 1)
+    {
+      final long startTime = System.nanoTime();
+      final BatchOperation batchOperation = new BatchOperation(remainingWrites);
+      try
+      {
+        storage.write(batchOperation);
+        recordBatch(remainingWrites.size(), startTime);
+        complete(remainingWrites, null);
+        return;
+      }
+      catch (Exception e)
+      {
+        fallbacks.increment();
+        if (batchOperation.failedWrite == null || batchOperation.failure instanceof StorageRuntimeException)
+        {
+          // The transaction failed, not a write operation: find out which write operations fail
+          break;
+        }
+        // The failed write operation ran after the preceding ones, as it would have if they had been
+        // committed first: its outcome stands. The others are run again without it.
+        complete(batchOperation.failedWrite, batchOperation.failure);
+        remainingWrites = new ArrayList<>(remainingWrites);
+        remainingWrites.remove(batchOperation.failedWrite);
+      }
+    }
+
+    for (PendingWrite write : remainingWrites)
+    {
+      final long writeStartTime = System.nanoTime();
+      try
+      {
+        storage.write(write.operation);
+        recordBatch(1, writeStartTime);
+        complete(write, null);
+      }
+      catch (Exception e)
+      {
+        complete(write, e);
+      }
+    }
+  }
+
+  private void recordBatch(int batchSize, long startTime)
+  {
+    batches.increment();
+    batchedOperations.add(batchSize);
+    commitTimeNanos.add(System.nanoTime() - startTime);
+  }
+
+  private void complete(List<PendingWrite> batch, Exception error)
+  {
+    for (PendingWrite write : batch)
+    {
+      complete(write, error);
+    }
+  }
+
+  private void complete(PendingWrite write, Exception error)
+  {
+    lock.lock();
+    try
+    {
+      write.error = error;
+      write.done = true;
+      writeCompleted.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of write operations waiting to be committed.
+   *
+   * @return the number of write operations waiting to be committed
+   */
+  int getPendingWriteCount()
+  {
+    lock.lock();
+    try
+    {
+      return pendingWrites.size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of transactions committed by this combiner.
+   *
+   * @return the number of transactions committed by this combiner
+   */
+  long getBatchCount()
+  {
+    return batches.sum();
+  }
+
+  /**
+   * Returns the number of write operations committed by this combiner.
+   *
+   * @return the number of write operations committed by this combiner
+   */
+  long getBatchedOperationCount()
+  {
+    return batchedOperations.sum();
+  }
+
+  /**
+   * Returns the number of batches whose transaction failed, and whose write operations were run
+   * again.
+   *
+   * @return the number of batches whose transaction failed
+   */
+  long getFallbackCount()
+  {
+    return fallbacks.sum();
+  }
+
+  /**
+   * Returns the total time spent running and committing the transactions of this combiner.
+   *
+   * @param unit
+   *          the unit of the returned time
+   * @return the total time spent running and committing the transactions of this combiner
+   */
+  long getCommitTime(TimeUnit unit)
+  {
+    return unit.convert(commitTimeNanos.sum(), TimeUnit.NANOSECONDS);
+  }
+}
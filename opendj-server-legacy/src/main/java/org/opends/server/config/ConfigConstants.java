@@ -4136,6 +4136,20 @@ public final class ConfigConstants
   public static final String ATTR_TASK_EXPORT_WRAP_COLUMN =
        NAME_PREFIX_TASK + "export-wrap-column";
 
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * the number of threads exporting the entries.
+   */
+  public static final String ATTR_TASK_EXPORT_THREAD_COUNT =
+       NAME_PREFIX_TASK + "export-thread-count";
+
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * whether each thread should write its own LDIF file.
+   */
+  public static final String ATTR_TASK_EXPORT_SHARDED_LDIF =
+       NAME_PREFIX_TASK + "export-sharded-ldif";
+
   /**
    * The name of the attribute in an export task definition that specifies
    * that operational attributes have to be included.
@@ -4329,6 +4343,20 @@ public final class ConfigConstants
   public static final String ATTR_REBUILD_TMP_DIRECTORY =
        NAME_PREFIX_TASK + "rebuild-tmp-directory";
 
+  /**
+   * The name of the attribute in an rebuild task definition that specifies
+   * whether the indexes should be rebuilt while the backend remains online.
+   */
+  public static final String ATTR_REBUILD_INDEX_ONLINE =
+      ATTR_REBUILD_INDEX + "-online";
+
+  /**
+   * The name of the attribute in an rebuild task definition that specifies the
+   * maximum number of entries processed per second by an online rebuild.
+   */
+  public static final String ATTR_REBUILD_MAX_ENTRIES_PER_SECOND =
+       NAME_PREFIX_TASK + "rebuild-max-entries-per-second";
+
   /**
    * Used to specify that the rebuild all boolean should be set.
    */
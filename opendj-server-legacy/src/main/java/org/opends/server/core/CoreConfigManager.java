@@ -136,6 +136,10 @@ public class CoreConfigManager implements ConfigurationChangeListener<GlobalCfg>
     private long maxAllowedConnections;
     /** The maximum number of concurrent persistent searches. */
     private int maxPSearches;
+    /** The number of threads sending the notifications of the persistent searches, or 0 to let the server decide. */
+    private int psearchDispatcherThreads;
+    /** The maximum number of notifications waiting to be sent to each persistent search. */
+    private int maxPSearchPendingNotifications;
     /** The maximum size that internal buffers will be allowed to grow to until they are trimmed. */
     private int maxInternalBufferSize = DEFAULT_MAX_INTERNAL_BUFFER_SIZE;
   }
@@ -218,6 +222,9 @@ public class CoreConfigManager implements ConfigurationChangeListener<GlobalCfg>
     long maxAllowedConnections = globalConfig.getMaxAllowedClientConnections();
     core.maxAllowedConnections = (maxAllowedConnections > 0) ? maxAllowedConnections : -1;
     core.maxPSearches = globalConfig.getMaxPsearches();
+    Integer psearchDispatcherThreads = globalConfig.getPsearchDispatcherThreads();
+    core.psearchDispatcherThreads = (psearchDispatcherThreads != null) ? psearchDispatcherThreads : 0;
+    core.maxPSearchPendingNotifications = globalConfig.getMaxPsearchPendingNotifications();
     core.maxInternalBufferSize = (int) globalConfig.getMaxInternalBufferSize();
 
     // For tools, common audit may not be available
@@ -624,6 +631,26 @@ public class CoreConfigManager implements ConfigurationChangeListener<GlobalCfg>
     return coreAttributes.maxPSearches;
   }
 
+  /**
+   * Retrieves the number of threads sending the notifications of the persistent searches.
+   *
+   * @return the number of persistent search dispatcher threads, or 0 to let the server decide
+   */
+  public int getPSearchDispatcherThreads()
+  {
+    return coreAttributes.psearchDispatcherThreads;
+  }
+
+  /**
+   * Retrieves the maximum number of notifications waiting to be sent to each persistent search.
+   *
+   * @return the max number of pending notifications per persistent search, or -1 if unlimited
+   */
+  public int getMaxPSearchPendingNotifications()
+  {
+    return coreAttributes.maxPSearchPendingNotifications;
+  }
+
   /**
    * Retrieves the DN of the configuration entry for the identity mapper that
    * should be used in conjunction with proxied authorization V2 controls.
@@ -130,6 +130,7 @@ import org.opends.server.loggers.RotationPolicy;
 import org.opends.server.loggers.TextErrorLogPublisher;
 import org.opends.server.loggers.TextWriter;
 import org.opends.server.monitors.ConnectionHandlerMonitor;
+import org.opends.server.monitors.LockManagerMonitor;
 import org.opends.server.protocols.internal.InternalClientConnection;
 import org.opends.server.protocols.internal.InternalConnectionHandler;
 import org.opends.server.schema.SchemaHandler;
@@ -1485,6 +1486,7 @@ public final class DirectoryServer
 
       monitorConfigManager = new MonitorConfigManager(serverContext);
       monitorConfigManager.initializeMonitorProviders();
+      initializeLockManagerMonitor();
 
       pluginConfigManager.initializeUserPlugins(null);
 
@@ -1632,6 +1634,14 @@ public final class DirectoryServer
     return directoryServer.compressedSchema;
   }
 
+  /** Registers the monitor providing the statistics of the lock manager. */
+  private void initializeLockManagerMonitor() throws ConfigException, InitializationException
+  {
+    final LockManagerMonitor monitor = new LockManagerMonitor(lockManager);
+    monitor.initializeMonitorProvider(null);
+    registerMonitorProvider(monitor);
+  }
+
   private void initializeRootAndAdminDataBackends() throws ConfigException, InitializationException
   {
     backendConfigManager.initializeBackendConfig(Arrays.asList("adminRoot", "ads-truststore"));
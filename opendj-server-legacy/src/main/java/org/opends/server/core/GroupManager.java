@@ -24,9 +24,12 @@ import static org.opends.server.util.ServerConstants.*;
 import static org.opends.server.util.StaticUtils.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -108,6 +111,9 @@ public class GroupManager extends InternalDirectoryServerPlugin
   /** A mapping between the DNs of all group entries and the corresponding group instances. */
   private DITCacheMap<Group<?>> groupInstances;
 
+  /** The reverse membership index of the group instances. */
+  private final GroupMembershipIndex membershipIndex = new GroupMembershipIndex();
+
   /** Lock to protect internal data structures. */
   private final ReadWriteLock lock;
 
@@ -510,6 +516,83 @@ public class GroupManager extends InternalDirectoryServerPlugin
     }
   }
 
+  /**
+   * Indicates whether some group instances compute their members, as the
+   * dynamic groups do, so that the membership of an entry may depend on its
+   * content and not only on its DN.
+   *
+   * @return  {@code true} if some group instances compute their members,
+   *          or {@code false} if not.
+   */
+  public boolean hasComputedGroupInstances()
+  {
+    return !membershipIndex.getComputedGroups().isEmpty();
+  }
+
+  /**
+   * Retrieves the group instances which the provided entry is a member
+   * of, either directly or through nested groups.  The groups listing
+   * their members are found with the reverse membership index, so that
+   * only the groups whose members are computed, such as dynamic groups,
+   * need to check the membership of the entry.
+   *
+   * @param  memberEntry  The entry for which to retrieve the groups.
+   *
+   * @return  The group instances which the provided entry is a member
+   *          of.
+   */
+  public Set<Group<?>> getGroupInstancesOfMember(Entry memberEntry)
+  {
+    // Read the token first so that any group change occurring during the lookup invalidates the cached nesting
+    final long token = refreshToken;
+    final Set<DN> groupDNs = new LinkedHashSet<>();
+    for (DN groupDN : membershipIndex.getGroupDNs(memberEntry.getName()))
+    {
+      addGroupAndNestingGroups(groupDN, groupDNs, token);
+    }
+    for (Group<?> group : membershipIndex.getComputedGroups())
+    {
+      try
+      {
+        if (!groupDNs.contains(group.getGroupDN()) && group.isMember(memberEntry))
+        {
+          addGroupAndNestingGroups(group.getGroupDN(), groupDNs, token);
+        }
+      }
+      catch (DirectoryException e)
+      {
+        logger.traceException(e);
+      }
+    }
+
+    final Set<Group<?>> groups = new LinkedHashSet<>(groupDNs.size());
+    lock.readLock().lock();
+    try
+    {
+      for (DN groupDN : groupDNs)
+      {
+        Group<?> group = groupInstances.get(groupDN);
+        if (group != null)
+        {
+          groups.add(group);
+        }
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+    return groups;
+  }
+
+  private void addGroupAndNestingGroups(DN groupDN, Set<DN> groupDNs, long token)
+  {
+    if (groupDNs.add(groupDN))
+    {
+      groupDNs.addAll(membershipIndex.getNestingGroupDNs(groupDN, token));
+    }
+  }
+
   /**
    * {@inheritDoc}  In this case, the server will search the backend to find
    * all group instances that it may contain and register them with this group
@@ -579,9 +662,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           {
             try
             {
-              Group<?> groupInstance = groupImplementation.newInstance(serverContext, entry);
-              groupInstances.put(entry.getName(), groupInstance);
-              refreshToken++;
+              registerGroupInstance(entry, groupImplementation.newInstance(serverContext, entry));
             }
             catch (DirectoryException e)
             {
@@ -608,6 +689,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
+      List<DN> removedGroupDNs = new ArrayList<>();
       Iterator<Map.Entry<DN, Group<?>>> iterator = groupInstances.entrySet().iterator();
       while (iterator.hasNext())
       {
@@ -616,8 +698,10 @@ public class GroupManager extends InternalDirectoryServerPlugin
         if (backend.handlesEntry(groupEntryDN))
         {
           iterator.remove();
+          removedGroupDNs.add(groupEntryDN);
         }
       }
+      membershipIndex.removeGroups(removedGroupDNs);
     }
     finally
     {
@@ -680,8 +764,23 @@ public class GroupManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
-      if (groupInstances.removeSubtree(entry.getName(), null))
+      Set<Group<?>> groupSet = new HashSet<>();
+      if (groupInstances.removeSubtree(entry.getName(), groupSet))
       {
+        List<DN> removedGroupDNs = new ArrayList<>();
+        for (Group<?> group : groupSet)
+        {
+          if (group.getGroupDN().equals(entry.getName()))
+          {
+            // Cheaper than scanning the whole membership index
+            membershipIndex.removeGroup(group, entry);
+          }
+          else
+          {
+            removedGroupDNs.add(group.getGroupDN());
+          }
+        }
+        membershipIndex.removeGroups(removedGroupDNs);
         refreshToken++;
       }
     }
@@ -723,6 +822,12 @@ public class GroupManager extends InternalDirectoryServerPlugin
   {
     if (hasGroupMembershipUpdateControl(modifyOperation))
     {
+      // The group has already updated its own members, only the membership index needs to be updated
+      Group<?> group = getGroupInstance(oldEntry.getName());
+      if (group != null)
+      {
+        membershipIndex.updateMembers(group, oldEntry, newEntry, modifications);
+      }
       return;
     }
 
@@ -752,12 +857,14 @@ public class GroupManager extends InternalDirectoryServerPlugin
             || updatesObjectClass(modifications))
         {
           groupInstances.remove(oldEntry.getName());
+          membershipIndex.removeGroup(group, oldEntry);
           // This updates the refreshToken
           createAndRegisterGroup(newEntry);
         }
         else
         {
           group.updateMembers(modifications);
+          membershipIndex.updateMembers(group, oldEntry, newEntry, modifications);
         }
       }
     }
@@ -793,15 +900,18 @@ public class GroupManager extends InternalDirectoryServerPlugin
       final DN oldDN = oldEntry.getName();
       final DN newDN = newEntry.getName();
       groupInstances.removeSubtree(oldDN, groupSet);
+      Map<DN, Group<?>> renamedGroups = new HashMap<>();
       for (Group<?> group : groupSet)
       {
         final DN groupDN = group.getGroupDN();
         final DN renamedGroupDN = groupDN.rename(oldDN, newDN);
         group.setGroupDN(renamedGroupDN);
         groupInstances.put(renamedGroupDN, group);
+        renamedGroups.put(groupDN, group);
       }
       if (!groupSet.isEmpty())
       {
+        membershipIndex.renameGroups(renamedGroups);
         refreshToken++;
       }
     }
@@ -942,8 +1052,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           lock.writeLock().lock();
           try
           {
-            groupInstances.put(entry.getName(), groupInstance);
-            refreshToken++;
+            registerGroupInstance(entry, groupInstance);
           }
           finally
           {
@@ -958,6 +1067,23 @@ public class GroupManager extends InternalDirectoryServerPlugin
     }
   }
 
+  /**
+   * Registers a group instance, replacing any group instance registered
+   * with the same DN.  The write lock must be held by the caller.
+   *
+   * @param  groupEntry     The entry containing the group definition.
+   * @param  groupInstance  The group instance to register.
+   */
+  private void registerGroupInstance(Entry groupEntry, Group<?> groupInstance)
+  {
+    if (groupInstances.put(groupEntry.getName(), groupInstance) != null)
+    {
+      membershipIndex.removeGroups(Collections.singleton(groupEntry.getName()));
+    }
+    membershipIndex.addGroup(groupInstance, groupEntry);
+    refreshToken++;
+  }
+
   /**
    * Removes all group instances that might happen to be registered with the
    * group manager.  This method is only intended for testing purposes and
@@ -969,6 +1095,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     try
     {
       groupInstances.clear();
+      membershipIndex.clear();
     }
     finally
     {
@@ -0,0 +1,401 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.opends.server.api.Group;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+import org.opends.server.types.Modification;
+
+/**
+ * Reverse membership index of the groups registered with the group manager, allowing to find the
+ * groups of an entry without checking the membership of the entry in every group.
+ * <p>
+ * The index maps the DN of each member listed in the entry of a group to the DNs of the groups
+ * listing it. The groups whose members are not listed in their entry, such as dynamic groups, are
+ * kept aside since the membership of an entry can only be determined by evaluating them.
+ * <p>
+ * The groups which contain another group through nesting are computed from the index on demand
+ * and cached. The cache is invalidated whenever the group manager refresh token changes, meaning a
+ * group has been registered or deregistered, or whenever a member which may be a nested group is
+ * added to or removed from a group.
+ * <p>
+ * The updates of the index are serialized, while the lookups do not lock: the sets of group DNs are
+ * copied on write.
+ */
+final class GroupMembershipIndex
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The groups containing each group through nesting, valid for a refresh token and a nesting version. */
+  private static final class NestingCache
+  {
+    private final long refreshToken;
+    private final long nestingVersion;
+    /** The DNs of the groups containing each group, directly or through other nested groups. */
+    private final ConcurrentMap<DN, Set<DN>> nestingGroupDNs = new ConcurrentHashMap<>();
+    /** The normalized DNs of all the groups traversed for computing the cached nesting groups. */
+    private final Set<ByteString> traversedDNs = Collections.newSetFromMap(new ConcurrentHashMap<ByteString, Boolean>());
+
+    private NestingCache(long refreshToken, long nestingVersion)
+    {
+      this.refreshToken = refreshToken;
+      this.nestingVersion = nestingVersion;
+    }
+  }
+
+  /** The DNs of the groups listing each member, keyed by the normalized DN of the member. */
+  private final ConcurrentMap<ByteString, Set<DN>> groupDNsByMember = new ConcurrentHashMap<>();
+  /** The groups whose members are not listed in their entry. */
+  private final ConcurrentMap<DN, Group<?>> computedGroups = new ConcurrentHashMap<>();
+  /** Incremented whenever the nesting of the indexed groups may have changed. */
+  private final AtomicLong nestingVersion = new AtomicLong();
+  private volatile NestingCache nestingCache = new NestingCache(-1, -1);
+
+  /**
+   * Indexes the members of a newly registered group.
+   *
+   * @param group
+   *          the registered group
+   * @param groupEntry
+   *          the entry of the registered group
+   */
+  synchronized void addGroup(Group<?> group, Entry groupEntry)
+  {
+    final AttributeType memberAttributeType = group.getMemberListAttributeType();
+    if (memberAttributeType == null)
+    {
+      computedGroups.put(group.getGroupDN(), group);
+      return;
+    }
+    addMembers(group.getGroupDN(), getMemberKeys(groupEntry.getAllAttributes(memberAttributeType)));
+  }
+
+  /**
+   * Removes the members of a deregistered group from the index, using the entry of the group.
+   *
+   * @param group
+   *          the deregistered group
+   * @param groupEntry
+   *          the entry of the deregistered group
+   */
+  synchronized void removeGroup(Group<?> group, Entry groupEntry)
+  {
+    final AttributeType memberAttributeType = group.getMemberListAttributeType();
+    if (memberAttributeType == null)
+    {
+      computedGroups.remove(group.getGroupDN());
+      return;
+    }
+    removeMembers(group.getGroupDN(), getMemberKeys(groupEntry.getAllAttributes(memberAttributeType)));
+  }
+
+  /**
+   * Removes the members of deregistered groups from the index. This requires scanning the whole
+   * index and is meant for the rare deletions of groups whose entry is not available.
+   *
+   * @param groupDNs
+   *          the DNs of the deregistered groups
+   */
+  synchronized void removeGroups(Collection<DN> groupDNs)
+  {
+    if (groupDNs.isEmpty())
+    {
+      return;
+    }
+    computedGroups.keySet().removeAll(groupDNs);
+    for (Map.Entry<ByteString, Set<DN>> mapEntry : groupDNsByMember.entrySet())
+    {
+      final Set<DN> groups = mapEntry.getValue();
+      if (!Collections.disjoint(groups, groupDNs))
+      {
+        final Set<DN> newGroups = new HashSet<>(groups);
+        newGroups.removeAll(groupDNs);
+        putGroupDNs(mapEntry.getKey(), newGroups);
+      }
+    }
+    nestingVersion.incrementAndGet();
+  }
+
+  /**
+   * Renames groups in the index. This requires scanning the whole index.
+   *
+   * @param renamedGroups
+   *          the groups which have been renamed, keyed by their former DN
+   */
+  synchronized void renameGroups(Map<DN, Group<?>> renamedGroups)
+  {
+    if (renamedGroups.isEmpty())
+    {
+      return;
+    }
+    for (Map.Entry<DN, Group<?>> renamedGroup : renamedGroups.entrySet())
+    {
+      if (computedGroups.remove(renamedGroup.getKey()) != null)
+      {
+        computedGroups.put(renamedGroup.getValue().getGroupDN(), renamedGroup.getValue());
+      }
+    }
+    for (Map.Entry<ByteString, Set<DN>> mapEntry : groupDNsByMember.entrySet())
+    {
+      final Set<DN> groups = mapEntry.getValue();
+      if (!Collections.disjoint(groups, renamedGroups.keySet()))
+      {
+        final Set<DN> newGroups = new HashSet<>(groups.size());
+        for (DN groupDN : groups)
+        {
+          final Group<?> renamedGroup = renamedGroups.get(groupDN);
+          newGroups.add(renamedGroup != null ? renamedGroup.getGroupDN() : groupDN);
+        }
+        putGroupDNs(mapEntry.getKey(), newGroups);
+      }
+    }
+    nestingVersion.incrementAndGet();
+  }
+
+  /**
+   * Updates the index with the modifications applied to the members of a group.
+   *
+   * @param group
+   *          the modified group
+   * @param oldEntry
+   *          the entry of the group before the modifications
+   * @param newEntry
+   *          the entry of the group after the modifications
+   * @param modifications
+   *          the modifications applied to the entry of the group
+   */
+  synchronized void updateMembers(Group<?> group, Entry oldEntry, Entry newEntry, Iterable<Modification> modifications)
+  {
+    final AttributeType memberAttributeType = group.getMemberListAttributeType();
+    if (memberAttributeType == null)
+    {
+      return;
+    }
+    final DN groupDN = group.getGroupDN();
+    for (Modification mod : modifications)
+    {
+      final Attribute attribute = mod.getAttribute();
+      if (!attribute.getAttributeDescription().getAttributeType().equals(memberAttributeType))
+      {
+        continue;
+      }
+      final ModificationType modificationType = mod.getModificationType();
+      if (modificationType == ModificationType.ADD)
+      {
+        addMembers(groupDN, getMemberKeys(Collections.singletonList(attribute)));
+      }
+      else if (modificationType == ModificationType.DELETE && !attribute.isEmpty())
+      {
+        removeMembers(groupDN, getMemberKeys(Collections.singletonList(attribute)));
+      }
+      else
+      {
+        // All the members have been removed or replaced: the entries tell which ones have changed
+        final Set<ByteString> oldMemberKeys = getMemberKeys(oldEntry.getAllAttributes(memberAttributeType));
+        final Set<ByteString> newMemberKeys = getMemberKeys(newEntry.getAllAttributes(memberAttributeType));
+        final Set<ByteString> removedMemberKeys = new HashSet<>(oldMemberKeys);
+        removedMemberKeys.removeAll(newMemberKeys);
+        newMemberKeys.removeAll(oldMemberKeys);
+        removeMembers(groupDN, removedMemberKeys);
+        addMembers(groupDN, newMemberKeys);
+        return;
+      }
+    }
+  }
+
+  private void addMembers(DN groupDN, Collection<ByteString> memberKeys)
+  {
+    for (ByteString memberKey : memberKeys)
+    {
+      final Set<DN> groups = groupDNsByMember.get(memberKey);
+      if (groups == null)
+      {
+        groupDNsByMember.put(memberKey, Collections.singleton(groupDN));
+      }
+      else if (!groups.contains(groupDN))
+      {
+        final Set<DN> newGroups = new HashSet<>(groups);
+        newGroups.add(groupDN);
+        groupDNsByMember.put(memberKey, newGroups);
+      }
+      invalidateNestingIfTraversed(memberKey);
+    }
+  }
+
+  private void removeMembers(DN groupDN, Collection<ByteString> memberKeys)
+  {
+    for (ByteString memberKey : memberKeys)
+    {
+      final Set<DN> groups = groupDNsByMember.get(memberKey);
+      if (groups != null && groups.contains(groupDN))
+      {
+        final Set<DN> newGroups = new HashSet<>(groups);
+        newGroups.remove(groupDN);
+        putGroupDNs(memberKey, newGroups);
+        invalidateNestingIfTraversed(memberKey);
+      }
+    }
+  }
+
+  /** The sets of group DNs are never modified once in the index, so that they can be read concurrently. */
+  private void putGroupDNs(ByteString memberKey, Set<DN> groupDNs)
+  {
+    if (groupDNs.isEmpty())
+    {
+      groupDNsByMember.remove(memberKey);
+    }
+    else
+    {
+      groupDNsByMember.put(memberKey, groupDNs);
+    }
+  }
+
+  /** Returns the normalized DNs of the members listed in the provided attributes. */
+  private static Set<ByteString> getMemberKeys(Iterable<Attribute> memberAttributes)
+  {
+    final Set<ByteString> memberKeys = new HashSet<>();
+    for (Attribute a : memberAttributes)
+    {
+      for (ByteString value : a)
+      {
+        try
+        {
+          memberKeys.add(DN.valueOf(value).toNormalizedByteString());
+        }
+        catch (LocalizedIllegalArgumentException e)
+        {
+          // Ignored in the same way as by the static groups
+          logger.traceException(e);
+        }
+      }
+    }
+    return memberKeys;
+  }
+
+  private void invalidateNestingIfTraversed(ByteString memberKey)
+  {
+    // A member whose groups have not been traversed cannot change the cached nesting
+    if (nestingCache.traversedDNs.contains(memberKey))
+    {
+      nestingVersion.incrementAndGet();
+    }
+  }
+
+  /** Clears the index. */
+  synchronized void clear()
+  {
+    groupDNsByMember.clear();
+    computedGroups.clear();
+    nestingVersion.incrementAndGet();
+  }
+
+  /**
+   * Returns the DNs of the groups listing the provided member in their entry.
+   *
+   * @param memberDN
+   *          the DN of the member
+   * @return the DNs of the groups listing the provided member in their entry
+   */
+  Set<DN> getGroupDNs(DN memberDN)
+  {
+    final Set<DN> groupDNs = groupDNsByMember.get(memberDN.toNormalizedByteString());
+    return groupDNs != null ? groupDNs : Collections.<DN> emptySet();
+  }
+
+  /**
+   * Returns the groups whose members are not listed in their entry.
+   *
+   * @return the groups whose members are not listed in their entry
+   */
+  Collection<Group<?>> getComputedGroups()
+  {
+    return computedGroups.values();
+  }
+
+  /**
+   * Returns the DNs of the groups containing the provided group, either because they list it as a
+   * member or through other nested groups.
+   *
+   * @param groupDN
+   *          the DN of the group
+   * @param refreshToken
+   *          the current group manager refresh token
+   * @return the DNs of the groups containing the provided group
+   */
+  Set<DN> getNestingGroupDNs(DN groupDN, long refreshToken)
+  {
+    // Read the version before the index so that a concurrent update invalidates the computed nesting
+    final long version = nestingVersion.get();
+    NestingCache cache = nestingCache;
+    if (cache.refreshToken != refreshToken || cache.nestingVersion != version)
+    {
+      cache = new NestingCache(refreshToken, version);
+      nestingCache = cache;
+    }
+
+    Set<DN> nestingGroupDNs = cache.nestingGroupDNs.get(groupDN);
+    if (nestingGroupDNs == null)
+    {
+      nestingGroupDNs = computeNestingGroupDNs(groupDN, cache);
+      cache.nestingGroupDNs.put(groupDN, nestingGroupDNs);
+    }
+    return nestingGroupDNs;
+  }
+
+  private Set<DN> computeNestingGroupDNs(DN groupDN, NestingCache cache)
+  {
+    final Set<DN> nestingGroupDNs = new HashSet<>();
+    final Deque<DN> toTraverse = new ArrayDeque<>();
+    toTraverse.add(groupDN);
+    while (!toTraverse.isEmpty())
+    {
+      final DN dn = toTraverse.remove();
+      final ByteString key = dn.toNormalizedByteString();
+      cache.traversedDNs.add(key);
+      final Set<DN> parentDNs = groupDNsByMember.get(key);
+      if (parentDNs != null)
+      {
+        for (DN parentDN : parentDNs)
+        {
+          // Nesting may be circular
+          if (!parentDN.equals(groupDN) && nestingGroupDNs.add(parentDN))
+          {
+            toTraverse.add(parentDN);
+          }
+        }
+      }
+    }
+    return Collections.unmodifiableSet(nestingGroupDNs);
+  }
+}
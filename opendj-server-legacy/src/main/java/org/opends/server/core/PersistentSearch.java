@@ -119,7 +119,7 @@ public final class PersistentSearch
   private final Set<PersistentSearchChangeType> changeTypes;
 
   /** Indicates whether this persistent search has already been aborted. */
-  private boolean isCancelled;
+  private volatile boolean isCancelled;
 
   /** Indicates whether entries returned should include the entry change notification control. */
   private final boolean returnECs;
@@ -209,6 +209,16 @@ public final class PersistentSearch
     return searchOperation;
   }
 
+  /**
+   * Returns whether this persistent search has been cancelled.
+   *
+   * @return true if this persistent search has been cancelled, false otherwise
+   */
+  boolean isCancelled()
+  {
+    return isCancelled;
+  }
+
   /**
    * Returns whether only entries updated after the beginning of this persistent
    * search should be returned.
@@ -0,0 +1,681 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.forgerock.util.Utils.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.controls.PersistentSearchChangeType.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
+import org.forgerock.util.annotations.VisibleForTesting;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.FilterType;
+import org.opends.server.types.SearchFilter;
+
+/**
+ * The persistent searches registered with a backend, indexed so that only the persistent searches
+ * which may be interested in a change need to evaluate it.
+ * <p>
+ * A persistent search whose filter requires an equality assertion, such as {@code (uid=jdoe)} or
+ * {@code (&(objectClass=person)(uid=jdoe))}, is indexed by the attribute type and the normalized
+ * value of this assertion: it is a candidate for the changes of the entries having this value. The
+ * other persistent searches are indexed by their base DN: they are candidates for the changes of
+ * the entries below their base DN.
+ * <p>
+ * The candidate persistent searches evaluate the changes and send the notifications to their client
+ * on a bounded set of dispatcher threads, so that the operations updating the backend do not wait
+ * for slow clients. Each persistent search is bound to a dispatcher thread, which preserves the
+ * order of its notifications. The number of notifications waiting to be dispatched to each
+ * persistent search can be bounded with the {@code max-psearch-pending-notifications} global
+ * property: a persistent search whose client does not keep up with the changes is then cancelled
+ * with an administrative limit exceeded result, instead of making the updates wait.
+ */
+public final class PersistentSearchRegistry
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The number of threads dispatching the notifications of the persistent searches, unless configured. */
+  private static final int DEFAULT_NB_DISPATCHER_THREADS =
+      Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors() / 2));
+
+  /** The equality assertion required by the filter of a persistent search. */
+  private static final class Term
+  {
+    private final AttributeType attributeType;
+    private final ByteString normalizedValue;
+    private final SearchFilter filter;
+
+    private Term(SearchFilter filter, ByteString normalizedValue)
+    {
+      this.attributeType = filter.getAttributeType();
+      this.normalizedValue = normalizedValue;
+      this.filter = filter;
+    }
+  }
+
+  /** A dispatcher thread, delivering the notifications of the persistent searches bound to it in order. */
+  private static final class Dispatcher
+  {
+    private final ExecutorService executor;
+
+    private Dispatcher(ThreadFactory threadFactory)
+    {
+      executor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    private void dispatch(Runnable notification)
+    {
+      try
+      {
+        executor.execute(notification);
+      }
+      catch (RejectedExecutionException e)
+      {
+        // The registry has been closed
+        logger.traceException(e);
+      }
+    }
+
+    private void shutdown()
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  /** All the registered persistent searches. */
+  private final Queue<PersistentSearch> persistentSearches = new ConcurrentLinkedQueue<>();
+  /** The term indexing each persistent search, or {@code null} for those indexed by their base DN. */
+  private final Map<PersistentSearch, Term> terms = new ConcurrentHashMap<>();
+  /** The number of notifications waiting to be dispatched to each persistent search. */
+  private final ConcurrentMap<PersistentSearch, AtomicInteger> pendingNotifications = new ConcurrentHashMap<>();
+  /** The persistent searches indexed by a term, keyed by the attribute type and the normalized value of the term. */
+  private final ConcurrentMap<AttributeType, ConcurrentMap<ByteString, Set<PersistentSearch>>> searchesByTerm =
+      new ConcurrentHashMap<>();
+  /** The other persistent searches, keyed by their base DN. */
+  private final ConcurrentMap<DN, Set<PersistentSearch>> searchesByBaseDN = new ConcurrentHashMap<>();
+  /** The dispatcher threads, started with the first persistent search. */
+  private volatile Dispatcher[] dispatchers;
+
+  /**
+   * Registers a persistent search.
+   *
+   * @param persistentSearch
+   *          The persistent search to register
+   */
+  public synchronized void register(PersistentSearch persistentSearch)
+  {
+    if (dispatchers == null)
+    {
+      final ThreadFactory threadFactory = newThreadFactory(null, "Persistent Search Dispatcher %d", true);
+      final Dispatcher[] newDispatchers = new Dispatcher[getNbDispatcherThreads()];
+      for (int i = 0; i < newDispatchers.length; i++)
+      {
+        newDispatchers[i] = new Dispatcher(threadFactory);
+      }
+      dispatchers = newDispatchers;
+    }
+
+    final Term term = getTerm(persistentSearch.getSearchOperation().getFilter());
+    if (term != null)
+    {
+      terms.put(persistentSearch, term);
+      ConcurrentMap<ByteString, Set<PersistentSearch>> searchesByValue = searchesByTerm.get(term.attributeType);
+      if (searchesByValue == null)
+      {
+        searchesByValue = new ConcurrentHashMap<>();
+        searchesByTerm.put(term.attributeType, searchesByValue);
+      }
+      searchesByValue.put(term.normalizedValue, with(searchesByValue.get(term.normalizedValue), persistentSearch));
+    }
+    else
+    {
+      final DN baseDN = persistentSearch.getSearchOperation().getBaseDN();
+      searchesByBaseDN.put(baseDN, with(searchesByBaseDN.get(baseDN), persistentSearch));
+    }
+    pendingNotifications.put(persistentSearch, new AtomicInteger());
+    persistentSearches.add(persistentSearch);
+  }
+
+  private static int getNbDispatcherThreads()
+  {
+    final int nbThreads = DirectoryServer.getCoreConfigManager().getPSearchDispatcherThreads();
+    return nbThreads > 0 ? nbThreads : DEFAULT_NB_DISPATCHER_THREADS;
+  }
+
+  /**
+   * Deregisters a persistent search.
+   *
+   * @param persistentSearch
+   *          The persistent search to deregister
+   */
+  public synchronized void deregister(PersistentSearch persistentSearch)
+  {
+    if (!persistentSearches.remove(persistentSearch))
+    {
+      return;
+    }
+    pendingNotifications.remove(persistentSearch);
+
+    final Term term = terms.remove(persistentSearch);
+    if (term != null)
+    {
+      final ConcurrentMap<ByteString, Set<PersistentSearch>> searchesByValue = searchesByTerm.get(term.attributeType);
+      put(searchesByValue, term.normalizedValue, without(searchesByValue.get(term.normalizedValue), persistentSearch));
+      if (searchesByValue.isEmpty())
+      {
+        searchesByTerm.remove(term.attributeType);
+      }
+    }
+    else
+    {
+      final DN baseDN = persistentSearch.getSearchOperation().getBaseDN();
+      put(searchesByBaseDN, baseDN, without(searchesByBaseDN.get(baseDN), persistentSearch));
+    }
+  }
+
+  /** The sets of persistent searches are copied on write, so that they can be read without locking. */
+  private static Set<PersistentSearch> with(Set<PersistentSearch> searches, PersistentSearch persistentSearch)
+  {
+    if (searches == null)
+    {
+      return Collections.singleton(persistentSearch);
+    }
+    final Set<PersistentSearch> newSearches = new HashSet<>(searches);
+    newSearches.add(persistentSearch);
+    return newSearches;
+  }
+
+  private static Set<PersistentSearch> without(Set<PersistentSearch> searches, PersistentSearch persistentSearch)
+  {
+    final Set<PersistentSearch> newSearches = new HashSet<>(searches);
+    newSearches.remove(persistentSearch);
+    return newSearches;
+  }
+
+  private static <K> void put(Map<K, Set<PersistentSearch>> map, K key, Set<PersistentSearch> searches)
+  {
+    if (searches.isEmpty())
+    {
+      map.remove(key);
+    }
+    else
+    {
+      map.put(key, searches);
+    }
+  }
+
+  /**
+   * Returns the equality assertion required by the provided filter and which can be looked up in
+   * the attribute values of the entries, if any.
+   */
+  private static Term getTerm(SearchFilter filter)
+  {
+    if (filter == null)
+    {
+      return null;
+    }
+    else if (filter.getFilterType() == FilterType.EQUALITY)
+    {
+      return getEqualityTerm(filter);
+    }
+    else if (filter.getFilterType() == FilterType.AND)
+    {
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        if (component.getFilterType() == FilterType.EQUALITY)
+        {
+          final Term term = getEqualityTerm(component);
+          if (term != null)
+          {
+            return term;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static Term getEqualityTerm(SearchFilter filter)
+  {
+    final AttributeType attributeType = filter.getAttributeType();
+    // The object classes are not selective
+    if (attributeType == null || attributeType.isObjectClass() || filter.getAssertionValue() == null)
+    {
+      return null;
+    }
+    // Rules whose assertions have another syntax than the values, such as the first component
+    // matching rules, do not match the normalized values by equality
+    final MatchingRule matchingRule = attributeType.getEqualityMatchingRule();
+    if (matchingRule == null || !matchingRule.getSyntax().equals(attributeType.getSyntax()))
+    {
+      return null;
+    }
+    try
+    {
+      return new Term(filter, matchingRule.normalizeAttributeValue(filter.getAssertionValue()));
+    }
+    catch (DecodeException e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the persistent searches currently registered.
+   *
+   * @return the persistent searches currently registered
+   */
+  public Queue<PersistentSearch> getPersistentSearches()
+  {
+    return persistentSearches;
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been added.
+   *
+   * @param entry
+   *          The entry that was added
+   */
+  public void notifyAdd(Entry entry)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      dispatch(getCandidates(entry.getName(), null, entry, null), ADD, entry, null, null);
+    }
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been deleted.
+   *
+   * @param entry
+   *          The entry that was deleted
+   */
+  public void notifyDelete(Entry entry)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      dispatch(getCandidates(entry.getName(), null, entry, null), DELETE, entry, null, null);
+    }
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been modified.
+   *
+   * @param entry
+   *          The entry after it was modified
+   * @param oldEntry
+   *          The entry before it was modified
+   */
+  public void notifyModify(Entry entry, Entry oldEntry)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      dispatch(getCandidates(oldEntry.getName(), null, entry, oldEntry), MODIFY, entry, oldEntry, null);
+    }
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been renamed.
+   *
+   * @param entry
+   *          The entry after it was renamed
+   * @param oldDN
+   *          The DN of the entry before it was renamed
+   */
+  public void notifyModifyDN(Entry entry, DN oldDN)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      dispatch(getCandidates(oldDN, entry.getName(), entry, null), MODIFY_DN, entry, null, oldDN);
+    }
+  }
+
+  /**
+   * Returns the persistent searches which may be interested in a change, because they are indexed
+   * by a base DN above the changed entry or by a term matching the changed entry.
+   *
+   * @param dn
+   *          The DN of the changed entry
+   * @param otherDN
+   *          The other DN of the changed entry if it was renamed, or {@code null}
+   * @param entry
+   *          The changed entry
+   * @param otherEntry
+   *          The other version of the changed entry, or {@code null}
+   * @return the persistent searches which may be interested in the change
+   */
+  @VisibleForTesting
+  Set<PersistentSearch> getCandidates(DN dn, DN otherDN, Entry entry, Entry otherEntry)
+  {
+    final Set<PersistentSearch> candidates = new LinkedHashSet<>();
+    addSearchesAbove(dn, candidates);
+    if (otherDN != null)
+    {
+      addSearchesAbove(otherDN, candidates);
+    }
+    if (!searchesByTerm.isEmpty())
+    {
+      addSearchesMatchingTerms(entry, candidates);
+      if (otherEntry != null)
+      {
+        addSearchesMatchingTerms(otherEntry, candidates);
+      }
+    }
+    return candidates;
+  }
+
+  private void addSearchesAbove(DN dn, Set<PersistentSearch> candidates)
+  {
+    if (searchesByBaseDN.isEmpty())
+    {
+      return;
+    }
+    for (DN baseDN = dn; baseDN != null; baseDN = baseDN.parent())
+    {
+      final Set<PersistentSearch> searches = searchesByBaseDN.get(baseDN);
+      if (searches != null)
+      {
+        candidates.addAll(searches);
+      }
+    }
+  }
+
+  private void addSearchesMatchingTerms(Entry entry, Set<PersistentSearch> candidates)
+  {
+    for (Map.Entry<AttributeType, ConcurrentMap<ByteString, Set<PersistentSearch>>> mapEntry
+        : searchesByTerm.entrySet())
+    {
+      final List<Attribute> attributes = entry.getAllAttributes(mapEntry.getKey());
+      final Map<ByteString, Set<PersistentSearch>> searchesByValue = mapEntry.getValue();
+      if (attributes.isEmpty() || searchesByValue.isEmpty())
+      {
+        continue;
+      }
+
+      if (countValues(attributes) <= searchesByValue.size())
+      {
+        // Look up the values of the entry
+        final MatchingRule matchingRule = mapEntry.getKey().getEqualityMatchingRule();
+        for (Attribute a : attributes)
+        {
+          for (ByteString value : a)
+          {
+            try
+            {
+              final Set<PersistentSearch> searches = searchesByValue.get(matchingRule.normalizeAttributeValue(value));
+              if (searches != null)
+              {
+                candidates.addAll(searches);
+              }
+            }
+            catch (DecodeException e)
+            {
+              logger.traceException(e);
+            }
+          }
+        }
+      }
+      else
+      {
+        // The entry has more values than there are terms, e.g. a large group: evaluate the terms
+        for (Set<PersistentSearch> searches : searchesByValue.values())
+        {
+          final Term term = terms.get(searches.iterator().next());
+          if (term != null && matchesTerm(term, entry))
+          {
+            candidates.addAll(searches);
+          }
+        }
+      }
+    }
+  }
+
+  private static int countValues(List<Attribute> attributes)
+  {
+    int count = 0;
+    for (Attribute a : attributes)
+    {
+      count += a.size();
+    }
+    return count;
+  }
+
+  private static boolean matchesTerm(Term term, Entry entry)
+  {
+    try
+    {
+      return term.filter.matchesEntry(entry);
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+      // Let the persistent search evaluate the change
+      return true;
+    }
+  }
+
+  private void dispatch(Set<PersistentSearch> candidates, final PersistentSearchChangeType changeType,
+      final Entry entry, final Entry oldEntry, final DN oldDN)
+  {
+    final Dispatcher[] currentDispatchers = dispatchers;
+    if (candidates.isEmpty() || currentDispatchers == null)
+    {
+      return;
+    }
+
+    // Send a single notification to each dispatcher thread, for all its persistent searches
+    final List<List<PersistentSearch>> searchesByDispatcher = new ArrayList<>(currentDispatchers.length);
+    for (int i = 0; i < currentDispatchers.length; i++)
+    {
+      searchesByDispatcher.add(null);
+    }
+    for (PersistentSearch psearch : candidates)
+    {
+      final int i = (System.identityHashCode(psearch) & Integer.MAX_VALUE) % currentDispatchers.length;
+      if (!reserveNotification(psearch, currentDispatchers[i]))
+      {
+        continue;
+      }
+      List<PersistentSearch> searches = searchesByDispatcher.get(i);
+      if (searches == null)
+      {
+        searches = new ArrayList<>();
+        searchesByDispatcher.set(i, searches);
+      }
+      searches.add(psearch);
+    }
+
+    for (int i = 0; i < currentDispatchers.length; i++)
+    {
+      final List<PersistentSearch> searches = searchesByDispatcher.get(i);
+      if (searches != null)
+      {
+        currentDispatchers[i].dispatch(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            for (PersistentSearch psearch : searches)
+            {
+              try
+              {
+                process(psearch, changeType, entry, oldEntry, oldDN);
+              }
+              finally
+              {
+                releaseNotification(psearch);
+              }
+            }
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Reserves room for a notification of the provided persistent search, or cancels it if its client
+   * does not keep up with the changes.
+   *
+   * @return {@code true} if the notification can be dispatched to the persistent search
+   */
+  private boolean reserveNotification(final PersistentSearch psearch, Dispatcher dispatcher)
+  {
+    final AtomicInteger pending = pendingNotifications.get(psearch);
+    if (pending == null)
+    {
+      // Deregistered since the candidates were computed
+      return false;
+    }
+    final int maxPendingNotifications = DirectoryServer.getCoreConfigManager().getMaxPSearchPendingNotifications();
+    if (pending.incrementAndGet() <= maxPendingNotifications || maxPendingNotifications <= 0)
+    {
+      return true;
+    }
+    pending.decrementAndGet();
+
+    // Only the first update overflowing the persistent search ends it
+    if (pendingNotifications.remove(psearch, pending))
+    {
+      final SearchOperation searchOperation = psearch.getSearchOperation();
+      logger.warn(WARN_PSEARCH_CANCELLED_TOO_MANY_PENDING_NOTIFICATIONS, searchOperation.getConnectionID(),
+          searchOperation.getOperationID(), maxPendingNotifications);
+      psearch.cancel();
+      // Send the result after the pending notifications, which are skipped now that it is cancelled
+      dispatcher.dispatch(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          sendAdminLimitExceeded(psearch, maxPendingNotifications);
+        }
+      });
+    }
+    return false;
+  }
+
+  private void releaseNotification(PersistentSearch psearch)
+  {
+    final AtomicInteger pending = pendingNotifications.get(psearch);
+    if (pending != null)
+    {
+      pending.decrementAndGet();
+    }
+  }
+
+  private static void sendAdminLimitExceeded(PersistentSearch psearch, int maxPendingNotifications)
+  {
+    final SearchOperation searchOperation = psearch.getSearchOperation();
+    try
+    {
+      searchOperation.setResultCode(ResultCode.ADMIN_LIMIT_EXCEEDED);
+      searchOperation.appendErrorMessage(ERR_PSEARCH_TOO_MANY_PENDING_NOTIFICATIONS.get(maxPendingNotifications));
+      searchOperation.sendSearchResultDone();
+    }
+    catch (RuntimeException e)
+    {
+      logger.traceException(e);
+    }
+  }
+
+  private static void process(PersistentSearch psearch, PersistentSearchChangeType changeType, Entry entry,
+      Entry oldEntry, DN oldDN)
+  {
+    // The persistent search may have been cancelled since the change was dispatched
+    if (psearch.isCancelled())
+    {
+      return;
+    }
+    try
+    {
+      switch (changeType)
+      {
+      case ADD:
+        psearch.processAdd(entry);
+        break;
+      case DELETE:
+        psearch.processDelete(entry);
+        break;
+      case MODIFY:
+        psearch.processModify(entry, oldEntry);
+        break;
+      case MODIFY_DN:
+        psearch.processModifyDN(entry, oldDN);
+        break;
+      }
+    }
+    catch (RuntimeException e)
+    {
+      // Do not let a persistent search stop the dispatcher thread
+      logger.traceException(e);
+    }
+  }
+
+  /** Cancels all the registered persistent searches and stops the dispatcher threads. */
+  public void close()
+  {
+    // Cancelling deregisters the persistent search: do not hold the lock of this registry
+    for (PersistentSearch psearch : persistentSearches)
+    {
+      psearch.cancel();
+    }
+    clear();
+  }
+
+  private synchronized void clear()
+  {
+    persistentSearches.clear();
+    terms.clear();
+    pendingNotifications.clear();
+    searchesByTerm.clear();
+    searchesByBaseDN.clear();
+
+    if (dispatchers != null)
+    {
+      for (Dispatcher dispatcher : dispatchers)
+      {
+        dispatcher.shutdown();
+      }
+      dispatchers = null;
+    }
+  }
+}
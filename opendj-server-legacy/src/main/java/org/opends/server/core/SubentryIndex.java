@@ -0,0 +1,297 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.RDN;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SubEntry;
+import org.opends.server.types.SubtreeSpecification;
+
+/**
+ * Subentries indexed by the base DN of their subtree specification in a DN trie.
+ * <p>
+ * The lookups do not lock: the trie nodes are concurrent maps and the subentries of each node are
+ * replaced on write. The subentries whose subtree contains a DN are cached per DN, the cached
+ * results being invalidated by a generation counter incremented after each write. The cache only
+ * holds the result of the DN based part of the subtree specifications, the refinements being
+ * evaluated against each entry.
+ * <p>
+ * The updates must be serialized by the caller.
+ */
+final class SubentryIndex
+{
+  /** The maximum number of DNs whose subentries are cached, the cache being cleared once reached. */
+  private static final int MAX_CACHED_DNS = 10000;
+
+  /** A node of the DN trie. */
+  private static final class Node
+  {
+    private final ConcurrentMap<RDN, Node> children = new ConcurrentHashMap<>();
+    /** The subentries whose subtree specification has the DN of this node as base DN. */
+    private volatile List<SubEntry> subentries = Collections.emptyList();
+  }
+
+  /** The subentries whose subtree contains a DN, for a given generation. */
+  private static final class CachedSubentries
+  {
+    private final long generation;
+    private final List<SubEntry> subentries;
+    /** Whether some of the subentries have refinements which must be evaluated against each entry. */
+    private final boolean hasRefinements;
+
+    private CachedSubentries(long generation, List<SubEntry> subentries)
+    {
+      this.generation = generation;
+      this.subentries = subentries;
+      this.hasRefinements = hasRefinements(subentries);
+    }
+
+    private static boolean hasRefinements(List<SubEntry> subentries)
+    {
+      for (SubEntry subEntry : subentries)
+      {
+        if (subEntry.getSubTreeSpecification().getRefinements() != null)
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final Node root = new Node();
+  private final AtomicLong generation = new AtomicLong();
+  private final ConcurrentMap<DN, CachedSubentries> cache = new ConcurrentHashMap<>();
+  private volatile int size;
+
+  /**
+   * Adds a subentry to this index.
+   *
+   * @param subEntry
+   *          the subentry to add
+   */
+  void add(SubEntry subEntry)
+  {
+    Node node = root;
+    for (RDN rdn : getRDNs(subEntry.getSubTreeSpecification().getBaseDN()))
+    {
+      Node child = node.children.get(rdn);
+      if (child == null)
+      {
+        child = new Node();
+        node.children.put(rdn, child);
+      }
+      node = child;
+    }
+    final List<SubEntry> subentries = new ArrayList<>(node.subentries);
+    subentries.add(subEntry);
+    node.subentries = Collections.unmodifiableList(subentries);
+    size++;
+    invalidateCache();
+  }
+
+  /**
+   * Removes a subentry from this index.
+   *
+   * @param subEntry
+   *          the subentry to remove
+   * @return {@code true} if the subentry was found in this index
+   */
+  boolean remove(SubEntry subEntry)
+  {
+    final List<Node> path = new ArrayList<>();
+    Node node = root;
+    for (RDN rdn : getRDNs(subEntry.getSubTreeSpecification().getBaseDN()))
+    {
+      path.add(node);
+      node = node.children.get(rdn);
+      if (node == null)
+      {
+        return false;
+      }
+    }
+
+    final List<SubEntry> subentries = new ArrayList<>(node.subentries);
+    if (!subentries.remove(subEntry))
+    {
+      return false;
+    }
+    node.subentries = subentries.isEmpty()
+        ? Collections.<SubEntry> emptyList() : Collections.unmodifiableList(subentries);
+    size--;
+
+    // Prune the nodes which no longer lead to subentries
+    final RDN[] rdns = getRDNs(subEntry.getSubTreeSpecification().getBaseDN());
+    for (int i = path.size() - 1; i >= 0 && node.subentries.isEmpty() && node.children.isEmpty(); i--)
+    {
+      final Node parent = path.get(i);
+      parent.children.remove(rdns[i]);
+      node = parent;
+    }
+    invalidateCache();
+    return true;
+  }
+
+  private void invalidateCache()
+  {
+    // Increment after the change, so that a lookup racing with it cannot cache a stale result
+    generation.incrementAndGet();
+    cache.clear();
+  }
+
+  /**
+   * Returns whether this index is empty.
+   *
+   * @return {@code true} if this index is empty
+   */
+  boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * Returns all the subentries in this index.
+   *
+   * @return all the subentries in this index
+   */
+  List<SubEntry> getAllSubentries()
+  {
+    final List<SubEntry> subentries = new ArrayList<>();
+    addAllSubentries(root, subentries);
+    return subentries;
+  }
+
+  private void addAllSubentries(Node node, List<SubEntry> subentries)
+  {
+    subentries.addAll(node.subentries);
+    for (Node child : node.children.values())
+    {
+      addAllSubentries(child, subentries);
+    }
+  }
+
+  /**
+   * Returns the subentries whose subtree contains the provided DN, the nearest first.
+   *
+   * @param dn
+   *          the DN
+   * @return the subentries whose subtree contains the provided DN
+   */
+  List<SubEntry> getSubentries(DN dn)
+  {
+    if (isEmpty())
+    {
+      return Collections.emptyList();
+    }
+    return getCachedSubentries(dn).subentries;
+  }
+
+  /**
+   * Returns the subentries whose subtree contains the provided entry, the nearest first.
+   *
+   * @param entry
+   *          the entry
+   * @return the subentries whose subtree contains the provided entry
+   */
+  List<SubEntry> getSubentries(Entry entry)
+  {
+    if (isEmpty())
+    {
+      return Collections.emptyList();
+    }
+
+    final CachedSubentries cached = getCachedSubentries(entry.getName());
+    if (!cached.hasRefinements)
+    {
+      return cached.subentries;
+    }
+    final List<SubEntry> subentries = new ArrayList<>(cached.subentries.size());
+    for (SubEntry subEntry : cached.subentries)
+    {
+      if (subEntry.getSubTreeSpecification().isRefinementMatching(entry))
+      {
+        subentries.add(subEntry);
+      }
+    }
+    return subentries;
+  }
+
+  private CachedSubentries getCachedSubentries(DN dn)
+  {
+    final long currentGeneration = generation.get();
+    CachedSubentries cached = cache.get(dn);
+    if (cached == null || cached.generation != currentGeneration)
+    {
+      cached = new CachedSubentries(currentGeneration, findSubentries(dn));
+      if (cache.size() >= MAX_CACHED_DNS)
+      {
+        cache.clear();
+      }
+      cache.put(dn, cached);
+    }
+    return cached;
+  }
+
+  private List<SubEntry> findSubentries(DN dn)
+  {
+    // Collect the subentries of the nodes along the DN, then return them the nearest first
+    final List<List<SubEntry>> subentriesByDepth = new ArrayList<>();
+    Node node = root;
+    for (RDN rdn : getRDNs(dn))
+    {
+      node = node.children.get(rdn);
+      if (node == null)
+      {
+        break;
+      }
+      subentriesByDepth.add(node.subentries);
+    }
+
+    final List<SubEntry> subentries = new ArrayList<>();
+    for (int i = subentriesByDepth.size() - 1; i >= 0; i--)
+    {
+      for (SubEntry subEntry : subentriesByDepth.get(i))
+      {
+        final SubtreeSpecification subSpec = subEntry.getSubTreeSpecification();
+        if (subSpec.isDNWithinScope(dn))
+        {
+          subentries.add(subEntry);
+        }
+      }
+    }
+    return subentries.isEmpty() ? Collections.<SubEntry> emptyList() : Collections.unmodifiableList(subentries);
+  }
+
+  /** Returns the RDNs of the provided DN, starting from the one nearest to the root DN. */
+  private static RDN[] getRDNs(DN dn)
+  {
+    final RDN[] rdns = new RDN[dn.size()];
+    int i = rdns.length;
+    for (DN parent = dn; parent != null && !parent.isRootDN(); parent = parent.parent())
+    {
+      rdns[--i] = parent.rdn();
+    }
+    return rdns;
+  }
+}
@@ -16,14 +16,10 @@
  */
 package org.opends.server.core;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -53,7 +49,6 @@ import org.opends.server.types.Privilege;
 import org.opends.server.types.SearchFilter;
 import org.opends.server.types.SearchResultEntry;
 import org.opends.server.types.SubEntry;
-import org.opends.server.types.SubtreeSpecification;
 import org.opends.server.types.operation.PostOperationAddOperation;
 import org.opends.server.types.operation.PostOperationDeleteOperation;
 import org.opends.server.types.operation.PostOperationModifyDNOperation;
@@ -93,15 +88,18 @@ public class SubentryManager extends InternalDirectoryServerPlugin
   /** Dummy configuration DN for Subentry Manager. */
   private static final String CONFIG_DN = "cn=Subentry Manager,cn=config";
 
-  /** A mapping between the DNs and applicable subentries. */
-  private final Map<DN, List<SubEntry>> dn2SubEntry = new HashMap<>();
-  /** A mapping between the DNs and applicable collective subentries. */
-  private final Map<DN, List<SubEntry>> dn2CollectiveSubEntry = new HashMap<>();
+  /** The subentries, indexed by the base DN of their subtree. */
+  private final SubentryIndex subentryIndex = new SubentryIndex();
+  /** The collective subentries, indexed by the base DN of their subtree. */
+  private final SubentryIndex collectiveSubentryIndex = new SubentryIndex();
   /** A mapping between subentry DNs and subentry objects. */
   private final DITCacheMap<SubEntry> dit2SubEntry = new DITCacheMap<>();
   /** Internal search all operational attributes. */
   private final Set<String> requestAttrs = newLinkedHashSet("*", "+");
-  /** Lock to protect internal data structures. */
+  /**
+   * Lock to protect internal data structures. The subentry indexes are read
+   * without locking, their updates are performed with the write lock.
+   */
   private final ReadWriteLock lock = new ReentrantReadWriteLock();
   /** The set of change notification listeners. */
   private final List<SubentryChangeListener> changeListeners = new CopyOnWriteArrayList<>();
@@ -181,20 +179,11 @@ public class SubentryManager extends InternalDirectoryServerPlugin
   private void addSubentry(Entry entry) throws DirectoryException
   {
     SubEntry subEntry = new SubEntry(entry);
-    SubtreeSpecification subSpec = subEntry.getSubTreeSpecification();
-    DN subDN = subSpec.getBaseDN();
     lock.writeLock().lock();
     try
     {
-      Map<DN, List<SubEntry>> subEntryMap = getSubEntryMap(subEntry);
-      List<SubEntry> subList = subEntryMap.get(subDN);
-      if (subList == null)
-      {
-        subList = new ArrayList<>();
-        subEntryMap.put(subDN, subList);
-      }
       dit2SubEntry.put(entry.getName(), subEntry);
-      subList.add(subEntry);
+      getSubentryIndex(subEntry).add(subEntry);
     }
     finally
     {
@@ -202,9 +191,9 @@ public class SubentryManager extends InternalDirectoryServerPlugin
     }
   }
 
-  private Map<DN, List<SubEntry>> getSubEntryMap(SubEntry subEntry)
+  private SubentryIndex getSubentryIndex(SubEntry subEntry)
   {
-    return (subEntry.isCollective() || subEntry.isInheritedCollective()) ? dn2CollectiveSubEntry : dn2SubEntry;
+    return (subEntry.isCollective() || subEntry.isInheritedCollective()) ? collectiveSubentryIndex : subentryIndex;
   }
 
   /**
@@ -218,9 +207,10 @@ public class SubentryManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
-      if (!removeSubEntry(dn2SubEntry, entry))
+      SubEntry subEntry = dit2SubEntry.remove(entry.getName());
+      if (subEntry != null)
       {
-        removeSubEntry(dn2CollectiveSubEntry, entry);
+        getSubentryIndex(subEntry).remove(subEntry);
       }
     }
     finally
@@ -229,31 +219,6 @@ public class SubentryManager extends InternalDirectoryServerPlugin
     }
   }
 
-  private boolean removeSubEntry(Map<DN, List<SubEntry>> subEntryMap, Entry entry)
-  {
-    Iterator<List<SubEntry>> subEntryListsIt = subEntryMap.values().iterator();
-    while (subEntryListsIt.hasNext())
-    {
-      List<SubEntry> subEntries = subEntryListsIt.next();
-      Iterator<SubEntry> subEntriesIt = subEntries.iterator();
-      while (subEntriesIt.hasNext())
-      {
-        SubEntry subEntry = subEntriesIt.next();
-        if (subEntry.getDN().equals(entry.getName()))
-        {
-          dit2SubEntry.remove(entry.getName());
-          subEntriesIt.remove();
-          if (subEntries.isEmpty())
-          {
-            subEntryListsIt.remove();
-          }
-          return true;
-        }
-      }
-    }
-    return false;
-  }
-
   /**
    * {@inheritDoc}  In this case, the server will search the backend to find
    * all subentries that it may contain and register them with this manager.
@@ -388,27 +353,11 @@ public class SubentryManager extends InternalDirectoryServerPlugin
    */
   public List<SubEntry> getSubentries()
   {
-    if (dn2SubEntry.isEmpty())
+    if (subentryIndex.isEmpty())
     {
       return Collections.emptyList();
     }
-
-    List<SubEntry> subentries = new ArrayList<>();
-
-    lock.readLock().lock();
-    try
-    {
-      for (List<SubEntry> subList : dn2SubEntry.values())
-      {
-        subentries.addAll(subList);
-      }
-    }
-    finally
-    {
-      lock.readLock().unlock();
-    }
-
-    return subentries;
+    return subentryIndex.getAllSubentries();
   }
 
   /**
@@ -420,41 +369,7 @@ public class SubentryManager extends InternalDirectoryServerPlugin
    */
   public List<SubEntry> getSubentries(DN dn)
   {
-    return getSubentries(dn2SubEntry, dn);
-  }
-
-  private List<SubEntry> getSubentries(Map<DN, List<SubEntry>> subEntryMap, DN dn)
-  {
-    if (subEntryMap.isEmpty())
-    {
-      return Collections.emptyList();
-    }
-
-    lock.readLock().lock();
-    try
-    {
-      List<SubEntry> subentries = new ArrayList<>();
-      for (DN subDN = dn; subDN != null && !subDN.isRootDN(); subDN = subDN.parent())
-      {
-        List<SubEntry> subList = subEntryMap.get(subDN);
-        if (subList != null)
-        {
-          for (SubEntry subEntry : subList)
-          {
-            SubtreeSpecification subSpec = subEntry.getSubTreeSpecification();
-            if (subSpec.isDNWithinScope(dn))
-            {
-              subentries.add(subEntry);
-            }
-          }
-        }
-      }
-      return subentries;
-    }
-    finally
-    {
-      lock.readLock().unlock();
-    }
+    return subentryIndex.getSubentries(dn);
   }
 
   /**
@@ -467,41 +382,7 @@ public class SubentryManager extends InternalDirectoryServerPlugin
    */
   public List<SubEntry> getSubentries(Entry entry)
   {
-    return getSubentries(dn2SubEntry, entry);
-  }
-
-  private List<SubEntry> getSubentries(Map<DN, List<SubEntry>> subEntryMap, Entry entry)
-  {
-    if (subEntryMap.isEmpty())
-    {
-      return Collections.emptyList();
-    }
-
-    lock.readLock().lock();
-    try
-    {
-      List<SubEntry> subentries = new ArrayList<>();
-      for (DN subDN = entry.getName(); subDN != null && !subDN.isRootDN(); subDN = subDN.parent())
-      {
-        List<SubEntry> subList = subEntryMap.get(subDN);
-        if (subList != null)
-        {
-          for (SubEntry subEntry : subList)
-          {
-            SubtreeSpecification subSpec = subEntry.getSubTreeSpecification();
-            if (subSpec.isWithinScope(entry))
-            {
-              subentries.add(subEntry);
-            }
-          }
-        }
-      }
-      return subentries;
-    }
-    finally
-    {
-      lock.readLock().unlock();
-    }
+    return subentryIndex.getSubentries(entry);
   }
 
   /**
@@ -514,7 +395,7 @@ public class SubentryManager extends InternalDirectoryServerPlugin
    */
   public List<SubEntry> getCollectiveSubentries(DN dn)
   {
-    return getSubentries(dn2CollectiveSubEntry, dn);
+    return collectiveSubentryIndex.getSubentries(dn);
   }
 
   /**
@@ -527,7 +408,7 @@ public class SubentryManager extends InternalDirectoryServerPlugin
    */
   public List<SubEntry> getCollectiveSubentries(Entry entry)
   {
-    return getSubentries(dn2CollectiveSubEntry, entry);
+    return collectiveSubentryIndex.getSubentries(entry);
   }
 
   /**
@@ -540,8 +421,8 @@ public class SubentryManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
-      performBackendPostFinalizationProcessing(dn2SubEntry, backend);
-      performBackendPostFinalizationProcessing(dn2CollectiveSubEntry, backend);
+      performBackendPostFinalizationProcessing(subentryIndex, backend);
+      performBackendPostFinalizationProcessing(collectiveSubentryIndex, backend);
     }
     finally
     {
@@ -549,26 +430,15 @@ public class SubentryManager extends InternalDirectoryServerPlugin
     }
   }
 
-  private void performBackendPostFinalizationProcessing(Map<DN, List<SubEntry>> subEntryMap, LocalBackend<?> backend)
+  private void performBackendPostFinalizationProcessing(SubentryIndex index, LocalBackend<?> backend)
   {
-    Iterator<List<SubEntry>> subEntryListsIt = subEntryMap.values().iterator();
-    while (subEntryListsIt.hasNext())
+    for (SubEntry subEntry : index.getAllSubentries())
     {
-      List<SubEntry> subEntryList = subEntryListsIt.next();
-      Iterator<SubEntry> subEntriesIt = subEntryList.iterator();
-      while (subEntriesIt.hasNext())
+      if (backend.handlesEntry(subEntry.getDN()))
       {
-        SubEntry subEntry = subEntriesIt.next();
-        if (backend.handlesEntry(subEntry.getDN()))
-        {
-          dit2SubEntry.remove(subEntry.getDN());
-          subEntriesIt.remove();
-          notifySubentryDeleted(subEntry.getEntry());
-        }
-      }
-      if (subEntryList.isEmpty())
-      {
-        subEntryListsIt.remove();
+        dit2SubEntry.remove(subEntry.getDN());
+        index.remove(subEntry);
+        notifySubentryDeleted(subEntry.getEntry());
       }
     }
   }
@@ -0,0 +1,491 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.server.ElasticWorkQueueCfg;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.ElasticWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+
+/**
+ * A work queue which runs each operation on its own worker thread, up to a
+ * maximum number of concurrent operations.
+ * <p>
+ * Worker threads are created when operations are submitted and no idle worker
+ * thread is available, and exit after being idle for a while. Operations which
+ * spend most of their time blocked, for example waiting for a remote
+ * pass-through authentication server, therefore do not require sizing a large
+ * fixed pool of worker threads up front: the pool only grows as large as the
+ * number of operations actually running concurrently. Once the limit is
+ * reached, operations are queued until a running operation completes.
+ */
+public class ElasticWorkQueue
+       extends WorkQueue<ElasticWorkQueueCfg>
+       implements ConfigurationChangeListener<ElasticWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The time after which idle worker threads exit. */
+  private static final long IDLE_WORKER_THREAD_TIMEOUT_SECONDS = 60;
+
+  /** A semaphore whose number of permits can be lowered while permits are acquired. */
+  private static final class ResizableSemaphore extends Semaphore
+  {
+    private static final long serialVersionUID = 1L;
+
+    private ResizableSemaphore(int permits)
+    {
+      super(permits);
+    }
+
+    private void resize(int delta)
+    {
+      if (delta > 0)
+      {
+        release(delta);
+      }
+      else if (delta < 0)
+      {
+        reducePermits(-delta);
+      }
+    }
+  }
+
+  /** Runs an operation on a worker thread. */
+  private final class OperationTask implements Runnable
+  {
+    private final Operation operation;
+
+    private OperationTask(Operation operation)
+    {
+      this.operation = operation;
+    }
+
+    @Override
+    public void run()
+    {
+      runningOperations.add(operation);
+      try
+      {
+        operation.run();
+        operation.operationCompleted();
+      }
+      catch (Throwable t)
+      {
+        handleUncaughtException(operation, t);
+      }
+      finally
+      {
+        runningOperations.remove(operation);
+        operationCompleted();
+      }
+    }
+  }
+
+  /** The thread pool running the operations. */
+  private ThreadPoolExecutor executor;
+
+  /**
+   * The permits for submitting operations: one for each operation running or
+   * waiting to run, the queue being full when no more permits are available.
+   */
+  private ResizableSemaphore submitPermits;
+
+  /** The operations currently running. */
+  private final Set<Operation> runningOperations = ConcurrentHashMap.newKeySet();
+
+  /** The number of operations submitted and not yet completed. */
+  private final AtomicInteger operationsInProgress = new AtomicInteger();
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final AtomicLong opsSubmitted = new AtomicLong();
+
+  /**
+   * The number of times that an attempt to submit a new request has been
+   * rejected because the work queue is already at its maximum capacity.
+   */
+  private final AtomicLong queueFullRejects = new AtomicLong();
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /** The maximum number of operations running concurrently. */
+  private volatile int maxConcurrentOperations;
+
+  /**
+   * The maximum number of pending requests that this work queue will allow
+   * before it will start blocking or rejecting them.
+   */
+  private volatile int maxCapacity;
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public ElasticWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+  @Override
+  public void initializeWorkQueue(ElasticWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    shutdownRequested = false;
+
+    // Register to be notified of any configuration changes.
+    configuration.addElasticChangeListener(this);
+
+    maxConcurrentOperations = configuration.getMaxConcurrentOperations();
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    submitPermits = new ResizableSemaphore(getSubmitPermits(maxConcurrentOperations, maxCapacity));
+
+    // Core threads are created for each submitted operation up to the limit,
+    // and time out like the other threads.
+    executor = new ThreadPoolExecutor(maxConcurrentOperations, maxConcurrentOperations,
+        IDLE_WORKER_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new DirectoryThread.Factory("Worker Thread"));
+    executor.allowCoreThreadTimeOut(true);
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      ElasticWorkQueueMonitor monitor = new ElasticWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, ElasticWorkQueueMonitor.class, e);
+    }
+  }
+
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+
+    // Send responses to any operations in the pending queue to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    List<Runnable> pendingTasks = new ArrayList<>();
+    executor.getQueue().drainTo(pendingTasks);
+    for (Runnable task : pendingTasks)
+    {
+      Operation o = ((OperationTask) task).operation;
+      try
+      {
+        // The operation has no chance of responding to the cancel
+        // request so avoid waiting for a cancel response.
+        if (o.getCancelResult() == null)
+        {
+          o.abort(cancelRequest);
+        }
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+      }
+      finally
+      {
+        operationCompleted();
+      }
+    }
+
+    // Cancel the operations in progress, and let the worker threads exit
+    // once they complete.
+    CancelRequest shutdownCancelRequest = new CancelRequest(true, INFO_CANCELED_BY_SHUTDOWN.get());
+    for (Operation o : runningOperations)
+    {
+      try
+      {
+        o.cancel(shutdownCancelRequest);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+    executor.shutdown();
+  }
+
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, true);
+  }
+
+  @Override
+  public boolean trySubmitOperation(Operation operation) throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private void submitOperation(Operation operation, boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    checkNotShutdown();
+    if (blockEnqueuingWhenFull)
+    {
+      try
+      {
+        // Periodically check whether the server is shutting down.
+        while (!submitPermits.tryAcquire(1, TimeUnit.SECONDS))
+        {
+          checkNotShutdown();
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // We cannot handle the interruption here. Reject the request and
+        // re-interrupt this thread.
+        Thread.currentThread().interrupt();
+        queueFullRejects.incrementAndGet();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get());
+      }
+    }
+    else if (!submitPermits.tryAcquire())
+    {
+      queueFullRejects.incrementAndGet();
+      throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity));
+    }
+
+    operationsInProgress.incrementAndGet();
+    try
+    {
+      executor.execute(new OperationTask(operation));
+    }
+    catch (RejectedExecutionException e)
+    {
+      // The executor has been shut down concurrently
+      operationCompleted();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+    opsSubmitted.incrementAndGet();
+  }
+
+  private static int getSubmitPermits(int maxConcurrentOperations, int maxCapacity)
+  {
+    return (int) Math.min((long) maxConcurrentOperations + maxCapacity, Integer.MAX_VALUE);
+  }
+
+  private void checkNotShutdown() throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+  }
+
+  private void operationCompleted()
+  {
+    operationsInProgress.decrementAndGet();
+    submitPermits.release();
+  }
+
+  private void handleUncaughtException(Operation operation, Throwable t)
+  {
+    final String threadName = Thread.currentThread().getName();
+    if (logger.isTraceEnabled())
+    {
+      logger.trace("Uncaught exception in worker thread while processing operation %s: %s", operation, t);
+      logger.traceException(t);
+    }
+
+    try
+    {
+      LocalizableMessage message =
+          ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(threadName, operation, stackTraceToSingleLineString(t));
+      logger.error(message);
+
+      // Ensure that the client receives some kind of result so that it does
+      // not hang.
+      operation.setResultCode(DirectoryServer.getCoreConfigManager().getServerErrorResultCode());
+      operation.appendErrorMessage(message);
+      operation.getClientConnection().sendResponse(operation);
+    }
+    catch (Throwable t2)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.trace("Exception in worker thread while trying to log a "
+            + "message about an uncaught exception %s: %s", t, t2);
+        logger.traceException(t2);
+      }
+    }
+
+    try
+    {
+      LocalizableMessage message =
+          ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(threadName, operation, stackTraceToSingleLineString(t));
+      operation.disconnectClient(DisconnectReason.SERVER_ERROR, true, message);
+    }
+    catch (Throwable t2)
+    {
+      logger.traceException(t2);
+    }
+  }
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup. This does
+   * not include operations that have been rejected for some reason like the
+   * queue already at its maximum capacity.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.longValue();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.longValue();
+  }
+
+  /**
+   * Retrieves the number of pending operations in the queue that have not yet
+   * been picked up for processing.
+   *
+   * @return The number of pending operations in the queue that have not yet
+   *         been picked up for processing.
+   */
+  public int size()
+  {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Retrieves the number of operations currently running.
+   *
+   * @return The number of operations currently running.
+   */
+  public int getActiveOperations()
+  {
+    return runningOperations.size();
+  }
+
+  /**
+   * Retrieves the number of worker threads currently alive, whether running an
+   * operation or idle.
+   *
+   * @return The number of worker threads currently alive.
+   */
+  public int getCurrentNumWorkerThreads()
+  {
+    return executor.getPoolSize();
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      ElasticWorkQueueCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(ElasticWorkQueueCfg configuration)
+  {
+    final int newMaxConcurrentOperations = configuration.getMaxConcurrentOperations();
+    final int newMaxCapacity = configuration.getMaxWorkQueueCapacity();
+
+    if (newMaxConcurrentOperations > maxConcurrentOperations)
+    {
+      executor.setMaximumPoolSize(newMaxConcurrentOperations);
+      executor.setCorePoolSize(newMaxConcurrentOperations);
+    }
+    else if (newMaxConcurrentOperations < maxConcurrentOperations)
+    {
+      // Extra worker threads exit once they complete their current operation.
+      executor.setCorePoolSize(newMaxConcurrentOperations);
+      executor.setMaximumPoolSize(newMaxConcurrentOperations);
+    }
+    submitPermits.resize(getSubmitPermits(newMaxConcurrentOperations, newMaxCapacity)
+        - getSubmitPermits(maxConcurrentOperations, maxCapacity));
+    maxConcurrentOperations = newMaxConcurrentOperations;
+    maxCapacity = newMaxCapacity;
+
+    return new ConfigChangeResult();
+  }
+
+  @Override
+  public boolean isIdle()
+  {
+    return operationsInProgress.get() == 0;
+  }
+
+  /**
+   * Return the maximum number of worker threads used by this WorkQueue, which
+   * is its maximum number of concurrent operations.
+   *
+   * @return the maximum number of worker threads used by this WorkQueue
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return maxConcurrentOperations;
+  }
+}
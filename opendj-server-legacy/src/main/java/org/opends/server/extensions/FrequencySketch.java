@@ -0,0 +1,160 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the access frequency of cached items within a time window, as needed by the TinyLFU admission policy.
+ * <p>
+ * This is a count-min sketch with four hash functions and 4 bits counters, sixteen counters being packed in each long.
+ * The counters saturate at 15, and are all halved once the number of increments reaches ten times the capacity of the
+ * sketch, so that the estimations favor the recent accesses.
+ * <p>
+ * This class is not thread safe.
+ */
+final class FrequencySketch
+{
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  /** Clears the lowest bit of each counter after a shift. */
+  private static final long RESET_MASK = 0x7777777777777777L;
+  /** Selects the lowest bit of each counter. */
+  private static final long ONE_MASK = 0x1111111111111111L;
+  private static final int MAX_COUNT = 15;
+  /** Small caches still get an accurate sketch, and growing it from scratch is avoided. */
+  private static final int MIN_TABLE_SIZE = 1 << 8;
+  private static final int MAX_TABLE_SIZE = 1 << 24;
+
+  private long[] table = new long[MIN_TABLE_SIZE];
+  private int tableMask = MIN_TABLE_SIZE - 1;
+  private int sampleSize = 10 * MIN_TABLE_SIZE;
+  private int size;
+
+  /**
+   * Grows the sketch, if needed, so that it accurately estimates the frequency of the provided number of items.
+   * Growing the sketch loses all the frequencies estimated so far.
+   *
+   * @param maximumSize
+   *          the maximum number of items held by the cache
+   */
+  void ensureCapacity(long maximumSize)
+  {
+    final int maximum = (int) Math.min(maximumSize, MAX_TABLE_SIZE);
+    if (table.length >= maximum)
+    {
+      return;
+    }
+    table = new long[ceilingPowerOfTwo(maximum)];
+    tableMask = table.length - 1;
+    sampleSize = 10 * maximum;
+    size = 0;
+  }
+
+  /**
+   * Returns the estimated number of recent accesses to the provided item.
+   *
+   * @param hashCode
+   *          the hash code of the item
+   * @return the estimated frequency, between 0 and 15
+   */
+  int frequency(int hashCode)
+  {
+    final int hash = spread(hashCode);
+    final int start = (hash & 3) << 2;
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < 4; i++)
+    {
+      final int index = indexOf(hash, i);
+      final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records an access to the provided item.
+   *
+   * @param hashCode
+   *          the hash code of the item
+   */
+  void increment(int hashCode)
+  {
+    final int hash = spread(hashCode);
+    final int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++)
+    {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++size >= sampleSize)
+    {
+      reset();
+    }
+  }
+
+  /** Forgets all the recorded accesses. */
+  void clear()
+  {
+    Arrays.fill(table, 0L);
+    size = 0;
+  }
+
+  private boolean incrementAt(int index, int counter)
+  {
+    final int offset = counter << 2;
+    final long mask = 0xFL << offset;
+    if ((table[index] & mask) != mask)
+    {
+      table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves all the counters, so that old accesses progressively stop counting. */
+  private void reset()
+  {
+    int oddCounters = 0;
+    for (int i = 0; i < table.length; i++)
+    {
+      oddCounters += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    // Account for the truncation of odd counters
+    size = (size >>> 1) - (oddCounters >>> 2);
+  }
+
+  private int indexOf(int hash, int i)
+  {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+  /** Protects against poor quality hash codes. */
+  private static int spread(int hashCode)
+  {
+    int h = ((hashCode >>> 16) ^ hashCode) * 0x45d9f3b;
+    h = ((h >>> 16) ^ h) * 0x45d9f3b;
+    return (h >>> 16) ^ h;
+  }
+
+  private static int ceilingPowerOfTwo(int value)
+  {
+    return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores byte arrays in fixed size blocks of direct memory, outside of the JVM heap.
+ * <p>
+ * Direct memory is allocated in slabs as blocks are needed, up to the capacity of the store, and is never released
+ * while the store is in use: the store is meant to be filled, evicting data to make room for new data. Using fixed
+ * size blocks means the store never gets fragmented, a byte array being written to any free blocks.
+ * <p>
+ * Allocating and freeing blocks is thread safe. Reading and writing blocks is thread safe provided they are not freed
+ * concurrently.
+ */
+final class OffHeapBlockStore
+{
+  /** The size of a block. Smaller blocks waste less memory, but use more heap for referencing them. */
+  static final int BLOCK_SIZE = 256;
+  private static final int BLOCK_SHIFT = 8;
+  private static final int BLOCKS_PER_SLAB = 4096;
+
+  private final ByteBuffer[] slabs;
+  private final int maxBlocks;
+
+  /** Guarded by this. */
+  private int allocatedBlocks;
+  private int[] freeBlocks = new int[BLOCKS_PER_SLAB];
+  private int freeCount;
+  private int usedBlocks;
+
+  /**
+   * Creates a new store.
+   *
+   * @param capacity
+   *          the maximum size of direct memory used by this store
+   */
+  OffHeapBlockStore(long capacity)
+  {
+    maxBlocks = (int) Math.min(capacity / BLOCK_SIZE, Integer.MAX_VALUE - BLOCKS_PER_SLAB);
+    slabs = new ByteBuffer[(maxBlocks + BLOCKS_PER_SLAB - 1) / BLOCKS_PER_SLAB];
+  }
+
+  /**
+   * Returns the number of blocks needed for storing the provided number of bytes.
+   *
+   * @param length
+   *          the number of bytes to store
+   * @return the number of blocks needed for storing the provided number of bytes
+   */
+  static int getBlockCount(int length)
+  {
+    return (length + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+  }
+
+  /**
+   * Allocates blocks, allocating direct memory if needed.
+   *
+   * @param count
+   *          the number of blocks to allocate
+   * @return the allocated blocks, or {@code null} if there are not enough free blocks
+   */
+  synchronized int[] allocate(int count)
+  {
+    while (freeCount < count && allocatedBlocks < maxBlocks)
+    {
+      allocateSlab();
+    }
+    if (freeCount < count)
+    {
+      return null;
+    }
+    freeCount -= count;
+    usedBlocks += count;
+    // Free blocks are popped in ascending order from the slabs, so that they are often contiguous.
+    final int[] blocks = new int[count];
+    for (int i = 0; i < count; i++)
+    {
+      blocks[i] = freeBlocks[freeCount + count - 1 - i];
+    }
+    return blocks;
+  }
+
+  private void allocateSlab()
+  {
+    final int slab = allocatedBlocks / BLOCKS_PER_SLAB;
+    final int blockCount = Math.min(BLOCKS_PER_SLAB, maxBlocks - allocatedBlocks);
+    slabs[slab] = ByteBuffer.allocateDirect(blockCount * BLOCK_SIZE);
+    if (freeBlocks.length < freeCount + blockCount)
+    {
+      freeBlocks = Arrays.copyOf(freeBlocks, Math.max(freeCount + blockCount, freeBlocks.length * 2));
+    }
+    for (int block = allocatedBlocks + blockCount - 1; block >= allocatedBlocks; block--)
+    {
+      freeBlocks[freeCount++] = block;
+    }
+    allocatedBlocks += blockCount;
+  }
+
+  /**
+   * Frees the provided blocks, which must not be used anymore.
+   *
+   * @param blocks
+   *          the blocks to free
+   */
+  synchronized void free(int[] blocks)
+  {
+    for (int i = blocks.length - 1; i >= 0; i--)
+    {
+      freeBlocks[freeCount++] = blocks[i];
+    }
+    usedBlocks -= blocks.length;
+  }
+
+  /**
+   * Writes bytes to the provided blocks.
+   *
+   * @param blocks
+   *          the blocks where to write the bytes, large enough for holding them
+   * @param bytes
+   *          the bytes to write
+   * @param length
+   *          the number of bytes to write
+   */
+  void write(int[] blocks, byte[] bytes, int length)
+  {
+    int offset = 0;
+    for (int i = 0; i < blocks.length && offset < length;)
+    {
+      // Process runs of contiguous blocks at once
+      final int run = getRunLength(blocks, i);
+      final int runLength = Math.min(run * BLOCK_SIZE, length - offset);
+      final ByteBuffer buffer = slice(blocks[i]);
+      buffer.put(bytes, offset, runLength);
+      offset += runLength;
+      i += run;
+    }
+  }
+
+  /**
+   * Reads bytes from the provided blocks.
+   *
+   * @param blocks
+   *          the blocks where the bytes were written
+   * @param bytes
+   *          the array where to copy the read bytes
+   * @param length
+   *          the number of bytes to read
+   */
+  void read(int[] blocks, byte[] bytes, int length)
+  {
+    int offset = 0;
+    for (int i = 0; i < blocks.length && offset < length;)
+    {
+      final int run = getRunLength(blocks, i);
+      final int runLength = Math.min(run * BLOCK_SIZE, length - offset);
+      final ByteBuffer buffer = slice(blocks[i]);
+      buffer.get(bytes, offset, runLength);
+      offset += runLength;
+      i += run;
+    }
+  }
+
+  /** Returns the number of contiguous blocks of the same slab starting at the provided index. */
+  private static int getRunLength(int[] blocks, int index)
+  {
+    int run = 1;
+    while (index + run < blocks.length
+        && blocks[index + run] == blocks[index] + run
+        && blocks[index + run] % BLOCKS_PER_SLAB != 0)
+    {
+      run++;
+    }
+    return run;
+  }
+
+  /** Returns a buffer positioned at the provided block, independent of any other thread. */
+  private ByteBuffer slice(int block)
+  {
+    final ByteBuffer buffer = slabs[block / BLOCKS_PER_SLAB].duplicate();
+    buffer.position((block % BLOCKS_PER_SLAB) << BLOCK_SHIFT);
+    return buffer;
+  }
+
+  /**
+   * Returns the size of direct memory allocated so far.
+   *
+   * @return the size of direct memory allocated so far
+   */
+  synchronized long getAllocatedSize()
+  {
+    return (long) allocatedBlocks * BLOCK_SIZE;
+  }
+
+  /**
+   * Returns the size of the blocks currently in use.
+   *
+   * @return the size of the blocks currently in use
+   */
+  synchronized long getUsedSize()
+  {
+    return (long) usedBlocks * BLOCK_SIZE;
+  }
+
+  /**
+   * Returns the maximum size of direct memory used by this store.
+   *
+   * @return the maximum size of direct memory used by this store
+   */
+  long getCapacity()
+  {
+    return (long) maxBlocks * BLOCK_SIZE;
+  }
+}
@@ -0,0 +1,768 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.config.server.EntryCacheCfg;
+import org.forgerock.opendj.server.config.server.OffHeapEntryCacheCfg;
+import org.forgerock.util.Utils;
+import org.opends.server.api.CompressedSchema;
+import org.opends.server.api.EntryCache;
+import org.opends.server.api.LocalBackend;
+import org.opends.server.api.MonitorData;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache which holds the encoded
+ * entries in direct memory, outside of the JVM heap.
+ * <BR><BR>
+ * Entries are encoded with the compressed schema of their backend, so that
+ * object classes and attribute descriptions are replaced by small tokens, and
+ * are decoded each time they are retrieved from the cache. Only a small record
+ * per entry is kept on the heap, so that a large cache does not increase the
+ * garbage collection pauses. Encoded entries are stored in the blocks of an
+ * {@link OffHeapBlockStore}.
+ * <BR><BR>
+ * Cache sizing is based on the configured amount of direct memory, and
+ * optionally on the number of entries, independently of the JVM heap size.
+ * Entries are evicted with the CLOCK algorithm, an approximation of LRU which
+ * does not require any locking when an entry is accessed: the entries accessed
+ * since the eviction hand last passed them are given a second chance.
+ */
+public class OffHeapEntryCache
+       extends EntryCache<OffHeapEntryCacheCfg>
+       implements ConfigurationChangeListener<OffHeapEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Buffers above this capacity are not retained for encoding or decoding the next entries. */
+  private static final int BUFFER_MAX_RETAINED_CAPACITY = 64 * 1024;
+  private static final ThreadLocal<ByteStringBuilder> ENCODE_BUFFERS = new ThreadLocal<ByteStringBuilder>()
+  {
+    @Override
+    protected ByteStringBuilder initialValue()
+    {
+      return new ByteStringBuilder();
+    }
+  };
+  private static final ThreadLocal<byte[]> DECODE_BUFFERS = new ThreadLocal<byte[]>()
+  {
+    @Override
+    protected byte[] initialValue()
+    {
+      return new byte[OffHeapBlockStore.BLOCK_SIZE * 16];
+    }
+  };
+
+  /** The heap part of a cached entry. */
+  private static final class Record
+  {
+    private final DN dn;
+    private final String backendID;
+    private final long entryID;
+    private final EntryEncodeConfig encodeConfig;
+    private final OffHeapBlockStore store;
+    private final int[] blocks;
+    private final int length;
+
+    /**
+     * The number of readers of the blocks, plus one while the entry is cached.
+     * The blocks are freed once it drops to zero.
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+    /** Whether the entry has been accessed since the eviction hand last passed it. */
+    private volatile boolean accessed;
+    /** Guarded by the cache lock. */
+    private boolean removed;
+    /** The previous entry in the order of the eviction hand, guarded by the cache lock. */
+    private Record previous;
+    /** The next entry in the order of the eviction hand, guarded by the cache lock. */
+    private Record next;
+
+    private Record(DN dn, String backendID, long entryID, EntryEncodeConfig encodeConfig,
+        OffHeapBlockStore store, int[] blocks, int length)
+    {
+      this.dn = dn;
+      this.backendID = backendID;
+      this.entryID = entryID;
+      this.encodeConfig = encodeConfig;
+      this.store = store;
+      this.blocks = blocks;
+      this.length = length;
+    }
+
+    /** Prevents the blocks from being freed, unless they have already been. */
+    private boolean retain()
+    {
+      for (;;)
+      {
+        final int count = references.get();
+        if (count == 0)
+        {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1))
+        {
+          return true;
+        }
+      }
+    }
+
+    private void release()
+    {
+      if (references.decrementAndGet() == 0)
+      {
+        store.free(blocks);
+      }
+    }
+  }
+
+  /** The mapping between DNs and entries. */
+  private final ConcurrentMap<DN, Record> dnMap = new ConcurrentHashMap<>();
+  /** The mapping between entry backends/IDs and entries. Only updated while holding the cache lock. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Record>> idMap = new ConcurrentHashMap<>();
+  /** The encode configuration of each backend, using the backend compressed schema. */
+  private final ConcurrentMap<String, EntryEncodeConfig> encodeConfigs = new ConcurrentHashMap<>();
+
+  /** The lock guarding all the updates of the cache contents. */
+  private final ReentrantLock cacheLock = new ReentrantLock();
+  /**
+   * The first of the entries in the order of the eviction hand, guarded by the cache lock. The entries are linked
+   * through their records, so that removed entries are immediately unlinked.
+   */
+  private Record clockHead;
+  /** The last of the entries in the order of the eviction hand, guarded by the cache lock. */
+  private Record clockTail;
+  /** The number of entries linked in the clock, guarded by the cache lock. */
+  private int clockSize;
+  private volatile OffHeapBlockStore store;
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** The maximum size of direct memory used by the cache. */
+  private long maxMemorySize;
+  /** The maximum number of entries that may be held in the cache. */
+  private volatile long maxEntries;
+
+  /** Currently registered configuration object. */
+  private OffHeapEntryCacheCfg registeredConfiguration;
+
+  private ServerContext serverContext;
+
+  /** Creates a new instance of this off-heap entry cache. */
+  public OffHeapEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  @Override
+  public void initializeEntryCache(ServerContext serverContext, OffHeapEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    this.serverContext = serverContext;
+    registeredConfiguration = configuration;
+    configuration.addOffHeapChangeListener(this);
+
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler = EntryCacheCommon.getConfigErrorHandler(
+        EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages);
+    if (!processEntryCacheConfig(configuration, true, errorHandler))
+    {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_OFFHEAPCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeOffHeapChangeListener(this);
+    clear();
+    // Let the direct memory be reclaimed
+    store = new OffHeapBlockStore(0);
+    maxMemorySize = 0;
+  }
+
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && dnMap.containsKey(entryDN);
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final Record record = dnMap.get(entryDN);
+    final Entry entry = record != null ? decode(record) : null;
+    if (entry == null)
+    {
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    cacheHits.getAndIncrement();
+    return entry;
+  }
+
+  @Override
+  public Entry getEntry(String backendID, long entryID)
+  {
+    // Avoid the DN lookup
+    final Record record = getRecord(backendID, entryID);
+    final Entry entry = record != null ? decode(record) : null;
+    if (entry == null)
+    {
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    cacheHits.getAndIncrement();
+    return entry;
+  }
+
+  /** Returns the decoded entry, or {@code null} if it has been evicted or cannot be decoded. */
+  private Entry decode(Record record)
+  {
+    if (!record.retain())
+    {
+      return null;
+    }
+    try
+    {
+      byte[] buffer = DECODE_BUFFERS.get();
+      if (buffer.length < record.length)
+      {
+        buffer = new byte[record.length];
+        if (record.length <= BUFFER_MAX_RETAINED_CAPACITY)
+        {
+          DECODE_BUFFERS.set(buffer);
+        }
+      }
+      record.store.read(record.blocks, buffer, record.length);
+      final Entry entry = Entry.decode(
+          ByteString.wrap(buffer, 0, record.length).asReader(), record.encodeConfig.getCompressedSchema());
+      entry.setDN(record.dn);
+      record.accessed = true;
+      return entry;
+    }
+    catch (DirectoryException e)
+    {
+      // This should never happen, but the entry will be read again from the backend.
+      logger.traceException(e);
+      return null;
+    }
+    finally
+    {
+      record.release();
+    }
+  }
+
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    final Record record = dnMap.get(entryDN);
+    return record != null ? record.entryID : -1;
+  }
+
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    final Record record = getRecord(backendID, entryID);
+    return record != null ? record.dn : null;
+  }
+
+  private Record getRecord(String backendID, long entryID)
+  {
+    final Map<Long, Record> backendMap = idMap.get(backendID);
+    return backendMap != null ? backendMap.get(entryID) : null;
+  }
+
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return !dnMap.containsKey(entry.getName()) && put(entry, backendID, entryID, true);
+  }
+
+  /**
+   * Adds the provided entry to the cache.
+   *
+   * @return {@code false} if the entry was already present and {@code onlyIfAbsent} is true, or if the entry could
+   *         not be encoded, {@code true} otherwise even if the entry could not fit in the cache
+   */
+  private boolean put(Entry entry, String backendID, long entryID, boolean onlyIfAbsent)
+  {
+    final EntryEncodeConfig encodeConfig = getEncodeConfig(backendID);
+    final ByteStringBuilder buffer = ENCODE_BUFFERS.get();
+    try
+    {
+      entry.encode(buffer, encodeConfig);
+
+      cacheLock.lock();
+      try
+      {
+        final DN dn = entry.getName();
+        final Record existing = dnMap.get(dn);
+        if (existing != null)
+        {
+          if (onlyIfAbsent)
+          {
+            return false;
+          }
+          removeRecord(existing);
+        }
+
+        while (dnMap.size() >= maxEntries && evictOne())
+        {
+          // Make room for the new entry
+        }
+        final OffHeapBlockStore currentStore = store;
+        final int blockCount = OffHeapBlockStore.getBlockCount(buffer.length());
+        if (blockCount > currentStore.getCapacity() / OffHeapBlockStore.BLOCK_SIZE)
+        {
+          return true;
+        }
+        int[] blocks = currentStore.allocate(blockCount);
+        while (blocks == null && evictOne())
+        {
+          blocks = currentStore.allocate(blockCount);
+        }
+        if (blocks == null)
+        {
+          // The blocks of the evicted entries are still being read
+          return true;
+        }
+        currentStore.write(blocks, buffer.getBackingArray(), buffer.length());
+
+        final Record record =
+            new Record(dn, backendID, entryID, encodeConfig, currentStore, blocks, buffer.length());
+        dnMap.put(dn, record);
+        ConcurrentMap<Long, Record> backendMap = idMap.get(backendID);
+        if (backendMap == null)
+        {
+          backendMap = new ConcurrentHashMap<>();
+          idMap.put(backendID, backendMap);
+        }
+        backendMap.put(entryID, record);
+        linkLast(record);
+        return true;
+      }
+      finally
+      {
+        cacheLock.unlock();
+      }
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+      return false;
+    }
+    finally
+    {
+      buffer.clearAndTruncate(BUFFER_MAX_RETAINED_CAPACITY, BUFFER_MAX_RETAINED_CAPACITY);
+    }
+  }
+
+  /** Returns the encode configuration for the entries of the provided backend, using its compressed schema. */
+  private EntryEncodeConfig getEncodeConfig(String backendID)
+  {
+    EntryEncodeConfig encodeConfig = encodeConfigs.get(backendID);
+    if (encodeConfig == null)
+    {
+      final LocalBackend<?> backend = serverContext.getBackendConfigManager().getLocalBackendById(backendID);
+      final CompressedSchema compressedSchema =
+          backend != null ? backend.getCompressedSchema() : DirectoryServer.getDefaultCompressedSchema();
+      // The DN is already held by the record
+      encodeConfig = new EntryEncodeConfig(true, true, true, compressedSchema);
+      final EntryEncodeConfig existing = encodeConfigs.putIfAbsent(backendID, encodeConfig);
+      if (existing != null)
+      {
+        encodeConfig = existing;
+      }
+    }
+    return encodeConfig;
+  }
+
+  /**
+   * Moves the eviction hand to the next entry not accessed since the hand last passed it, and evicts it.
+   * Must be called while holding the cache lock.
+   *
+   * @return {@code false} if the cache is empty
+   */
+  private boolean evictOne()
+  {
+    Record record;
+    while ((record = clockHead) != null)
+    {
+      if (record.accessed)
+      {
+        record.accessed = false;
+        unlink(record);
+        linkLast(record);
+        continue;
+      }
+      removeRecord(record);
+      evictions.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes the provided record from the maps and from the clock.
+   * Must be called while holding the cache lock.
+   */
+  private void removeRecord(Record record)
+  {
+    unlink(record);
+    dnMap.remove(record.dn, record);
+    final Map<Long, Record> backendMap = idMap.get(record.backendID);
+    if (backendMap != null)
+    {
+      backendMap.remove(record.entryID, record);
+    }
+    record.removed = true;
+    record.release();
+  }
+
+  /** Appends the provided record behind the eviction hand. Must be called while holding the cache lock. */
+  private void linkLast(Record record)
+  {
+    record.previous = clockTail;
+    record.next = null;
+    if (clockTail != null)
+    {
+      clockTail.next = record;
+    }
+    else
+    {
+      clockHead = record;
+    }
+    clockTail = record;
+    clockSize++;
+  }
+
+  /** Removes the provided record from the clock. Must be called while holding the cache lock. */
+  private void unlink(Record record)
+  {
+    final Record previous = record.previous;
+    final Record next = record.next;
+    if (previous != null)
+    {
+      previous.next = next;
+    }
+    else
+    {
+      clockHead = next;
+    }
+    if (next != null)
+    {
+      next.previous = previous;
+    }
+    else
+    {
+      clockTail = previous;
+    }
+    record.previous = null;
+    record.next = null;
+    clockSize--;
+  }
+
+  /**
+   * Returns the number of entries linked in the clock, including the entries not yet removed from the maps.
+   * For testing purposes.
+   */
+  int getClockSize()
+  {
+    cacheLock.lock();
+    try
+    {
+      return clockSize;
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    cacheLock.lock();
+    try
+    {
+      final Record record = dnMap.get(entryDN);
+      if (record != null)
+      {
+        removeRecord(record);
+      }
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    cacheLock.lock();
+    try
+    {
+      Record record = clockHead;
+      while (record != null)
+      {
+        final Record next = record.next;
+        removeRecord(record);
+        record = next;
+      }
+      dnMap.clear();
+      idMap.clear();
+      encodeConfigs.clear();
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  @Override
+  public void clearBackend(String backendID)
+  {
+    cacheLock.lock();
+    try
+    {
+      // The backend may use a different compressed schema once restarted.
+      encodeConfigs.remove(backendID);
+      final Map<Long, Record> backendMap = idMap.remove(backendID);
+      if (backendMap == null)
+      {
+        return;
+      }
+      // This could take a while, so periodically release the lock
+      // so that this does not become a stop-the-world event for the cache.
+      int entriesDeleted = 0;
+      for (Record record : backendMap.values())
+      {
+        if (!record.removed)
+        {
+          removeRecord(record);
+        }
+        if (++entriesDeleted % 1000 == 0)
+        {
+          cacheLock.unlock();
+          Thread.yield();
+          cacheLock.lock();
+        }
+      }
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  @Override
+  public void handleLowMemory()
+  {
+    // The entries are held outside of the heap, but their records and DNs are not.
+    cacheLock.lock();
+    try
+    {
+      // If there are less than 1000 entries, then dump all of them.
+      // Otherwise, dump 10% of the entries.
+      final int numEntries = dnMap.size();
+      if (numEntries < 1000)
+      {
+        clear();
+        return;
+      }
+      for (int numToDrop = numEntries / 10; numToDrop > 0 && evictOne(); numToDrop--)
+      {
+        // Keep evicting
+      }
+    }
+    finally
+    {
+      cacheLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    OffHeapEntryCacheCfg config = (OffHeapEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(OffHeapEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    EntryCacheCommon.ConfigErrorHandler errorHandler = EntryCacheCommon.getConfigErrorHandler(
+        EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE, unacceptableReasons, null);
+    processEntryCacheConfig(configuration, false, errorHandler);
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(OffHeapEntryCacheCfg configuration)
+  {
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler = EntryCacheCommon.getConfigErrorHandler(
+        EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages);
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled())
+    {
+      processEntryCacheConfig(configuration, true, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(OffHeapEntryCacheCfg configuration, boolean applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler)
+  {
+    final DN newConfigEntryDN = configuration.dn();
+    final Set<SearchFilter> newIncludeFilters = EntryCacheCommon.getFilters(
+        configuration.getIncludeFilter(), ERR_CACHE_INVALID_INCLUDE_FILTER, errorHandler, newConfigEntryDN);
+    final Set<SearchFilter> newExcludeFilters = EntryCacheCommon.getFilters(
+        configuration.getExcludeFilter(), ERR_CACHE_INVALID_EXCLUDE_FILTER, errorHandler, newConfigEntryDN);
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      cacheLock.lock();
+      try
+      {
+        final long newMaxMemorySize = configuration.getMaxMemorySize();
+        if (store == null || maxMemorySize != newMaxMemorySize)
+        {
+          // The direct memory allocated so far cannot be resized: start over with a new store.
+          clear();
+          store = new OffHeapBlockStore(newMaxMemorySize);
+          maxMemorySize = newMaxMemorySize;
+        }
+        maxEntries = configuration.getMaxEntries();
+        while (dnMap.size() > maxEntries && evictOne())
+        {
+          // Lowered limits are immediately enforced.
+        }
+      }
+      finally
+      {
+        cacheLock.unlock();
+      }
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    try
+    {
+      final OffHeapBlockStore currentStore = store;
+      final MonitorData attrs = EntryCacheCommon.getGenericMonitorData(
+          cacheHits.longValue(),
+          // If cache misses is maintained by default cache
+          // get it from there and if not point to itself.
+          DirectoryServer.getEntryCache().getCacheMisses(),
+          currentStore.getUsedSize(),
+          currentStore.getCapacity(),
+          Long.valueOf(dnMap.size()),
+          Long.valueOf(maxEntries != Integer.MAX_VALUE ? maxEntries : 0));
+      attrs.add("entryCacheEvictions", evictions.get());
+      attrs.add("offHeapMemoryAllocated", currentStore.getAllocatedSize());
+      return attrs;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return new MonitorData(0);
+    }
+  }
+
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (Record record : dnMap.values())
+    {
+      sb.append(record.dn);
+      sb.append(":");
+      sb.append(record.entryID);
+      sb.append(":");
+      sb.append(record.backendID);
+      sb.append(ServerConstants.EOL);
+    }
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+}
@@ -25,6 +25,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -84,8 +85,12 @@ public class ParallelWorkQueue
   /** The queue that will be used to actually hold the pending operations. */
   private ConcurrentLinkedQueue<Operation> opQueue;
 
-  /** The lock used to provide threadsafe access for the queue. */
-  private final Object queueLock = new Object();
+  /**
+   * The lock used to provide threadsafe access for the queue. An explicit lock
+   * is used rather than a monitor so that waiting threads do not pin the
+   * thread running them.
+   */
+  private final ReentrantLock queueLock = new ReentrantLock();
 
   private final Semaphore queueSemaphore = new Semaphore(0, false);
 
@@ -269,34 +274,9 @@ public class ParallelWorkQueue
     // See if we should kill off this thread.  This could be necessary if the
     // number of worker threads has been decreased with the server online. If
     // so, then return null and the thread will exit.
-    if (killThreads)
+    if (killThreads && stopIfTooManyThreads(workerThread))
     {
-      synchronized (queueLock)
-      {
-        try
-        {
-          int currentThreads = workerThreads.size();
-          if (currentThreads > numWorkerThreads)
-          {
-            if (workerThreads.remove(Thread.currentThread()))
-            {
-              currentThreads--;
-            }
-
-            if (currentThreads <= numWorkerThreads)
-            {
-              killThreads = false;
-            }
-
-            workerThread.setStoppedByReducedThreadNumber();
-            return null;
-          }
-        }
-        catch (Exception e)
-        {
-          logger.traceException(e);
-        }
-      }
+      return null;
     }
 
     if (shutdownRequested || numFailures > MAX_RETRY_COUNT)
@@ -326,34 +306,9 @@ public class ParallelWorkQueue
           {
             return null;
           }
-          else if (killThreads)
+          else if (killThreads && stopIfTooManyThreads(workerThread))
           {
-            synchronized (queueLock)
-            {
-              try
-              {
-                int currentThreads = workerThreads.size();
-                if (currentThreads > numWorkerThreads)
-                {
-                  if (workerThreads.remove(Thread.currentThread()))
-                  {
-                    currentThreads--;
-                  }
-
-                  if (currentThreads <= numWorkerThreads)
-                  {
-                    killThreads = false;
-                  }
-
-                  workerThread.setStoppedByReducedThreadNumber();
-                  return null;
-                }
-              }
-              catch (Exception e)
-              {
-                logger.traceException(e);
-              }
-            }
+            return null;
           }
         }
         else
@@ -373,6 +328,49 @@ public class ParallelWorkQueue
     }
   }
 
+  /**
+   * Removes the provided worker thread from the pool if there are more worker
+   * threads than configured.
+   *
+   * @param  workerThread  The worker thread asking for work.
+   *
+   * @return  {@code true} if the worker thread was removed from the pool and
+   *          should exit, or {@code false} if it should keep processing
+   *          operations.
+   */
+  private boolean stopIfTooManyThreads(ParallelWorkerThread workerThread)
+  {
+    queueLock.lock();
+    try
+    {
+      int currentThreads = workerThreads.size();
+      if (currentThreads > numWorkerThreads)
+      {
+        if (workerThreads.remove(Thread.currentThread()))
+        {
+          currentThreads--;
+        }
+
+        if (currentThreads <= numWorkerThreads)
+        {
+          killThreads = false;
+        }
+
+        workerThread.setStoppedByReducedThreadNumber();
+        return true;
+      }
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+    }
+    finally
+    {
+      queueLock.unlock();
+    }
+    return false;
+  }
+
   /**
    * Attempts to remove the specified operation from this queue if it has not
    * yet been picked up for processing by one of the worker threads.
@@ -434,7 +432,8 @@ public class ParallelWorkQueue
     int currentThreads = workerThreads.size();
     if (newNumThreads != currentThreads)
     {
-      synchronized (queueLock)
+      queueLock.lock();
+      try
       {
         try
         {
@@ -463,6 +462,10 @@ public class ParallelWorkQueue
           logger.traceException(e);
         }
       }
+      finally
+      {
+        queueLock.unlock();
+      }
     }
     return new ConfigChangeResult();
   }
@@ -474,7 +477,8 @@ public class ParallelWorkQueue
       return false;
     }
 
-    synchronized (queueLock)
+    queueLock.lock();
+    try
     {
       for (ParallelWorkerThread t : workerThreads)
       {
@@ -486,6 +490,10 @@ public class ParallelWorkQueue
 
       return true;
     }
+    finally
+    {
+      queueLock.unlock();
+    }
   }
 
   /**
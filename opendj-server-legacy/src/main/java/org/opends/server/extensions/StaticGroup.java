@@ -541,6 +541,12 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     return true;
   }
 
+  @Override
+  public AttributeType getMemberListAttributeType()
+  {
+    return memberAttributeType;
+  }
+
   @Override
   public void updateMembers(List<Modification> modifications)
          throws UnsupportedOperationException, DirectoryException
@@ -0,0 +1,1018 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.config.server.EntryCacheCfg;
+import org.forgerock.opendj.server.config.server.TinyLFUEntryCacheCfg;
+import org.forgerock.util.Utils;
+import org.opends.server.api.EntryCache;
+import org.opends.server.api.MonitorData;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.CacheEntry;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache using the W-TinyLFU
+ * admission and eviction policy.
+ * <BR><BR>
+ * New entries are first held in a small LRU admission window. Entries leaving
+ * the window become candidates for the main space of the cache, which is a
+ * segmented LRU: entries accessed while in the probation segment are promoted
+ * to the protected segment. A candidate is only admitted in the main space if
+ * its estimated access frequency is higher than the one of the least recently
+ * used entry of the probation segment, which is evicted in that case. Access
+ * frequencies are estimated with a {@link FrequencySketch}. This policy gives
+ * a much better hit ratio than FIFO or LRU on skewed workloads, and one time
+ * scans cannot flush the frequently accessed entries out of the cache.
+ * <BR><BR>
+ * Neither lookups nor writes lock: the entries are held in concurrent maps,
+ * accesses are recorded in lossy striped buffers, and additions and removals
+ * are recorded in a write buffer. Both are replayed against the policy in
+ * batches by the thread which succeeds in acquiring the eviction lock. Writers
+ * only wait for the eviction lock when the write buffer is full.
+ * <BR><BR>
+ * Cache sizing is based on the size of the encoded entries, and optionally on
+ * the number of entries. Hits, misses and evictions are also monitored for each
+ * backend.
+ */
+public class TinyLFUEntryCache
+       extends EntryCache<TinyLFUEntryCacheCfg>
+       implements ConfigurationChangeListener<TinyLFUEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Percentage of the cache reserved for the admission window. */
+  private static final int WINDOW_PERCENT = 1;
+  /** Percentage of the main space reserved for the protected segment. */
+  private static final int PROTECTED_PERCENT = 80;
+  /**
+   * Candidates at least this frequent are randomly admitted even when the victim is more frequent, so that an
+   * attacker cannot pin the victim in the cache by colliding with it in the frequency sketch.
+   */
+  private static final int WARM_CANDIDATE_FREQUENCY = 6;
+
+  /** Size of each read buffer, must be a power of two. */
+  private static final int READ_BUFFER_SIZE = 16;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+  /** Number of read buffers, must be a power of two. */
+  private static final int READ_BUFFERS =
+      Integer.highestOneBit(Math.max(1, 4 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+  /** Writers wait for the pending writes to be applied above this number of pending writes. */
+  private static final int WRITE_BUFFER_MAX_SIZE = 1024;
+
+  /** Buffers above this capacity are not retained for weighing the next entries. */
+  private static final int ENCODE_BUFFER_MAX_RETAINED_CAPACITY = 64 * 1024;
+  private static final ThreadLocal<ByteStringBuilder> ENCODE_BUFFERS = new ThreadLocal<ByteStringBuilder>()
+  {
+    @Override
+    protected ByteStringBuilder initialValue()
+    {
+      return new ByteStringBuilder();
+    }
+  };
+
+  /** The queues of the policy. */
+  private static final byte WINDOW = 0;
+  private static final byte PROBATION = 1;
+  private static final byte PROTECTED = 2;
+
+  /** A cached entry, which is also a node of one of the policy queues. */
+  private static final class Node
+  {
+    private final CacheEntry cacheEntry;
+    private final DN dn;
+    private final int weight;
+    private final BackendStatistics statistics;
+
+    /** Set by the thread removing this node from the maps, the policy is then updated from the write buffer. */
+    private final AtomicBoolean retired = new AtomicBoolean();
+
+    /** Policy state, guarded by the eviction lock. */
+    private Node previous;
+    private Node next;
+    private byte queue;
+    private boolean inPolicy;
+
+    private Node(CacheEntry cacheEntry, int weight, BackendStatistics statistics)
+    {
+      this.cacheEntry = cacheEntry;
+      this.dn = cacheEntry.getDN();
+      this.weight = weight;
+      this.statistics = statistics;
+    }
+  }
+
+  /** A doubly linked list of nodes, from the least to the most recently used. Not thread safe. */
+  private static final class AccessOrderQueue
+  {
+    private Node head;
+    private Node tail;
+    private long weight;
+    private long count;
+
+    private void add(Node node)
+    {
+      node.previous = tail;
+      node.next = null;
+      if (tail == null)
+      {
+        head = node;
+      }
+      else
+      {
+        tail.next = node;
+      }
+      tail = node;
+      weight += node.weight;
+      count++;
+    }
+
+    private void remove(Node node)
+    {
+      if (node.previous == null)
+      {
+        head = node.next;
+      }
+      else
+      {
+        node.previous.next = node.next;
+      }
+      if (node.next == null)
+      {
+        tail = node.previous;
+      }
+      else
+      {
+        node.next.previous = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+      weight -= node.weight;
+      count--;
+    }
+
+    private void moveToTail(Node node)
+    {
+      if (node != tail)
+      {
+        remove(node);
+        add(node);
+      }
+    }
+
+    private Node peekFirst()
+    {
+      return head;
+    }
+
+    private void clear()
+    {
+      head = null;
+      tail = null;
+      weight = 0;
+      count = 0;
+    }
+  }
+
+  /**
+   * A lossy buffer of the accesses to replay against the policy. Accesses are dropped when the buffer is full, which
+   * only degrades the accuracy of the policy.
+   */
+  private static final class ReadBuffer
+  {
+    private final AtomicReferenceArray<Node> nodes = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCount = new AtomicLong();
+    /** Only written while holding the eviction lock. */
+    private volatile long readCount;
+
+    /**
+     * Records an access to the provided node.
+     *
+     * @return {@code true} if the buffer should be drained
+     */
+    private boolean offer(Node node)
+    {
+      final long head = readCount;
+      final long tail = writeCount.get();
+      final long size = tail - head;
+      if (size >= READ_BUFFER_SIZE)
+      {
+        return true;
+      }
+      if (writeCount.compareAndSet(tail, tail + 1))
+      {
+        nodes.lazySet((int) (tail & READ_BUFFER_MASK), node);
+        return size + 1 >= READ_BUFFER_SIZE / 2;
+      }
+      return false;
+    }
+  }
+
+  /** Cache statistics of a backend. */
+  private static final class BackendStatistics
+  {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    /** Only updated while holding the eviction lock, when the writes are applied to the policy. */
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder size = new LongAdder();
+  }
+
+  /** The mapping between DNs and entries. */
+  private final ConcurrentMap<DN, Node> dnMap = new ConcurrentHashMap<>();
+  /** The mapping between entry backends/IDs and entries. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Node>> idMap = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, BackendStatistics> backendStatistics = new ConcurrentHashMap<>();
+  private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+  /** The nodes added to or removed from the maps, which must be added to or removed from the policy. */
+  private final ConcurrentLinkedQueue<Node> writeBuffer = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingWrites = new AtomicInteger();
+
+  /** The lock guarding the policy state. */
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final AccessOrderQueue window = new AccessOrderQueue();
+  private final AccessOrderQueue probation = new AccessOrderQueue();
+  private final AccessOrderQueue protectedSegment = new AccessOrderQueue();
+  private final FrequencySketch sketch = new FrequencySketch();
+  /** Total weight of the cached entries, written while holding the eviction lock. */
+  private volatile long totalWeight;
+  private final LongAdder evictions = new LongAdder();
+
+  /** The maximum total weight of the entries held in the cache. */
+  private volatile long maxWeight;
+  /** The maximum number of entries that may be held in the cache. */
+  private volatile long maxEntries;
+
+  /** Currently registered configuration object. */
+  private TinyLFUEntryCacheCfg registeredConfiguration;
+
+  private ServerContext serverContext;
+
+  /** Creates a new instance of this TinyLFU entry cache. */
+  public TinyLFUEntryCache()
+  {
+    super();
+    for (int i = 0; i < readBuffers.length; i++)
+    {
+      readBuffers[i] = new ReadBuffer();
+    }
+  }
+
+  @Override
+  public void initializeEntryCache(ServerContext serverContext, TinyLFUEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    this.serverContext = serverContext;
+    registeredConfiguration = configuration;
+    configuration.addTinyLFUChangeListener(this);
+
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler = EntryCacheCommon.getConfigErrorHandler(
+        EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages);
+    if (!processEntryCacheConfig(configuration, true, errorHandler))
+    {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_TINYLFUCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeTinyLFUChangeListener(this);
+    clear();
+  }
+
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && dnMap.containsKey(entryDN);
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final Node node = dnMap.get(entryDN);
+    if (node == null)
+    {
+      // Finding the backend would cost more than the lookup: backend misses are only recorded by ID lookups.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    return onHit(node);
+  }
+
+  @Override
+  public Entry getEntry(String backendID, long entryID)
+  {
+    // Avoid the DN lookup and record the miss against the backend.
+    final Node node = getNode(backendID, entryID);
+    if (node == null)
+    {
+      cacheMisses.getAndIncrement();
+      getStatistics(backendID).misses.increment();
+      return null;
+    }
+    return onHit(node);
+  }
+
+  private Entry onHit(Node node)
+  {
+    cacheHits.getAndIncrement();
+    node.statistics.hits.increment();
+    final ReadBuffer buffer = readBuffers[readBufferIndex()];
+    if (buffer.offer(node) && evictionLock.tryLock())
+    {
+      try
+      {
+        maintenance();
+      }
+      finally
+      {
+        evictionLock.unlock();
+      }
+    }
+    return node.cacheEntry.getEntry();
+  }
+
+  private static int readBufferIndex()
+  {
+    final long id = Thread.currentThread().getId();
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (READ_BUFFERS - 1);
+  }
+
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    final Node node = dnMap.get(entryDN);
+    return node != null ? node.cacheEntry.getEntryID() : -1;
+  }
+
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    final Node node = getNode(backendID, entryID);
+    return node != null ? node.dn : null;
+  }
+
+  private Node getNode(String backendID, long entryID)
+  {
+    final Map<Long, Node> backendMap = idMap.get(backendID);
+    return backendMap != null ? backendMap.get(entryID) : null;
+  }
+
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return !dnMap.containsKey(entry.getName()) && put(entry, backendID, entryID, true);
+  }
+
+  /**
+   * Adds the provided entry to the cache.
+   *
+   * @return {@code false} if the entry was already present and {@code onlyIfAbsent} is true, or if the entry could
+   *         not be weighed, {@code true} otherwise even if the entry was too large to be cached
+   */
+  private boolean put(Entry entry, String backendID, long entryID, boolean onlyIfAbsent)
+  {
+    final int weight;
+    try
+    {
+      weight = weigh(entry);
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+      return false;
+    }
+    final Node node = new Node(new CacheEntry(entry, backendID, entryID), weight, getStatistics(backendID));
+    if (weight > maxWeight)
+    {
+      if (onlyIfAbsent)
+      {
+        return !dnMap.containsKey(node.dn);
+      }
+      removeEntry(node.dn);
+      return true;
+    }
+
+    if (onlyIfAbsent)
+    {
+      if (dnMap.putIfAbsent(node.dn, node) != null)
+      {
+        return false;
+      }
+    }
+    else
+    {
+      final Node existing = dnMap.put(node.dn, node);
+      if (existing != null)
+      {
+        retire(existing);
+      }
+    }
+    final ConcurrentMap<Long, Node> backendMap = getBackendMap(backendID);
+    backendMap.put(entryID, node);
+    if (node.retired.get())
+    {
+      // Concurrently removed before being mapped by ID.
+      backendMap.remove(entryID, node);
+    }
+    schedule(node);
+    afterWrite();
+    return true;
+  }
+
+  private ConcurrentMap<Long, Node> getBackendMap(String backendID)
+  {
+    ConcurrentMap<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap == null)
+    {
+      backendMap = new ConcurrentHashMap<>();
+      final ConcurrentMap<Long, Node> existing = idMap.putIfAbsent(backendID, backendMap);
+      if (existing != null)
+      {
+        backendMap = existing;
+      }
+    }
+    return backendMap;
+  }
+
+  /** Returns the size of the encoded entry, which is a good approximation of the relative memory usage of entries. */
+  private static int weigh(Entry entry) throws DirectoryException
+  {
+    final ByteStringBuilder buffer = ENCODE_BUFFERS.get();
+    try
+    {
+      entry.encode(buffer, EntryEncodeConfig.DEFAULT_CONFIG);
+      return buffer.length();
+    }
+    finally
+    {
+      buffer.clearAndTruncate(ENCODE_BUFFER_MAX_RETAINED_CAPACITY, ENCODE_BUFFER_MAX_RETAINED_CAPACITY);
+    }
+  }
+
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    final Node node = dnMap.get(entryDN);
+    if (node != null && retire(node))
+    {
+      afterWrite();
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    evictionLock.lock();
+    try
+    {
+      for (Node node : dnMap.values())
+      {
+        retire(node);
+      }
+      maintenance();
+      sketch.clear();
+    }
+    finally
+    {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void clearBackend(String backendID)
+  {
+    final Map<Long, Node> backendMap = idMap.remove(backendID);
+    if (backendMap == null)
+    {
+      return;
+    }
+    // Apply the removals as they are made so that the write buffer does not grow with the backend size.
+    for (Node node : backendMap.values())
+    {
+      if (retire(node))
+      {
+        afterWrite();
+      }
+    }
+  }
+
+  @Override
+  public void handleLowMemory()
+  {
+    evictionLock.lock();
+    try
+    {
+      maintenance();
+      // If there are less than 1000 entries, then dump all of them.
+      // Otherwise, dump 10% of the entries, starting with the least valuable ones.
+      final long numEntries = policySize();
+      if (numEntries < 1000)
+      {
+        clear();
+        return;
+      }
+      for (long numToDrop = numEntries / 10; numToDrop > 0; numToDrop--)
+      {
+        evictNode(nextVictim());
+      }
+    }
+    finally
+    {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Removes the provided node from the maps, and schedules its removal from the policy.
+   *
+   * @return {@code true} if the node was removed by the current thread, in which case {@link #afterWrite()} must be
+   *         called
+   */
+  private boolean retire(Node node)
+  {
+    if (node.retired.compareAndSet(false, true))
+    {
+      unmap(node);
+      schedule(node);
+      return true;
+    }
+    return false;
+  }
+
+  private void unmap(Node node)
+  {
+    dnMap.remove(node.dn, node);
+    final CacheEntry cacheEntry = node.cacheEntry;
+    final Map<Long, Node> backendMap = idMap.get(cacheEntry.getBackendID());
+    if (backendMap != null)
+    {
+      backendMap.remove(cacheEntry.getEntryID(), node);
+    }
+  }
+
+  private void schedule(Node node)
+  {
+    writeBuffer.add(node);
+    pendingWrites.incrementAndGet();
+  }
+
+  /** Applies the pending writes to the policy, unless another thread is already doing it. */
+  private void afterWrite()
+  {
+    if (pendingWrites.get() > WRITE_BUFFER_MAX_SIZE)
+    {
+      // The policy does not keep up with the writers: slow them down.
+      evictionLock.lock();
+      try
+      {
+        maintenance();
+      }
+      finally
+      {
+        evictionLock.unlock();
+      }
+    }
+    // Check again after releasing the lock: the writes scheduled meanwhile could otherwise remain pending.
+    while (!writeBuffer.isEmpty() && evictionLock.tryLock())
+    {
+      try
+      {
+        maintenance();
+      }
+      finally
+      {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /** Applies the pending reads and writes to the policy, and enforces the limits. Must hold the eviction lock. */
+  private void maintenance()
+  {
+    drainReadBuffers();
+    drainWriteBuffer();
+    evict();
+  }
+
+  private void drainWriteBuffer()
+  {
+    for (Node node = writeBuffer.poll(); node != null; node = writeBuffer.poll())
+    {
+      pendingWrites.decrementAndGet();
+      if (node.retired.get())
+      {
+        if (node.inPolicy)
+        {
+          removeFromPolicy(node);
+        }
+      }
+      else if (!node.inPolicy)
+      {
+        addToPolicy(node);
+      }
+    }
+  }
+
+  private void addToPolicy(Node node)
+  {
+    node.inPolicy = true;
+    node.queue = WINDOW;
+    window.add(node);
+    node.statistics.entries.increment();
+    node.statistics.size.add(node.weight);
+    totalWeight += node.weight;
+
+    sketch.ensureCapacity(Math.min(policySize(), maxEntries));
+    sketch.increment(node.dn.hashCode());
+  }
+
+  /** Replays the recorded accesses against the policy. Must be called while holding the eviction lock. */
+  private void drainReadBuffers()
+  {
+    for (ReadBuffer buffer : readBuffers)
+    {
+      long readCount = buffer.readCount;
+      final long writeCount = buffer.writeCount.get();
+      while (readCount < writeCount)
+      {
+        final int index = (int) (readCount & READ_BUFFER_MASK);
+        final Node node = buffer.nodes.get(index);
+        if (node == null)
+        {
+          // The access is being recorded, it will be replayed on next drain.
+          break;
+        }
+        buffer.nodes.lazySet(index, null);
+        onAccess(node);
+        readCount++;
+      }
+      buffer.readCount = readCount;
+    }
+  }
+
+  private void onAccess(Node node)
+  {
+    if (!node.inPolicy || node.retired.get())
+    {
+      return;
+    }
+    sketch.increment(node.dn.hashCode());
+    switch (node.queue)
+    {
+    case WINDOW:
+      window.moveToTail(node);
+      break;
+    case PROBATION:
+      probation.remove(node);
+      node.queue = PROTECTED;
+      protectedSegment.add(node);
+      demoteProtectedOverflow();
+      break;
+    default:
+      protectedSegment.moveToTail(node);
+      break;
+    }
+  }
+
+  /** Makes room in the protected segment by moving its least recently used entries back to probation. */
+  private void demoteProtectedOverflow()
+  {
+    final long mainWeight = maxWeight - maxWindowWeight();
+    final long mainEntries = maxEntries - maxWindowEntries();
+    while (protectedSegment.count > 0
+        && (protectedSegment.weight > percent(mainWeight, PROTECTED_PERCENT)
+            || protectedSegment.count > percent(mainEntries, PROTECTED_PERCENT)))
+    {
+      final Node node = protectedSegment.peekFirst();
+      protectedSegment.remove(node);
+      node.queue = PROBATION;
+      probation.add(node);
+    }
+  }
+
+  /** Enforces the cache limits. Must be called while holding the eviction lock. */
+  private void evict()
+  {
+    // Entries leaving the window are candidates competing for the main space with the probation victims.
+    while (window.count > 0 && (window.weight > maxWindowWeight() || window.count > maxWindowEntries()))
+    {
+      final Node candidate = window.peekFirst();
+      window.remove(candidate);
+      candidate.queue = PROBATION;
+      probation.add(candidate);
+
+      while (isOverflowing())
+      {
+        Node victim = probation.peekFirst();
+        if (victim == candidate)
+        {
+          victim = protectedSegment.peekFirst();
+        }
+        if (victim == null || !admit(candidate, victim))
+        {
+          evictNode(candidate);
+          break;
+        }
+        evictNode(victim);
+      }
+    }
+    // Only the window remains, or the limits have been lowered.
+    while (isOverflowing())
+    {
+      evictNode(nextVictim());
+    }
+  }
+
+  private boolean isOverflowing()
+  {
+    return totalWeight > maxWeight || policySize() > maxEntries;
+  }
+
+  /** Returns the number of entries in the policy, which lags behind the maps until the pending writes are applied. */
+  private long policySize()
+  {
+    return window.count + probation.count + protectedSegment.count;
+  }
+
+  private long maxWindowWeight()
+  {
+    return Math.max(1, percent(maxWeight, WINDOW_PERCENT));
+  }
+
+  private long maxWindowEntries()
+  {
+    return Math.max(1, percent(maxEntries, WINDOW_PERCENT));
+  }
+
+  private static long percent(long value, int percent)
+  {
+    return value < Long.MAX_VALUE / 100 ? value * percent / 100 : value / 100 * percent;
+  }
+
+  /** Returns whether the candidate is more likely to be accessed than the victim. */
+  private boolean admit(Node candidate, Node victim)
+  {
+    final int candidateFrequency = sketch.frequency(candidate.dn.hashCode());
+    final int victimFrequency = sketch.frequency(victim.dn.hashCode());
+    if (candidateFrequency > victimFrequency)
+    {
+      return true;
+    }
+    return candidateFrequency >= WARM_CANDIDATE_FREQUENCY && ThreadLocalRandom.current().nextInt(128) == 0;
+  }
+
+  /** Returns the least valuable entry of the cache, which must not be empty. */
+  private Node nextVictim()
+  {
+    if (probation.count > 0)
+    {
+      return probation.peekFirst();
+    }
+    return protectedSegment.count > 0 ? protectedSegment.peekFirst() : window.peekFirst();
+  }
+
+  private void evictNode(Node node)
+  {
+    if (node.retired.compareAndSet(false, true))
+    {
+      unmap(node);
+      evictions.increment();
+      node.statistics.evictions.increment();
+    }
+    removeFromPolicy(node);
+  }
+
+  /** Removes the provided node from the policy. Must be called while holding the eviction lock. */
+  private void removeFromPolicy(Node node)
+  {
+    switch (node.queue)
+    {
+    case WINDOW:
+      window.remove(node);
+      break;
+    case PROBATION:
+      probation.remove(node);
+      break;
+    default:
+      protectedSegment.remove(node);
+      break;
+    }
+    node.inPolicy = false;
+    node.statistics.entries.decrement();
+    node.statistics.size.add(-node.weight);
+    totalWeight -= node.weight;
+  }
+
+  private BackendStatistics getStatistics(String backendID)
+  {
+    BackendStatistics statistics = backendStatistics.get(backendID);
+    if (statistics == null)
+    {
+      statistics = new BackendStatistics();
+      final BackendStatistics existing = backendStatistics.putIfAbsent(backendID, statistics);
+      if (existing != null)
+      {
+        statistics = existing;
+      }
+    }
+    return statistics;
+  }
+
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    TinyLFUEntryCacheCfg config = (TinyLFUEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(TinyLFUEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    EntryCacheCommon.ConfigErrorHandler errorHandler = EntryCacheCommon.getConfigErrorHandler(
+        EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE, unacceptableReasons, null);
+    processEntryCacheConfig(configuration, false, errorHandler);
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(TinyLFUEntryCacheCfg configuration)
+  {
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler = EntryCacheCommon.getConfigErrorHandler(
+        EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages);
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled())
+    {
+      processEntryCacheConfig(configuration, true, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(TinyLFUEntryCacheCfg configuration, boolean applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler)
+  {
+    final DN newConfigEntryDN = configuration.dn();
+    final Set<SearchFilter> newIncludeFilters = EntryCacheCommon.getFilters(
+        configuration.getIncludeFilter(), ERR_CACHE_INVALID_INCLUDE_FILTER, errorHandler, newConfigEntryDN);
+    final Set<SearchFilter> newExcludeFilters = EntryCacheCommon.getFilters(
+        configuration.getExcludeFilter(), ERR_CACHE_INVALID_EXCLUDE_FILTER, errorHandler, newConfigEntryDN);
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      evictionLock.lock();
+      try
+      {
+        maxWeight = configuration.getMaxMemorySize();
+        maxEntries = configuration.getMaxEntries();
+        // Lowered limits are immediately enforced.
+        maintenance();
+      }
+      finally
+      {
+        evictionLock.unlock();
+      }
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    try
+    {
+      final MonitorData attrs = EntryCacheCommon.getGenericMonitorData(
+          cacheHits.longValue(),
+          // If cache misses is maintained by default cache
+          // get it from there and if not point to itself.
+          DirectoryServer.getEntryCache().getCacheMisses(),
+          totalWeight,
+          maxWeight,
+          Long.valueOf(dnMap.size()),
+          Long.valueOf(maxEntries != Integer.MAX_VALUE ? maxEntries : 0));
+      attrs.add("entryCacheEvictions", evictions.longValue());
+      attrs.add("entryCacheBackendStatistics", createBackendStatisticsValues());
+      return attrs;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return new MonitorData(0);
+    }
+  }
+
+  private List<String> createBackendStatisticsValues()
+  {
+    final List<String> values = new ArrayList<>();
+    for (Map.Entry<String, BackendStatistics> entry : new TreeMap<>(backendStatistics).entrySet())
+    {
+      final BackendStatistics statistics = entry.getValue();
+      values.add(entry.getKey()
+          + " hits:" + statistics.hits.longValue()
+          + " misses:" + statistics.misses.longValue()
+          + " evictions:" + statistics.evictions.longValue()
+          + " entries:" + statistics.entries.longValue()
+          + " size:" + statistics.size.longValue());
+    }
+    return values;
+  }
+
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (Node node : dnMap.values())
+    {
+      sb.append(node.dn);
+      sb.append(":");
+      sb.append(node.cacheEntry.getEntryID());
+      sb.append(":");
+      sb.append(node.cacheEntry.getBackendID());
+      sb.append(ServerConstants.EOL);
+    }
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+}
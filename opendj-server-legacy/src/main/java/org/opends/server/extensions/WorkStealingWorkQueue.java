@@ -0,0 +1,638 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.server.WorkStealingWorkQueueCfg;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.WorkStealingWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+
+/**
+ * A work queue where each worker thread owns a queue of pending operations,
+ * and steals the operations queued for the other worker threads when its own
+ * queue is empty.
+ * <p>
+ * Unlike the {@link TraditionalWorkQueue}, submitting and retrieving operations
+ * does not contend on a single queue: operations are queued for the worker
+ * thread associated with their client connection, and worker threads only
+ * look at the other queues when they run out of work. All the operations of a
+ * client connection are queued in the same FIFO queue, and worker threads
+ * always take the oldest operation of a queue, including when stealing, so
+ * operations of a client connection are picked up in the order they were
+ * received, as with a single queue. Operations which must not run concurrently
+ * with other operations of the same client connection, like binds, are still
+ * enforced by the connection handlers.
+ * <p>
+ * Idle worker threads are parked, and are woken up when an operation is
+ * queued for them, or when no other worker thread is available for stealing
+ * it.
+ */
+public class WorkStealingWorkQueue
+       extends WorkQueue<WorkStealingWorkQueueCfg>
+       implements ConfigurationChangeListener<WorkStealingWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum time an idle worker thread waits before checking the queues again. */
+  private static final long PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * The worker threads currently servicing this work queue, indexed by their
+   * position in the array. Replaced as a whole when the number of worker threads
+   * is changed.
+   */
+  private volatile WorkStealingWorkerThread[] workerThreads = new WorkStealingWorkerThread[0];
+
+  /** The worker threads removed from this work queue, which may still be completing an operation. */
+  private final List<WorkStealingWorkerThread> retiredThreads = new CopyOnWriteArrayList<>();
+
+  /** The lock serializing the changes to the set of worker threads. */
+  private final ReentrantLock threadsLock = new ReentrantLock();
+
+  /** The number of operations waiting in the worker thread queues. */
+  private final AtomicInteger pendingOperations = new AtomicInteger();
+
+  /** The number of worker threads currently waiting for work. */
+  private final AtomicInteger parkedThreads = new AtomicInteger();
+
+  /** The lock used by the submitting threads for waiting until the queue has available capacity. */
+  private final ReentrantLock capacityLock = new ReentrantLock();
+  private final Condition notFull = capacityLock.newCondition();
+  /** The number of submitting threads waiting until the queue has available capacity. */
+  private final AtomicInteger waitingSubmitters = new AtomicInteger();
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final AtomicLong opsSubmitted = new AtomicLong();
+
+  /**
+   * The number of times that an attempt to submit a new request has been
+   * rejected because the work queue is already at its maximum capacity.
+   */
+  private final AtomicLong queueFullRejects = new AtomicLong();
+
+  /** The number of operations processed by another worker thread than the one they were queued for. */
+  private final LongAdder opsStolen = new LongAdder();
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /** The thread number used for the last worker thread that was created. */
+  private int lastThreadNumber;
+
+  /** The number of worker threads that should be active. */
+  private volatile int numWorkerThreads;
+
+  /**
+   * The maximum number of pending requests that this work queue will allow
+   * before it will start blocking or rejecting them.
+   */
+  private volatile int maxCapacity;
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public WorkStealingWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+  @Override
+  public void initializeWorkQueue(WorkStealingWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    shutdownRequested = false;
+
+    // Register to be notified of any configuration changes.
+    configuration.addWorkStealingChangeListener(this);
+
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    setNumWorkerThreads(computeNumWorkerThreads(configuration.getNumWorkerThreads()));
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      WorkStealingWorkQueueMonitor monitor = new WorkStealingWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, WorkStealingWorkQueueMonitor.class, e);
+    }
+  }
+
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+    signalNotFull(true);
+
+    // From now on no more operations can be enqueued or dequeued.
+
+    // Send responses to any operations in the pending queues to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    final WorkStealingWorkerThread[] threads = workerThreads;
+    for (WorkStealingWorkerThread t : threads)
+    {
+      Operation o;
+      while ((o = t.queue.poll()) != null)
+      {
+        pendingOperations.decrementAndGet();
+        try
+        {
+          // The operation has no chance of responding to the cancel
+          // request so avoid waiting for a cancel response.
+          if (o.getCancelResult() == null)
+          {
+            o.abort(cancelRequest);
+          }
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+        }
+      }
+    }
+
+    // Notify all the worker threads of the shutdown.
+    for (WorkStealingWorkerThread t : threads)
+    {
+      try
+      {
+        t.shutDown();
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_NOTIFY_THREAD, t.getName(), e);
+      }
+    }
+  }
+
+  /**
+   * Indicates whether this work queue has received a request to shut down.
+   *
+   * @return <CODE>true</CODE> if the work queue has recieved a request to shut
+   *         down, or <CODE>false</CODE> if not.
+   */
+  public boolean shutdownRequested()
+  {
+    return shutdownRequested;
+  }
+
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, true);
+  }
+
+  @Override
+  public boolean trySubmitOperation(Operation operation) throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private void submitOperation(Operation operation, boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    checkNotShutdown();
+    for (;;)
+    {
+      final int pending = pendingOperations.get();
+      if (pending < maxCapacity)
+      {
+        if (pendingOperations.compareAndSet(pending, pending + 1))
+        {
+          break;
+        }
+      }
+      else if (blockEnqueuingWhenFull)
+      {
+        awaitNotFull();
+        checkNotShutdown();
+      }
+      else
+      {
+        queueFullRejects.incrementAndGet();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity));
+      }
+    }
+
+    enqueue(operation);
+    opsSubmitted.incrementAndGet();
+  }
+
+  private void checkNotShutdown() throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+  }
+
+  private void awaitNotFull() throws DirectoryException
+  {
+    capacityLock.lock();
+    waitingSubmitters.incrementAndGet();
+    try
+    {
+      // The timeout protects against missed signals when the capacity is changed.
+      while (pendingOperations.get() >= maxCapacity && !shutdownRequested)
+      {
+        notFull.await(1, TimeUnit.SECONDS);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // We cannot handle the interruption here. Reject the request and
+      // re-interrupt this thread.
+      Thread.currentThread().interrupt();
+      queueFullRejects.incrementAndGet();
+      throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get());
+    }
+    finally
+    {
+      waitingSubmitters.decrementAndGet();
+      capacityLock.unlock();
+    }
+  }
+
+  private void signalNotFull(boolean all)
+  {
+    capacityLock.lock();
+    try
+    {
+      if (all)
+      {
+        notFull.signalAll();
+      }
+      else
+      {
+        notFull.signal();
+      }
+    }
+    finally
+    {
+      capacityLock.unlock();
+    }
+  }
+
+  /** Queues the provided operation for the worker thread associated with its client connection. */
+  private void enqueue(Operation operation)
+  {
+    final WorkStealingWorkerThread[] threads = workerThreads;
+    final int index = Math.floorMod(Long.hashCode(operation.getClientConnection().getConnectionID()), threads.length);
+    final WorkStealingWorkerThread thread = threads[index];
+    thread.queue.offer(operation);
+    if (thread.retired && thread.queue.remove(operation))
+    {
+      // The thread was retired concurrently and may have already moved its queued operations
+      enqueue(operation);
+      return;
+    }
+
+    if (thread.parked)
+    {
+      thread.unpark();
+    }
+    else if (parkedThreads.get() > 0)
+    {
+      // Let an idle worker thread steal the operation
+      for (int i = 1; i < threads.length; i++)
+      {
+        final WorkStealingWorkerThread other = threads[(index + i) % threads.length];
+        if (other.parked)
+        {
+          other.unpark();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieves the next operation that should be processed by the provided
+   * worker thread, blocking if necessary until a new request arrives. This
+   * method should only be called by a worker thread associated with this work
+   * queue.
+   *
+   * @param workerThread
+   *          The worker thread that is requesting the operation.
+   * @return The next operation that should be processed, or <CODE>null</CODE>
+   *         if the server is shutting down or the worker thread was retired
+   *         because the number of worker threads was reduced.
+   */
+  Operation nextOperation(WorkStealingWorkerThread workerThread)
+  {
+    while (!shutdownRequested)
+    {
+      if (workerThread.retired)
+      {
+        requeueOperations(workerThread);
+        return null;
+      }
+
+      Operation operation = pollOrSteal(workerThread);
+      if (operation == null)
+      {
+        workerThread.parked = true;
+        parkedThreads.incrementAndGet();
+        try
+        {
+          // Check again now that submitting threads will see this thread parked
+          operation = pollOrSteal(workerThread);
+          if (operation == null && !shutdownRequested && !workerThread.retired)
+          {
+            LockSupport.parkNanos(this, PARK_NANOS);
+            // Interrupts are only expected on shutdown, which is checked by the loop.
+            Thread.interrupted();
+          }
+        }
+        finally
+        {
+          parkedThreads.decrementAndGet();
+          workerThread.parked = false;
+        }
+      }
+
+      if (operation != null)
+      {
+        workerThread.operation = operation;
+        if (pendingOperations.getAndDecrement() >= maxCapacity || waitingSubmitters.get() > 0)
+        {
+          signalNotFull(false);
+        }
+        return operation;
+      }
+    }
+    return null;
+  }
+
+  /** Takes the oldest operation from the queue of the provided worker thread, or else from another queue. */
+  private Operation pollOrSteal(WorkStealingWorkerThread workerThread)
+  {
+    Operation operation = workerThread.queue.poll();
+    if (operation != null)
+    {
+      return operation;
+    }
+
+    final WorkStealingWorkerThread[] threads = workerThreads;
+    final int start = ThreadLocalRandom.current().nextInt(threads.length);
+    for (int i = 0; i < threads.length; i++)
+    {
+      final WorkStealingWorkerThread victim = threads[(start + i) % threads.length];
+      if (victim != workerThread)
+      {
+        operation = victim.queue.poll();
+        if (operation != null)
+        {
+          opsStolen.increment();
+          return operation;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Moves the operations queued for a retired worker thread to the remaining worker threads. */
+  private void requeueOperations(WorkStealingWorkerThread retiredThread)
+  {
+    Operation operation;
+    while ((operation = retiredThread.queue.poll()) != null)
+    {
+      enqueue(operation);
+    }
+  }
+
+  /** Creates or retires worker threads so that the provided number of them service the queue. */
+  private void setNumWorkerThreads(int newNumThreads)
+  {
+    threadsLock.lock();
+    try
+    {
+      final WorkStealingWorkerThread[] threads = workerThreads;
+      if (newNumThreads > threads.length)
+      {
+        final WorkStealingWorkerThread[] newThreads = Arrays.copyOf(threads, newNumThreads);
+        for (int i = threads.length; i < newNumThreads; i++)
+        {
+          newThreads[i] = new WorkStealingWorkerThread(this, lastThreadNumber++);
+        }
+        workerThreads = newThreads;
+        for (int i = threads.length; i < newNumThreads; i++)
+        {
+          newThreads[i].start();
+        }
+      }
+      else if (newNumThreads < threads.length)
+      {
+        workerThreads = Arrays.copyOf(threads, newNumThreads);
+        for (int i = newNumThreads; i < threads.length; i++)
+        {
+          // The retired threads exit as soon as they complete their current operation
+          retiredThreads.add(threads[i]);
+          threads[i].retired = true;
+          LockSupport.unpark(threads[i]);
+          requeueOperations(threads[i]);
+        }
+      }
+      numWorkerThreads = newNumThreads;
+
+      for (WorkStealingWorkerThread t : retiredThreads)
+      {
+        if (!t.isAlive())
+        {
+          retiredThreads.remove(t);
+        }
+      }
+    }
+    finally
+    {
+      threadsLock.unlock();
+    }
+  }
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup. This does
+   * not include operations that have been rejected for some reason like the
+   * queue already at its maximum capacity.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.longValue();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.longValue();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been processed by
+   * another worker thread than the one they were queued for.
+   *
+   * @return The total number of operations that have been stolen by idle
+   *         worker threads since startup.
+   */
+  public long getOpsStolen()
+  {
+    return opsStolen.sum();
+  }
+
+  /**
+   * Retrieves the number of pending operations in the queue that have not yet
+   * been picked up for processing.
+   *
+   * @return The number of pending operations in the queue that have not yet
+   *         been picked up for processing.
+   */
+  public int size()
+  {
+    return pendingOperations.get();
+  }
+
+  /**
+   * Retrieves the number of pending operations queued for each worker thread.
+   * Note that this method is not a constant-time operation, so it should be
+   * used sparingly.
+   *
+   * @return The number of pending operations queued for each worker thread.
+   */
+  public List<Integer> getWorkerThreadBacklogs()
+  {
+    final WorkStealingWorkerThread[] threads = workerThreads;
+    final List<Integer> backlogs = new ArrayList<>(threads.length);
+    for (WorkStealingWorkerThread t : threads)
+    {
+      backlogs.add(t.queue.size());
+    }
+    return backlogs;
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      WorkStealingWorkQueueCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(WorkStealingWorkQueueCfg configuration)
+  {
+    final int newNumThreads = computeNumWorkerThreads(configuration.getNumWorkerThreads());
+    if (newNumThreads != numWorkerThreads)
+    {
+      setNumWorkerThreads(newNumThreads);
+    }
+
+    final int newMaxCapacity = configuration.getMaxWorkQueueCapacity();
+    if (newMaxCapacity != maxCapacity)
+    {
+      // Operations already queued are kept even if the new capacity is lower.
+      maxCapacity = newMaxCapacity;
+      signalNotFull(true);
+    }
+    return new ConfigChangeResult();
+  }
+
+  @Override
+  public boolean isIdle()
+  {
+    if (pendingOperations.get() > 0)
+    {
+      return false;
+    }
+    for (WorkStealingWorkerThread t : workerThreads)
+    {
+      if (t.isActive())
+      {
+        return false;
+      }
+    }
+    for (WorkStealingWorkerThread t : retiredThreads)
+    {
+      if (t.isActive())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the number of worker threads used by this WorkQueue.
+   *
+   * @return the number of worker threads used by this WorkQueue
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return numWorkerThreads;
+  }
+}
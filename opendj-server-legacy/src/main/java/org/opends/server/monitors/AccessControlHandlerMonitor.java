@@ -0,0 +1,80 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.monitors;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.authorization.dseecompat.AciDecisionCache;
+import org.opends.server.types.InitializationException;
+
+/**
+ * This class defines a Directory Server monitor that can be used to provide
+ * information about the access checks of the DSEE compatible access control
+ * handler and about the cache of its bind rule results.
+ */
+public class AccessControlHandlerMonitor
+       extends MonitorProvider<MonitorProviderCfg>
+{
+  /** The cache of the access control handler with which this monitor is associated. */
+  private final AciDecisionCache decisionCache;
+
+  /**
+   * Initializes this monitor provider.  Note that no initialization should be
+   * done here, since it should be performed in the
+   * <CODE>initializeMonitorProvider</CODE> class.
+   *
+   * @param  decisionCache  The cache of the access control handler with which
+   *                        this monitor is associated.
+   */
+  public AccessControlHandlerMonitor(AciDecisionCache decisionCache)
+  {
+    this.decisionCache = decisionCache;
+  }
+
+  @Override
+  public void initializeMonitorProvider(MonitorProviderCfg configuration)
+         throws ConfigException, InitializationException
+  {
+    // No initialization is required.
+  }
+
+  @Override
+  public String getMonitorInstanceName()
+  {
+    return "Access Control Handler";
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    final long hits = decisionCache.getHitCount();
+    final long tries = hits + decisionCache.getMissCount();
+
+    final MonitorData monitorAttrs = new MonitorData(7);
+    monitorAttrs.add("accessChecks", decisionCache.getAccessCheckCount());
+    monitorAttrs.add("accessCheckTime", decisionCache.getAccessCheckTime(TimeUnit.MILLISECONDS));
+    monitorAttrs.add("decisionCacheHits", hits);
+    monitorAttrs.add("decisionCacheTries", tries);
+    monitorAttrs.add("decisionCacheHitRatio", tries > 0 ? hits * 100D / tries : 0D);
+    monitorAttrs.add("decisionCacheCount", decisionCache.getSize());
+    monitorAttrs.add("decisionCacheInvalidations", decisionCache.getInvalidationCount());
+    return monitorAttrs;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.monitors;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.LockManager;
+import org.opends.server.types.LockManager.LockStatistics;
+import org.opends.server.types.LockManager.LockType;
+
+/**
+ * This class defines a Directory Server monitor that can be used to provide
+ * information about the contention on the entry and subtree locks of the lock
+ * manager. The names of its attributes are prefixed with the type of lock,
+ * e.g. {@code writeEntryLockWaitTime}.
+ */
+public class LockManagerMonitor
+       extends MonitorProvider<MonitorProviderCfg>
+{
+  /**
+   * The suffix of the name of the monitor attributes that provide the total
+   * number of lock requests.
+   */
+  public static final String ATTR_REQUESTS = "LockRequests";
+  /**
+   * The suffix of the name of the monitor attributes that provide the number
+   * of times a lock request had to wait for a lock held by another thread.
+   */
+  public static final String ATTR_WAITS = "LockWaits";
+  /**
+   * The suffix of the name of the monitor attributes that provide the total
+   * time spent waiting for locks, in milliseconds.
+   */
+  public static final String ATTR_WAIT_TIME = "LockWaitTime";
+  /**
+   * The suffix of the name of the monitor attributes that provide the number
+   * of lock requests which timed out.
+   */
+  public static final String ATTR_TIMEOUTS = "LockTimeouts";
+
+  /** The lock manager with which this monitor is associated. */
+  private final LockManager lockManager;
+
+  /**
+   * Initializes this monitor provider.  Note that no initialization should be
+   * done here, since it should be performed in the
+   * <CODE>initializeMonitorProvider</CODE> class.
+   *
+   * @param  lockManager  The lock manager with which this monitor is associated.
+   */
+  public LockManagerMonitor(LockManager lockManager)
+  {
+    this.lockManager = lockManager;
+  }
+
+  @Override
+  public void initializeMonitorProvider(MonitorProviderCfg configuration)
+         throws ConfigException, InitializationException
+  {
+    // No initialization is required.
+  }
+
+  @Override
+  public String getMonitorInstanceName()
+  {
+    return "Lock Manager";
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    final LockType[] lockTypes = LockType.values();
+    final MonitorData monitorAttrs = new MonitorData(4 * lockTypes.length);
+    for (LockType lockType : lockTypes)
+    {
+      final String prefix = getAttributePrefix(lockType);
+      final LockStatistics stats = lockManager.getStatistics(lockType);
+      monitorAttrs.add(prefix + ATTR_REQUESTS, stats.getRequestCount());
+      monitorAttrs.add(prefix + ATTR_WAITS, stats.getWaitCount());
+      monitorAttrs.add(prefix + ATTR_WAIT_TIME, stats.getWaitTime(TimeUnit.MILLISECONDS));
+      monitorAttrs.add(prefix + ATTR_TIMEOUTS, stats.getTimeoutCount());
+    }
+    return monitorAttrs;
+  }
+
+  private static String getAttributePrefix(LockType lockType)
+  {
+    switch (lockType)
+    {
+    case READ_ENTRY:
+      return "readEntry";
+    case WRITE_ENTRY:
+      return "writeEntry";
+    case WRITE_SUBTREE:
+      return "writeSubtree";
+    default:
+      throw new IllegalArgumentException("Unknown lock type " + lockType);
+    }
+  }
+}
@@ -40,6 +40,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
@@ -342,6 +343,13 @@ public final class LDAPClientConnection extends ClientConnection implements
     }
   };
 
+  /**
+   * The maximum time in milliseconds during which the search result entries
+   * and references may be kept in the pending responses buffer before being
+   * written.
+   */
+  private static final long PENDING_RESPONSES_LINGER_MS = 5;
+
   private ASN1WriterHolder getASN1Writer()
   {
     ASN1WriterHolder holder = ASN1_WRITER_CACHE.get();
@@ -421,6 +429,12 @@ public final class LDAPClientConnection extends ClientConnection implements
 
   private final ASN1ByteChannelReader asn1Reader;
   private final int bufferSize;
+
+  /**
+   * The responses written to the client, where the search result entries and
+   * references may be buffered so that several of them are written at once.
+   */
+  private final PendingResponses pendingResponses;
   private final RedirectingByteChannel saslChannel;
   private final RedirectingByteChannel tlsChannel;
   private volatile ConnectionSecurityProvider saslActiveProvider;
@@ -479,6 +493,30 @@ public final class LDAPClientConnection extends ClientConnection implements
     tlsChannel = RedirectingByteChannel.getRedirectingByteChannel(timeoutClientChannel);
     saslChannel = RedirectingByteChannel.getRedirectingByteChannel(tlsChannel);
     this.asn1Reader = new ASN1ByteChannelReader(saslChannel, bufferSize, connectionHandler.getMaxRequestSize());
+    pendingResponses = new PendingResponses(saslChannel, bufferSize, PENDING_RESPONSES_LINGER_MS, TimeUnit.MILLISECONDS)
+    {
+      @Override
+      boolean isClosed()
+      {
+        return !connectionValid;
+      }
+
+      @Override
+      void flushFailed(Exception error)
+      {
+        logger.traceException(error);
+        if (error instanceof ClosedChannelException)
+        {
+          disconnect(DisconnectReason.IO_ERROR, false,
+              ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(error)));
+        }
+        else
+        {
+          disconnect(DisconnectReason.SERVER_ERROR, false,
+              ERR_UNEXPECTED_EXCEPTION_ON_CLIENT_CONNECTION.get(getExceptionMessage(error)));
+        }
+      }
+    };
 
     if (connectionHandler.useSSL())
     {
@@ -841,7 +879,7 @@ public final class LDAPClientConnection extends ClientConnection implements
         new SearchResultEntryProtocolOp(searchEntry, ldapVersion);
 
     sendLDAPMessage(new LDAPMessage(searchOperation.getMessageID(),
-        protocolOp, searchEntry.getControls()));
+        protocolOp, searchEntry.getControls()), true);
   }
 
   /**
@@ -876,7 +914,7 @@ public final class LDAPClientConnection extends ClientConnection implements
         new SearchResultReferenceProtocolOp(searchReference);
 
     sendLDAPMessage(new LDAPMessage(searchOperation.getMessageID(),
-        protocolOp, searchReference.getControls()));
+        protocolOp, searchReference.getControls()), true);
     return true;
   }
 
@@ -909,19 +947,37 @@ public final class LDAPClientConnection extends ClientConnection implements
   }
 
   /**
-   * Sends the provided LDAP message to the client.
+   * Sends the provided LDAP message to the client, after any pending search
+   * result entries and references.
    *
    * @param message
    *          The LDAP message to send to the client.
    */
   private void sendLDAPMessage(LDAPMessage message)
+  {
+    sendLDAPMessage(message, false);
+  }
+
+  /**
+   * Sends the provided LDAP message to the client.
+   *
+   * @param message
+   *          The LDAP message to send to the client.
+   * @param mayBePending
+   *          Whether the message may be kept in the pending responses buffer
+   *          and written later with other messages, which is the case for the
+   *          search result entries and references: they are written when the
+   *          buffer is full, when another message is sent, e.g. the search
+   *          result done, or when their linger time has elapsed.
+   */
+  private void sendLDAPMessage(LDAPMessage message, boolean mayBePending)
   {
     // Use a thread local writer.
     final ASN1WriterHolder holder = getASN1Writer();
     try
     {
       message.write(holder.writer);
-      holder.buffer.copyTo(saslChannel);
+      pendingResponses.write(holder.buffer, mayBePending);
 
       if (logger.isTraceEnabled())
       {
@@ -0,0 +1,209 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.forgerock.util.Utils.*;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * The responses written to a client connection, where the search result entries and references
+ * may be kept in a buffer so that several of them are written at once.
+ * <p>
+ * The buffered responses are written when the buffer is full, when another response is written,
+ * e.g. the search result done, or when their linger time has elapsed. In the last case, they are
+ * written by the next buffered response if it comes late enough, otherwise by a pooled thread: a
+ * client which does not read its responses only blocks the thread writing to it, and never delays
+ * the responses of the other connections.
+ */
+abstract class PendingResponses
+{
+  /** Schedules the writes of the buffered responses whose linger time will have elapsed. */
+  private static final ScheduledExecutorService FLUSH_SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(newThreadFactory(null, "LDAP Pending Responses Scheduler", true));
+  /** Writes the buffered responses whose linger time has elapsed, which may block until the client reads them. */
+  private static final ExecutorService FLUSHERS =
+      Executors.newCachedThreadPool(newThreadFactory(null, "LDAP Pending Responses Flusher %d", true));
+
+  private final WritableByteChannel channel;
+  private final int bufferSize;
+  private final long lingerTimeNanos;
+  /** Serializes the writes to the channel and protects the buffered responses. */
+  private final Lock lock = new ReentrantLock();
+  /** The encoded responses which have not been written yet, guarded by the lock. */
+  private final ByteStringBuilder buffer = new ByteStringBuilder();
+  /** The time when the first buffered response was buffered, guarded by the lock. */
+  private long bufferedSinceNanos;
+  /** Whether a flush of the buffered responses has been scheduled, guarded by the lock. */
+  private boolean flushScheduled;
+
+  private final Runnable flushTask = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      flush();
+    }
+  };
+  /** The scheduler thread must not write: it hands the flush over to a pooled thread. */
+  private final Runnable scheduledFlushTask = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      FLUSHERS.execute(flushTask);
+    }
+  };
+
+  /**
+   * Creates the pending responses of a client connection.
+   *
+   * @param channel
+   *          The channel to write the responses to.
+   * @param bufferSize
+   *          The maximum size of the buffered responses.
+   * @param lingerTime
+   *          The maximum time during which a response may be buffered.
+   * @param unit
+   *          The unit of the linger time.
+   */
+  PendingResponses(WritableByteChannel channel, int bufferSize, long lingerTime, TimeUnit unit)
+  {
+    this.channel = channel;
+    this.bufferSize = bufferSize;
+    this.lingerTimeNanos = unit.toNanos(lingerTime);
+  }
+
+  /**
+   * Returns whether the client connection is closed, in which case the buffered responses are
+   * discarded instead of being written once their linger time has elapsed.
+   *
+   * @return whether the client connection is closed
+   */
+  abstract boolean isClosed();
+
+  /**
+   * Handles an error which occurred while writing the buffered responses once their linger time
+   * has elapsed. The errors of the other writes are thrown to the writers.
+   *
+   * @param error
+   *          The error which occurred.
+   */
+  abstract void flushFailed(Exception error);
+
+  /**
+   * Writes the provided encoded response after the buffered responses.
+   *
+   * @param encodedResponse
+   *          The encoded response to write.
+   * @param mayBeBuffered
+   *          Whether the response may be buffered and written later with other responses, which is
+   *          the case for the search result entries and references.
+   * @throws IOException
+   *           If an error occurs while writing to the channel.
+   */
+  void write(ByteStringBuilder encodedResponse, boolean mayBeBuffered) throws IOException
+  {
+    lock.lock();
+    try
+    {
+      if (buffer.length() > 0 && buffer.length() + encodedResponse.length() > bufferSize)
+      {
+        writeBuffer();
+      }
+      if (buffer.length() == 0 && (!mayBeBuffered || encodedResponse.length() > bufferSize))
+      {
+        // Nothing to write it with
+        encodedResponse.copyTo(channel);
+        return;
+      }
+
+      final long now = System.nanoTime();
+      if (buffer.length() == 0)
+      {
+        bufferedSinceNanos = now;
+      }
+      buffer.appendBytes(encodedResponse);
+      final long lingeredNanos = now - bufferedSinceNanos;
+      if (!mayBeBuffered || lingeredNanos >= lingerTimeNanos)
+      {
+        writeBuffer();
+      }
+      else if (!flushScheduled)
+      {
+        flushScheduled = true;
+        FLUSH_SCHEDULER.schedule(scheduledFlushTask, lingerTimeNanos - lingeredNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /** Must be called with the lock held. */
+  private void writeBuffer() throws IOException
+  {
+    try
+    {
+      buffer.copyTo(channel);
+    }
+    finally
+    {
+      buffer.clear();
+    }
+  }
+
+  /** Writes the buffered responses whose linger time has elapsed. */
+  private void flush()
+  {
+    Exception error;
+    lock.lock();
+    try
+    {
+      flushScheduled = false;
+      if (isClosed())
+      {
+        buffer.clear();
+      }
+      else if (buffer.length() > 0)
+      {
+        writeBuffer();
+      }
+      return;
+    }
+    catch (Exception e)
+    {
+      error = e;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    // Report the error without holding the lock
+    flushFailed(error);
+  }
+}
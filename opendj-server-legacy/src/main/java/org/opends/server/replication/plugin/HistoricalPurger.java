@@ -0,0 +1,464 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import static org.opends.messages.ReplicationMessages.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.opends.server.replication.plugin.EntryHistorical.*;
+import static org.opends.server.util.ServerConstants.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.util.annotations.VisibleForTesting;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.controls.PagedResultsControl;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ModifyOperation;
+import org.opends.server.core.ModifyOperationBasis;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.protocols.internal.SearchRequest;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.AttributeBuilder;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.Control;
+import org.opends.server.types.Modification;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.types.SearchResultEntry;
+
+/**
+ * The thread that continuously purges the historical information of the
+ * entries of a replication domain.
+ * <p>
+ * The entries are walked one page of a paged results search after the other,
+ * i.e. by entry ID range when the search is indexed, and the values older than
+ * the purge delay are removed from their historical attribute. The number of
+ * entries checked per second is limited by the
+ * {@code conflicts-historical-purge-rate} of the domain. The paged results
+ * cookie is saved in the base entry of the domain at most once a minute and at
+ * the end of each sweep, so that the purge resumes close to where it stopped
+ * after a restart without adding write traffic to the base entry.
+ */
+class HistoricalPurger extends DirectoryThread
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The attribute name used to store the progress of the purge in the base entry. */
+  static final String PURGE_CHECKPOINT = "ds-sync-hist-purge-checkpoint";
+  /** The maximum number of entries checked by each page of the purge. */
+  private static final int PAGE_SIZE = 100;
+  /** The maximum time to wait between two sweeps of the domain. */
+  private static final long MAX_SWEEP_INTERVAL = TimeUnit.HOURS.toMillis(1);
+  /** The time to wait when the purge cannot currently run, e.g. during an import. */
+  private static final long IDLE_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+  /** The minimum time between two saves of the paged results cookie in the base entry during a sweep. */
+  private static final long CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+  private final LDAPReplicationDomain domain;
+  /** Serializes the purge of the pages by this thread and by {@link #purgeAll(long)}. */
+  private final Object purgeLock = new Object();
+  /** The cookie of the next page to purge, empty when a new sweep starts, guarded by purgeLock. */
+  private ByteString cookie = ByteString.empty();
+  /** The cookie saved in the base entry of the domain, guarded by purgeLock. */
+  private ByteString savedCookie = ByteString.empty();
+
+  private final LongAdder purgedValues = new LongAdder();
+  private final LongAdder reclaimedBytes = new LongAdder();
+  /** The number of values purged per second during the last page. */
+  private volatile long purgeRate;
+
+  /**
+   * Creates the historical purger of the provided replication domain.
+   *
+   * @param domain
+   *          the replication domain whose entries must be purged
+   */
+  HistoricalPurger(LDAPReplicationDomain domain)
+  {
+    super("Replica DS(" + domain.getServerId() + ") historical purger for domain \"" + domain.getBaseDN() + "\"");
+    this.domain = domain;
+  }
+
+  /**
+   * Returns the number of historical values purged per second during the last
+   * page of the purge.
+   *
+   * @return the number of historical values purged per second
+   */
+  long getPurgeRate()
+  {
+    return purgeRate;
+  }
+
+  /**
+   * Returns the number of historical values purged since this server started.
+   *
+   * @return the number of historical values purged
+   */
+  long getPurgedValuesCount()
+  {
+    return purgedValues.sum();
+  }
+
+  /**
+   * Returns the number of bytes of historical values purged since this server
+   * started.
+   *
+   * @return the number of bytes of historical values purged
+   */
+  long getReclaimedBytes()
+  {
+    return reclaimedBytes.sum();
+  }
+
+  /** Wakes up this thread, for instance to take a configuration change into account. */
+  void wakeUp()
+  {
+    synchronized (this)
+    {
+      notify();
+    }
+  }
+
+  @Override
+  public void initiateShutdown()
+  {
+    super.initiateShutdown();
+    wakeUp();
+  }
+
+  /**
+   * Purges the historical information of all the entries of the domain at
+   * once, regardless of the purge rate, and starts a new sweep afterwards.
+   * <p>
+   * This method is intended for tests only, so that they do not wait for the
+   * background purge.
+   *
+   * @param purgeDelay
+   *          the delay in milliseconds after which the historical values are
+   *          purged
+   * @return the number of historical values purged
+   */
+  @VisibleForTesting
+  long purgeAll(long purgeDelay)
+  {
+    synchronized (purgeLock)
+    {
+      cookie = ByteString.empty();
+      long purged = 0;
+      do
+      {
+        purged += purgePage(PAGE_SIZE, purgeDelay);
+      }
+      while (cookie.length() != 0 && !isShutdownInitiated());
+      saveCheckpoint();
+      return purged;
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    synchronized (purgeLock)
+    {
+      cookie = savedCookie = loadCheckpoint();
+    }
+    long lastCheckpointTime = System.nanoTime();
+    while (!isShutdownInitiated())
+    {
+      final int maxEntriesPerSecond = domain.getHistoricalPurgeRate();
+      final long purgeDelay = domain.getHistoricalPurgeDelay();
+      if (maxEntriesPerSecond <= 0 || purgeDelay <= 0)
+      {
+        // Disabled: woken up by the configuration changes
+        purgeRate = 0;
+        pauseUntilWokenUp();
+        continue;
+      }
+      if (!domain.canPurgeHistorical())
+      {
+        purgeRate = 0;
+        pause(IDLE_INTERVAL);
+        continue;
+      }
+
+      final long startTime = System.nanoTime();
+      final int pageSize = Math.min(PAGE_SIZE, maxEntriesPerSecond);
+      final long purged;
+      final boolean isSweepComplete;
+      synchronized (purgeLock)
+      {
+        purged = purgePage(pageSize, purgeDelay);
+        isSweepComplete = cookie.length() == 0;
+        if (isSweepComplete || System.nanoTime() - lastCheckpointTime >= CHECKPOINT_INTERVAL)
+        {
+          saveCheckpoint();
+          lastCheckpointTime = System.nanoTime();
+        }
+      }
+
+      // Spread the pages so that no more than maxEntriesPerSecond entries are checked per second
+      final long minDuration = TimeUnit.SECONDS.toNanos(pageSize) / maxEntriesPerSecond;
+      pause(TimeUnit.NANOSECONDS.toMillis(minDuration - (System.nanoTime() - startTime)));
+      final long duration = Math.max(System.nanoTime() - startTime, 1);
+      purgeRate = purged * TimeUnit.SECONDS.toNanos(1) / duration;
+
+      if (isSweepComplete)
+      {
+        // The sweep of the domain is complete: the next values to purge cannot be older than the purge delay yet
+        purgeRate = 0;
+        pause(Math.min(purgeDelay, MAX_SWEEP_INTERVAL));
+      }
+    }
+  }
+
+  private void pauseUntilWokenUp()
+  {
+    try
+    {
+      synchronized (this)
+      {
+        // Checked again while holding the lock, so that a configuration change cannot be missed
+        if (!isShutdownInitiated() && (domain.getHistoricalPurgeRate() <= 0 || domain.getHistoricalPurgeDelay() <= 0))
+        {
+          wait();
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // Thread interrupted: check for shutdown.
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void pause(long millis)
+  {
+    if (millis <= 0)
+    {
+      return;
+    }
+    try
+    {
+      synchronized (this)
+      {
+        if (!isShutdownInitiated())
+        {
+          wait(millis);
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // Thread interrupted: check for shutdown.
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Purges the historical information of the entries of the next page.
+   * Must be called with the purge lock held.
+   *
+   * @return the number of historical values purged
+   */
+  private long purgePage(int pageSize, long purgeDelay)
+  {
+    final DN baseDN = domain.getBaseDN();
+    final AttributeType historicalAttrType =
+        DirectoryServer.getInstance().getServerContext().getSchema().getAttributeType(HISTORICAL_ATTRIBUTE_NAME);
+    final SearchRequest request =
+        newSearchRequest(baseDN, SearchScope.WHOLE_SUBTREE, SearchFilter.createPresenceFilter(historicalAttrType))
+        .addAttribute(USER_AND_REPL_OPERATIONAL_ATTRS)
+        .addControl(new PagedResultsControl(false, pageSize, cookie))
+        .setSizeLimit(pageSize + 1);
+    final InternalSearchOperation searchOp = getRootConnection().processSearch(request);
+    final ResultCode resultCode = searchOp.getResultCode();
+    if (resultCode != ResultCode.SUCCESS)
+    {
+      if (resultCode != ResultCode.NO_SUCH_OBJECT)
+      {
+        logger.error(ERR_HISTORICAL_PURGE_SEARCH_FAILED, baseDN, resultCode.getName(), searchOp.getErrorMessage());
+      }
+      cookie = ByteString.empty();
+      return 0;
+    }
+
+    ByteString nextCookie = ByteString.empty();
+    for (Control c : searchOp.getResponseControls())
+    {
+      if (c.getOID().equals(OID_PAGED_RESULTS_CONTROL))
+      {
+        final ByteString newCookie = ((PagedResultsControl) c).getCookie();
+        if (newCookie != null && !newCookie.equals(cookie))
+        {
+          nextCookie = newCookie;
+        }
+      }
+    }
+
+    long purged = 0;
+    for (SearchResultEntry entry : searchOp.getSearchEntries())
+    {
+      if (isShutdownInitiated())
+      {
+        // Keep the current cookie: this page will be purged again after the restart
+        return purged;
+      }
+      purged += purgeEntry(entry, purgeDelay);
+    }
+    cookie = nextCookie;
+    return purged;
+  }
+
+  /**
+   * Removes from the historical attribute of the provided entry the values
+   * older than the purge delay.
+   * <p>
+   * Only the purged values are deleted, so that the modification fails rather
+   * than overwrites the historical information if the entry was modified since
+   * it was read. Such an entry was purged by its modification anyway.
+   */
+  private long purgeEntry(SearchResultEntry entry, long purgeDelay)
+  {
+    final EntryHistorical entryHist = EntryHistorical.newInstanceFromEntry(entry);
+    entryHist.setPurgeDelay(purgeDelay);
+    final Attribute newAttr = entryHist.encodeAndPurge();
+    if (entryHist.getLastPurgedValuesCount() == 0)
+    {
+      return 0;
+    }
+
+    final AttributeBuilder deleted = new AttributeBuilder(HISTORICAL_ATTRIBUTE_NAME);
+    long bytes = 0;
+    for (Attribute oldAttr : getHistoricalAttr(entry))
+    {
+      for (ByteString value : oldAttr)
+      {
+        if (!newAttr.contains(value) && deleted.add(value))
+        {
+          bytes += value.length();
+        }
+      }
+    }
+    final AttributeBuilder added = new AttributeBuilder(HISTORICAL_ATTRIBUTE_NAME);
+    for (ByteString value : newAttr)
+    {
+      if (!containsHistoricalValue(entry, value) && added.add(value))
+      {
+        bytes -= value.length();
+      }
+    }
+    if (deleted.isEmpty())
+    {
+      return 0;
+    }
+
+    final List<Modification> mods = new ArrayList<>(2);
+    mods.add(new Modification(ModificationType.DELETE, deleted.toAttribute()));
+    if (!added.isEmpty())
+    {
+      mods.add(new Modification(ModificationType.ADD, added.toAttribute()));
+    }
+    final ModifyOperation op = new ModifyOperationBasis(getRootConnection(), nextOperationID(), nextMessageID(),
+        new ArrayList<Control>(0), entry.getName(), mods);
+    LDAPReplicationDomain.runAsSynchronizedOperation(op);
+    if (op.getResultCode() != ResultCode.SUCCESS)
+    {
+      // Most likely modified concurrently, which purged its historical information
+      logger.trace("[PURGE] could not purge the historical information of %s: %s", entry.getName(), op);
+      return 0;
+    }
+    purgedValues.add(entryHist.getLastPurgedValuesCount());
+    reclaimedBytes.add(bytes);
+    return entryHist.getLastPurgedValuesCount();
+  }
+
+  private static boolean containsHistoricalValue(SearchResultEntry entry, ByteString value)
+  {
+    for (Attribute oldAttr : getHistoricalAttr(entry))
+    {
+      if (oldAttr.contains(value))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private ByteString loadCheckpoint()
+  {
+    final SearchRequest request = newSearchRequest(domain.getBaseDN(), SearchScope.BASE_OBJECT)
+        .addAttribute(PURGE_CHECKPOINT);
+    final InternalSearchOperation search = getRootConnection().processSearch(request);
+    if (search.getResultCode() == ResultCode.SUCCESS && !search.getSearchEntries().isEmpty())
+    {
+      for (Attribute attr : search.getSearchEntries().getFirst().getAllAttributes(PURGE_CHECKPOINT))
+      {
+        for (ByteString value : attr)
+        {
+          try
+          {
+            return ByteString.valueOfHex(value.toString());
+          }
+          catch (LocalizedIllegalArgumentException e)
+          {
+            // Corrupted checkpoint: start a new sweep
+            logger.traceException(e);
+          }
+        }
+      }
+    }
+    return ByteString.empty();
+  }
+
+  /** Must be called with the purge lock held. */
+  private void saveCheckpoint()
+  {
+    if (cookie.equals(savedCookie) || !domain.canPurgeHistorical())
+    {
+      return;
+    }
+    final Attribute attr = cookie.length() != 0
+        ? Attributes.create(PURGE_CHECKPOINT, cookie.toHexString())
+        : Attributes.empty(PURGE_CHECKPOINT);
+    final ModifyOperation op = new ModifyOperationBasis(getRootConnection(), nextOperationID(), nextMessageID(),
+        null, domain.getBaseDN(), Collections.singletonList(new Modification(ModificationType.REPLACE, attr)));
+    LDAPReplicationDomain.runAsSynchronizedOperation(op);
+
+    final ResultCode resultCode = op.getResultCode();
+    if (resultCode == ResultCode.SUCCESS)
+    {
+      savedCookie = cookie;
+    }
+    else if (resultCode != ResultCode.NO_SUCH_OBJECT)
+    {
+      logger.error(ERR_HISTORICAL_PURGE_CHECKPOINT_FAILED, domain.getBaseDN(), resultCode.getName(),
+          op.getErrorMessage());
+    }
+  }
+}
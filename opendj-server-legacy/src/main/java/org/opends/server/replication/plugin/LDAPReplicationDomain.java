@@ -49,7 +49,6 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -78,6 +77,7 @@ import org.forgerock.opendj.ldap.schema.Schema;
 import org.forgerock.opendj.server.config.meta.ReplicationDomainCfgDefn.IsolationPolicy;
 import org.forgerock.opendj.server.config.server.ExternalChangelogDomainCfg;
 import org.forgerock.opendj.server.config.server.ReplicationDomainCfg;
+import org.forgerock.util.annotations.VisibleForTesting;
 import org.opends.server.api.AlertGenerator;
 import org.opends.server.api.DirectoryThread;
 import org.opends.server.api.LocalBackend;
@@ -299,7 +299,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * The update to replay message queue where the listener thread is going to
    * push incoming update messages.
    */
-  private final BlockingQueue<UpdateToReplay> updateToReplayQueue;
+  private final PartitionedReplayQueue updateToReplayQueue;
   /** The number of naming conflicts successfully resolved. */
   private final AtomicInteger numResolvedNamingConflicts = new AtomicInteger();
   /** The number of modify conflicts successfully resolved. */
@@ -309,6 +309,13 @@ public final class LDAPReplicationDomain extends ReplicationDomain
       new AtomicInteger();
   /** The number of updates replayed successfully by the replication. */
   private final AtomicInteger numReplayedPostOpCalled = new AtomicInteger();
+  /** The number of updates of this domain waiting in the update to replay queue. */
+  private final AtomicInteger numQueuedUpdates = new AtomicInteger();
+  /**
+   * The time elapsed between the creation of the last replayed update on its
+   * originating server and the end of its replay, in milliseconds.
+   */
+  private volatile long lastReplayLag;
 
   private final PersistentServerState state;
   private volatile boolean generationIdSavedStatus;
@@ -349,6 +356,9 @@ public final class LDAPReplicationDomain extends ReplicationDomain
 
   private final ServerStateFlush flushThread;
 
+  /** The thread that continuously purges the historical information of the entries of this domain. */
+  private final HistoricalPurger historicalPurger;
+
   /** The attribute name used to store the generation id in the backend. */
   private static final String REPLICATION_GENERATION_ID = "ds-sync-generation-id";
   /** The attribute name used to store the fractional include configuration in the backend. */
@@ -539,7 +549,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * @throws ConfigException In case of invalid configuration.
    */
   LDAPReplicationDomain(ReplicationDomainCfg configuration,
-      BlockingQueue<UpdateToReplay> updateToReplayQueue,
+      PartitionedReplayQueue updateToReplayQueue,
       DSRSShutdownSync dsrsShutdownSync) throws ConfigException
   {
     super(configuration, -1);
@@ -578,6 +588,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     state = new PersistentServerState(getBaseDN(), getServerId(),
         getServerState());
     flushThread = new ServerStateFlush();
+    historicalPurger = new HistoricalPurger(this);
 
     /*
      * CSNGenerator is used to create new unique CSNs for each operation done on
@@ -2207,7 +2218,14 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     return newOp;
   }
 
-  private void runAsSynchronizedOperation(Operation op)
+  /**
+   * Runs the provided operation as an internal synchronization operation,
+   * which is not replicated.
+   *
+   * @param op
+   *          the operation to run
+   */
+  static void runAsSynchronizedOperation(Operation op)
   {
     op.setInternalOperation(true);
     op.setSynchronizationOperation(true);
@@ -2242,6 +2260,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
           flushThread.notify();
         }
       }
+      historicalPurger.initiateShutdown();
 
       DirectoryServer.deregisterAlertGenerator(this);
       getServerContext().getBackendConfigManager()
@@ -2252,13 +2271,17 @@ public final class LDAPReplicationDomain extends ReplicationDomain
       disableService();
     }
 
-    // wait for completion of the ServerStateFlush thread.
+    // wait for completion of the ServerStateFlush and historical purge threads.
     try
     {
       while (!done)
       {
         Thread.sleep(50);
       }
+      if (historicalPurger.isAlive())
+      {
+        historicalPurger.join();
+      }
     } catch (InterruptedException e)
     {
       Thread.currentThread().interrupt();
@@ -2271,6 +2294,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    */
   void markInProgress(LDAPUpdateMsg msg)
   {
+    numQueuedUpdates.decrementAndGet();
     remotePendingChanges.markInProgress(msg);
   }
 
@@ -2459,6 +2483,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
         if (!dependency)
         {
           processUpdateDone(msg, replayErrorMsg);
+          lastReplayLag = TimeThread.getTime() - msg.getCSN().getTime();
         }
       }
 
@@ -3801,6 +3826,7 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     readFractionalConfig(configuration, true);
 
     solveConflictFlag = isSolveConflict(configuration);
+    historicalPurger.wakeUp();
 
     final ConfigChangeResult ccr = new ConfigChangeResult();
     try
@@ -3866,6 +3892,7 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
   {
     // Create the ServerStateFlush thread
     flushThread.start();
+    historicalPurger.start();
 
     startListenService();
   }
@@ -4275,14 +4302,17 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
         // loop until we can offer to the queue or shutdown was initiated
         try
         {
+          numQueuedUpdates.incrementAndGet();
           if (updateToReplayQueue.offer(updateToReplay, 1, TimeUnit.SECONDS))
           {
             // successful offer to the queue, let's exit the loop
             break;
           }
+          numQueuedUpdates.decrementAndGet();
         }
         catch (InterruptedException e)
         {
+          numQueuedUpdates.decrementAndGet();
           // Thread interrupted: check for shutdown.
           Thread.currentThread().interrupt();
         }
@@ -4306,6 +4336,12 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     attributes.add("remote-pending-changes-size", remotePendingChanges.getQueueSize());
     attributes.add("dependent-changes-size", remotePendingChanges.getDependentChangesSize());
     attributes.add("changes-in-progress-size", remotePendingChanges.changesInProgressSize());
+    attributes.add("replay-queue-size", numQueuedUpdates);
+    attributes.add("replay-lag", lastReplayLag);
+    attributes.add("replay-dependency-stalls", remotePendingChanges.getDependencyStallCount());
+    attributes.add("historical-purge-rate", historicalPurger.getPurgeRate());
+    attributes.add("historical-purged-values", historicalPurger.getPurgedValuesCount());
+    attributes.add("historical-reclaimed-bytes", historicalPurger.getReclaimedBytes());
   }
 
   /**
@@ -4901,6 +4937,41 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     return config.getConflictsHistoricalPurgeDelay() * 60 * 1000;
   }
 
+  /**
+   * Return the maximum number of entries per second that the background purge
+   * of the historical information may check.
+   *
+   * @return the purge rate, 0 when the background purge is disabled.
+   */
+  int getHistoricalPurgeRate()
+  {
+    return config.getConflictsHistoricalPurgeRate();
+  }
+
+  /**
+   * Returns the thread purging the historical information of the entries of
+   * this domain in the background.
+   *
+   * @return the historical purger of this domain
+   */
+  @VisibleForTesting
+  HistoricalPurger getHistoricalPurger()
+  {
+    return historicalPurger;
+  }
+
+  /**
+   * Returns whether the historical information of the entries of this domain
+   * can currently be purged, i.e. whether the domain is running and its
+   * backend is not being imported or exported.
+   *
+   * @return true if the historical information can be purged.
+   */
+  boolean canPurgeHistorical()
+  {
+    return !disabled && !shutdown.get() && !ieRunning();
+  }
+
   /**
    * Check and purge the historical attribute on all eligible entries under this domain.
    *
@@ -27,11 +27,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -42,6 +39,7 @@ import org.forgerock.opendj.config.server.ConfigurationChangeListener;
 import org.forgerock.opendj.config.server.ConfigurationDeleteListener;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.meta.ReplicationSynchronizationProviderCfgDefn.SessionCompression;
 import org.forgerock.opendj.server.config.server.ReplicationDomainCfg;
 import org.forgerock.opendj.server.config.server.ReplicationSynchronizationProviderCfg;
 import org.opends.server.api.LocalBackend;
@@ -98,12 +96,16 @@ public class MultimasterReplication
   private ReplicationServerListener replicationServerListener;
   private static final Map<DN, LDAPReplicationDomain> domains = new ConcurrentHashMap<>(4);
   private static final DSRSShutdownSync dsrsShutdownSync = new DSRSShutdownSync();
-  /** The queue of received update messages, to be treated by the ReplayThread threads. */
-  private static final BlockingQueue<UpdateToReplay> updateToReplayQueue = new LinkedBlockingQueue<>(10000);
-  /** The list of ReplayThread threads. */
-  private static final List<ReplayThread> replayThreads = new ArrayList<>();
   /** The configurable number of replay threads. */
   private static int replayThreadNumber = 10;
+  /**
+   * The queue of received update messages, to be treated by the ReplayThread threads.
+   * It has one partition per ReplayThread.
+   */
+  private static final PartitionedReplayQueue updateToReplayQueue =
+      new PartitionedReplayQueue(10000, replayThreadNumber);
+  /** The list of ReplayThread threads. */
+  private static final List<ReplayThread> replayThreads = new ArrayList<>();
 
   /** Enum that symbolizes the state of the multimaster replication. */
   private enum State
@@ -115,6 +117,8 @@ public class MultimasterReplication
 
   /** The configurable connection/handshake timeout. */
   private static volatile int connectionTimeoutMS = 5000;
+  /** Whether the messages sent to the replication servers are compressed. */
+  private static volatile boolean sessionCompressionEnabled;
 
   /**
    * Finds the domain for a given DN.
@@ -218,7 +222,7 @@ public class MultimasterReplication
    * is only used for tests so far.
    *
    * @param configuration The entry with the configuration of this domain.
-   * @param queue         The BlockingQueue that this domain will use.
+   * @param queue         The replay queue that this domain will use.
    *
    * @return              The domain created.
    *
@@ -226,7 +230,7 @@ public class MultimasterReplication
    */
   static LDAPReplicationDomain createNewDomain(
       ReplicationDomainCfg configuration,
-      BlockingQueue<UpdateToReplay> queue)
+      PartitionedReplayQueue queue)
       throws ConfigException
   {
     final LDAPReplicationDomain domain =
@@ -271,6 +275,7 @@ public class MultimasterReplication
 
     replayThreadNumber = getNumberOfReplayThreadsOrDefault(cfg);
     connectionTimeoutMS = (int) Math.min(cfg.getConnectionTimeout(), Integer.MAX_VALUE);
+    sessionCompressionEnabled = isSessionCompressionEnabled(cfg);
 
     //  Create the list of domains that are already defined.
     for (String name : cfg.listReplicationDomains())
@@ -301,10 +306,10 @@ public class MultimasterReplication
   {
     replayThreads.clear();
 
-    ReentrantLock switchQueueLock = new ReentrantLock();
+    updateToReplayQueue.setPartitionCount(replayThreadNumber);
     for (int i = 0; i < replayThreadNumber; i++)
     {
-      ReplayThread replayThread = new ReplayThread(updateToReplayQueue, switchQueueLock);
+      ReplayThread replayThread = new ReplayThread(updateToReplayQueue, i);
       replayThread.start();
       replayThreads.add(replayThread);
     }
@@ -754,6 +759,7 @@ public class MultimasterReplication
 
     connectionTimeoutMS = (int) Math.min(configuration.getConnectionTimeout(),
         Integer.MAX_VALUE);
+    sessionCompressionEnabled = isSessionCompressionEnabled(configuration);
 
     return new ConfigChangeResult();
   }
@@ -872,4 +878,21 @@ public class MultimasterReplication
   {
     return connectionTimeoutMS;
   }
+
+  /**
+   * Returns whether the messages sent to the replication servers are
+   * compressed.
+   *
+   * @return whether the messages sent to the replication servers are
+   *         compressed
+   */
+  public static boolean isSessionCompressionEnabled()
+  {
+    return sessionCompressionEnabled;
+  }
+
+  private static boolean isSessionCompressionEnabled(ReplicationSynchronizationProviderCfg cfg)
+  {
+    return cfg.getSessionCompression() == SessionCompression.DEFLATE;
+  }
 }
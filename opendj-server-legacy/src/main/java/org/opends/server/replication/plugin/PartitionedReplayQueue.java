@@ -0,0 +1,294 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The queue of the updates to be replayed, split in partitions which are each
+ * consumed by a single replay thread.
+ * <p>
+ * The updates are assigned to a partition according to the DN of their target
+ * entry, so that the updates of an entry are replayed one after the other, in
+ * the order they were received, while the updates of different entries are
+ * replayed in parallel. The dependencies between the updates of different
+ * entries are handled by {@link RemotePendingChanges}.
+ * <p>
+ * The capacity of the queue is shared by all the partitions. This is not a
+ * {@link BlockingQueue}: the replay threads can only wait for the updates of
+ * their own partition.
+ */
+final class PartitionedReplayQueue
+{
+  /** The free slots of this queue. */
+  private final Semaphore freeSlots;
+  /** Guards the replacement of the partitions. */
+  private final ReentrantReadWriteLock partitionsLock = new ReentrantReadWriteLock();
+  /** The partitions, only replaced while holding the write lock of {@link #partitionsLock}. */
+  private volatile List<BlockingQueue<UpdateToReplay>> partitions;
+
+  /**
+   * Creates a new partitioned replay queue.
+   *
+   * @param capacity
+   *          the maximum number of updates in this queue
+   * @param partitionCount
+   *          the number of partitions of this queue
+   */
+  PartitionedReplayQueue(int capacity, int partitionCount)
+  {
+    this.freeSlots = new Semaphore(capacity);
+    this.partitions = newPartitions(partitionCount);
+  }
+
+  private static List<BlockingQueue<UpdateToReplay>> newPartitions(int partitionCount)
+  {
+    final List<BlockingQueue<UpdateToReplay>> partitions = new ArrayList<>(partitionCount);
+    for (int i = 0; i < partitionCount; i++)
+    {
+      // The capacity is enforced by the free slots
+      partitions.add(new LinkedBlockingQueue<UpdateToReplay>());
+    }
+    return partitions;
+  }
+
+  /**
+   * Returns the number of partitions of this queue.
+   *
+   * @return the number of partitions of this queue
+   */
+  int getPartitionCount()
+  {
+    return partitions.size();
+  }
+
+  /**
+   * Changes the number of partitions of this queue, and moves the queued updates
+   * to their new partition, keeping their order.
+   * <p>
+   * This method must not be called while updates are being polled from this
+   * queue.
+   *
+   * @param partitionCount
+   *          the new number of partitions of this queue
+   */
+  void setPartitionCount(int partitionCount)
+  {
+    partitionsLock.writeLock().lock();
+    try
+    {
+      final List<BlockingQueue<UpdateToReplay>> oldPartitions = partitions;
+      if (oldPartitions.size() == partitionCount)
+      {
+        return;
+      }
+      final List<BlockingQueue<UpdateToReplay>> newPartitions = newPartitions(partitionCount);
+      final List<UpdateToReplay> updates = new ArrayList<>();
+      for (BlockingQueue<UpdateToReplay> oldPartition : oldPartitions)
+      {
+        // Removed from the old partition, so that a late poll cannot return an update which was moved
+        oldPartition.drainTo(updates);
+        for (UpdateToReplay update : updates)
+        {
+          newPartitions.get(partitionOf(update, partitionCount)).add(update);
+        }
+        updates.clear();
+      }
+      partitions = newPartitions;
+    }
+    finally
+    {
+      partitionsLock.writeLock().unlock();
+    }
+  }
+
+  private static int partitionOf(UpdateToReplay update, int partitionCount)
+  {
+    final int hash = update.getUpdateMessage().getDN().hashCode();
+    return (hash & Integer.MAX_VALUE) % partitionCount;
+  }
+
+  /** Returns the provided partition, or {@code null} if there are fewer partitions now. */
+  private BlockingQueue<UpdateToReplay> getPartition(int partition)
+  {
+    partitionsLock.readLock().lock();
+    try
+    {
+      final List<BlockingQueue<UpdateToReplay>> currentPartitions = partitions;
+      return partition < currentPartitions.size() ? currentPartitions.get(partition) : null;
+    }
+    finally
+    {
+      partitionsLock.readLock().unlock();
+    }
+  }
+
+  private void enqueue(UpdateToReplay update)
+  {
+    partitionsLock.readLock().lock();
+    try
+    {
+      final List<BlockingQueue<UpdateToReplay>> currentPartitions = partitions;
+      currentPartitions.get(partitionOf(update, currentPartitions.size())).add(update);
+    }
+    finally
+    {
+      partitionsLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves and removes the next update of the provided partition, waiting up
+   * to the specified wait time if necessary for an update to become available.
+   *
+   * @param partition
+   *          the partition, between 0 and the number of partitions excluded
+   * @param timeout
+   *          how long to wait before giving up, in units of {@code unit}
+   * @param unit
+   *          the unit of the timeout
+   * @return the next update of the provided partition, or {@code null} if the
+   *         specified waiting time elapses before an update is available
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  UpdateToReplay poll(int partition, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    final BlockingQueue<UpdateToReplay> queue = getPartition(partition);
+    if (queue == null)
+    {
+      // This partition was removed since the caller started polling it
+      unit.sleep(timeout);
+      return null;
+    }
+    final UpdateToReplay update = queue.poll(timeout, unit);
+    if (update != null)
+    {
+      freeSlots.release();
+    }
+    return update;
+  }
+
+  /**
+   * Inserts the provided update in this queue if there is room for it.
+   *
+   * @param update
+   *          the update to insert
+   * @return {@code true} if the update was inserted, {@code false} if this
+   *         queue is full
+   */
+  boolean offer(UpdateToReplay update)
+  {
+    if (freeSlots.tryAcquire())
+    {
+      enqueue(update);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Inserts the provided update in this queue, waiting up to the specified wait
+   * time if necessary for room to become available.
+   *
+   * @param update
+   *          the update to insert
+   * @param timeout
+   *          how long to wait before giving up, in units of {@code unit}
+   * @param unit
+   *          the unit of the timeout
+   * @return {@code true} if the update was inserted, {@code false} if the
+   *         specified waiting time elapses before room is available
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  boolean offer(UpdateToReplay update, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    if (freeSlots.tryAcquire(timeout, unit))
+    {
+      enqueue(update);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Inserts the provided update in this queue, waiting if necessary for room to
+   * become available.
+   *
+   * @param update
+   *          the update to insert
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  void put(UpdateToReplay update) throws InterruptedException
+  {
+    freeSlots.acquire();
+    enqueue(update);
+  }
+
+  /**
+   * Retrieves and removes an update of any partition without waiting. The order
+   * of the updates of an entry is only kept if a single thread polls this queue.
+   *
+   * @return an update of this queue, or {@code null} if this queue is empty
+   */
+  UpdateToReplay poll()
+  {
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      final UpdateToReplay update = partition.poll();
+      if (update != null)
+      {
+        freeSlots.release();
+        return update;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of updates which can be inserted in this queue without
+   * waiting.
+   *
+   * @return the number of updates which can be inserted without waiting
+   */
+  int remainingCapacity()
+  {
+    return freeSlots.availablePermits();
+  }
+
+  /**
+   * Returns the number of updates in this queue.
+   *
+   * @return the number of updates in this queue
+   */
+  int size()
+  {
+    int size = 0;
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      size += partition.size();
+    }
+    return size;
+  }
+}
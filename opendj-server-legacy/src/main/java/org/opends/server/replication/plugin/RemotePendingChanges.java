@@ -16,14 +16,23 @@
  */
 package org.opends.server.replication.plugin;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.jcip.annotations.GuardedBy;
@@ -49,32 +58,107 @@ import org.opends.server.types.Operation;
  *
  * It is used to know when the ServerState must be updated and to compute
  * the dependencies between operations.
+ * <p>
+ * A change depends on the older changes which are not committed yet and which
+ * target the same entry, or a related entry as described by the
+ * {@code checkDependencies()} methods. The uncommitted changes are indexed by
+ * DN, so that the dependencies of a change are found without going through
+ * all the uncommitted changes, and without requiring the changes to be marked
+ * in progress in CSN order.
  *
  * One of this object is instantiated for each ReplicationDomain.
  */
 final class RemotePendingChanges
 {
+  /** Indexes changes by DN. */
+  private static final class DNIndex
+  {
+    private final Map<DN, Set<PendingChange>> changesByDN = new HashMap<>();
+    private final Map<PendingChange, List<DN>> dnsByChange = new HashMap<>();
+
+    private void add(DN dn, PendingChange change)
+    {
+      Set<PendingChange> changes = changesByDN.get(dn);
+      if (changes == null)
+      {
+        changes = new HashSet<>();
+        changesByDN.put(dn, changes);
+      }
+      if (changes.add(change))
+      {
+        List<DN> dns = dnsByChange.get(change);
+        if (dns == null)
+        {
+          dns = new ArrayList<>(2);
+          dnsByChange.put(change, dns);
+        }
+        dns.add(dn);
+      }
+    }
+
+    private void remove(PendingChange change)
+    {
+      final List<DN> dns = dnsByChange.remove(change);
+      if (dns != null)
+      {
+        for (DN dn : dns)
+        {
+          final Set<PendingChange> changes = changesByDN.get(dn);
+          changes.remove(change);
+          if (changes.isEmpty())
+          {
+            changesByDN.remove(dn);
+          }
+        }
+      }
+    }
+
+    private void addOlderChanges(DN dn, CSN csn, Collection<PendingChange> result)
+    {
+      final Set<PendingChange> changes = changesByDN.get(dn);
+      if (changes != null)
+      {
+        for (PendingChange change : changes)
+        {
+          if (change.getCSN().isOlderThan(csn))
+          {
+            result.add(change);
+          }
+        }
+      }
+    }
+  }
+
   /** A map used to store the pending changes. */
   @GuardedBy("pendingChangesLock")
   private final SortedMap<CSN, PendingChange> pendingChanges = new TreeMap<>();
+  /**
+   * The uncommitted changes, indexed by their target DN, and by their new DN
+   * for the modify DN changes.
+   */
+  @GuardedBy("pendingChangesLock")
+  private final DNIndex changesByDN = new DNIndex();
+  /**
+   * The uncommitted delete and modify DN changes, indexed by each superior DN
+   * of their target DN.
+   */
+  @GuardedBy("pendingChangesLock")
+  private final DNIndex changesBySuperiorDN = new DNIndex();
 
   /**
    * A sorted set containing the list of PendingChanges that have
    * not been replayed correctly because they are dependent on
    * another change to be completed.
    */
-  @GuardedBy("dependentChangesLock")
-  private final SortedSet<PendingChange> dependentChanges = new TreeSet<>();
-  /**
-   * {@code activeAndDependentChanges} also contains changes discovered to be dependent
-   * on currently in progress changes.
-   */
+  private final ConcurrentSkipListSet<PendingChange> dependentChanges = new ConcurrentSkipListSet<>();
+  /** The changes currently being replayed, including the changes discovered to be dependent. */
   private final ConcurrentSkipListSet<PendingChange> activeAndDependentChanges = new ConcurrentSkipListSet<>();
+  /** The number of times a change could not be replayed because of a dependency. */
+  private final AtomicLong dependencyStalls = new AtomicLong();
 
-  private final ReentrantReadWriteLock pendingChangesLock = new ReentrantReadWriteLock(true);
+  private final ReentrantReadWriteLock pendingChangesLock = new ReentrantReadWriteLock();
   private final ReentrantReadWriteLock.ReadLock pendingChangesReadLock = pendingChangesLock.readLock();
   private final ReentrantReadWriteLock.WriteLock pendingChangesWriteLock = pendingChangesLock.writeLock();
-  private final ReentrantLock dependentChangesLock = new ReentrantLock();
 
   /** The ServerState that will be updated when LDAPUpdateMsg are fully replayed. */
   private final ServerState state;
@@ -125,15 +209,18 @@ final class RemotePendingChanges
    */
   public int getDependentChangesSize()
   {
-    dependentChangesLock.lock();
-    try
-    {
-      return dependentChanges.size();
-    }
-    finally
-    {
-      dependentChangesLock.unlock();
-    }
+    return dependentChanges.size();
+  }
+
+  /**
+   * Returns the number of times a change could not be replayed because it depended on another
+   * change.
+   *
+   * @return the number of times a change could not be replayed because of a dependency
+   */
+  public long getDependencyStallCount()
+  {
+    return dependencyStalls.get();
   }
 
   /**
@@ -151,7 +238,14 @@ final class RemotePendingChanges
     try
     {
       CSN csn = update.getCSN();
-      return pendingChanges.put(csn, new PendingChange(csn, null, update)) == null;
+      PendingChange change = new PendingChange(csn, null, update);
+      PendingChange previousChange = pendingChanges.put(csn, change);
+      if (previousChange != null)
+      {
+        removeFromIndexes(previousChange);
+      }
+      addToIndexes(change);
+      return previousChange == null;
     }
     finally
     {
@@ -159,6 +253,37 @@ final class RemotePendingChanges
     }
   }
 
+  @GuardedBy("pendingChangesLock")
+  private void addToIndexes(PendingChange change)
+  {
+    final LDAPUpdateMsg msg = change.getLDAPUpdateMsg();
+    final DN targetDN = msg.getDN();
+    changesByDN.add(targetDN, change);
+    if (msg instanceof ModifyDNMsg)
+    {
+      final DN newDN = ((ModifyDNMsg) msg).getNewDN();
+      if (newDN != null)
+      {
+        changesByDN.add(newDN, change);
+      }
+    }
+    if (msg instanceof DeleteMsg || msg instanceof ModifyDNMsg)
+    {
+      for (DN superiorDN = targetDN.parent(); superiorDN != null && !superiorDN.isRootDN();
+          superiorDN = superiorDN.parent())
+      {
+        changesBySuperiorDN.add(superiorDN, change);
+      }
+    }
+  }
+
+  @GuardedBy("pendingChangesLock")
+  private void removeFromIndexes(PendingChange change)
+  {
+    changesByDN.remove(change);
+    changesBySuperiorDN.remove(change);
+  }
+
   /**
    * Mark an update message as committed.
    *
@@ -177,6 +302,7 @@ final class RemotePendingChanges
       }
       curChange.setCommitted(true);
       activeAndDependentChanges.remove(curChange);
+      removeFromIndexes(curChange);
 
       final Iterator<PendingChange> it = pendingChanges.values().iterator();
       while (it.hasNext())
@@ -199,18 +325,21 @@ final class RemotePendingChanges
     }
   }
 
+  /**
+   * Marks the provided update message as being replayed.
+   *
+   * @param msg
+   *          the update message being replayed
+   */
   public void markInProgress(LDAPUpdateMsg msg)
   {
-    pendingChangesReadLock.lock();
-    try
+    final PendingChange change = getPendingChange(msg.getCSN());
+    if (change != null)
     {
-      activeAndDependentChanges.add(pendingChanges.get(msg.getCSN()));
-    }
-    finally
-    {
-      pendingChangesReadLock.unlock();
+      activeAndDependentChanges.add(change);
     }
   }
+
   /**
    * Get the first update in the list that have some dependencies cleared.
    *
@@ -219,67 +348,119 @@ final class RemotePendingChanges
   public LDAPUpdateMsg getNextUpdate()
   {
     pendingChangesReadLock.lock();
-    dependentChangesLock.lock();
     try
     {
-      if (!dependentChanges.isEmpty())
+      for (PendingChange firstDependentChange : dependentChanges)
       {
-        PendingChange firstDependentChange = dependentChanges.first();
-        if (pendingChanges.firstKey().isNewerThanOrEqualTo(firstDependentChange.getCSN()))
+        if (!pendingChanges.firstKey().isNewerThanOrEqualTo(firstDependentChange.getCSN()))
+        {
+          return null;
+        }
+        if (dependentChanges.remove(firstDependentChange))
         {
-          dependentChanges.remove(firstDependentChange);
           return firstDependentChange.getLDAPUpdateMsg();
         }
+        // Another replay thread took this change: try the next one
       }
       return null;
     }
     finally
     {
-      dependentChangesLock.unlock();
       pendingChangesReadLock.unlock();
     }
   }
 
   /**
-   * Mark the first pendingChange as dependent on the second PendingChange.
-   * @param dependentChange The PendingChange that depend on the second
-   *                        PendingChange.
+   * Mark the pendingChange as dependent on other PendingChanges.
+   *
+   * @param dependentChange
+   *          The PendingChange that depends on other PendingChanges.
    */
   private void addDependency(PendingChange dependentChange)
   {
-    dependentChangesLock.lock();
+    dependentChanges.add(dependentChange);
+    dependencyStalls.incrementAndGet();
+  }
+
+  private boolean recordDependencies(PendingChange change, boolean hasDependencies)
+  {
+    if (hasDependencies)
+    {
+      addDependency(change);
+    }
+    return hasDependencies;
+  }
+
+  private PendingChange getPendingChange(CSN csn)
+  {
+    pendingChangesReadLock.lock();
     try
     {
-      dependentChanges.add(dependentChange);
+      return pendingChanges.get(csn);
     }
     finally
     {
-      dependentChangesLock.unlock();
+      pendingChangesReadLock.unlock();
     }
   }
 
-  private PendingChange getPendingChange(CSN csn)
+  /**
+   * Returns the uncommitted changes older than the provided CSN, which target
+   * one of the provided DNs, or which are a delete or modify DN change
+   * targeting a subordinate of the provided superior DN.
+   *
+   * @param csn
+   *          the CSN of the change whose dependencies are looked for
+   * @param dns
+   *          the DNs, some of which may be {@code null}
+   * @param superiorDN
+   *          the superior DN, or {@code null}
+   * @return the uncommitted changes older than the provided CSN, in CSN order
+   */
+  private SortedSet<PendingChange> getOlderChanges(CSN csn, Collection<DN> dns, DN superiorDN)
   {
+    final SortedSet<PendingChange> changes = new TreeSet<>();
     pendingChangesReadLock.lock();
     try
     {
-      return pendingChanges.get(csn);
+      for (DN dn : dns)
+      {
+        if (dn != null)
+        {
+          changesByDN.addOlderChanges(dn, csn, changes);
+        }
+      }
+      if (superiorDN != null)
+      {
+        changesBySuperiorDN.addOlderChanges(superiorDN, csn, changes);
+      }
     }
     finally
     {
       pendingChangesReadLock.unlock();
     }
+    return changes;
+  }
+
+  /** Returns the provided DN and all its superior DNs. */
+  private static List<DN> withSuperiorDNs(DN dn)
+  {
+    final List<DN> dns = new ArrayList<>();
+    for (DN superiorDN = dn; superiorDN != null && !superiorDN.isRootDN(); superiorDN = superiorDN.parent())
+    {
+      dns.add(superiorDN);
+    }
+    return dns;
   }
 
   /**
    * Check if the given AddOperation has some dependencies on any
-   * currently running previous operation.
+   * previous operation not committed yet.
    * Update the dependency list in the associated PendingChange if
    * there are some dependencies.
    * AddOperation depends on
    *
-   * - DeleteOperation done on the same DN
-   * - ModifyDnOperation with the same target DN as the ADD DN
+   * - Any operation done on the same DN
    * - ModifyDnOperation with new DN equals to the ADD DN parent
    * - AddOperation done on the parent DN of the ADD DN
    *
@@ -298,22 +479,13 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = op.getEntryDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    for (PendingChange pendingChange : getOlderChanges(csn, withSuperiorDNs(targetDN), null))
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
-      {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
-        break;
-      }
       final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-      if (pendingMsg instanceof DeleteMsg)
+      if (pendingMsg.getDN().equals(targetDN))
       {
-        if (pendingMsg.getDN().equals(targetDN))
-        {
-          // it is a deleteOperation on the same DN
-          hasDependencies = true;
-          addDependency(change);
-        }
+        // it is an older operation on the same DN
+        hasDependencies = true;
       }
       else if (pendingMsg instanceof AddMsg)
       {
@@ -321,40 +493,29 @@ final class RemotePendingChanges
         {
           // it is an addOperation on a parent of the current AddOperation
           hasDependencies = true;
-          addDependency(change);
         }
       }
       else if (pendingMsg instanceof ModifyDNMsg)
       {
-        // it is a ModifyDnOperation with the same target DN as the ADD DN
-        // or a ModifyDnOperation with new DN equals to the ADD DN parent?
-        if (pendingMsg.getDN().equals(targetDN))
+        // it is a ModifyDnOperation with new DN equals to the ADD DN parent?
+        final ModifyDNMsg pendingModDn = (ModifyDNMsg) pendingMsg;
+        if (pendingModDn.newDNIsParent(targetDN))
         {
           hasDependencies = true;
-          addDependency(change);
-        }
-        else
-        {
-          final ModifyDNMsg pendingModDn = (ModifyDNMsg) pendingMsg;
-          if (pendingModDn.newDNIsParent(targetDN))
-          {
-            hasDependencies = true;
-            addDependency(change);
-          }
         }
       }
     }
-    return hasDependencies;
+    return recordDependencies(change, hasDependencies);
   }
 
   /**
    * Check if the given ModifyOperation has some dependencies on any
-   * currently running previous operation.
+   * previous operation not committed yet.
    * Update the dependency list in the associated PendingChange if
    * there are some dependencies.
    *
    * ModifyOperation depends on
-   * - AddOperation done on the same DN
+   * - Any operation done on the same DN
    * - ModifyDNOperation having newDN the same as targetDN
    *
    * @param op The ModifyOperation to be checked.
@@ -372,43 +533,33 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = change.getLDAPUpdateMsg().getDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    for (PendingChange pendingChange : getOlderChanges(csn, Collections.singletonList(targetDN), null))
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
-      {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
-        break;
-      }
       final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-      if (pendingMsg instanceof AddMsg)
+      if (pendingMsg.getDN().equals(targetDN))
       {
-        if (pendingMsg.getDN().equals(targetDN))
-        {
-          // it is an addOperation on a same DN
-          hasDependencies = true;
-          addDependency(change);
-        }
+        // it is an older operation on the same DN
+        hasDependencies = true;
       }
       else if (pendingMsg instanceof ModifyDNMsg)
       {
         if (((ModifyDNMsg) pendingMsg).newDNIsEqual(targetDN))
         {
           hasDependencies = true;
-          addDependency(change);
         }
       }
     }
-    return hasDependencies;
+    return recordDependencies(change, hasDependencies);
   }
 
   /**
    * Check if the given ModifyDNMsg has some dependencies on any
-   * currently running previous operation.
+   * previous operation not committed yet.
    * Update the dependency list in the associated PendingChange if
    * there are some dependencies.
    *
    * Modify DN Operation depends on
-   * - AddOperation done on the same DN as the target DN of the MODDN operation
+   * - Any operation done on the same DN as the target DN of the MODDN operation
    * - AddOperation done on the new parent of the MODDN  operation
    * - DeleteOperation done on the new DN of the MODDN operation
    * - ModifyDNOperation done from the new DN of the MODDN operation
@@ -430,22 +581,23 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = change.getLDAPUpdateMsg().getDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    final DN newDN = msg.getNewDN();
+    final DN newParentDN = newDN != null ? newDN.parent() : null;
+    for (PendingChange pendingChange : getOlderChanges(csn, Arrays.asList(targetDN, newDN, newParentDN), null))
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
+      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
+      if (pendingMsg.getDN().equals(targetDN))
       {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
-        break;
+        // it is an older operation on the same DN
+        hasDependencies = true;
       }
-      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-      if (pendingMsg instanceof DeleteMsg)
+      else if (pendingMsg instanceof DeleteMsg)
       {
         // Check if the target of the Delete is the same
         // as the new DN of this ModifyDN
         if (msg.newDNIsEqual(pendingMsg.getDN()))
         {
           hasDependencies = true;
-          addDependency(change);
         }
       }
       else if (pendingMsg instanceof AddMsg)
@@ -455,14 +607,6 @@ final class RemotePendingChanges
         if (msg.newParentIsEqual(pendingMsg.getDN()))
         {
           hasDependencies = true;
-          addDependency(change);
-        }
-        // Check if the AddOperation was done on the same DN as the
-        // target DN of the MODDN operation
-        if (pendingMsg.getDN().equals(targetDN))
-        {
-          hasDependencies = true;
-          addDependency(change);
         }
       }
       else if (pendingMsg instanceof ModifyDNMsg)
@@ -471,23 +615,22 @@ final class RemotePendingChanges
         {
           // the ModifyDNOperation was done from the new DN of the MODDN operation
           hasDependencies = true;
-          addDependency(change);
         }
       }
     }
-    return hasDependencies;
+    return recordDependencies(change, hasDependencies);
   }
 
   /**
    * Check if the given DeleteOperation has some dependencies on any
-   * currently running previous operation.
+   * previous operation not committed yet.
    * Update the dependency list in the associated PendingChange if
    * there are some dependencies.
    *
    * DeleteOperation depends on
+   * - Any operation done on the same DN
    * - DeleteOperation done on children DN
    * - ModifyDnOperation with target DN that are children of the DEL DN
-   * - AddOperation done on the same DN
    *
    *
    * @param op The DeleteOperation to be checked.
@@ -505,15 +648,15 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = op.getEntryDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    for (PendingChange pendingChange : getOlderChanges(csn, withSuperiorDNs(targetDN), targetDN))
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
+      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
+      if (pendingMsg.getDN().equals(targetDN))
       {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
-        break;
+        // it is an older operation on the same DN
+        hasDependencies = true;
       }
-      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-      if (pendingMsg instanceof DeleteMsg)
+      else if (pendingMsg instanceof DeleteMsg)
       {
           /*
            * Check if the operation to be run is a deleteOperation on a
@@ -522,19 +665,6 @@ final class RemotePendingChanges
         if (pendingMsg.getDN().isSubordinateOrEqualTo(targetDN))
         {
           hasDependencies = true;
-          addDependency(change);
-        }
-      }
-      else if (pendingMsg instanceof AddMsg)
-      {
-          /*
-           * Check if the operation to be run is an addOperation on a
-           * parent of the current DeleteOperation.
-           */
-        if (pendingMsg.getDN().equals(targetDN))
-        {
-          hasDependencies = true;
-          addDependency(change);
         }
       }
       else if (pendingMsg instanceof ModifyDNMsg)
@@ -547,11 +677,10 @@ final class RemotePendingChanges
         if (pendingMsg.getDN().isSubordinateOrEqualTo(targetDN) || pendingModDn.newDNIsParent(targetDN))
         {
           hasDependencies = true;
-          addDependency(change);
         }
       }
     }
-    return hasDependencies;
+    return recordDependencies(change, hasDependencies);
   }
 
   /**
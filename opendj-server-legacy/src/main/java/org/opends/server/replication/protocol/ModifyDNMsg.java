@@ -368,6 +368,23 @@ public class ModifyDNMsg extends ModifyCommonMsg
     return parentDn.child(RDN.valueOf(newRDN));
   }
 
+  /**
+   * Returns the new DN that the entry should have after this operation.
+   *
+   * @return the new DN, or {@code null} if it cannot be decoded
+   */
+  public DN getNewDN()
+  {
+    try
+    {
+      return computeNewDN();
+    }
+    catch (LocalizedIllegalArgumentException e)
+    {
+      return null;
+    }
+  }
+
   /**
    * Check if this MSG will change the DN of the target entry to be
    * the same as the dn given as a parameter.
@@ -26,13 +26,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.net.ssl.SSLSocket;
 
@@ -43,16 +48,49 @@ import org.opends.server.util.StaticUtils;
 
 /**
  * This class defines a replication session using TLS.
+ * <p>
+ * Until the start messages are exchanged, and with peers using a protocol
+ * version older than {@link ProtocolVersion#REPLICATION_PROTOCOL_V9}, each
+ * message is preceded by its length written as 8 hexadecimal characters.
+ * <p>
+ * Afterwards, with peers using protocol version 9 or later, the messages are
+ * sent in frames, each holding one or several messages. A frame starts with a
+ * flags byte and the 4 bytes length of the rest of the frame. The frame then
+ * holds each message preceded by its 4 bytes length. When the compressed flag
+ * is set, the frame instead holds the 4 bytes length of these messages once
+ * uncompressed, followed by the messages compressed with deflate. Compression
+ * uses a single deflate stream for the whole session, flushed at the end of
+ * each frame.
+ * <p>
+ * In both cases, the output is only flushed when no other message is waiting
+ * to be sent, so that messages sent under load share TCP packets.
  */
 public final class Session extends DirectoryThread implements Closeable
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** The flag of the compressed frames. */
+  private static final byte FRAME_COMPRESSED = 0x01;
+  /** The length of the header of a frame. */
+  private static final int FRAME_HEADER_LENGTH = 5;
+  /** The size above which no more messages are added to a frame. */
+  private static final int MAX_FRAME_SIZE = 64 * 1024;
+  /** The maximum length of a message received in a frame. */
+  private static final int MAX_MESSAGE_SIZE = 256 * 1024 * 1024;
+  /**
+   * The maximum length of a frame received: the messages preceding the last message of a frame take
+   * less than {@link #MAX_FRAME_SIZE} bytes, plus 4 bytes each for their length.
+   */
+  private static final int MAX_RECEIVED_FRAME_SIZE = MAX_MESSAGE_SIZE + 5 * MAX_FRAME_SIZE;
+  /** The maximum ratio between the uncompressed and the compressed lengths of deflated data. */
+  private static final int MAX_COMPRESSION_RATIO = 1032;
+
   private final Socket plainSocket;
   private final SSLSocket secureSocket;
   private final InputStream plainInput;
   private final OutputStream plainOutput;
   private final byte[] rcvLengthBuf = new byte[8];
+  private final byte[] rcvFrameHeaderBuf = new byte[FRAME_HEADER_LENGTH];
   private final String readableRemoteAddress;
   private final HostPort remoteAddress;
   private final HostPort localUrl;
@@ -75,7 +113,7 @@ public final class Session extends DirectoryThread implements Closeable
    * Publish guarded by publishLock: use a full lock here so that we can
    * optionally publish StopMsg during close.
    */
-  private final Lock publishLock = new ReentrantLock();
+  private final ReentrantLock publishLock = new ReentrantLock();
 
   /**
    * These do not need synchronization because they are only modified during the
@@ -84,6 +122,17 @@ public final class Session extends DirectoryThread implements Closeable
   private short protocolVersion = ProtocolVersion.getCurrentVersion();
   /** Initially encrypted. */
   private boolean isEncrypted = true;
+  /** Whether messages are sent and received in frames. */
+  private boolean isFramed;
+
+  /** Compresses the frames sent, guarded by publishLock. Null when they are not compressed. */
+  private Deflater deflater;
+  private byte[] compressBuf = new byte[MAX_FRAME_SIZE];
+  /** Decompresses the frames received, only used by the receiving thread. */
+  private Inflater inflater;
+  /** The messages of the last frame received, only used by the receiving thread. */
+  private byte[] rcvFrame = new byte[0];
+  private int rcvFramePosition;
 
   /**
    * Use a buffered input stream to avoid too many system calls.
@@ -201,6 +250,20 @@ public final class Session extends DirectoryThread implements Closeable
     }
 
     StaticUtils.close(plainSocket, secureSocket);
+
+    publishLock.lock();
+    try
+    {
+      if (deflater != null)
+      {
+        deflater.end();
+        deflater = null;
+      }
+    }
+    finally
+    {
+      publishLock.unlock();
+    }
   }
 
 
@@ -346,19 +409,43 @@ public final class Session extends DirectoryThread implements Closeable
    */
   private void send(final byte[] buffer) throws IOException
   {
-    final String str = String.format("%08x", buffer.length);
-    final byte[] sendLengthBuf = str.getBytes();
+    send(Collections.singletonList(buffer));
+  }
 
+  /**
+   * Sends replication messages already encoded to the socket.
+   *
+   * @param buffers
+   *          the encoded buffers
+   * @throws IOException
+   *           if the messages could not be sent
+   */
+  private void send(final List<byte[]> buffers) throws IOException
+  {
     publishLock.lock();
     try
     {
-      /*
-       * The buffered output stream ensures that the message is usually sent as
-       * a single TCP packet.
-       */
-      output.write(sendLengthBuf);
-      output.write(buffer);
-      output.flush();
+      if (isFramed)
+      {
+        writeFrame(buffers);
+      }
+      else
+      {
+        for (byte[] buffer : buffers)
+        {
+          /*
+           * The buffered output stream ensures that the message is usually sent
+           * as a single TCP packet.
+           */
+          output.write(String.format("%08x", buffer.length).getBytes());
+          output.write(buffer);
+        }
+      }
+      if (!publishLock.hasQueuedThreads())
+      {
+        // Otherwise, the next thread will flush the messages sent so far
+        output.flush();
+      }
     } catch (final IOException e) {
       setSessionError(e);
       throw e;
@@ -371,6 +458,80 @@ public final class Session extends DirectoryThread implements Closeable
     lastPublishTime = System.currentTimeMillis();
   }
 
+  private void writeFrame(final List<byte[]> buffers) throws IOException
+  {
+    int length = 0;
+    for (byte[] buffer : buffers)
+    {
+      length += 4 + buffer.length;
+    }
+
+    final byte[] header = new byte[FRAME_HEADER_LENGTH];
+    if (deflater == null)
+    {
+      putInt(header, 1, length);
+      output.write(header);
+      final byte[] lengthBuf = new byte[4];
+      for (byte[] buffer : buffers)
+      {
+        putInt(lengthBuf, 0, buffer.length);
+        output.write(lengthBuf);
+        output.write(buffer);
+      }
+      return;
+    }
+
+    final byte[] frame = new byte[4 + length];
+    putInt(frame, 0, length);
+    int position = 4;
+    for (byte[] buffer : buffers)
+    {
+      putInt(frame, position, buffer.length);
+      System.arraycopy(buffer, 0, frame, position + 4, buffer.length);
+      position += 4 + buffer.length;
+    }
+    final int compressedLength = compress(frame, 4, length);
+    header[0] = FRAME_COMPRESSED;
+    putInt(header, 1, 4 + compressedLength);
+    output.write(header);
+    output.write(frame, 0, 4);
+    output.write(compressBuf, 0, compressedLength);
+  }
+
+  /** Compresses the provided bytes in the compression buffer, and returns the length of the result. */
+  private int compress(final byte[] buffer, final int offset, final int length)
+  {
+    deflater.setInput(buffer, offset, length);
+    int compressedLength = 0;
+    do
+    {
+      if (compressedLength == compressBuf.length)
+      {
+        compressBuf = Arrays.copyOf(compressBuf, compressBuf.length * 2);
+      }
+      compressedLength += deflater.deflate(
+          compressBuf, compressedLength, compressBuf.length - compressedLength, Deflater.SYNC_FLUSH);
+    }
+    while (compressedLength == compressBuf.length);
+    return compressedLength;
+  }
+
+  private static void putInt(final byte[] buffer, final int offset, final int value)
+  {
+    buffer[offset] = (byte) (value >>> 24);
+    buffer[offset + 1] = (byte) (value >>> 16);
+    buffer[offset + 2] = (byte) (value >>> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+
+  private static int getInt(final byte[] buffer, final int offset)
+  {
+    return (buffer[offset] & 0xFF) << 24
+        | (buffer[offset + 1] & 0xFF) << 16
+        | (buffer[offset + 2] & 0xFF) << 8
+        | (buffer[offset + 3] & 0xFF);
+  }
+
 
 
   /**
@@ -399,32 +560,128 @@ public final class Session extends DirectoryThread implements Closeable
        */
       lastReceiveTime = System.currentTimeMillis();
 
-      // Read the first 8 bytes containing the packet length.
-      read(rcvLengthBuf);
-      final int totalLength = Integer.parseInt(new String(rcvLengthBuf), 16);
+      final byte[] buffer = isFramed ? receiveFramedMessage() : receiveMessage();
 
-      try
-      {
-        final byte[] buffer = new byte[totalLength];
-        read(buffer);
+      /*
+       * We do not want the heartbeat to close the session when we are
+       * processing a message even a time consuming one.
+       */
+      lastReceiveTime = 0;
+      return ReplicationMsg.generateMsg(buffer, protocolVersion);
+    }
+    catch (final IOException | DataFormatException | NotSupportedOldVersionPDUException | RuntimeException e)
+    {
+      setSessionError(e);
+      throw e;
+    }
+  }
 
-        /*
-         * We do not want the heartbeat to close the session when we are
-         * processing a message even a time consuming one.
-         */
-        lastReceiveTime = 0;
-        return ReplicationMsg.generateMsg(buffer, protocolVersion);
+  private byte[] receiveMessage() throws IOException
+  {
+    // Read the first 8 bytes containing the packet length.
+    read(rcvLengthBuf);
+    final int totalLength = Integer.parseInt(new String(rcvLengthBuf), 16);
+    final byte[] buffer = newReceiveBuffer(totalLength);
+    read(buffer);
+    return buffer;
+  }
+
+  private byte[] receiveFramedMessage() throws IOException, DataFormatException
+  {
+    while (rcvFramePosition == rcvFrame.length)
+    {
+      receiveFrame();
+    }
+    if (rcvFrame.length - rcvFramePosition < 4)
+    {
+      throw new DataFormatException("Truncated message length in replication frame");
+    }
+    final int length = getInt(rcvFrame, rcvFramePosition);
+    rcvFramePosition += 4;
+    if (length < 0 || length > rcvFrame.length - rcvFramePosition)
+    {
+      throw new DataFormatException("Invalid message length in replication frame: " + length);
+    }
+    final byte[] buffer = Arrays.copyOfRange(rcvFrame, rcvFramePosition, rcvFramePosition + length);
+    rcvFramePosition += length;
+    return buffer;
+  }
+
+  private void receiveFrame() throws IOException, DataFormatException
+  {
+    read(rcvFrameHeaderBuf);
+    final byte flags = rcvFrameHeaderBuf[0];
+    final int length = getInt(rcvFrameHeaderBuf, 1);
+    if (length < 0 || length > MAX_RECEIVED_FRAME_SIZE)
+    {
+      throw invalidFrame("Invalid replication frame length: " + length);
+    }
+    final byte[] frame = newReceiveBuffer(length);
+    read(frame);
+
+    if ((flags & FRAME_COMPRESSED) == 0)
+    {
+      rcvFrame = frame;
+    }
+    else
+    {
+      if (length < 4)
+      {
+        throw new DataFormatException("Truncated compressed replication frame");
       }
-      catch (final OutOfMemoryError e)
+      final int uncompressedLength = getInt(frame, 0);
+      if (uncompressedLength < 0 || uncompressedLength > MAX_RECEIVED_FRAME_SIZE
+          || uncompressedLength > (long) (length - 4) * MAX_COMPRESSION_RATIO)
       {
-        throw new IOException("Packet too large, can't allocate "
-            + totalLength + " bytes.");
+        throw invalidFrame("Invalid uncompressed replication frame length: " + uncompressedLength);
       }
+      rcvFrame = newReceiveBuffer(uncompressedLength);
+      decompress(frame, 4, length - 4, rcvFrame);
     }
-    catch (final IOException | DataFormatException | NotSupportedOldVersionPDUException | RuntimeException e)
+    rcvFramePosition = 0;
+  }
+
+  /**
+   * Closes this session on a frame length which cannot have been sent by a sane peer, before
+   * allocating it: the next frames cannot be found anyway.
+   */
+  private DataFormatException invalidFrame(final String message)
+  {
+    final DataFormatException e = new DataFormatException(message);
+    setSessionError(e);
+    close();
+    return e;
+  }
+
+  private void decompress(final byte[] buffer, final int offset, final int length, final byte[] result)
+      throws DataFormatException
+  {
+    if (inflater == null)
     {
-      setSessionError(e);
-      throw e;
+      inflater = new Inflater();
+    }
+    inflater.setInput(buffer, offset, length);
+    int uncompressedLength = 0;
+    while (uncompressedLength < result.length)
+    {
+      final int inflated = inflater.inflate(result, uncompressedLength, result.length - uncompressedLength);
+      if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished()))
+      {
+        throw new DataFormatException("Truncated compressed replication frame");
+      }
+      uncompressedLength += inflated;
+    }
+  }
+
+  private byte[] newReceiveBuffer(final int length) throws IOException
+  {
+    try
+    {
+      return new byte[length];
+    }
+    catch (final OutOfMemoryError e)
+    {
+      throw new IOException("Packet too large, can't allocate " + length + " bytes.");
     }
   }
 
@@ -456,6 +713,39 @@ public final class Session extends DirectoryThread implements Closeable
   }
 
 
+  /**
+   * Starts sending and receiving the messages in frames, if the protocol version
+   * in use supports it.
+   * <p>
+   * Both peers must call this method at the same point of the handshake: right
+   * after the start messages were exchanged, and after
+   * {@link #stopEncryption()} if the session is not encrypted.
+   *
+   * @param compress
+   *          whether to compress the frames sent to the remote peer
+   */
+  public void startFraming(final boolean compress)
+  {
+    if (protocolVersion >= ProtocolVersion.REPLICATION_PROTOCOL_V9)
+    {
+      isFramed = true;
+      if (compress)
+      {
+        deflater = new Deflater(Deflater.BEST_SPEED);
+      }
+    }
+  }
+
+  /**
+   * Returns whether the frames sent to the remote peer are compressed.
+   *
+   * @return whether the frames sent to the remote peer are compressed
+   */
+  public boolean isCompressed()
+  {
+    return deflater != null;
+  }
+
   /**
    * Returns the version of the protocol that is currently used.
    *
@@ -535,18 +825,26 @@ public final class Session extends DirectoryThread implements Closeable
     boolean needClosing = false;
     while (!closeInitiated)
     {
-      byte[] buffer;
+      final List<byte[]> buffers = new ArrayList<>();
       try
       {
-        buffer = sendQueue.take();
+        buffers.add(sendQueue.take());
       }
       catch (InterruptedException ie)
       {
         break;
       }
+      // Send the messages queued meanwhile along, so that they are flushed together
+      int size = buffers.get(0).length;
+      byte[] buffer;
+      while (size < MAX_FRAME_SIZE && (buffer = sendQueue.poll()) != null)
+      {
+        buffers.add(buffer);
+        size += buffer.length;
+      }
       try
       {
-        send(buffer);
+        send(buffers);
       }
       catch (IOException e)
       {
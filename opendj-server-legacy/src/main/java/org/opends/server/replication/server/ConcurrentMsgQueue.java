@@ -0,0 +1,556 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.server;
+
+import static org.opends.messages.ReplicationMessages.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.protocol.UpdateMsg;
+
+/**
+ * An ordered queue of UpdateMsg filled by many producers and emptied by a
+ * single consumer, without any monitor.
+ * <p>
+ * As in {@link MsgQueue}, the order is defined by the order of the CSN of the
+ * UpdateMsg. The producers append the messages to a lock-free inbox and wake
+ * up the consumer if it is waiting. The consumer moves the messages from the
+ * inbox to an append-only ring buffer, as they mostly arrive in CSN order, and
+ * keeps the few messages arriving out of order in a sorted side map.
+ * <p>
+ * The queue is bounded by a number of messages and a number of bytes. The
+ * consumer drops the oldest messages when the queue is above these bounds.
+ * When the consumer lags far behind, the producers drop the oldest arrivals
+ * themselves to bound the memory used. The newest CSN dropped is recorded, so
+ * that the consumer can tell when it can follow this queue again.
+ * <p>
+ * The methods documented as consumer methods must only be called by the
+ * consumer thread.
+ */
+@ThreadSafe
+final class ConcurrentMsgQueue
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The minimum number of messages before the bound in bytes applies. */
+  private static final int MINIMUM_COUNT_FOR_BYTES_BOUND = 5;
+  /** Factor of the bounds of this queue above which the producers drop messages. */
+  private static final int PRODUCERS_BOUND_FACTOR = 2;
+
+  /** A message in this queue, with its arrival time. */
+  private static final class QueuedMsg
+  {
+    private final UpdateMsg update;
+    private final CSN csn;
+    private final int size;
+    private final long arrivalNanos;
+
+    private QueuedMsg(UpdateMsg update)
+    {
+      this.update = update;
+      this.csn = update.getCSN();
+      this.size = update.size();
+      this.arrivalNanos = System.nanoTime();
+    }
+  }
+
+  private final int maxCount;
+  private final long maxBytes;
+
+  /** The messages added by the producers and not moved yet by the consumer. */
+  private final ConcurrentLinkedQueue<QueuedMsg> inbox = new ConcurrentLinkedQueue<>();
+  /** The number of messages in this queue, either in the inbox or held by the consumer. */
+  private final AtomicInteger count = new AtomicInteger();
+  /** The total number of bytes of the messages in this queue. */
+  private final AtomicLong bytesCount = new AtomicLong();
+  /** Incremented by the producers before dropping a message from the inbox. */
+  private final AtomicInteger producerDrops = new AtomicInteger();
+  /** The newest CSN of the messages dropped from this queue. */
+  private final AtomicReference<CSN> newestDroppedCSN = new AtomicReference<>();
+  /** The consumer thread, while it waits for messages. */
+  private volatile Thread waitingConsumer;
+  /** The oldest CSN of the messages held by the consumer, for the other threads. */
+  private volatile CSN oldestHeldCSN;
+  /** The time between the arrival and the removal of the last message removed. */
+  private volatile long lastLatencyNanos;
+  private volatile boolean closed;
+
+  /** The messages held by the consumer in CSN order, as a ring buffer. Only accessed by the consumer. */
+  private QueuedMsg[] ring = new QueuedMsg[16];
+  private int ringHead;
+  private int ringSize;
+  /**
+   * The messages held by the consumer which arrived after a message with a
+   * newer CSN. Only accessed by the consumer.
+   */
+  private final TreeMap<CSN, QueuedMsg> outOfOrder = new TreeMap<>();
+  /** The value of producerDrops seen by the consumer. */
+  private int seenProducerDrops;
+
+  /**
+   * Creates a new queue.
+   *
+   * @param maxCount
+   *          the maximum number of messages in this queue
+   * @param maxBytes
+   *          the maximum number of bytes of the messages in this queue
+   */
+  ConcurrentMsgQueue(int maxCount, long maxBytes)
+  {
+    this.maxCount = maxCount;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Adds an UpdateMsg to this queue. Can be called by any thread.
+   *
+   * @param update
+   *          the UpdateMsg to add
+   */
+  void add(UpdateMsg update)
+  {
+    final QueuedMsg msg = new QueuedMsg(update);
+    count.incrementAndGet();
+    bytesCount.addAndGet(msg.size);
+    inbox.offer(msg);
+
+    if (isAboveBounds(PRODUCERS_BOUND_FACTOR))
+    {
+      dropOldestArrivals();
+    }
+
+    final Thread consumer = waitingConsumer;
+    if (consumer != null)
+    {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  private void dropOldestArrivals()
+  {
+    while (isAboveBounds(PRODUCERS_BOUND_FACTOR))
+    {
+      final QueuedMsg oldest = inbox.peek();
+      if (oldest == null)
+      {
+        return;
+      }
+      // Record the drop before removing the message, so that the consumer
+      // sees it before any message which arrived after the dropped one
+      recordDropped(oldest.csn);
+      producerDrops.incrementAndGet();
+      if (inbox.remove(oldest))
+      {
+        count.decrementAndGet();
+        bytesCount.addAndGet(-oldest.size);
+      }
+    }
+  }
+
+  private void recordDropped(CSN csn)
+  {
+    CSN newest = newestDroppedCSN.get();
+    while ((newest == null || csn.isNewerThan(newest)) && !newestDroppedCSN.compareAndSet(newest, csn))
+    {
+      newest = newestDroppedCSN.get();
+    }
+  }
+
+  private boolean isAboveBounds(int factor)
+  {
+    final int currentCount = count.get();
+    // ensure there is a minimum number of messages in queue to avoid wrong behavior
+    return currentCount > maxCount * factor
+        || (currentCount >= MINIMUM_COUNT_FOR_BYTES_BOUND && bytesCount.get() > maxBytes * factor);
+  }
+
+  /**
+   * Returns whether this queue is above its bounds, meaning its oldest messages
+   * will be dropped.
+   *
+   * @return whether this queue is above its bounds
+   */
+  boolean isAboveBounds()
+  {
+    return isAboveBounds(1);
+  }
+
+  /**
+   * Returns the number of messages in this queue.
+   *
+   * @return the number of messages in this queue
+   */
+  int count()
+  {
+    return count.get();
+  }
+
+  /**
+   * Returns the number of bytes of the messages in this queue.
+   *
+   * @return the number of bytes of the messages in this queue
+   */
+  long bytesCount()
+  {
+    return bytesCount.get();
+  }
+
+  /**
+   * Returns whether this queue contains no message.
+   *
+   * @return whether this queue contains no message
+   */
+  boolean isEmpty()
+  {
+    return count.get() == 0;
+  }
+
+  /**
+   * Returns the oldest CSN of the messages in this queue, or {@code null} if
+   * this queue is empty. The result is approximate while messages are added or
+   * removed.
+   *
+   * @return the oldest CSN of the messages in this queue
+   */
+  CSN getOldestCSN()
+  {
+    CSN oldest = oldestHeldCSN;
+    for (QueuedMsg msg : inbox)
+    {
+      if (oldest == null || msg.csn.isOlderThan(oldest))
+      {
+        oldest = msg.csn;
+      }
+    }
+    return oldest;
+  }
+
+  /**
+   * Returns the time between the arrival of the last message removed from this
+   * queue and its removal.
+   *
+   * @param unit
+   *          the unit of the result
+   * @return the time the last message removed spent in this queue
+   */
+  long getLastLatency(TimeUnit unit)
+  {
+    return unit.convert(lastLatencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Moves the messages added by the producers in CSN order, and drops the
+   * oldest messages if this queue is above its bounds. Consumer method.
+   *
+   * @return {@code true} if messages were dropped from this queue since the
+   *         previous call, {@code false} otherwise
+   */
+  boolean drain()
+  {
+    if (closed)
+    {
+      clear();
+      return false;
+    }
+    for (QueuedMsg msg = inbox.poll(); msg != null; msg = inbox.poll())
+    {
+      insert(msg);
+    }
+
+    boolean dropped = false;
+    while (isAboveBounds())
+    {
+      final QueuedMsg msg = pollFirst();
+      if (msg == null)
+      {
+        break;
+      }
+      recordDropped(msg.csn);
+      dropped = true;
+    }
+    // Read after the inbox, see dropOldestArrivals()
+    final int drops = producerDrops.get();
+    if (drops != seenProducerDrops)
+    {
+      seenProducerDrops = drops;
+      dropped = true;
+    }
+    publishOldestHeldCSN();
+    return dropped;
+  }
+
+  private void insert(QueuedMsg msg)
+  {
+    final CSN newest = getNewestHeldCSN();
+    if (newest == null || msg.csn.isNewerThan(newest))
+    {
+      appendToRing(msg);
+      return;
+    }
+
+    final int ringIndex = searchRing(msg.csn);
+    final QueuedMsg msgSameCSN = ringIndex >= 0 ? ringGet(ringIndex) : outOfOrder.get(msg.csn);
+    if (msgSameCSN == null)
+    {
+      outOfOrder.put(msg.csn, msg);
+      return;
+    }
+
+    // Adding 2 msgs with the same CSN is ok only when the 2 msgs are the same
+    count.decrementAndGet();
+    bytesCount.addAndGet(-msg.size);
+    try
+    {
+      if (msgSameCSN.update.getBytes().length != msg.update.getBytes().length
+          || msgSameCSN.update.isAssured() != msg.update.isAssured()
+          || msgSameCSN.update.getVersion() != msg.update.getVersion())
+      {
+        logger.error(ERR_RSQUEUE_DIFFERENT_MSGS_WITH_SAME_CSN, msgSameCSN.csn, msgSameCSN.update, msg.update);
+      }
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+    }
+  }
+
+  /** The messages of the side map are always older than the last message of the ring buffer. */
+  private CSN getNewestHeldCSN()
+  {
+    if (ringSize > 0)
+    {
+      return ringGet(ringSize - 1).csn;
+    }
+    return !outOfOrder.isEmpty() ? outOfOrder.lastKey() : null;
+  }
+
+  private void appendToRing(QueuedMsg msg)
+  {
+    if (ringSize == ring.length)
+    {
+      final QueuedMsg[] newRing = new QueuedMsg[ring.length * 2];
+      for (int i = 0; i < ringSize; i++)
+      {
+        newRing[i] = ringGet(i);
+      }
+      ring = newRing;
+      ringHead = 0;
+    }
+    ring[(ringHead + ringSize) & (ring.length - 1)] = msg;
+    ringSize++;
+  }
+
+  private QueuedMsg ringGet(int index)
+  {
+    return ring[(ringHead + index) & (ring.length - 1)];
+  }
+
+  /** Binary search of the ring buffer, returns the index of the CSN or a negative number. */
+  private int searchRing(CSN csn)
+  {
+    int low = 0;
+    int high = ringSize - 1;
+    while (low <= high)
+    {
+      final int middle = (low + high) >>> 1;
+      final int comparison = ringGet(middle).csn.compareTo(csn);
+      if (comparison < 0)
+      {
+        low = middle + 1;
+      }
+      else if (comparison > 0)
+      {
+        high = middle - 1;
+      }
+      else
+      {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  private QueuedMsg pollFirst()
+  {
+    final QueuedMsg ringFirst = ringSize > 0 ? ring[ringHead] : null;
+    final Map.Entry<CSN, QueuedMsg> outOfOrderFirst = outOfOrder.firstEntry();
+    final QueuedMsg first;
+    if (outOfOrderFirst != null && (ringFirst == null || outOfOrderFirst.getKey().isOlderThan(ringFirst.csn)))
+    {
+      first = outOfOrder.pollFirstEntry().getValue();
+    }
+    else if (ringFirst != null)
+    {
+      ring[ringHead] = null;
+      ringHead = (ringHead + 1) & (ring.length - 1);
+      ringSize--;
+      first = ringFirst;
+    }
+    else
+    {
+      return null;
+    }
+    count.decrementAndGet();
+    bytesCount.addAndGet(-first.size);
+    return first;
+  }
+
+  private void publishOldestHeldCSN()
+  {
+    final QueuedMsg ringFirst = ringSize > 0 ? ring[ringHead] : null;
+    final CSN outOfOrderFirst = !outOfOrder.isEmpty() ? outOfOrder.firstKey() : null;
+    if (ringFirst == null)
+    {
+      oldestHeldCSN = outOfOrderFirst;
+    }
+    else
+    {
+      oldestHeldCSN = outOfOrderFirst != null && outOfOrderFirst.isOlderThan(ringFirst.csn)
+          ? outOfOrderFirst : ringFirst.csn;
+    }
+  }
+
+  /**
+   * Removes and returns the oldest message held by the consumer, or returns
+   * {@code null} if there is none. Consumer method.
+   *
+   * @return the oldest message held by the consumer, or {@code null}
+   */
+  UpdateMsg removeFirst()
+  {
+    final QueuedMsg msg = pollFirst();
+    if (msg == null)
+    {
+      return null;
+    }
+    lastLatencyNanos = System.nanoTime() - msg.arrivalNanos;
+    publishOldestHeldCSN();
+    return msg.update;
+  }
+
+  /**
+   * Returns whether the consumer can stop reading the changelog and follow
+   * this queue from the provided message: the message is held by the
+   * consumer, and all the messages dropped from this queue are older.
+   * Consumer method.
+   *
+   * @param msg
+   *          the next message to send, read from the changelog
+   * @return whether the consumer can follow this queue from the provided
+   *         message
+   */
+  boolean canFollowFrom(UpdateMsg msg)
+  {
+    final CSN csn = msg.getCSN();
+    final CSN newestDropped = newestDroppedCSN.get();
+    return (newestDropped == null || csn.isNewerThan(newestDropped))
+        && (searchRing(csn) >= 0 || outOfOrder.containsKey(csn));
+  }
+
+  /**
+   * Removes all the messages held by the consumer up to and including the
+   * provided message. If the provided message is not held by the consumer,
+   * then all the messages are removed. Consumer method.
+   *
+   * @param finalMsg
+   *          the final message to reach when consuming messages from this queue
+   */
+  void consumeUpTo(UpdateMsg finalMsg)
+  {
+    final CSN finalCSN = finalMsg.getCSN();
+    QueuedMsg msg;
+    do
+    {
+      msg = pollFirst();
+    }
+    while (msg != null && !finalCSN.equals(msg.csn));
+    publishOldestHeldCSN();
+  }
+
+  /**
+   * Waits until messages are added to this queue, the provided time elapses,
+   * or this queue is closed. Consumer method.
+   *
+   * @param timeout
+   *          the maximum time to wait
+   * @param unit
+   *          the unit of the timeout
+   * @return {@code false} if the consumer thread was interrupted while
+   *         waiting, {@code true} otherwise
+   */
+  boolean awaitMessages(long timeout, TimeUnit unit)
+  {
+    waitingConsumer = Thread.currentThread();
+    try
+    {
+      // Checked after publishing the waiting consumer, see add()
+      if (inbox.isEmpty() && !closed)
+      {
+        LockSupport.parkNanos(this, unit.toNanos(timeout));
+      }
+    }
+    finally
+    {
+      waitingConsumer = null;
+    }
+    return !Thread.interrupted();
+  }
+
+  /**
+   * Discards all the messages of this queue and wakes up the consumer. Can be
+   * called by any thread.
+   */
+  void close()
+  {
+    closed = true;
+    final Thread consumer = waitingConsumer;
+    if (consumer != null)
+    {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  private void clear()
+  {
+    for (QueuedMsg msg = inbox.poll(); msg != null; msg = inbox.poll())
+    {
+      count.decrementAndGet();
+      bytesCount.addAndGet(-msg.size);
+    }
+    while (pollFirst() != null)
+    {
+      // all the messages are discarded
+    }
+    oldestHeldCSN = null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + " count=" + count + " bytesCount=" + bytesCount;
+  }
+}
@@ -415,6 +415,7 @@ public class DataServerHandler extends ServerHandler
         {
           session.stopEncryption();
         }
+        session.startFraming(replicationServer.isSessionCompressionEnabled());
 
         // wait and process StartSessionMsg from remote RS
         StartSessionMsg inStartSessionMsg =
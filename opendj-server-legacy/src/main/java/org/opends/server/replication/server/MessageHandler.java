@@ -18,6 +18,7 @@ package org.opends.server.replication.server;
 
 import static org.opends.messages.ReplicationMessages.*;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -49,16 +50,17 @@ import org.opends.server.types.InitializationException;
  * the message to the registered message handlers.
  * LocalizableMessage are buffered into a queue.
  * Consumers are expected to come and consume the UpdateMsg from the queue.
+ *
+ * The queue is filled without taking any monitor, so that forwarding an update
+ * to all the handlers of a domain does not serialize on the consumers.
  */
 class MessageHandler extends MonitorProvider<MonitorProviderCfg>
 {
   /** The logger of this class. */
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
-  private static final int MINIMUM_TRESHOLD_MSG_QUEUE_SIZE = 5;
-
-  /** UpdateMsg queue. */
-  private final MsgQueue msgQueue = new MsgQueue();
+  /** UpdateMsg queue, only consumed in getNextMessage(). */
+  private final ConcurrentMsgQueue msgQueue;
   /**
    * Late queue. All access to the lateQueue in getNextMessage() is
    * single-threaded. However, reads from threads calling getOlderUpdateCN()
@@ -75,10 +77,8 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   private int inCount;
   /** Specifies the max queue size for this handler. */
   protected final int maxQueueSize;
-  /** Specifies the max queue size in bytes for this handler. */
-  private final int maxQueueBytesSize;
   /** Specifies whether the consumer is following the producer (is not late). */
-  private boolean following;
+  private volatile boolean following;
   /** Specifies the current serverState of this handler. */
   private ServerState serverState;
   /** Specifies the baseDN of the domain. */
@@ -88,7 +88,7 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    * If not active, the handler will not return any message.
    * Called at the beginning of shutdown process.
    */
-  private boolean activeConsumer = true;
+  private volatile boolean activeConsumer = true;
   /** Set when ServerHandler is stopping. */
   private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
 
@@ -101,7 +101,8 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   MessageHandler(int queueSize, ReplicationServer replicationServer)
   {
     this.maxQueueSize = queueSize;
-    this.maxQueueBytesSize = queueSize * 100;
+    // TODO : size should be configurable and larger than max-receive-queue-size
+    this.msgQueue = new ConcurrentMsgQueue(queueSize, queueSize * 100L);
     this.replicationServer = replicationServer;
   }
 
@@ -114,39 +115,12 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    */
   void add(UpdateMsg update)
   {
-    synchronized (msgQueue)
-    {
-      /*
-       * If queue was empty the writer thread was probably asleep
-       * waiting for some changes, wake it up
-       */
-      if (msgQueue.isEmpty())
-      {
-        msgQueue.notify();
-      }
-
-      msgQueue.add(update);
-
-      // TODO : size should be configurable and larger than max-receive-queue-size
-      while (isMsgQueueAboveThreshold())
-      {
-        following = false;
-        msgQueue.removeFirst();
-      }
-    }
-  }
-
-  private boolean isMsgQueueAboveThreshold()
-  {
-    final long count = msgQueue.count();
-    // ensure there is a minimum number of messages in queue to avoid wrong behavior
-    return count > maxQueueSize
-        || (count >= MINIMUM_TRESHOLD_MSG_QUEUE_SIZE && msgQueue.bytesCount() > maxQueueBytesSize);
-  }
-
-  private boolean isMsgQueueBelowThreshold()
-  {
-    return !isMsgQueueAboveThreshold();
+    /*
+     * The writer thread is woken up if it was asleep waiting for some changes.
+     * When the queue grows above its threshold, the writer thread drops the
+     * oldest changes and stops following the queue.
+     */
+    msgQueue.add(update);
   }
 
   /**
@@ -198,11 +172,12 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   @Override
   public MonitorData getMonitorData()
   {
-    MonitorData attributes = new MonitorData(4);
+    MonitorData attributes = new MonitorData(5);
     attributes.add("handler", getMonitorInstanceName());
     attributes.add("queue-size", msgQueue.count());
     attributes.add("queue-size-bytes", msgQueue.bytesCount());
     attributes.add("following", following);
+    attributes.add("fan-out-latency", msgQueue.getLastLatency(TimeUnit.MILLISECONDS));
     return attributes;
   }
 
@@ -229,6 +204,12 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   {
     while (activeConsumer)
     {
+      if (msgQueue.drain())
+      {
+        // some changes were dropped from the msgQueue
+        following = false;
+      }
+
       if (!following)
       {
         /* this server is late with regard to some other masters
@@ -263,36 +244,34 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
           {
             // we could not find any messages in the changelog
             // so the remote server is not late anymore.
-            synchronized (msgQueue)
+            // Ensure we are below threshold so this server will follow the
+            // msgQueue without fearing the msgQueue gets trimmed
+            if (!msgQueue.isAboveBounds())
             {
-              // Ensure we are below threshold so this server will follow the
-              // msgQueue without fearing the msgQueue gets trimmed
-              if (isMsgQueueBelowThreshold())
-              {
-                following = true;
-              }
+              following = true;
             }
           }
           else
           {
             /*
              * if the first change in the lateQueue is also on the regular queue,
+             * and no newer change was dropped from the regular queue,
              * we can resume the processing from the regular queue
              * -> set following to true and empty the lateQueue.
              */
             UpdateMsg msg = lateQueue.first();
-            synchronized (msgQueue)
+            if (msgQueue.canFollowFrom(msg))
             {
-              if (msgQueue.contains(msg))
+              /* we finally catch up with the regular queue */
+              following = true;
+              synchronized (lateQueue)
               {
-                /* we finally catch up with the regular queue */
-                following = true;
                 lateQueue.clear();
-                msgQueue.consumeUpTo(msg);
-                if (updateServerState(msg))
-                {
-                  return msg;
-                }
+              }
+              msgQueue.consumeUpTo(msg);
+              if (updateServerState(msg))
+              {
+                return msg;
               }
             }
           }
@@ -301,7 +280,7 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
         {
           // get the next change from the lateQueue
           UpdateMsg msg;
-          synchronized (msgQueue) // TODO JNR why synchronize(msgQueue) here?
+          synchronized (lateQueue)
           {
             msg = lateQueue.removeFirst();
             // By default a server is always not following. A weird case where messages not representing
@@ -320,40 +299,29 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
         }
       }
 
-      synchronized (msgQueue)
+      if (following)
       {
-        if (following)
+        final UpdateMsg msg = msgQueue.removeFirst();
+        if (msg == null)
         {
-          try
-          {
-            while (msgQueue.isEmpty() && following)
-            {
-              msgQueue.wait(500);
-              if (!activeConsumer)
-              {
-                return null;
-              }
-            }
-          } catch (InterruptedException e)
+          if (!msgQueue.awaitMessages(500, TimeUnit.MILLISECONDS))
           {
             return null;
           }
-          UpdateMsg msg = msgQueue.removeFirst();
-          if (updateServerState(msg))
-          {
-            /*
-             * Only push the message if it has not yet been seen
-             * by the other server.
-             * Otherwise just loop to select the next message.
-             */
-            return msg;
-          }
+        }
+        else if (updateServerState(msg))
+        {
+          /*
+           * Only push the message if it has not yet been seen
+           * by the other server.
+           * Otherwise just loop to select the next message.
+           */
+          return msg;
         }
       }
       /*
-       * Need to loop because following flag may have gone to false between the
-       * first check at the beginning of this method and the second check just
-       * above.
+       * Need to loop to move the changes added meanwhile to the msgQueue, and
+       * because following flag may have gone to false.
        */
     }
     return null;
@@ -386,35 +354,25 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    */
   public CSN getOlderUpdateCSN()
   {
-    synchronized (msgQueue)
+    if (following)
     {
-      if (following)
+      return msgQueue.getOldestCSN();
+    }
+    synchronized (lateQueue)
+    {
+      if (!lateQueue.isEmpty())
       {
-        if (!msgQueue.isEmpty())
-        {
-          return msgQueue.first().getCSN();
-        }
-      }
-      else
-      {
-        if (!lateQueue.isEmpty())
-        {
-          return lateQueue.first().getCSN();
-        }
-        else
-        {
-          /*
-          following is false AND lateQueue is empty
-          We may be at the very moment when the writer has emptied the
-          lateQueue when it sent the last update. The writer will fill again
-          the lateQueue when it will send the next update but we are not yet
-          there. So let's take the last change not sent directly from the db.
-          */
-          return findOldestCSNFromReplicaDBs();
-        }
+        return lateQueue.first().getCSN();
       }
     }
-    return null;
+    /*
+    following is false AND lateQueue is empty
+    We may be at the very moment when the writer has emptied the
+    lateQueue when it sent the last update. The writer will fill again
+    the lateQueue when it will send the next update but we are not yet
+    there. So let's take the last change not sent directly from the db.
+    */
+    return findOldestCSNFromReplicaDBs();
   }
 
   private CSN findOldestCSNFromReplicaDBs()
@@ -452,27 +410,24 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    */
   public int getRcvMsgQueueSize()
   {
-    synchronized (msgQueue)
+    /*
+     * When the server is up to date or close to be up to date,
+     * the number of updates to be sent is the size of the receive queue.
+     */
+    if (following)
     {
-      /*
-       * When the server is up to date or close to be up to date,
-       * the number of updates to be sent is the size of the receive queue.
-       */
-      if (following)
-      {
-        return msgQueue.count();
-      }
-
-      /*
-       * When the server is not able to follow, the msgQueue may become too
-       * large and therefore won't contain all the changes. Some changes may
-       * only be stored in the backing DB of the servers.
-       * The total size of the receive queue is calculated by doing the sum of
-       * the number of missing changes for every replicaDB.
-       */
-      ServerState latestState = replicationServerDomain.getLatestServerState();
-      return ServerState.diffChanges(latestState, serverState);
+      return msgQueue.count();
     }
+
+    /*
+     * When the server is not able to follow, the msgQueue may become too
+     * large and therefore won't contain all the changes. Some changes may
+     * only be stored in the backing DB of the servers.
+     * The total size of the receive queue is calculated by doing the sum of
+     * the number of missing changes for every replicaDB.
+     */
+    ServerState latestState = replicationServerDomain.getLatestServerState();
+    return ServerState.diffChanges(latestState, serverState);
   }
 
   /**
@@ -571,12 +526,7 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
   /** Shutdown this handler. */
   public void shutdown()
   {
-    synchronized (msgQueue)
-    {
-      msgQueue.clear();
-      msgQueue.notify();
-      msgQueue.notifyAll();
-    }
+    msgQueue.close();
 
     DirectoryServer.deregisterMonitorProvider(this);
   }
@@ -48,6 +48,7 @@ import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.server.config.meta.ReplicationServerCfgDefn.SessionCompression;
 import org.forgerock.opendj.server.config.meta.VirtualAttributeCfgDefn.ConflictBehavior;
 import org.forgerock.opendj.server.config.server.ReplicationServerCfg;
 import org.forgerock.opendj.server.config.server.UserDefinedVirtualAttributeCfg;
@@ -1104,6 +1105,16 @@ public class ReplicationServer
     return this.config.getMonitoringPeriod();
   }
 
+  /**
+   * Returns whether the messages sent to the other servers are compressed.
+   *
+   * @return whether the messages sent to the other servers are compressed
+   */
+  public boolean isSessionCompressionEnabled()
+  {
+    return this.config.getSessionCompression() == SessionCompression.DEFLATE;
+  }
+
   /**
    * Compute the list of replication servers that are not any more connected to
    * this Replication Server and stop the corresponding handlers.
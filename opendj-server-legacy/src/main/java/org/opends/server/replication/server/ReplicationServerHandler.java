@@ -208,6 +208,7 @@ public class ReplicationServerHandler extends ServerHandler
       {
         session.stopEncryption();
       }
+      session.startFraming(replicationServer.isSessionCompressionEnabled());
 
       if (getProtocolVersion() > ProtocolVersion.REPLICATION_PROTOCOL_V1)
       {
@@ -310,6 +311,7 @@ public class ReplicationServerHandler extends ServerHandler
       {
         session.stopEncryption();
       }
+      session.startFraming(replicationServer.isSessionCompressionEnabled());
 
       TopologyMsg inTopoMsg = null;
       if (getProtocolVersion() > ProtocolVersion.REPLICATION_PROTOCOL_V1)
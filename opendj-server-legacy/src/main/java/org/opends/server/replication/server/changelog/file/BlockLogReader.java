@@ -24,6 +24,9 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ByteStringBuilder;
@@ -44,6 +47,12 @@ import org.opends.server.util.StaticUtils;
  * <p>
  * The reader provides both sequential access, using the {@code readRecord()} method,
  * and reasonably fast random access, using the {@code seekToRecord(K, boolean)} method.
+ * <p>
+ * The log file is read either through a random access file, or through a read-only
+ * memory mapping of the whole file when the file is not written any more. In the
+ * latter case, the readers of the file can share the keys found at the block starts
+ * during their binary searches, so that readers seeking to nearby keys do not read
+ * the same blocks again.
  *
  * @param <K>
  *          Type of the key of a record, which must be comparable.
@@ -65,14 +74,23 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
    */
   static final int BLOCK_SIZE = 256;
 
+  /** The maximum number of block start keys kept in memory for a log file. */
+  private static final int MAX_INDEXED_BLOCK_STARTS = 4096;
+
   private final int blockSize;
 
   private final RecordParser<K, V> parser;
 
-  private final RandomAccessFile reader;
+  private final LogInput reader;
 
   private final File file;
 
+  /**
+   * The keys of the records read from the block starts of the log file, shared by
+   * all the readers of the file. May be {@code null} if the log file is written.
+   */
+  private final ConcurrentMap<Long, K> blockStartKeys;
+
   /**
    * Creates a reader for the provided file, file reader and parser.
    *
@@ -91,7 +109,39 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> BlockLogReader<K, V> newReader(
       final File file, final RandomAccessFile reader, final RecordParser<K, V> parser)
   {
-    return new BlockLogReader<>(file, reader, parser, BLOCK_SIZE);
+    return new BlockLogReader<>(file, newFileInput(reader), parser, BLOCK_SIZE, null);
+  }
+
+  /**
+   * Creates a reader for the provided file, memory mapping of the file and
+   * parser.
+   * <p>
+   * The log file must not be written any more.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param <V>
+   *          Type of the value of a record.
+   * @param file
+   *          The log file to read.
+   * @param mappedFile
+   *          The read-only memory mapping of the whole log file, which must not
+   *          be used by any other reader.
+   * @param onClose
+   *          Called once when the reader is closed, after which the memory
+   *          mapping is not accessed any more.
+   * @param parser
+   *          The parser to decode the records read.
+   * @param blockStartKeys
+   *          The keys of the records read from the block starts of the log
+   *          file, shared by all the readers of the log file
+   * @return a new log reader
+   */
+  static <K extends Comparable<K>, V> BlockLogReader<K, V> newMappedReader(final File file,
+      final ByteBuffer mappedFile, final Runnable onClose, final RecordParser<K, V> parser,
+      final ConcurrentMap<Long, K> blockStartKeys)
+  {
+    return new BlockLogReader<>(file, new MappedInput(mappedFile, onClose), parser, BLOCK_SIZE, blockStartKeys);
   }
 
   /**
@@ -117,16 +167,52 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> BlockLogReader<K, V> newReaderForTests(
       final File file, final RandomAccessFile reader, final RecordParser<K, V> parser, int blockSize)
   {
-    return new BlockLogReader<>(file, reader, parser, blockSize);
+    return new BlockLogReader<>(file, newFileInput(reader), parser, blockSize, null);
+  }
+
+  /**
+   * Creates a reader for the provided file, memory mapping of the file, parser
+   * and block size.
+   * <p>
+   * This method is intended for tests only, to allow tuning of the block size.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param <V>
+   *          Type of the value of a record.
+   * @param file
+   *          The log file to read.
+   * @param mappedFile
+   *          The read-only memory mapping of the whole log file.
+   * @param parser
+   *          The parser to decode the records read.
+   * @param blockSize
+   *          The size of each block, or frequency at which the record offset is
+   *          present in the log file.
+   * @param blockStartKeys
+   *          The keys of the records read from the block starts of the log file
+   * @return a new log reader
+   */
+  static <K extends Comparable<K>, V> BlockLogReader<K, V> newMappedReaderForTests(final File file,
+      final ByteBuffer mappedFile, final RecordParser<K, V> parser, int blockSize,
+      final ConcurrentMap<Long, K> blockStartKeys)
+  {
+    return new BlockLogReader<>(file, new MappedInput(mappedFile, null), parser, blockSize, blockStartKeys);
   }
 
-  private BlockLogReader(
-      final File file, final RandomAccessFile reader, final RecordParser<K, V> parser, final int blockSize)
+  private static LogInput newFileInput(final RandomAccessFile reader)
+  {
+    return reader != null ? new FileInput(reader) : null;
+  }
+
+  private BlockLogReader(final File file, final LogInput reader, final RecordParser<K, V> parser,
+      final int blockSize, final ConcurrentMap<Long, K> blockStartKeys)
   {
     this.file = file;
     this.reader = reader;
     this.parser = parser;
     this.blockSize = blockSize;
+    this.blockStartKeys = blockStartKeys;
   }
 
   /**
@@ -305,7 +391,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
       {
         if (distanceToBlockStart != 0)
         {
-          recordBytes.appendBytes(reader, distanceToBlockStart);
+          reader.appendBytesTo(recordBytes, distanceToBlockStart);
         }
         // skip the offset
         reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
@@ -318,7 +404,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
       if (remainingBytesToRead > 0)
       {
         // last bytes of the record
-        recordBytes.appendBytes(reader, remainingBytesToRead);
+        reader.appendBytesTo(recordBytes, remainingBytesToRead);
       }
       return recordBytes.toByteString();
     }
@@ -357,10 +443,10 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
     final ByteStringBuilder lengthBytes = new ByteStringBuilder(SIZE_OF_RECORD_SIZE);
     if (distanceToBlockStart > 0 && distanceToBlockStart < SIZE_OF_RECORD_SIZE)
     {
-      lengthBytes.appendBytes(reader, distanceToBlockStart);
+      reader.appendBytesTo(lengthBytes, distanceToBlockStart);
       // skip the offset
       reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
-      lengthBytes.appendBytes(reader, SIZE_OF_RECORD_SIZE - distanceToBlockStart);
+      reader.appendBytesTo(lengthBytes, SIZE_OF_RECORD_SIZE - distanceToBlockStart);
     }
     else
     {
@@ -369,7 +455,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
         // skip the offset
         reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
       }
-      lengthBytes.appendBytes(reader, SIZE_OF_RECORD_SIZE);
+      reader.appendBytesTo(lengthBytes, SIZE_OF_RECORD_SIZE);
     }
     return lengthBytes.toByteString().toInt();
   }
@@ -396,13 +482,13 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
     {
       final long middlePos = Math.min((lowPos + highPos) / 2, maxPos);
       final long middleBlockStartPos = getClosestBlockStartBeforeOrAtPosition(middlePos);
-      final Record<K, V> middleRecord = readRecord(middleBlockStartPos);
-      if (middleRecord == null)
+      final K middleKey = readKeyAtBlockStart(middleBlockStartPos);
+      if (middleKey == null)
       {
         return -1;
       }
 
-      final int keyComparison = middleRecord.getKey().compareTo(key);
+      final int keyComparison = middleKey.compareTo(key);
       if (keyComparison < 0)
       {
         if (middleBlockStartPos <= lowPos)
@@ -428,6 +514,34 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
     return -1;
   }
 
+  /**
+   * Returns the key of the record read from the provided block start, or
+   * {@code null} if there is no record to read.
+   * <p>
+   * Note that position of reader may be modified by this method.
+   */
+  private K readKeyAtBlockStart(final long blockStartPosition) throws ChangelogException
+  {
+    if (blockStartKeys != null)
+    {
+      final K key = blockStartKeys.get(blockStartPosition);
+      if (key != null)
+      {
+        return key;
+      }
+    }
+    final Record<K, V> record = readRecord(blockStartPosition);
+    if (record == null)
+    {
+      return null;
+    }
+    if (blockStartKeys != null && blockStartKeys.size() < MAX_INDEXED_BLOCK_STARTS)
+    {
+      blockStartKeys.put(blockStartPosition, record.getKey());
+    }
+    return record.getKey();
+  }
+
   private long getFileLength() throws ChangelogException
   {
     try
@@ -639,4 +753,160 @@ Record<K, V> getNewestRecord() throws ChangelogException
      throw new ChangelogException(ERR_CHANGELOG_CANNOT_READ_NEWEST_RECORD.get(file.getPath()), e);
    }
  }
+
+  /** Random access to the bytes of a log file. */
+  private abstract static class LogInput implements Closeable
+  {
+    abstract void seek(long position) throws IOException;
+
+    abstract long getFilePointer() throws IOException;
+
+    abstract long length() throws IOException;
+
+    abstract void readFully(byte[] bytes) throws IOException;
+
+    abstract void skipBytes(int length) throws IOException;
+
+    /** Appends the provided number of bytes to the builder, or throws an EOFException if they are not available. */
+    abstract void appendBytesTo(ByteStringBuilder builder, int length) throws IOException;
+  }
+
+  /** Reads a log file with positioned reads on a random access file. */
+  private static final class FileInput extends LogInput
+  {
+    private final RandomAccessFile file;
+
+    private FileInput(final RandomAccessFile file)
+    {
+      this.file = file;
+    }
+
+    @Override
+    void seek(final long position) throws IOException
+    {
+      file.seek(position);
+    }
+
+    @Override
+    long getFilePointer() throws IOException
+    {
+      return file.getFilePointer();
+    }
+
+    @Override
+    long length() throws IOException
+    {
+      return file.length();
+    }
+
+    @Override
+    void readFully(final byte[] bytes) throws IOException
+    {
+      file.readFully(bytes);
+    }
+
+    @Override
+    void skipBytes(final int length) throws IOException
+    {
+      file.skipBytes(length);
+    }
+
+    @Override
+    void appendBytesTo(final ByteStringBuilder builder, final int length) throws IOException
+    {
+      builder.appendBytes(file, length);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      file.close();
+    }
+
+    @Override
+    public String toString()
+    {
+      return file.toString();
+    }
+  }
+
+  /**
+   * Reads a log file from a read-only memory mapping of the whole file, without
+   * any system call.
+   */
+  private static final class MappedInput extends LogInput
+  {
+    private final ByteBuffer buffer;
+    private final Runnable onClose;
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
+    private MappedInput(final ByteBuffer mappedFile, final Runnable onClose)
+    {
+      this.buffer = mappedFile;
+      this.onClose = onClose;
+    }
+
+    @Override
+    void seek(final long position)
+    {
+      buffer.position((int) Math.min(position, buffer.limit()));
+    }
+
+    @Override
+    long getFilePointer()
+    {
+      return buffer.position();
+    }
+
+    @Override
+    long length()
+    {
+      return buffer.limit();
+    }
+
+    @Override
+    void readFully(final byte[] bytes) throws IOException
+    {
+      ensureRemaining(bytes.length);
+      buffer.get(bytes);
+    }
+
+    @Override
+    void skipBytes(final int length)
+    {
+      buffer.position(buffer.position() + Math.min(length, buffer.remaining()));
+    }
+
+    @Override
+    void appendBytesTo(final ByteStringBuilder builder, final int length) throws IOException
+    {
+      ensureRemaining(length);
+      builder.appendBytes(buffer, length);
+    }
+
+    private void ensureRemaining(final int length) throws EOFException
+    {
+      if (buffer.remaining() < length)
+      {
+        buffer.position(buffer.limit());
+        throw new EOFException();
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      // the mapping may be unmapped as soon as all its readers are closed
+      if (isClosed.compareAndSet(false, true) && onClose != null)
+      {
+        onClose.run();
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return "MappedInput [position=" + buffer.position() + ", limit=" + buffer.limit() + "]";
+    }
+  }
 }
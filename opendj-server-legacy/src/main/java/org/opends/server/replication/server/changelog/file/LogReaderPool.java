@@ -11,13 +11,24 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2014 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.opends.server.replication.server.changelog.api.ChangelogException;
 import org.opends.server.util.StaticUtils;
 
@@ -25,21 +36,67 @@ import static org.opends.messages.ReplicationMessages.*;
 
 /**
  * A Pool of readers to a log file.
-
+ * <p>
+ * Released readers are kept for reuse, up to a maximum number of idle readers,
+ * so that cursors opened and closed repeatedly do not open the file each time.
+ * <p>
+ * When the log file is read-only, it is memory mapped once and the readers read
+ * it from the mapping: they do not hold any file handle and share the page cache
+ * without system calls. They also share the keys found at the block starts during
+ * their binary searches.
+ * <p>
+ * The mapping is explicitly unmapped once the pool is shutdown and all its readers
+ * are closed, so that the file can then be deleted and its disk space reclaimed
+ * without waiting for a garbage collection. When the JVM does not allow to unmap
+ * it, the file is read with random access files instead.
  *
  * @param <K>
  *          Type of the key of a record, which must be comparable.
  * @param <V>
  *          Type of the value of a record.
  */
-// TODO : implement a real pool - reusing readers instead of opening-closing them each time
 class LogReaderPool<K extends Comparable<K>, V>
 {
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum number of idle readers kept by a pool. */
+  private static final int MAX_IDLE_READERS = 8;
+
   /** The file to read. */
   private final File file;
 
   private final RecordParser<K, V> parser;
 
+  /** Indicates if the file is not written any more, and can be memory mapped. */
+  private final boolean isReadOnly;
+
+  /** The readers released and not closed yet. */
+  private final BlockingQueue<BlockLogReader<K, V>> idleReaders = new ArrayBlockingQueue<>(MAX_IDLE_READERS);
+
+  /** The keys of the records read from the block starts of a read-only file. */
+  private final ConcurrentMap<Long, K> blockStartKeys = new ConcurrentHashMap<>();
+
+  /**
+   * The read-only memory mapping of the whole file, lazily created. Remains
+   * {@code null} if the file is not read-only or cannot be mapped.
+   */
+  private ByteBuffer mappedFile;
+  private boolean isMappingAttempted;
+  /** The number of readers of the memory mapping which are not closed yet, guarded by this. */
+  private int mappedReaders;
+
+  /** Called when a reader of the memory mapping is closed. */
+  private final Runnable mappedReaderClosed = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      releaseMappedFile();
+    }
+  };
+
+  private volatile boolean isShutdown;
+
   /**
    * Creates a pool of readers for provided file.
    *
@@ -47,15 +104,20 @@ class LogReaderPool<K extends Comparable<K>, V>
    *          The file to read.
    * @param parser
    *          The parser to decode the records read.
+   * @param isReadOnly
+   *          {@code true} if the file is not written any more, {@code false}
+   *          otherwise.
    */
-  LogReaderPool(File file, RecordParser<K, V> parser)
+  LogReaderPool(File file, RecordParser<K, V> parser, boolean isReadOnly)
   {
     this.file = file;
     this.parser = parser;
+    this.isReadOnly = isReadOnly;
   }
 
   /**
-   * Returns a random access reader on the provided file.
+   * Returns a random access reader on the provided file, positioned at the
+   * beginning of the file.
    * <p>
    * The acquired reader must be released with the {@code release()}
    * method.
@@ -66,6 +128,12 @@ class LogReaderPool<K extends Comparable<K>, V>
    */
   BlockLogReader<K, V> get() throws ChangelogException
   {
+    final BlockLogReader<K, V> reader = idleReaders.poll();
+    if (reader != null)
+    {
+      reader.seekToPosition(0);
+      return reader;
+    }
     return getReader(file);
   }
 
@@ -80,7 +148,15 @@ class LogReaderPool<K extends Comparable<K>, V>
    */
   void release(BlockLogReader<K, V> reader)
   {
-    StaticUtils.close(reader);
+    if (!idleReaders.offer(reader))
+    {
+      StaticUtils.close(reader);
+    }
+    else if (isShutdown)
+    {
+      // the pool has been shutdown while this reader was in use
+      closeIdleReaders();
+    }
   }
 
   /** Returns a random access file to read this log. */
@@ -88,6 +164,11 @@ class LogReaderPool<K extends Comparable<K>, V>
   {
     try
     {
+      final ByteBuffer mapping = acquireMappedFile();
+      if (mapping != null)
+      {
+        return BlockLogReader.newMappedReader(file, mapping, mappedReaderClosed, parser, blockStartKeys);
+      }
       return BlockLogReader.newReader(file, new RandomAccessFile(file, "r"), parser) ;
     }
     catch (Exception e)
@@ -96,13 +177,168 @@ class LogReaderPool<K extends Comparable<K>, V>
     }
   }
 
+  /**
+   * Returns a view of the memory mapping of the file for a new reader, or {@code null} if it must be
+   * read with a random access file. The mapping must be released once the reader is closed.
+   */
+  private synchronized ByteBuffer acquireMappedFile()
+  {
+    if (isShutdown)
+    {
+      return null;
+    }
+    if (isReadOnly && !isMappingAttempted && BufferUnmapper.isSupported())
+    {
+      isMappingAttempted = true;
+      // the mapping remains valid after the file is closed
+      try (RandomAccessFile mappedRaf = new RandomAccessFile(file, "r");
+          FileChannel channel = mappedRaf.getChannel())
+      {
+        final long size = channel.size();
+        if (size <= Integer.MAX_VALUE)
+        {
+          mappedFile = channel.map(MapMode.READ_ONLY, 0, size);
+        }
+      }
+      catch (IOException e)
+      {
+        // fall back to random access files
+        logger.traceException(e);
+      }
+    }
+    if (mappedFile == null)
+    {
+      return null;
+    }
+    mappedReaders++;
+    return mappedFile.duplicate();
+  }
+
+  private synchronized void releaseMappedFile()
+  {
+    mappedReaders--;
+    unmapIfUnused();
+  }
+
+  /** Must be called with the lock held. */
+  private void unmapIfUnused()
+  {
+    if (isShutdown && mappedReaders == 0 && mappedFile != null)
+    {
+      BufferUnmapper.unmap(mappedFile);
+      mappedFile = null;
+    }
+  }
+
+  private void closeIdleReaders()
+  {
+    for (BlockLogReader<K, V> reader = idleReaders.poll(); reader != null; reader = idleReaders.poll())
+    {
+      StaticUtils.close(reader);
+    }
+  }
+
   /**
    * Shutdown this pool, releasing all files handles opened
    * on the file.
+   * <p>
+   * The readers still in use are closed when they are released. The memory
+   * mapping of the file is unmapped once all of its readers are closed.
    */
   void shutdown()
   {
-    // Nothing to do yet as no file handle is kept opened.
+    isShutdown = true;
+    closeIdleReaders();
+    synchronized (this)
+    {
+      unmapIfUnused();
+    }
+    blockStartKeys.clear();
+  }
+
+  /**
+   * Unmaps the memory mappings without waiting for them to be garbage collected,
+   * which is the only way to release the mapped file before the JVM exits.
+   */
+  private static final class BufferUnmapper
+  {
+    /** Java 9 and later: {@code sun.misc.Unsafe.invokeCleaner(ByteBuffer)}. */
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+    /** Java 8: {@code ((sun.nio.ch.DirectBuffer) buffer).cleaner().clean()}. */
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static
+    {
+      Method invokeCleaner = null;
+      Object unsafe = null;
+      Method cleaner = null;
+      Method clean = null;
+      try
+      {
+        final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        unsafe = theUnsafe.get(null);
+      }
+      catch (Exception e)
+      {
+        invokeCleaner = null;
+        try
+        {
+          cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+          clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+        }
+        catch (Exception e2)
+        {
+          // memory mappings cannot be unmapped explicitly
+          logger.traceException(e2);
+          cleaner = null;
+          clean = null;
+        }
+      }
+      INVOKE_CLEANER = invokeCleaner;
+      UNSAFE = unsafe;
+      CLEANER = cleaner;
+      CLEAN = clean;
+    }
+
+    private BufferUnmapper()
+    {
+      // utility class
+    }
+
+    static boolean isSupported()
+    {
+      return INVOKE_CLEANER != null || CLEAN != null;
+    }
+
+    /** Must only be called once the buffer and all its views are not accessed any more. */
+    static void unmap(ByteBuffer buffer)
+    {
+      try
+      {
+        if (INVOKE_CLEANER != null)
+        {
+          INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        }
+        else if (CLEAN != null)
+        {
+          final Object cleaner = CLEANER.invoke(buffer);
+          if (cleaner != null)
+          {
+            CLEAN.invoke(cleaner);
+          }
+        }
+      }
+      catch (Exception e)
+      {
+        // the mapping will be released once garbage collected
+        logger.traceException(e);
+      }
+    }
   }
 
 }
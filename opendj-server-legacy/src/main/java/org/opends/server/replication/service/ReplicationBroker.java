@@ -1125,6 +1125,7 @@ public class ReplicationBroker
       {
         newSession.stopEncryption();
       }
+      newSession.startFraming(MultimasterReplication.isSessionCompressionEnabled());
 
       hasConnected = true;
 
@@ -113,6 +113,8 @@ public class ExportLDIF extends TaskTool {
   private BooleanArgument excludeOperationalAttrs;
   private BooleanArgument signHash;
   private IntegerArgument wrapColumn;
+  private IntegerArgument threadCount;
+  private BooleanArgument shardedLDIF;
   private StringArgument  backendID;
   private StringArgument  configFile;
   private StringArgument  excludeAttributeStrings;
@@ -221,6 +223,17 @@ public class ExportLDIF extends TaskTool {
                       .defaultValue(0)
                       .valuePlaceholder(INFO_WRAP_COLUMN_PLACEHOLDER.get())
                       .buildAndAddToParser(argParser);
+      threadCount =
+              IntegerArgument.builder("threadCount")
+                      .description(INFO_LDIFEXPORT_DESCRIPTION_THREAD_COUNT.get())
+                      .lowerBound(1)
+                      .defaultValue(1)
+                      .valuePlaceholder(INFO_LDIFIMPORT_THREAD_COUNT_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      shardedLDIF =
+              BooleanArgument.builder("shardedLDIF")
+                      .description(INFO_LDIFEXPORT_DESCRIPTION_SHARDED_LDIF.get())
+                      .buildAndAddToParser(argParser);
       compressLDIF =
               BooleanArgument.builder(OPTION_LONG_COMPRESS)
                       .shortIdentifier(OPTION_SHORT_COMPRESS)
@@ -312,6 +325,8 @@ public class ExportLDIF extends TaskTool {
     addAttribute(attributes, ATTR_TASK_EXPORT_INCLUDE_BRANCH, includeBranchStrings.getValues());
     addAttribute(attributes, ATTR_TASK_EXPORT_EXCLUDE_BRANCH, excludeBranchStrings.getValues());
     addAttribute(attributes, ATTR_TASK_EXPORT_WRAP_COLUMN, wrapColumn);
+    addAttribute(attributes, ATTR_TASK_EXPORT_THREAD_COUNT, threadCount);
+    addAttribute(attributes, ATTR_TASK_EXPORT_SHARDED_LDIF, shardedLDIF);
 
     if (excludeOperationalAttrs.isPresent())
     {
@@ -568,6 +583,17 @@ public class ExportLDIF extends TaskTool {
       return 1;
     }
 
+    try
+    {
+      exportConfig.setThreadCount(threadCount.getIntValue());
+    }
+    catch (ArgumentException ae)
+    {
+      logger.error(ERR_LDIFEXPORT_CANNOT_PARSE_THREAD_COUNT, threadCount.getValue(), ae.getMessageObject());
+      return 1;
+    }
+    exportConfig.setShardedOutput(shardedLDIF.isPresent());
+
 
     // Get the set of base DNs for the backend as an array.
     DN[] baseDNs = new DN[baseDNList.size()];
@@ -51,6 +51,7 @@ import org.opends.server.util.cli.LDAPConnectionArgumentParser;
 
 import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
 /**
@@ -71,6 +72,8 @@ public class RebuildIndex extends TaskTool
   private BooleanArgument rebuildAll;
   private BooleanArgument rebuildDegraded;
   private BooleanArgument clearDegradedState;
+  private BooleanArgument onlineRebuild;
+  private IntegerArgument maxEntriesPerSecond;
 
   private final LDAPConnectionArgumentParser argParser = createArgParser(
       "org.opends.server.tools.RebuildIndex",
@@ -260,6 +263,17 @@ public class RebuildIndex extends TaskTool
             BooleanArgument.builder("clearDegradedState")
                     .description(INFO_REBUILDINDEX_DESCRIPTION_CLEAR_DEGRADED_STATE.get())
                     .buildAndAddToParser(argParser);
+    onlineRebuild =
+            BooleanArgument.builder("onlineRebuild")
+                    .description(INFO_REBUILDINDEX_DESCRIPTION_ONLINE_REBUILD.get())
+                    .buildAndAddToParser(argParser);
+    maxEntriesPerSecond =
+            IntegerArgument.builder("maxEntriesPerSecond")
+                    .description(INFO_REBUILDINDEX_DESCRIPTION_MAX_ENTRIES_PER_SECOND.get())
+                    .lowerBound(0)
+                    .defaultValue(0)
+                    .valuePlaceholder(INFO_REBUILDINDEX_MAX_ENTRIES_PER_SECOND_PLACEHOLDER.get())
+                    .buildAndAddToParser(argParser);
     tmpDirectory =
             StringArgument.builder("tmpdirectory")
                     .description(INFO_REBUILDINDEX_DESCRIPTION_TEMP_DIRECTORY.get())
@@ -397,6 +411,16 @@ public class RebuildIndex extends TaskTool
     }
 
     config.setTmpDirectory(tmpDirectory.getValue());
+    config.setOnlineRebuild(onlineRebuild.isPresent());
+    try
+    {
+      config.setMaxEntriesPerSecond(maxEntriesPerSecond.getIntValue());
+    }
+    catch (ArgumentException e)
+    {
+      // Cannot happen: the value has been validated by the argument parser
+      logger.traceException(e);
+    }
     return config;
   }
 
@@ -623,6 +647,16 @@ public class RebuildIndex extends TaskTool
     {
       addLdapAttribute(attributes, ATTR_REBUILD_INDEX_CLEARDEGRADEDSTATE, "true");
     }
+
+    if (hasNonDefaultValue(onlineRebuild))
+    {
+      addLdapAttribute(attributes, ATTR_REBUILD_INDEX_ONLINE, "true");
+    }
+
+    if (maxEntriesPerSecond.isPresent())
+    {
+      addLdapAttribute(attributes, ATTR_REBUILD_MAX_ENTRIES_PER_SECOND, maxEntriesPerSecond.getValue());
+    }
   }
 
   private void addLdapAttribute(List<RawAttribute> attributes, String attrType, String attrValue)
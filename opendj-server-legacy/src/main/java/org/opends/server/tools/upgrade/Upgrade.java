@@ -608,6 +608,28 @@ public final class Upgrade
     );
     register("4.0.0", moveSubordinateBaseDnToGlobalConfiguration());
     register("4.0.0", removeTools("ldif-diff", "make-ldif", "dsjavaproperties"));
+    register("4.0.0",
+        addConfigEntry(INFO_UPGRADE_TASK_ADD_TINY_LFU_ENTRY_CACHE.get(),
+            "dn: cn=TinyLFU,cn=Entry Caches,cn=config",
+            "objectClass: top",
+            "objectClass: ds-cfg-entry-cache",
+            "objectClass: ds-cfg-tiny-lfu-entry-cache",
+            "cn: TinyLFU",
+            "ds-cfg-enabled: false",
+            "ds-cfg-cache-level: 3",
+            "ds-cfg-java-class: org.opends.server.extensions.TinyLFUEntryCache")
+    );
+    register("4.0.0",
+        addConfigEntry(INFO_UPGRADE_TASK_ADD_OFF_HEAP_ENTRY_CACHE.get(),
+            "dn: cn=Off Heap,cn=Entry Caches,cn=config",
+            "objectClass: top",
+            "objectClass: ds-cfg-entry-cache",
+            "objectClass: ds-cfg-off-heap-entry-cache",
+            "cn: Off Heap",
+            "ds-cfg-enabled: false",
+            "ds-cfg-cache-level: 4",
+            "ds-cfg-java-class: org.opends.server.extensions.OffHeapEntryCache")
+    );
 
     /* All upgrades will refresh the server configuration schema and generate a new upgrade folder. */
     registerLast(
@@ -35,6 +35,7 @@ import java.util.zip.GZIPOutputStream;
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.util.Reject;
 import org.opends.server.util.StaticUtils;
 
 /**
@@ -103,6 +104,11 @@ public final class LDIFExportConfig extends OperationConfig
   /** The set of attribute types that should be included in the export. */
   private Set<AttributeType> includeAttributes;
 
+  /** The number of threads exporting the entries. */
+  private int threadCount;
+  /** Indicates whether each thread should write its own LDIF file. */
+  private boolean shardedOutput;
+
   /**
    * Creates a new LDIF export configuration that will write to the
    * specified LDIF file.
@@ -136,6 +142,8 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
+    shardedOutput                = false;
   }
 
   /**
@@ -168,6 +176,71 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
+    shardedOutput                = false;
+  }
+
+  /**
+   * Creates a copy of the provided LDIF export configuration, writing either to the provided file or to the provided
+   * writer.
+   */
+  private LDIFExportConfig(LDIFExportConfig config, String ldifFile, BufferedWriter writer)
+  {
+    this.ldifFile                = ldifFile;
+    this.existingFileBehavior    = config.existingFileBehavior;
+    ldifOutputStream             = null;
+
+    excludeBranches              = config.excludeBranches;
+    includeBranches              = config.includeBranches;
+    excludeFilters               = config.excludeFilters;
+    includeFilters               = config.includeFilters;
+    compressData                 = writer == null && config.compressData;
+    encryptData                  = config.encryptData;
+    hashData                     = config.hashData;
+    includeObjectClasses         = config.includeObjectClasses;
+    includeOperationalAttributes = config.includeOperationalAttributes;
+    includeVirtualAttributes     = config.includeVirtualAttributes;
+    invokeExportPlugins          = config.invokeExportPlugins;
+    signHash                     = config.signHash;
+    typesOnly                    = config.typesOnly;
+    this.writer                  = writer;
+    excludeAttributes            = config.excludeAttributes;
+    includeAttributes            = config.includeAttributes;
+    wrapColumn                   = config.wrapColumn;
+    threadCount                  = 1;
+    shardedOutput                = false;
+  }
+
+  /**
+   * Creates a copy of this LDIF export configuration which writes the
+   * LDIF data to the provided writer, without compressing it. This
+   * allows several threads to encode the exported entries in parallel,
+   * before writing them in order with the writer of this configuration.
+   *
+   * @param  writer  The writer to which the LDIF data should be
+   *                 written.
+   *
+   * @return  The new LDIF export configuration.
+   */
+  public LDIFExportConfig newBufferConfig(BufferedWriter writer)
+  {
+    return new LDIFExportConfig(this, null, writer);
+  }
+
+  /**
+   * Creates a copy of this LDIF export configuration which writes the
+   * LDIF data to a shard of the LDIF file of this configuration, whose
+   * path is the path of the LDIF file followed by a dot and the shard
+   * number.
+   *
+   * @param  shardNumber  The number of the shard, starting at 1.
+   *
+   * @return  The new LDIF export configuration.
+   */
+  public LDIFExportConfig newShardConfig(int shardNumber)
+  {
+    Reject.ifNull(ldifFile);
+    return new LDIFExportConfig(this, ldifFile + "." + shardNumber, null);
   }
 
   /**
@@ -270,7 +343,10 @@ public final class LDIFExportConfig extends OperationConfig
 
   /**
    * Indicates whether the LDIF export plugins should be invoked for
-   * entries as they are exported.
+   * entries as they are exported. When the entries are exported by
+   * several threads, the plugins are invoked concurrently by these
+   * threads, with copies of this configuration, and must therefore be
+   * thread-safe.
    *
    * @return  <CODE>true</CODE> if LDIF export plugins should be
    *          invoked for entries as they are exported, or
@@ -816,6 +892,57 @@ public final class LDIFExportConfig extends OperationConfig
     return true;
   }
 
+  /**
+   * Retrieves the number of threads exporting the entries. When
+   * greater than 1, the entries are read, filtered and encoded in
+   * parallel, and the LDIF export plugins are invoked concurrently.
+   *
+   * @return  The number of threads exporting the entries.
+   */
+  public int getThreadCount()
+  {
+    return threadCount;
+  }
+
+  /**
+   * Specifies the number of threads exporting the entries.
+   *
+   * @param  threadCount  The number of threads exporting the
+   *                      entries.
+   */
+  public void setThreadCount(int threadCount)
+  {
+    this.threadCount = threadCount;
+  }
+
+  /**
+   * Indicates whether each thread exporting the entries should write
+   * its own LDIF file, rather than all the entries being written in
+   * order to a single LDIF file. This is only possible when exporting
+   * to an LDIF file.
+   *
+   * @return  <CODE>true</CODE> if each thread should write its own
+   *          LDIF file, or <CODE>false</CODE> if not.
+   *
+   * @see #newShardConfig(int)
+   */
+  public boolean isShardedOutput()
+  {
+    return shardedOutput && ldifFile != null && threadCount > 1;
+  }
+
+  /**
+   * Specifies whether each thread exporting the entries should write
+   * its own LDIF file.
+   *
+   * @param  shardedOutput  Indicates whether each thread should write
+   *                        its own LDIF file.
+   */
+  public void setShardedOutput(boolean shardedOutput)
+  {
+    this.shardedOutput = shardedOutput;
+  }
+
   /** Closes any resources that this export config might have open. */
   @Override
   public void close()
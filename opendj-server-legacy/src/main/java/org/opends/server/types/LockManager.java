@@ -15,11 +15,11 @@
  */
 package org.opends.server.types;
 
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.forgerock.opendj.ldap.DN;
@@ -69,7 +69,7 @@ import org.forgerock.util.Reject;
  * The lock table itself is not represented using a {@code ConcurrentHashMap} because the JDK6/7
  * APIs do not provide the ability to atomically add-and-lock or unlock-and-remove locks (this
  * capability is provided in JDK8). Instead, we provide our own implementation comprising of a fixed
- * number of buckets, a bucket being a {@code LinkedList} of {@code DNLock}s. In addition, it is
+ * number of buckets, a bucket being a chain of {@code DNLock}s guarded by its own lock. In addition, it is
  * important to be able to efficiently iterate up and down a chain of hierarchically related locks,
  * so each lock maintains a reference to its parent lock. Modern directories tend to have a flat
  * structure so it is also important to avoid contention on "hot" parent DNs. Typically, a lock
@@ -98,11 +98,89 @@ import org.forgerock.util.Reject;
  * Locks are dereferenced when they are unlocked, when they are evicted from a thread local cache,
  * and when a child lock's reference count reaches zero. A lock is completely removed from the lock
  * table once its reference count reaches zero.
+ * <p>
+ * Updates under a flat container lock and unlock a different DN each time, so the lock table
+ * avoids allocating on these paths: the buckets and the thread local caches do not allocate nodes,
+ * and the locks removed from the lock table are kept in a small pool in their bucket in order to be
+ * reused, along with their read-write locks, by the next DN added to the same bucket.
+ * <p>
+ * The lock manager counts, for each {@link LockType}, the lock requests, the number of times and
+ * the time spent waiting for a lock held by another thread, and the requests which timed out.
  */
 @org.opends.server.types.PublicAPI(stability = org.opends.server.types.StabilityLevel.UNCOMMITTED,
     mayInstantiate = false, mayExtend = false, mayInvoke = true)
 public final class LockManager
 {
+  /** The types of lock which can be requested from the lock manager. */
+  public enum LockType
+  {
+    /** A read lock on an entry, see {@link LockManager#tryReadLockEntry(DN)}. */
+    READ_ENTRY,
+    /** A write lock on an entry, see {@link LockManager#tryWriteLockEntry(DN)}. */
+    WRITE_ENTRY,
+    /** A write lock on a subtree, see {@link LockManager#tryWriteLockSubtree(DN)}. */
+    WRITE_SUBTREE
+  }
+
+  /** Statistics about the requests for one type of lock. */
+  public static final class LockStatistics
+  {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitTimeNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private LockStatistics()
+    {
+      // Created by the lock manager.
+    }
+
+    /**
+     * Returns the number of lock requests.
+     *
+     * @return the number of lock requests
+     */
+    public long getRequestCount()
+    {
+      return requests.sum();
+    }
+
+    /**
+     * Returns the number of times a lock request had to wait for an entry or subtree lock held by
+     * another thread. A single lock request can wait for several locks, including the subtree locks
+     * of the parent entries.
+     *
+     * @return the number of times a lock request had to wait
+     */
+    public long getWaitCount()
+    {
+      return waits.sum();
+    }
+
+    /**
+     * Returns the total time spent waiting for entry or subtree locks held by other threads.
+     *
+     * @param unit
+     *          the unit of the returned time
+     * @return the total time spent waiting for locks
+     */
+    public long getWaitTime(final TimeUnit unit)
+    {
+      return unit.convert(waitTimeNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of lock requests which failed because a lock could not be acquired before
+     * the lock timeout.
+     *
+     * @return the number of lock requests which timed out
+     */
+    public long getTimeoutCount()
+    {
+      return timeouts.sum();
+    }
+  }
+
   /** A lock on an entry or subtree. A lock can only be unlocked once. */
   public final class DNLock
   {
@@ -150,15 +228,21 @@ public final class LockManager
     }
   }
 
-  /** Lock implementation. */
+  /**
+   * Lock implementation. Instances are recycled once removed from the lock table, so the DN
+   * related fields are only modified while holding the lock of the bucket, and while the lock is
+   * not referenced by any thread.
+   */
   private final class DNLockHolder
   {
     private final AtomicInteger refCount = new AtomicInteger();
-    private final DNLockHolder parent;
-    private final DN dn;
-    private final int dnHashCode;
     private final ReentrantReadWriteLock subtreeLock = new ReentrantReadWriteLock();
     private final ReentrantReadWriteLock entryLock = new ReentrantReadWriteLock();
+    private DNLockHolder parent;
+    private DN dn;
+    private int dnHashCode;
+    /** The next lock in the chain of the bucket, or in the pool of the bucket. */
+    private DNLockHolder next;
 
     DNLockHolder(final DNLockHolder parent, final DN dn, final int dnHashCode)
     {
@@ -184,21 +268,21 @@ public final class LockManager
 
     DNLock tryReadLockEntry()
     {
-      return tryLock(subtreeLock.readLock(), entryLock.readLock());
+      return tryLock(LockType.READ_ENTRY, subtreeLock.readLock(), entryLock.readLock());
     }
 
     DNLock tryWriteLockEntry()
     {
-      return tryLock(subtreeLock.readLock(), entryLock.writeLock());
+      return tryLock(LockType.WRITE_ENTRY, subtreeLock.readLock(), entryLock.writeLock());
     }
 
     DNLock tryWriteLockSubtree()
     {
-      return tryLock(subtreeLock.writeLock(), entryLock.writeLock());
+      return tryLock(LockType.WRITE_SUBTREE, subtreeLock.writeLock(), entryLock.writeLock());
     }
 
     /** Locks the subtree read lock from the root down to the parent of this lock. */
-    private boolean tryAcquireParentSubtreeReadLock()
+    private boolean tryAcquireParentSubtreeReadLock(final LockStatistics stats)
     {
       // First lock the parents of the parent.
       if (parent == null)
@@ -206,29 +290,31 @@ public final class LockManager
         return true;
       }
 
-      if (!parent.tryAcquireParentSubtreeReadLock())
+      if (!parent.tryAcquireParentSubtreeReadLock(stats))
       {
         return false;
       }
 
       // Then lock the parent of this lock
-      if (tryLockWithTimeout(parent.subtreeLock.readLock()))
+      if (tryLockWithTimeout(parent.subtreeLock.readLock(), stats))
       {
         return true;
       }
 
       // Failed to grab the parent lock within the timeout, so roll-back the other locks.
-      releaseParentSubtreeReadLock();
+      parent.releaseParentSubtreeReadLock();
       return false;
     }
 
-    private DNLock tryLock(final Lock subtreeLock, final Lock entryLock)
+    private DNLock tryLock(final LockType lockType, final Lock subtreeLock, final Lock entryLock)
     {
-      if (tryAcquireParentSubtreeReadLock())
+      final LockStatistics stats = statistics[lockType.ordinal()];
+      stats.requests.increment();
+      if (tryAcquireParentSubtreeReadLock(stats))
       {
-        if (tryLockWithTimeout(subtreeLock))
+        if (tryLockWithTimeout(subtreeLock, stats))
         {
-          if (tryLockWithTimeout(entryLock))
+          if (tryLockWithTimeout(entryLock, stats))
           {
             return new DNLock(this, subtreeLock, entryLock);
           }
@@ -237,15 +323,30 @@ public final class LockManager
         releaseParentSubtreeReadLock();
       }
       // Failed to acquire all the necessary locks within the time out.
+      stats.timeouts.increment();
       dereference(this);
       return null;
     }
 
-    private boolean tryLockWithTimeout(final Lock lock)
+    private boolean tryLockWithTimeout(final Lock lock, final LockStatistics stats)
     {
       try
       {
-        return lock.tryLock(lockTimeout, lockTimeoutUnits);
+        // A zero timeout does not wait and, unlike tryLock(), honors the fairness policy.
+        if (lock.tryLock(0, TimeUnit.NANOSECONDS))
+        {
+          return true;
+        }
+        final long startTime = System.nanoTime();
+        try
+        {
+          return lock.tryLock(lockTimeout, lockTimeoutUnits);
+        }
+        finally
+        {
+          stats.waits.increment();
+          stats.waitTimeNanos.add(System.nanoTime() - startTime);
+        }
       }
       catch (final InterruptedException e)
       {
@@ -256,18 +357,163 @@ public final class LockManager
     }
   }
 
+  /**
+   * A bucket of the lock table, whose lock guards the chain of locks of the bucket, most recently
+   * used first, and the pool of locks which can be reused by the bucket.
+   */
+  @SuppressWarnings("serial")
+  private static final class Bucket extends ReentrantLock
+  {
+    private DNLockHolder head;
+    private DNLockHolder pool;
+    private int poolSize;
+
+    /** Removes the lock for the provided DN from the chain, and returns it or {@code null}. */
+    DNLockHolder remove(final DN dn, final int dnHashCode)
+    {
+      DNLockHolder previous = null;
+      for (DNLockHolder lock = head; lock != null; previous = lock, lock = lock.next)
+      {
+        if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
+        {
+          unlink(previous, lock);
+          return lock;
+        }
+      }
+      return null;
+    }
+
+    /** Removes the provided lock from the chain, and returns whether it was in the chain. */
+    boolean remove(final DNLockHolder lockToRemove)
+    {
+      DNLockHolder previous = null;
+      for (DNLockHolder lock = head; lock != null; previous = lock, lock = lock.next)
+      {
+        if (lock == lockToRemove)
+        {
+          unlink(previous, lock);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void unlink(final DNLockHolder previous, final DNLockHolder lock)
+    {
+      if (previous == null)
+      {
+        head = lock.next;
+      }
+      else
+      {
+        previous.next = lock.next;
+      }
+      lock.next = null;
+    }
+
+    void addFirst(final DNLockHolder lock)
+    {
+      lock.next = head;
+      head = lock;
+    }
+
+    /** Returns a lock from the pool, or {@code null} if the pool is empty. */
+    DNLockHolder pollPool()
+    {
+      final DNLockHolder lock = pool;
+      if (lock != null)
+      {
+        pool = lock.next;
+        lock.next = null;
+        poolSize--;
+      }
+      return lock;
+    }
+
+    /** Adds a lock which is no longer referenced to the pool, unless the pool is full. */
+    void offerPool(final DNLockHolder lock)
+    {
+      if (poolSize < MAXIMUM_POOLED_LOCKS_PER_BUCKET)
+      {
+        lock.next = pool;
+        pool = lock;
+        poolSize++;
+      }
+    }
+  }
+
+  /** A small thread local cache of locks, most recently used first. */
+  private static final class LockCache
+  {
+    private final DNLockHolder[] locks = new DNLockHolder[THREAD_LOCAL_CACHE_SIZE];
+    private int size;
+
+    /** Returns the cached lock for the provided DN without removing it, or {@code null}. */
+    DNLockHolder get(final DN dn, final int dnHashCode)
+    {
+      final int index = indexOf(dn, dnHashCode);
+      return index >= 0 ? locks[index] : null;
+    }
+
+    /** Removes the cached lock for the provided DN, and returns it or {@code null}. */
+    DNLockHolder remove(final DN dn, final int dnHashCode)
+    {
+      final int index = indexOf(dn, dnHashCode);
+      if (index < 0)
+      {
+        return null;
+      }
+      final DNLockHolder lock = locks[index];
+      System.arraycopy(locks, index + 1, locks, index, size - index - 1);
+      locks[--size] = null;
+      return lock;
+    }
+
+    private int indexOf(final DN dn, final int dnHashCode)
+    {
+      for (int i = 0; i < size; i++)
+      {
+        final DNLockHolder lock = locks[i];
+        if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
+        {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Adds the provided lock first, and returns the least recently used lock if it had to be
+     * evicted, or {@code null}.
+     */
+    DNLockHolder addFirst(final DNLockHolder lock)
+    {
+      DNLockHolder evicted = null;
+      if (size == locks.length)
+      {
+        evicted = locks[--size];
+      }
+      System.arraycopy(locks, 0, locks, 1, size);
+      locks[0] = lock;
+      size++;
+      return evicted;
+    }
+  }
+
   private static final long DEFAULT_LOCK_TIMEOUT = 9;
   private static final TimeUnit DEFAULT_LOCK_TIMEOUT_UNITS = TimeUnit.SECONDS;
   private static final int MINIMUM_NUMBER_OF_BUCKETS = 64;
   private static final int THREAD_LOCAL_CACHE_SIZE = 8;
+  private static final int MAXIMUM_POOLED_LOCKS_PER_BUCKET = 4;
 
   private final int numberOfBuckets;
-  private final LinkedList<DNLockHolder>[] lockTable;
+  private final Bucket[] lockTable;
+  private final LockStatistics[] statistics;
   private final long lockTimeout;
   private final TimeUnit lockTimeoutUnits;
 
   /** Avoid sub-classing in order to workaround class leaks in app servers. */
-  private final ThreadLocal<LinkedList<DNLockHolder>> threadLocalCache = new ThreadLocal<>();
+  private final ThreadLocal<LockCache> threadLocalCache = new ThreadLocal<>();
 
   /**
    * Creates a new lock manager with a lock timeout of 9 seconds and an automatically chosen number
@@ -302,7 +548,6 @@ public final class LockManager
    * @param numberOfBuckets
    *          The number of buckets to use in the lock table. The minimum number of buckets is 64.
    */
-  @SuppressWarnings("unchecked")
   private LockManager(final long lockTimeout, final TimeUnit lockTimeoutUnit, final int numberOfBuckets)
   {
     Reject.ifFalse(lockTimeout >= 0, "lockTimeout must be a non-negative integer");
@@ -312,10 +557,15 @@ public final class LockManager
     this.lockTimeout = lockTimeout;
     this.lockTimeoutUnits = lockTimeoutUnit;
     this.numberOfBuckets = getNumberOfBuckets(numberOfBuckets);
-    this.lockTable = new LinkedList[this.numberOfBuckets];
+    this.lockTable = new Bucket[this.numberOfBuckets];
     for (int i = 0; i < this.numberOfBuckets; i++)
     {
-      this.lockTable[i] = new LinkedList<>();
+      this.lockTable[i] = new Bucket();
+    }
+    this.statistics = new LockStatistics[LockType.values().length];
+    for (int i = 0; i < statistics.length; i++)
+    {
+      this.statistics[i] = new LockStatistics();
     }
   }
 
@@ -323,21 +573,37 @@ public final class LockManager
   public String toString()
   {
     final StringBuilder builder = new StringBuilder();
-    for (int i = 0; i < numberOfBuckets; i++)
+    for (final Bucket bucket : lockTable)
     {
-      final LinkedList<DNLockHolder> bucket = lockTable[i];
-      synchronized (bucket)
+      bucket.lock();
+      try
       {
-        for (final DNLockHolder lock : bucket)
+        for (DNLockHolder lock = bucket.head; lock != null; lock = lock.next)
         {
           builder.append(lock);
           builder.append('\n');
         }
       }
+      finally
+      {
+        bucket.unlock();
+      }
     }
     return builder.toString();
   }
 
+  /**
+   * Returns the statistics about the requests for the provided type of lock.
+   *
+   * @param lockType
+   *          The type of lock.
+   * @return The statistics about the requests for the provided type of lock.
+   */
+  public LockStatistics getStatistics(final LockType lockType)
+  {
+    return statistics[lockType.ordinal()];
+  }
+
   /**
    * Acquires the read lock for the specified entry. This method will block if the entry is already
    * write locked or if the entry, or any of its parents, have the subtree write lock taken.
@@ -382,10 +648,11 @@ public final class LockManager
   int getLockTableRefCountFor(final DN dn)
   {
     final int dnHashCode = dn.hashCode();
-    final LinkedList<DNLockHolder> bucket = getBucket(dnHashCode);
-    synchronized (bucket)
+    final Bucket bucket = getBucket(dnHashCode);
+    bucket.lock();
+    try
     {
-      for (final DNLockHolder lock : bucket)
+      for (DNLockHolder lock = bucket.head; lock != null; lock = lock.next)
       {
         if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
         {
@@ -394,57 +661,54 @@ public final class LockManager
       }
       return -1;
     }
+    finally
+    {
+      bucket.unlock();
+    }
   }
 
   /** For unit testing. */
   int getThreadLocalCacheRefCountFor(final DN dn)
   {
-    final LinkedList<DNLockHolder> cache = threadLocalCache.get();
+    final LockCache cache = threadLocalCache.get();
     if (cache == null)
     {
       return -1;
     }
-    final int dnHashCode = dn.hashCode();
-    for (final DNLockHolder lock : cache)
-    {
-      if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
-      {
-        return lock.refCount.get();
-      }
-    }
-    return -1;
+    final DNLockHolder lock = cache.get(dn, dn.hashCode());
+    return lock != null ? lock.refCount.get() : -1;
   }
 
   private DNLockHolder acquireLockFromCache(final DN dn)
   {
-    LinkedList<DNLockHolder> cache = threadLocalCache.get();
+    LockCache cache = threadLocalCache.get();
     if (cache == null)
     {
-      cache = new LinkedList<>();
+      cache = new LockCache();
       threadLocalCache.set(cache);
     }
     return acquireLockFromCache0(dn, cache);
   }
 
-  private DNLockHolder acquireLockFromCache0(final DN dn, final LinkedList<DNLockHolder> cache)
+  private DNLockHolder acquireLockFromCache0(final DN dn, final LockCache cache)
   {
     final int dnHashCode = dn.hashCode();
-    DNLockHolder lock = removeLock(cache, dn, dnHashCode);
+    DNLockHolder lock = cache.remove(dn, dnHashCode);
     if (lock == null)
     {
       lock = acquireLockFromLockTable(dn, dnHashCode, cache);
-      if (cache.size() >= THREAD_LOCAL_CACHE_SIZE)
-      {
-        // Cache too big: evict oldest entry.
-        dereference(cache.removeLast());
-      }
     }
-    cache.addFirst(lock); // optimize for LRU
+    final DNLockHolder evictedLock = cache.addFirst(lock); // optimize for LRU
+    if (evictedLock != null)
+    {
+      // Cache too big: the oldest entry was evicted.
+      dereference(evictedLock);
+    }
     lock.refCount.incrementAndGet();
     return lock;
   }
 
-  private DNLockHolder acquireLockFromLockTable(final DN dn, final int dnHashCode, final LinkedList<DNLockHolder> cache)
+  private DNLockHolder acquireLockFromLockTable(final DN dn, final int dnHashCode, final LockCache cache)
   {
     /*
      * The lock doesn't exist yet so we'll have to create a new one referencing its parent lock. The
@@ -459,19 +723,34 @@ public final class LockManager
     boolean parentLockWasUsed = false;
     try
     {
-      final LinkedList<DNLockHolder> bucket = getBucket(dnHashCode);
-      synchronized (bucket)
+      final Bucket bucket = getBucket(dnHashCode);
+      bucket.lock();
+      try
       {
-        DNLockHolder lock = removeLock(bucket, dn, dnHashCode);
+        DNLockHolder lock = bucket.remove(dn, dnHashCode);
         if (lock == null)
         {
-          lock = new DNLockHolder(parentLock, dn, dnHashCode);
+          lock = bucket.pollPool();
+          if (lock != null)
+          {
+            lock.parent = parentLock;
+            lock.dn = dn;
+            lock.dnHashCode = dnHashCode;
+          }
+          else
+          {
+            lock = new DNLockHolder(parentLock, dn, dnHashCode);
+          }
           parentLockWasUsed = true;
         }
         bucket.addFirst(lock); // optimize for LRU
         lock.refCount.incrementAndGet();
         return lock;
       }
+      finally
+      {
+        bucket.unlock();
+      }
     }
     finally
     {
@@ -484,34 +763,47 @@ public final class LockManager
 
   private void dereference(final DNLockHolder lock)
   {
+    // Read the hash code before decrementing: the lock may be recycled as soon as it is unreferenced.
+    final int dnHashCode = lock.dnHashCode;
     if (lock.refCount.decrementAndGet() <= 0)
     {
-      final LinkedList<DNLockHolder> bucket = getBucket(lock.dnHashCode);
-      boolean lockWasRemoved = false;
-      synchronized (bucket)
+      final Bucket bucket = getBucket(dnHashCode);
+      DNLockHolder parentLock = null;
+      bucket.lock();
+      try
       {
-        // Double check: another thread could have acquired the lock since we decremented it to zero.
-        if (lock.refCount.get() <= 0)
+        /*
+         * Double check: another thread could have acquired the lock since we decremented it to zero,
+         * or even removed it and recycled it, in which case it is no longer in the chain.
+         */
+        if (lock.refCount.get() <= 0 && bucket.remove(lock))
         {
-          removeLock(bucket, lock.dn, lock.dnHashCode);
-          lockWasRemoved = true;
+          parentLock = lock.parent;
+          lock.parent = null;
+          lock.dn = null;
+          bucket.offerPool(lock);
         }
       }
+      finally
+      {
+        bucket.unlock();
+      }
 
       /*
        * Dereference the parent outside of the bucket lock to avoid potential deadlocks due to
        * reentrant bucket locks.
        */
-      if (lockWasRemoved && lock.parent != null)
+      if (parentLock != null)
       {
-        dereference(lock.parent);
+        dereference(parentLock);
       }
     }
   }
 
-  private LinkedList<DNLockHolder> getBucket(final int dnHashCode)
+  private Bucket getBucket(final int dnHashCode)
   {
-    return lockTable[dnHashCode & numberOfBuckets - 1];
+    // Spread the higher bits of the hash code, which would otherwise be ignored.
+    return lockTable[(dnHashCode ^ (dnHashCode >>> 16)) & numberOfBuckets - 1];
   }
 
   /**
@@ -520,7 +812,7 @@ public final class LockManager
    */
   private int getNumberOfBuckets(final int buckets)
   {
-    final int roundedNumberOfBuckets = Math.min(buckets, MINIMUM_NUMBER_OF_BUCKETS);
+    final int roundedNumberOfBuckets = Math.max(buckets, MINIMUM_NUMBER_OF_BUCKETS);
     int powerOf2 = 1;
     while (powerOf2 < roundedNumberOfBuckets)
     {
@@ -528,20 +820,4 @@ public final class LockManager
     }
     return powerOf2;
   }
-
-  private DNLockHolder removeLock(final LinkedList<DNLockHolder> lockList, final DN dn, final int dnHashCode)
-  {
-    final Iterator<DNLockHolder> iterator = lockList.iterator();
-    while (iterator.hasNext())
-    {
-      final DNLockHolder lock = iterator.next();
-      if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
-      {
-        // Found: remove the lock because it will be moved to the front of the list.
-        iterator.remove();
-        return lock;
-      }
-    }
-    return null;
-  }
 }
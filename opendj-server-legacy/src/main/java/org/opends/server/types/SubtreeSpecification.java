@@ -218,6 +218,19 @@ public final class SubtreeSpecification
     }
   }
 
+  /** An object class resolved in a schema. */
+  private static final class ResolvedObjectClass
+  {
+    private final Schema schema;
+    private final ObjectClass objectClass;
+
+    private ResolvedObjectClass(final Schema schema, final ObjectClass objectClass)
+    {
+      this.schema = schema;
+      this.objectClass = objectClass;
+    }
+  }
+
   /**
    * RFC 3672 subtree specification Item refinement. This type of
    * refinement filters entries based on the presence of a specified
@@ -231,6 +244,9 @@ public final class SubtreeSpecification
     /** The item's normalized object class. */
     private final String normalizedObjectClass;
 
+    /** The item's object class, resolved in the last schema used, so that it is not resolved for each entry. */
+    private volatile ResolvedObjectClass resolvedObjectClass;
+
     /**
      * Create a new item refinement.
      *
@@ -272,8 +288,14 @@ public final class SubtreeSpecification
     @Override
     public boolean matches(final Entry entry)
     {
-      Schema schema = DirectoryServer.getInstance().getServerContext().getSchema();
-      final ObjectClass oc = schema.getObjectClass(normalizedObjectClass);
+      final Schema schema = DirectoryServer.getInstance().getServerContext().getSchema();
+      ResolvedObjectClass resolved = resolvedObjectClass;
+      if (resolved == null || resolved.schema != schema)
+      {
+        resolved = new ResolvedObjectClass(schema, schema.getObjectClass(normalizedObjectClass));
+        resolvedObjectClass = resolved;
+      }
+      final ObjectClass oc = resolved.objectClass;
       return !oc.isPlaceHolder() && entry.hasObjectClass(oc);
     }
 
@@ -1333,8 +1355,22 @@ public final class SubtreeSpecification
    */
   public boolean isWithinScope(final Entry entry)
   {
-    return isDNWithinScope(entry.getName())
-        && (refinements == null || refinements.matches(entry));
+    return isDNWithinScope(entry.getName()) && isRefinementMatching(entry);
+  }
+
+  /**
+   * Determine if an entry matches the refinements of the subtree
+   * specification, regardless of its DN.
+   *
+   * @param entry
+   *          The entry.
+   * @return {@code true} if the subtree specification has no
+   *         refinements or if the entry matches them, or
+   *         {@code false} if not.
+   */
+  public boolean isRefinementMatching(final Entry entry)
+  {
+    return refinements == null || refinements.matches(entry);
   }
 
   /**
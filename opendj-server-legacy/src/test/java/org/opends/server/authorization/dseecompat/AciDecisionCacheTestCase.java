@@ -0,0 +1,196 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.authorization.dseecompat;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+import java.net.InetAddress;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.types.Entry;
+import org.testng.annotations.Test;
+
+/** Tests the cache of the bind rule results which only depend on the client identity. */
+@SuppressWarnings("javadoc")
+public class AciDecisionCacheTestCase extends AciTestCase
+{
+  private AciEvalContext newEvalContext(AciDecisionCache cache, long connectionID, String clientDN)
+      throws Exception
+  {
+    final AciEvalContext evalCtx = mock(AciEvalContext.class);
+    when(evalCtx.getDecisionCache()).thenReturn(cache);
+    when(evalCtx.getConnectionID()).thenReturn(connectionID);
+    when(evalCtx.getClientDN()).thenReturn(DN.valueOf(clientDN));
+    when(evalCtx.getRemoteAddress()).thenReturn(InetAddress.getByName("127.0.0.1"));
+    return evalCtx;
+  }
+
+  @Test
+  public void testIdentityOnlyResultsAreCached() throws Exception
+  {
+    final AciDecisionCache cache = new AciDecisionCache();
+    final BindRule bindRule = BindRule.decode("ip=\"127.0.0.1\"");
+    final AciEvalContext evalCtx = newEvalContext(cache, 1, "uid=user.1,o=test");
+
+    assertEquals(bindRule.evaluate(evalCtx), EnumEvalResult.TRUE);
+    assertEquals(bindRule.evaluate(evalCtx), EnumEvalResult.TRUE);
+    assertEquals(cache.getMissCount(), 1);
+    assertEquals(cache.getHitCount(), 1);
+    verify(evalCtx, times(1)).getRemoteAddress();
+
+    // Another connection does not share the cached result
+    assertEquals(bindRule.evaluate(newEvalContext(cache, 2, "uid=user.1,o=test")), EnumEvalResult.TRUE);
+    assertEquals(cache.getMissCount(), 2);
+    assertEquals(cache.getSize(), 2);
+  }
+
+  @Test
+  public void testFinalizedConnectionResultsAreRemoved() throws Exception
+  {
+    final AciDecisionCache cache = new AciDecisionCache();
+    final BindRule bindRule = BindRule.decode("ip=\"127.0.0.1\"");
+    bindRule.evaluate(newEvalContext(cache, 1, "uid=user.1,o=test"));
+    bindRule.evaluate(newEvalContext(cache, 2, "uid=user.1,o=test"));
+    assertEquals(cache.getSize(), 2);
+
+    cache.connectionFinalized(1);
+    assertEquals(cache.getSize(), 1);
+
+    // The results of the other connection are still cached
+    bindRule.evaluate(newEvalContext(cache, 2, "uid=user.1,o=test"));
+    assertEquals(cache.getHitCount(), 1);
+    bindRule.evaluate(newEvalContext(cache, 1, "uid=user.1,o=test"));
+    assertEquals(cache.getMissCount(), 3);
+  }
+
+  @Test
+  public void testOtherResultsAreNotCached() throws Exception
+  {
+    final AciDecisionCache cache = new AciDecisionCache();
+    final BindRule bindRule = BindRule.decode("userdn=\"ldap:///self\"");
+    final AciEvalContext evalCtx = newEvalContext(cache, 1, "uid=user.1,o=test");
+
+    bindRule.evaluate(evalCtx);
+    bindRule.evaluate(evalCtx);
+    assertEquals(cache.getMissCount(), 0);
+    assertEquals(cache.getSize(), 0);
+  }
+
+  @Test
+  public void testInvalidation() throws Exception
+  {
+    TestCaseUtils.startServer();
+    final AciDecisionCache cache = new AciDecisionCache();
+    final BindRule bindRule = BindRule.decode("ip=\"127.0.0.1\"");
+    bindRule.evaluate(newEvalContext(cache, 1, "uid=user.1,ou=people,o=test"));
+    assertEquals(cache.getSize(), 1);
+
+    // Unrelated entry
+    final Entry otherEntry = TestCaseUtils.makeEntry(
+        "dn: uid=user.2,ou=people,o=test",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user.2",
+        "sn: user.2");
+    cache.entryModified(otherEntry, otherEntry);
+    assertEquals(cache.getSize(), 1);
+
+    final Entry group = TestCaseUtils.makeEntry(
+        "dn: cn=group,o=test",
+        "objectClass: top",
+        "objectClass: groupOfNames",
+        "cn: group");
+    cache.entryAdded(group);
+    assertEquals(cache.getSize(), 0);
+    assertEquals(cache.getInvalidationCount(), 1);
+  }
+
+  @Test
+  public void testBaseEntryModifyDoesNotClearCache() throws Exception
+  {
+    TestCaseUtils.startServer();
+    final AciDecisionCache cache = new AciDecisionCache();
+    final BindRule bindRule = BindRule.decode("ip=\"127.0.0.1\"");
+    bindRule.evaluate(newEvalContext(cache, 1, "uid=user.1,ou=people,o=test"));
+    bindRule.evaluate(newEvalContext(cache, 2, "uid=user.2,ou=people,o=test"));
+    assertEquals(cache.getSize(), 2);
+
+    // e.g. the replication server state flushed to the base entry
+    final Entry baseEntry = TestCaseUtils.makeEntry(
+        "dn: o=test",
+        "objectClass: top",
+        "objectClass: organization",
+        "o: test");
+    cache.entryModified(baseEntry, baseEntry);
+    assertEquals(cache.getSize(), 2);
+    assertEquals(cache.getInvalidationCount(), 0);
+  }
+
+  @Test
+  public void testClientEntryModifyRemovesOnlyContentDependentResults() throws Exception
+  {
+    TestCaseUtils.startServer();
+    final AciDecisionCache cache = new AciDecisionCache();
+    final BindRule ipRule = BindRule.decode("ip=\"127.0.0.1\"");
+    final BindRule filterRule = BindRule.decode("userdn=\"ldap:///o=test??sub?(cn=user.1)\"");
+    final AciEvalContext evalCtx = newEvalContext(cache, 1, "uid=user.1,ou=people,o=test");
+    final Entry clientEntry = TestCaseUtils.makeEntry(
+        "dn: uid=user.1,ou=people,o=test",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user.1",
+        "sn: user.1");
+    when(evalCtx.getClientEntry()).thenReturn(clientEntry);
+    ipRule.evaluate(evalCtx);
+    filterRule.evaluate(evalCtx);
+    ipRule.evaluate(newEvalContext(cache, 2, "uid=user.2,ou=people,o=test"));
+    assertEquals(cache.getSize(), 3);
+
+    // e.g. the password policy state updated on bind
+    cache.entryModified(clientEntry, clientEntry);
+    assertEquals(cache.getSize(), 2);
+    assertEquals(cache.getInvalidationCount(), 0);
+
+    ipRule.evaluate(evalCtx);
+    assertEquals(cache.getHitCount(), 1);
+  }
+
+  @Test
+  public void testAncestorDeleteAndRenameRemoveSubtreeResults() throws Exception
+  {
+    TestCaseUtils.startServer();
+    final AciDecisionCache cache = new AciDecisionCache();
+    final BindRule bindRule = BindRule.decode("ip=\"127.0.0.1\"");
+    bindRule.evaluate(newEvalContext(cache, 1, "uid=user.1,ou=people,o=test"));
+    bindRule.evaluate(newEvalContext(cache, 2, "uid=user.2,ou=people,o=test"));
+    bindRule.evaluate(newEvalContext(cache, 3, "uid=admin,ou=admins,o=test"));
+    assertEquals(cache.getSize(), 3);
+
+    cache.subtreeRenamed(DN.valueOf("ou=people,o=test"), DN.valueOf("ou=users,o=test"));
+    assertEquals(cache.getSize(), 1);
+
+    cache.entryDeleted(TestCaseUtils.makeEntry(
+        "dn: uid=admin,ou=admins,o=test",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: admin",
+        "sn: admin"));
+    assertEquals(cache.getSize(), 0);
+    assertEquals(cache.getInvalidationCount(), 0);
+  }
+}
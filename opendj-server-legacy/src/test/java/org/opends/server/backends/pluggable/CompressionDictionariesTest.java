@@ -0,0 +1,67 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.backends.pluggable.CompressionDictionaries.*;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.backends.pluggable.DefaultIndexTest.DummyWriteableTransaction;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential = true)
+public class CompressionDictionariesTest extends DirectoryServerTestCase
+{
+  @Test
+  public void testAddedDictionaryIsOnlyUsedOnceInstalled()
+  {
+    final DummyWriteableTransaction txn = new DummyWriteableTransaction();
+    final CompressionDictionaries dictionaries =
+        new CompressionDictionaries(new TreeName("dc=example,dc=com", "compression_dictionaries"));
+    dictionaries.open(txn, true);
+
+    final byte[] dictionary = { 1, 2, 3 };
+    final int id = dictionaries.add(txn, dictionary);
+    assertThat(dictionaries.getCurrentID()).isEqualTo(NO_DICTIONARY);
+    assertThat(dictionaries.get(id)).isNull();
+
+    dictionaries.install(id, dictionary);
+    assertThat(dictionaries.getCurrentID()).isEqualTo(id);
+    assertThat(dictionaries.get(id)).isEqualTo(dictionary);
+  }
+
+  @Test
+  public void testRolledBackDictionaryIDIsReused()
+  {
+    final CompressionDictionaries dictionaries =
+        new CompressionDictionaries(new TreeName("dc=example,dc=com", "compression_dictionaries"));
+    final DummyWriteableTransaction rolledBackTxn = new DummyWriteableTransaction();
+    dictionaries.open(rolledBackTxn, true);
+    final int rolledBackID = dictionaries.add(rolledBackTxn, new byte[] { 1 });
+
+    // the rolled back transaction is discarded: reopen the storage as it was before
+    final DummyWriteableTransaction txn = new DummyWriteableTransaction();
+    dictionaries.open(txn, true);
+    assertThat(dictionaries.getCurrentID()).isEqualTo(NO_DICTIONARY);
+    final int id = dictionaries.add(txn, new byte[] { 2 });
+    assertThat(id).isEqualTo(rolledBackID);
+
+    dictionaries.install(id, new byte[] { 2 });
+    assertThat(dictionaries.get(id)).containsExactly(2);
+  }
+}
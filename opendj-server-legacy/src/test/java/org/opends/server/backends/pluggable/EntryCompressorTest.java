@@ -0,0 +1,170 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential = true)
+public class EntryCompressorTest extends DirectoryServerTestCase
+{
+  private static final String[] GIVEN_NAMES = { "Aaron", "Babs", "Carla", "Dennis", "Elena", "Frank", "Gwen" };
+  private static final String[] SURNAMES = { "Jensen", "Carter", "Smith", "Bergin", "Walker", "Nguyen" };
+
+  @DataProvider
+  public Object[][] compressors()
+  {
+    return new Object[][] { { EntryCompressors.DEFLATE }, { EntryCompressors.LZ4 } };
+  }
+
+  @Test(dataProvider = "compressors")
+  public void testRoundTripWithoutDictionary(EntryCompressor compressor) throws Exception
+  {
+    final Random random = new Random(0);
+    for (int i = 0; i < 200; i++)
+    {
+      assertRoundTrip(compressor, newEntry(random, i), null);
+    }
+    assertRoundTrip(compressor, new byte[0], null);
+    assertRoundTrip(compressor, new byte[] { 42 }, null);
+    assertRoundTrip(compressor, new byte[100000], null);
+    assertRoundTrip(compressor, randomBytes(random, 5000), null);
+  }
+
+  @Test(dataProvider = "compressors")
+  public void testRoundTripWithDictionary(EntryCompressor compressor) throws Exception
+  {
+    final Random random = new Random(0);
+    final byte[] dictionary = train(random, 4096);
+    for (int i = 0; i < 200; i++)
+    {
+      assertRoundTrip(compressor, newEntry(random, i), dictionary);
+    }
+    assertRoundTrip(compressor, new byte[0], dictionary);
+    assertRoundTrip(compressor, randomBytes(random, 5000), dictionary);
+  }
+
+  @Test(dataProvider = "compressors")
+  public void testDictionaryImprovesCompression(EntryCompressor compressor) throws Exception
+  {
+    final byte[] dictionary = train(new Random(0), 4096);
+    final byte[] entry = newEntry(new Random(1), 12345);
+
+    final ByteStringBuilder withoutDictionary = new ByteStringBuilder();
+    compressor.compress(entry, entry.length, null, withoutDictionary);
+    final ByteStringBuilder withDictionary = new ByteStringBuilder();
+    compressor.compress(entry, entry.length, dictionary, withDictionary);
+
+    assertThat(withDictionary.length()).isLessThan(withoutDictionary.length());
+  }
+
+  @Test(dataProvider = "compressors", expectedExceptions = DataFormatException.class)
+  public void testDecompressTruncatedInput(EntryCompressor compressor) throws Exception
+  {
+    final byte[] entry = newEntry(new Random(0), 1);
+    final ByteStringBuilder compressed = new ByteStringBuilder();
+    compressor.compress(entry, entry.length, null, compressed);
+
+    compressor.decompress(compressed.getBackingArray(), 0, compressed.length() / 2, null, new byte[entry.length]);
+  }
+
+  @Test(expectedExceptions = DataFormatException.class)
+  public void testLZ4DecompressWithoutDictionary() throws Exception
+  {
+    final byte[] dictionary = train(new Random(0), 4096);
+    final byte[] entry = newEntry(new Random(1), 1);
+    final ByteStringBuilder compressed = new ByteStringBuilder();
+    EntryCompressors.LZ4.compress(entry, entry.length, dictionary, compressed);
+
+    EntryCompressors.LZ4.decompress(compressed.getBackingArray(), 0, compressed.length(), null,
+        new byte[entry.length]);
+  }
+
+  @Test
+  public void testTrainerRespectsMaxSize()
+  {
+    assertThat(train(new Random(0), 1000).length).isGreaterThan(0).isLessThanOrEqualTo(1000);
+  }
+
+  @Test
+  public void testTrainerWithUnrelatedSamples()
+  {
+    final Random random = new Random(0);
+    final CompressionDictionaryTrainer trainer = new CompressionDictionaryTrainer();
+    for (int i = 0; i < 10; i++)
+    {
+      trainer.addSample(new ByteStringBuilder().appendBytes(randomBytes(random, 200)));
+    }
+    assertThat(trainer.train(1000)).isEmpty();
+  }
+
+  @Test
+  public void testForID()
+  {
+    assertThat(EntryCompressors.forID(EntryCompressors.DEFLATE.getID())).isSameAs(EntryCompressors.DEFLATE);
+    assertThat(EntryCompressors.forID(EntryCompressors.LZ4.getID())).isSameAs(EntryCompressors.LZ4);
+    assertThat(EntryCompressors.forID((byte) 0x7F)).isNull();
+  }
+
+  private static void assertRoundTrip(EntryCompressor compressor, byte[] data, byte[] dictionary)
+      throws DataFormatException
+  {
+    final ByteStringBuilder compressed = new ByteStringBuilder();
+    compressed.appendByte(0xFF); // Ensure offsets are honored
+    compressor.compress(data, data.length, dictionary, compressed);
+
+    final byte[] decompressed = new byte[data.length];
+    compressor.decompress(compressed.getBackingArray(), 1, compressed.length() - 1, dictionary, decompressed);
+    assertThat(decompressed).isEqualTo(data);
+  }
+
+  private static byte[] train(Random random, int maxSize)
+  {
+    final CompressionDictionaryTrainer trainer = new CompressionDictionaryTrainer();
+    for (int i = 0; i < 100; i++)
+    {
+      trainer.addSample(new ByteStringBuilder().appendBytes(newEntry(random, i)));
+    }
+    return trainer.train(maxSize);
+  }
+
+  private static byte[] newEntry(Random random, int i)
+  {
+    final String givenName = GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+    final String surname = SURNAMES[random.nextInt(SURNAMES.length)];
+    final String uid = "user." + i;
+    return ("dn: uid=" + uid + ",ou=People,dc=example,dc=com\n"
+        + "objectClass: top\nobjectClass: person\nobjectClass: organizationalPerson\nobjectClass: inetOrgPerson\n"
+        + "uid: " + uid + "\ngivenName: " + givenName + "\nsn: " + surname + "\ncn: " + givenName + " " + surname
+        + "\nmail: " + uid + "@example.com\ntelephoneNumber: +1 408 555 " + random.nextInt(10000)
+        + "\ndescription: This is the description for " + givenName + " " + surname + ".\n").getBytes();
+  }
+
+  private static byte[] randomBytes(Random random, int length)
+  {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
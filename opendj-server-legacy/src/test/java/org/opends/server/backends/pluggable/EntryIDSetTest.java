@@ -16,13 +16,17 @@
 package org.opends.server.backends.pluggable;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
 import static org.opends.server.backends.pluggable.Utils.*;
 
 import java.util.Arrays;
 
 import org.forgerock.opendj.ldap.ByteString;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.crypto.CryptoSuite;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -290,9 +294,152 @@ public class EntryIDSetTest extends DirectoryServerTestCase
     assertIdsEquals(retained, 1, 3, 5, 7, 9);
   }
 
+  @Test
+  public void testBitmapAddRemove()
+  {
+    final EntryIDSet set = newBitmapSet(6, 8, 10, 12);
+
+    assertThat(set.add(id(4))).isTrue();
+    assertThat(set.add(id(70000))).isTrue();
+    assertThat(set.add(id(10))).isFalse();
+    assertIdsEquals(set, 4, 6, 8, 10, 12, 70000);
+    assertThat(set.size()).isEqualTo(6);
+
+    assertThat(set.remove(id(70000))).isTrue();
+    assertThat(set.remove(id(70000))).isFalse();
+    assertThat(set.contains(id(70000))).isFalse();
+    assertThat(set.contains(id(8))).isTrue();
+    assertThat(set.toLongArray()).containsExactly(4, 6, 8, 10, 12);
+  }
+
+  @Test
+  public void testBitmapDenseContainer()
+  {
+    final long[] ids = new long[10000];
+    for (int i = 0; i < ids.length; i++)
+    {
+      ids[i] = i * 2;
+    }
+    final EntryIDSet set = newBitmapSet(ids);
+    assertThat(set.size()).isEqualTo(ids.length);
+    assertThat(set.toLongArray()).isEqualTo(ids);
+
+    final EntryIDSet decoded = CODEC_V4.decode(KEY, CODEC_V4.encode(set));
+    assertThat(decoded.toLongArray()).isEqualTo(ids);
+
+    for (int i = 0; i < ids.length; i += 2)
+    {
+      assertThat(decoded.remove(id(ids[i]))).isTrue();
+    }
+    assertThat(decoded.size()).isEqualTo(ids.length / 2);
+    assertThat(decoded.contains(id(2))).isTrue();
+    assertThat(decoded.contains(id(4))).isFalse();
+  }
+
+  @Test
+  public void testBitmapAddAllRemoveAll()
+  {
+    final EntryIDSet set = newBitmapSet(10, 12);
+
+    set.addAll(newDefinedSet(6, 8));
+    set.addAll(newBitmapSet(14, 16, 70000));
+    assertIdsEquals(set, 6, 8, 10, 12, 14, 16, 70000);
+
+    set.removeAll(newBitmapSet(8, 70000));
+    set.removeAll(newDefinedSet(6, 7));
+    assertThat(set.toLongArray()).containsExactly(10, 12, 14, 16);
+  }
+
+  @Test
+  public void testBitmapRetainAll()
+  {
+    EntryIDSet retained = newBitmapSet(2, 4, 6, 8);
+    retained.retainAll(newBitmapSet(1, 2, 3, 5, 6, 7, 8));
+    assertThat(retained.toLongArray()).containsExactly(2, 6, 8);
+
+    retained = newBitmapSet(2, 4, 6, 8);
+    retained.retainAll(newDefinedSet(1, 2, 3, 5, 6, 7, 8));
+    assertThat(retained.toLongArray()).containsExactly(2, 6, 8);
+
+    retained = newDefinedSet(2, 4, 6, 8);
+    retained.retainAll(newBitmapSet(1, 2, 3, 5, 6, 7, 8));
+    assertThat(retained.toLongArray()).containsExactly(2, 6, 8);
+
+    final EntryIDSet shared = newBitmapSet(1, 3, 5);
+    retained = newUndefinedSet();
+    retained.retainAll(shared);
+    retained.add(id(7));
+    assertThat(retained.toLongArray()).containsExactly(1, 3, 5, 7);
+    assertThat(shared.toLongArray()).containsExactly(1, 3, 5);
+  }
+
+  @Test
+  public void testNewSetFromUnionsWithBitmaps()
+  {
+    final EntryIDSet union =
+        newSetFromUnion(Arrays.asList(newBitmapSet(1, 2, 3), newDefinedSet(4, 5, 6), newBitmapSet(3, 4, 70000)));
+    assertThat(union.toLongArray()).containsExactly(1, 2, 3, 4, 5, 6, 70000);
+  }
+
+  @Test
+  public void testCodecV4EmptySet()
+  {
+    assertThat(CODEC_V4.encode(newBitmapSet()).length()).isEqualTo(0);
+    assertThat(CODEC_V4.encode(newDefinedSet()).length()).isEqualTo(0);
+
+    final EntryIDSet decoded = CODEC_V4.decode(KEY, ByteString.empty());
+    assertThat(decoded.isDefined()).isTrue();
+    assertThat(decoded.size()).isEqualTo(0);
+
+    decoded.add(new EntryID(3));
+    assertIdsEquals(CODEC_V4.decode(KEY, CODEC_V4.encode(decoded)), 3);
+  }
+
+  @Test
+  public void testCodecV4UndefinedSet()
+  {
+    final ByteString string = CODEC_V4.encode(newUndefinedSet());
+    assertThat(string.length()).isEqualTo(1);
+    assertThat(CODEC_V4.decode(KEY, string).isDefined()).isFalse();
+  }
+
+  @Test
+  public void testCodecV3WithV4() throws Exception
+  {
+    final EntryIDSetCodec codecV3 = newEntryIDSetCodecV3(CODEC_V4, newIdentityCryptoSuite());
+
+    // values written before the encryption was enabled
+    assertIdsEquals(codecV3.decode(KEY, CODEC_V4.encode(newDefinedSet(4, 6, 70000))), 4, 6, 70000);
+    assertThat(codecV3.decode(KEY, CODEC_V4.encode(newDefinedSet())).size()).isEqualTo(0);
+    assertThat(codecV3.decode(KEY, CODEC_V4.encode(newUndefinedSet())).isDefined()).isFalse();
+
+    // encrypted values
+    assertIdsEquals(codecV3.decode(KEY, codecV3.encode(newDefinedSet(4, 6, 70000))), 4, 6, 70000);
+    final EntryIDSet empty = codecV3.decode(KEY, codecV3.encode(newDefinedSet()));
+    assertThat(empty.isDefined()).isTrue();
+    assertThat(empty.size()).isEqualTo(0);
+    assertThat(codecV3.decode(KEY, codecV3.encode(newUndefinedSet())).isDefined()).isFalse();
+  }
+
+  private static CryptoSuite newIdentityCryptoSuite() throws Exception
+  {
+    final Answer<byte[]> identity = new Answer<byte[]>()
+    {
+      @Override
+      public byte[] answer(InvocationOnMock invocation)
+      {
+        return (byte[]) invocation.getArguments()[0];
+      }
+    };
+    final CryptoSuite cryptoSuite = mock(CryptoSuite.class);
+    when(cryptoSuite.encrypt(any(byte[].class))).thenAnswer(identity);
+    when(cryptoSuite.decrypt(any(byte[].class))).thenAnswer(identity);
+    return cryptoSuite;
+  }
+
   @DataProvider(name = "codecs")
   public static Object[][] codecs() {
-     return new Object[][] { { CODEC_V1 }, { CODEC_V2 } };
+     return new Object[][] { { CODEC_V1 }, { CODEC_V2 }, { CODEC_V4 } };
   }
 
 }
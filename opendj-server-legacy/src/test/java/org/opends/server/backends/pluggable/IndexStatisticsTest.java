@@ -0,0 +1,85 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.backends.pluggable.AttributeIndex.IndexFilterType.*;
+import static org.opends.server.backends.pluggable.EntryIDSet.*;
+import static org.opends.server.backends.pluggable.IndexStatistics.*;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.types.SearchFilter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential = true)
+public class IndexStatisticsTest extends DirectoryServerTestCase
+{
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  private static SearchFilter filter(int i) throws Exception
+  {
+    return SearchFilter.createFilterFromString("(uid=user." + i + ")");
+  }
+
+  @Test
+  public void testLeastRecentlyUsedFilterIsEvicted() throws Exception
+  {
+    final IndexStatistics statistics = new IndexStatistics();
+    final SearchFilter hotFilter = filter(0);
+    statistics.record(EQUALITY, hotFilter, newDefinedSet(1, 2, 3));
+    for (int i = 1; i < MAX_FILTERS; i++)
+    {
+      statistics.record(EQUALITY, filter(i), newDefinedSet(1));
+    }
+
+    // the hot filter is the oldest recorded, but it was used since
+    assertThat(statistics.estimateCardinality(EQUALITY, hotFilter)).isEqualTo(3);
+    for (int i = MAX_FILTERS; i < 2 * MAX_FILTERS - 1; i++)
+    {
+      statistics.record(EQUALITY, filter(i), newDefinedSet());
+      assertThat(statistics.estimateCardinality(EQUALITY, hotFilter)).isEqualTo(3);
+    }
+    // the other filters were evicted in the order they were used: the oldest ones are now estimated from the average
+    assertThat(statistics.estimateCardinality(EQUALITY, filter(1))).isNotEqualTo(1);
+    assertThat(statistics.estimateCardinality(EQUALITY, filter(2 * MAX_FILTERS - 2))).isEqualTo(0);
+  }
+
+  @Test
+  public void testStaleLimitExceededFilterIsSampledAgain() throws Exception
+  {
+    final IndexStatistics statistics = new IndexStatistics();
+    final SearchFilter filter = filter(0);
+    statistics.record(EQUALITY, filter, newUndefinedSet());
+
+    for (int i = 0; i < MAX_ESTIMATIONS_WITHOUT_EVALUATION; i++)
+    {
+      assertThat(statistics.estimateCardinality(EQUALITY, filter)).isEqualTo(LIMIT_EXCEEDED);
+    }
+    // not evaluated again for a long time: must be evaluated first to gather statistics again
+    assertThat(statistics.estimateCardinality(EQUALITY, filter)).isEqualTo(UNKNOWN);
+
+    // the key shrank below the index entry limit since
+    statistics.record(EQUALITY, filter, newDefinedSet(1, 2));
+    assertThat(statistics.estimateCardinality(EQUALITY, filter)).isEqualTo(2);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential = true)
+public class OrderStatisticTreeTest extends DirectoryServerTestCase
+{
+  @Test
+  public void testEmptyTree()
+  {
+    final OrderStatisticTree tree = new OrderStatisticTree();
+    assertThat(tree.size()).isEqualTo(0);
+    assertThat(tree.get(0)).isNull();
+    assertThat(tree.rank(key(42))).isEqualTo(0);
+    assertThat(tree.remove(key(42))).isFalse();
+  }
+
+  @Test
+  public void testSequentialAddsAndRemoves()
+  {
+    final OrderStatisticTree tree = new OrderStatisticTree();
+    for (int i = 0; i < 10000; i++)
+    {
+      assertThat(tree.add(key(i))).isTrue();
+    }
+    assertThat(tree.add(key(5000))).isFalse();
+    assertThat(tree.size()).isEqualTo(10000);
+    assertThat(tree.get(9000)).isEqualTo(key(9000));
+    assertThat(tree.rank(key(9000))).isEqualTo(9000);
+
+    for (int i = 0; i < 10000; i += 2)
+    {
+      assertThat(tree.remove(key(i))).isTrue();
+    }
+    assertThat(tree.size()).isEqualTo(5000);
+    assertThat(tree.get(4500)).isEqualTo(key(9001));
+    assertThat(tree.rank(key(9000))).isEqualTo(4500);
+    assertThat(tree.get(5000)).isNull();
+  }
+
+  @Test
+  public void testRandomOperationsMatchSortedSet()
+  {
+    final Random random = new Random(0);
+    final OrderStatisticTree tree = new OrderStatisticTree();
+    final TreeSet<ByteString> expected = new TreeSet<>();
+    for (int i = 0; i < 50000; i++)
+    {
+      final ByteString key = key(random.nextInt(5000));
+      if (random.nextInt(3) > 0)
+      {
+        assertThat(tree.add(key)).isEqualTo(expected.add(key));
+      }
+      else
+      {
+        assertThat(tree.remove(key)).isEqualTo(expected.remove(key));
+      }
+    }
+
+    assertThat(tree.size()).isEqualTo(expected.size());
+    final List<ByteString> keys = new ArrayList<>(expected);
+    for (int i = 0; i < keys.size(); i++)
+    {
+      assertThat(tree.get(i)).isEqualTo(keys.get(i));
+      assertThat(tree.rank(keys.get(i))).isEqualTo(i);
+    }
+    assertThat(tree.rank(key(-1))).isEqualTo(0);
+    assertThat(tree.rank(key(5000))).isEqualTo(keys.size());
+  }
+
+  private static ByteString key(int i)
+  {
+    // Keep the integer order in the byte order
+    return ByteString.valueOfInt(i ^ Integer.MIN_VALUE);
+  }
+}
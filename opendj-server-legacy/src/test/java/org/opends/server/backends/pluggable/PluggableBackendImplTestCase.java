@@ -27,6 +27,10 @@ import static org.testng.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -35,7 +39,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ConditionResult;
 import org.forgerock.opendj.ldap.DN;
@@ -79,6 +91,7 @@ import org.opends.server.types.BackupConfig;
 import org.opends.server.types.BackupDirectory;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
+import org.opends.server.types.ExistingFileBehavior;
 import org.opends.server.types.LDIFExportConfig;
 import org.opends.server.types.LDIFImportConfig;
 import org.opends.server.types.Modification;
@@ -816,6 +829,175 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     subTreeSearch(true);
   }
 
+  @DataProvider
+  protected Object[][] parallelSearchData()
+  {
+    return new Object[][] {
+      // @formatter:off
+      { SearchScope.WHOLE_SUBTREE, "objectclass=*" }, // unindexed
+      { SearchScope.SINGLE_LEVEL, "objectclass=*" }, // unindexed
+      { SearchScope.WHOLE_SUBTREE, "sn=*" }, // indexed
+      { SearchScope.WHOLE_SUBTREE, "(&(sn=*)(employeeNumber=1*))" }, // partially indexed
+      // @formatter:on
+    };
+  }
+
+  @Test(dataProvider = "parallelSearchData")
+  public void testParallelSearchReturnsEntriesInSequentialOrder(SearchScope scope, String filter) throws Exception
+  {
+    final SearchRequest request = newSearchRequest(testBaseDN, scope, filter);
+    final List<SearchResultEntry> expected = runSearch(request, false);
+
+    final ParallelSearchExecutor parallelSearchExecutor = backend.getRootContainer().getParallelSearchExecutor();
+    final PluggableBackendCfg parallelCfg = mock(PluggableBackendCfg.class);
+    when(parallelCfg.getParallelSearchThreads()).thenReturn(2);
+    when(parallelCfg.getParallelSearchMaxThreadsPerSearch()).thenReturn(2);
+    when(parallelCfg.getParallelSearchCandidateThreshold()).thenReturn(1);
+    parallelSearchExecutor.applyConfiguration(parallelCfg);
+    try
+    {
+      assertThat(parallelSearchExecutor.isParallelSearchEnabled(1)).isTrue();
+      assertThat(getNames(runSearch(request, false))).isEqualTo(getNames(expected));
+    }
+    finally
+    {
+      parallelSearchExecutor.applyConfiguration(mock(PluggableBackendCfg.class));
+    }
+    assertThat(parallelSearchExecutor.isParallelSearchEnabled(Integer.MAX_VALUE)).isFalse();
+  }
+
+  @Test
+  public void testWriteCombinerRunsAgainOnlyTheOtherWritesOfAFailedBatch() throws Exception
+  {
+    final WriteCombiner writeCombiner = backend.getRootContainer().getWriteCombiner();
+    final PluggableBackendCfg batchCfg = mock(PluggableBackendCfg.class);
+    when(batchCfg.getWriteBatchMaxSize()).thenReturn(8);
+    writeCombiner.applyConfiguration(batchCfg);
+
+    final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+    final AtomicInteger successfulRuns = new AtomicInteger();
+    final AtomicInteger failedRuns = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(5);
+    try
+    {
+      final Future<Void> firstWrite = submitWrite(executor, writeCombiner, new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          firstWriteStarted.countDown();
+          releaseFirstWrite.await();
+        }
+      });
+      firstWriteStarted.await();
+      final long fallbacks = writeCombiner.getFallbackCount();
+      final long batches = writeCombiner.getBatchCount();
+
+      // These writes are queued in this order while the first one is being committed
+      final WriteOperation successfulOperation = new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          successfulRuns.incrementAndGet();
+        }
+      };
+      final DirectoryException failure = new DirectoryException(ResultCode.OTHER, LocalizableMessage.raw("failure"));
+      final List<Future<Void>> successfulWrites = new ArrayList<>();
+      successfulWrites.add(submitQueuedWrite(executor, writeCombiner, successfulOperation));
+      final Future<Void> failedWrite = submitQueuedWrite(executor, writeCombiner, new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          failedRuns.incrementAndGet();
+          throw failure;
+        }
+      });
+      successfulWrites.add(submitQueuedWrite(executor, writeCombiner, successfulOperation));
+      successfulWrites.add(submitQueuedWrite(executor, writeCombiner, successfulOperation));
+      releaseFirstWrite.countDown();
+
+      firstWrite.get();
+      for (Future<Void> successfulWrite : successfulWrites)
+      {
+        successfulWrite.get();
+      }
+      try
+      {
+        failedWrite.get();
+        fail("Expected the write operation to fail");
+      }
+      catch (ExecutionException e)
+      {
+        assertSame(e.getCause(), failure);
+      }
+      // The failed write operation ran once, after the first write operation of the batch.
+      // The three successful write operations were then committed together.
+      assertEquals(failedRuns.get(), 1);
+      assertEquals(successfulRuns.get(), 4);
+      assertEquals(writeCombiner.getFallbackCount(), fallbacks + 1);
+      assertEquals(writeCombiner.getBatchCount(), batches + 2);
+    }
+    finally
+    {
+      executor.shutdown();
+      writeCombiner.applyConfiguration(createBackendCfg());
+    }
+  }
+
+  private Future<Void> submitWrite(ExecutorService executor, final WriteCombiner writeCombiner,
+      final WriteOperation operation)
+  {
+    return executor.submit(new Callable<Void>()
+    {
+      @Override
+      public Void call() throws Exception
+      {
+        writeCombiner.write(operation);
+        return null;
+      }
+    });
+  }
+
+  /** Submits a write operation while a batch is being committed, and waits until it is queued. */
+  private Future<Void> submitQueuedWrite(ExecutorService executor, WriteCombiner writeCombiner,
+      WriteOperation operation) throws InterruptedException
+  {
+    final int pendingWriteCount = writeCombiner.getPendingWriteCount();
+    final Future<Void> write = submitWrite(executor, writeCombiner, operation);
+    while (writeCombiner.getPendingWriteCount() == pendingWriteCount)
+    {
+      Thread.sleep(10);
+    }
+    return write;
+  }
+
+  private List<DN> getNames(List<SearchResultEntry> entries)
+  {
+    final List<DN> names = new ArrayList<>(entries.size());
+    for (SearchResultEntry entry : entries)
+    {
+      names.add(entry.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testAndFilterEvaluationIsPlannedWithIndexStatistics() throws Exception
+  {
+    final SearchRequest request = newSearchRequest(testBaseDN, SearchScope.WHOLE_SUBTREE, "(&(sn=*)(uid=user.0))")
+        .addAttribute("debugsearchindex");
+    // The first search gathers the statistics about the filter components.
+    runSearch(request, false);
+
+    final List<SearchResultEntry> result = runSearch(request, false);
+    assertThat(result).hasSize(1);
+    final String debugSearchIndex = result.get(0).parseAttribute("debugsearchindex").asString();
+    assertThat(debugSearchIndex).contains("[PLAN:(uid=user.0)=1 (sn=*)=");
+  }
+
   @Test
   public void testSubTreeSearchAgainstAnIndexWithUnrecognizedMatchingRule() throws Exception
   {
@@ -925,6 +1107,90 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     }
   }
 
+  @Test
+  public void testParallelExportLDIFMatchesSequentialExport() throws Exception
+  {
+    assertEquals(exportLDIF(4), exportLDIF(1));
+  }
+
+  @Test
+  public void testParallelExportLDIFOfSeveralRangesMatchesSequentialExport() throws Exception
+  {
+    final String expected = exportLDIF(1);
+    final long chunkSize = ExportJob.chunkSize;
+    ExportJob.chunkSize = 1;
+    try
+    {
+      // More ranges than the threads buffer, so that the ranges are written while the next ones are exported
+      assertThat(getLDIFRecords(expected).size()).isGreaterThan(2 * 2);
+      assertEquals(exportLDIF(2), expected);
+    }
+    finally
+    {
+      ExportJob.chunkSize = chunkSize;
+    }
+  }
+
+  @Test
+  public void testShardedExportLDIFMatchesSequentialExport() throws Exception
+  {
+    final List<String> expected = getLDIFRecords(exportLDIF(1));
+    final long chunkSize = ExportJob.chunkSize;
+    ExportJob.chunkSize = 1;
+    final File ldifDir = TestCaseUtils.createTemporaryDirectory("export-shards");
+    try
+    {
+      final String ldifFile = new File(ldifDir, "export.ldif").getPath();
+      try (final LDIFExportConfig exportConfig = new LDIFExportConfig(ldifFile, ExistingFileBehavior.OVERWRITE))
+      {
+        exportConfig.setIncludeOperationalAttributes(true);
+        exportConfig.setThreadCount(2);
+        exportConfig.setShardedOutput(true);
+        backend.exportLDIF(exportConfig);
+      }
+
+      final List<String> actual = new ArrayList<>();
+      for (int shard = 1; shard <= 2; shard++)
+      {
+        final byte[] shardContent = Files.readAllBytes(Paths.get(ldifFile + "." + shard));
+        actual.addAll(getLDIFRecords(new String(shardContent, StandardCharsets.UTF_8)));
+      }
+      Collections.sort(expected);
+      Collections.sort(actual);
+      assertEquals(actual, expected);
+    }
+    finally
+    {
+      ExportJob.chunkSize = chunkSize;
+      TestCaseUtils.deleteDirectory(ldifDir);
+    }
+  }
+
+  private List<String> getLDIFRecords(String ldif)
+  {
+    final List<String> records = new ArrayList<>();
+    for (String record : ldif.split("(\\r?\\n){2,}"))
+    {
+      if (!record.trim().isEmpty())
+      {
+        records.add(record.trim());
+      }
+    }
+    return records;
+  }
+
+  private String exportLDIF(int threadCount) throws Exception
+  {
+    ByteArrayOutputStream ldifOutputContent = new ByteArrayOutputStream();
+    try (final LDIFExportConfig exportConfig = new LDIFExportConfig(ldifOutputContent))
+    {
+      exportConfig.setIncludeOperationalAttributes(true);
+      exportConfig.setThreadCount(threadCount);
+      backend.exportLDIF(exportConfig);
+    }
+    return ldifOutputContent.toString();
+  }
+
   @Test
   public void testExportLDIFAndImportLDIF() throws Exception
   {
@@ -1100,6 +1366,64 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     assertThat(backend.verifyBackend(config)).isEqualTo(0);
   }
 
+  @Test
+  public void testRebuildDegradedIndexOnline() throws Exception
+  {
+    final EntryContainer entryContainer =  backend.getRootContainer().getEntryContainers().iterator().next();
+
+    final Set<String> dirtyIndexes = new HashSet<>(Arrays.asList("sn", "uid", "telephoneNumber"));
+    assertThat(backendIndexes.keySet()).containsAll(dirtyIndexes);
+
+    backend.getRootContainer().getStorage().write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        for(AttributeIndex attribute : entryContainer.getAttributeIndexes())
+        {
+          boolean trusted = !dirtyIndexes.contains(attribute.getAttributeType().getNameOrOID());
+          for(Index idx : attribute.getNameToIndexes().values())
+          {
+            idx.setTrusted(txn, trusted);
+          }
+        }
+      }
+    });
+
+    RebuildConfig rebuildConf = new RebuildConfig();
+    rebuildConf.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    rebuildConf.setRebuildMode(RebuildMode.DEGRADED);
+    rebuildConf.setOnlineRebuild(true);
+
+    // The backend remains open
+    backend.rebuildBackend(rebuildConf, TestCaseUtils.getServerContext());
+
+    for(AttributeIndex attribute : entryContainer.getAttributeIndexes())
+    {
+      for(Index idx : attribute.getNameToIndexes().values())
+      {
+        assertTrue(idx.isTrusted(), idx.getName() + " should be trusted");
+      }
+    }
+    assertThat(backend.getRootContainer().getOnlineIndexRebuilders()).isEmpty();
+
+    VerifyConfig config = new VerifyConfig();
+    config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    for (String indexName : backendIndexes.keySet())
+    {
+      config.addCompleteIndex(indexName);
+    }
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+
+    config = new VerifyConfig();
+    config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    for (String indexName : backendIndexes.keySet())
+    {
+      config.addCleanIndex(indexName);
+    }
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+  }
+
   @Test
   public void testVerifyID2ChildrenCount() throws Exception
   {
@@ -52,7 +52,7 @@ import org.testng.annotations.Test;
 @Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
 public class StateTest extends DirectoryServerTestCase
 {
-  private static final IndexFlag DEFAULT_FLAG = COMPACTED;
+  private static final IndexFlag[] DEFAULT_FLAGS = { COMPACTED, BITMAP };
 
   private final TreeName stateTreeName = new TreeName("base-dn", "index-id");
   private TreeName indexTreeName;
@@ -96,28 +96,28 @@ public class StateTest extends DirectoryServerTestCase
   @Test
   public void testDefaultValuesForNotExistingEntries() throws Exception
   {
-    assertThat(getFlags()).containsExactly(DEFAULT_FLAG);
+    assertThat(getFlags()).containsExactly(DEFAULT_FLAGS);
   }
 
   @Test
   public void testCreateNewFlagHasDefaultValue() throws Exception
   {
     addFlags();
-    assertThat(getFlags()).containsExactly(DEFAULT_FLAG);
+    assertThat(getFlags()).containsExactly(DEFAULT_FLAGS);
   }
 
   @Test
   public void testCreateStateTrustedIsAlsoCompacted() throws Exception
   {
     addFlags(TRUSTED);
-    assertThat(getFlags()).containsExactly(TRUSTED, DEFAULT_FLAG);
+    assertThat(getFlags()).containsExactly(TRUSTED, COMPACTED, BITMAP);
   }
 
   @Test
   public void testCreateWithTrustedAndCompacted() throws Exception
   {
     addFlags(TRUSTED, COMPACTED);
-    assertThat(getFlags()).containsExactly(TRUSTED, COMPACTED);
+    assertThat(getFlags()).containsExactly(TRUSTED, COMPACTED, BITMAP);
   }
 
   @Test
@@ -142,12 +142,12 @@ public class StateTest extends DirectoryServerTestCase
   public void testRemoveFlags() throws Exception
   {
     addFlags(COMPACTED, TRUSTED);
-    assertThat(getFlags()).containsExactly(TRUSTED, COMPACTED);
+    assertThat(getFlags()).containsExactly(TRUSTED, COMPACTED, BITMAP);
 
     removeFlags(TRUSTED);
-    assertThat(getFlags()).containsExactly(COMPACTED);
+    assertThat(getFlags()).containsExactly(COMPACTED, BITMAP);
 
-    removeFlags(COMPACTED);
+    removeFlags(COMPACTED, BITMAP);
     assertThat(getFlags()).containsExactly();
   }
 
@@ -165,7 +165,7 @@ public class StateTest extends DirectoryServerTestCase
       }
     });
 
-    assertThat(getFlags()).containsExactly(COMPACTED);
+    assertThat(getFlags()).containsExactly(DEFAULT_FLAGS);
   }
 
   private PDBBackendCfg createBackendCfg() throws ConfigException, DirectoryException
@@ -198,7 +198,7 @@ public class StateTest extends DirectoryServerTestCase
   }
 
   private void createEmptyFlag() throws Exception {
-    removeFlags(DEFAULT_FLAG);
+    removeFlags(DEFAULT_FLAGS);
   }
 
   private void addFlags(final IndexFlag... flags) throws Exception
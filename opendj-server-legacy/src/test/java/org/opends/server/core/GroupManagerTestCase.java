@@ -16,6 +16,8 @@
  */
 package org.opends.server.core;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -50,6 +52,7 @@ import static org.forgerock.opendj.ldap.requests.Requests.*;
 import static org.opends.server.protocols.internal.InternalClientConnection.*;
 import static org.opends.server.protocols.internal.Requests.*;
 import static org.opends.server.types.NullOutputStream.nullPrintStream;
+import static org.opends.server.util.CollectionUtils.newHashSet;
 import static org.opends.server.util.ServerConstants.*;
 import static org.testng.Assert.*;
 
@@ -200,6 +203,84 @@ public class GroupManagerTestCase
     assertTrue(group1Instance.isMember(user5DN));
   }
 
+  /**
+   * Tests that the groups of an entry are found with the reverse membership
+   * index, including through nested static and dynamic groups, and that the
+   * index follows the changes of the members and the deletion of groups.
+   *
+   * @throws Exception If an unexpected problem occurs.
+   */
+  @Test
+  public void testGetGroupInstancesOfMember() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    addNestedGroupTestEntries();
+    DN group1DN = DN.valueOf("cn=group 1,ou=Groups,o=test");
+    DN group2DN = DN.valueOf("cn=group 2,ou=Groups,o=test");
+    DN group3DN = DN.valueOf("cn=group 3,ou=Groups,o=test");
+    DN group4DN = DN.valueOf("cn=group 4,ou=Groups,o=test");
+    Entry user1Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.1,ou=People,o=test"));
+    Entry user2Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.2,ou=People,o=test"));
+    Entry user5Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.5,ou=People,o=test"));
+    Group group1Instance = groupManager.getGroupInstance(group1DN);
+    Group group2Instance = groupManager.getGroupInstance(group2DN);
+    group1Instance.addNestedGroup(group2DN);
+    //Dynamic group 4 is added to nested list of group 2.
+    group2Instance.addNestedGroup(group4DN);
+    group1Instance.addMember(user1Entry);
+    group2Instance.addMember(user2Entry);
+    assertEquals(getGroupDNs(groupManager, user1Entry), newHashSet(group1DN));
+    assertEquals(getGroupDNs(groupManager, user2Entry), newHashSet(group1DN, group2DN));
+    //User 5 matches the URL of the dynamic group "group 4".
+    assertEquals(getGroupDNs(groupManager, user5Entry), newHashSet(group1DN, group2DN, group4DN));
+
+    //Nest group 1 in group 3 via ldap modify.
+    ModifyRequest modifyRequest = newModifyRequest(group3DN)
+        .addModification(ADD, "member", group1DN.toString());
+    assertEquals(getRootConnection().processModify(modifyRequest).getResultCode(), ResultCode.SUCCESS);
+    assertEquals(getGroupDNs(groupManager, user1Entry), newHashSet(group1DN, group3DN));
+
+    //Replace the members of group 2, removing user 2 and the dynamic group 4.
+    modifyRequest = newModifyRequest(group2DN)
+        .addModification(REPLACE, "member", user1Entry.getName().toString());
+    assertEquals(getRootConnection().processModify(modifyRequest).getResultCode(), ResultCode.SUCCESS);
+    assertEquals(getGroupDNs(groupManager, user1Entry), newHashSet(group1DN, group2DN, group3DN));
+    assertEquals(getGroupDNs(groupManager, user2Entry), newHashSet());
+    assertEquals(getGroupDNs(groupManager, user5Entry), newHashSet(group4DN));
+
+    //Group 3 still lists group 1 once deleted, but group 1 no longer nests its members.
+    TestCaseUtils.deleteEntry(group1DN);
+    assertEquals(getGroupDNs(groupManager, user1Entry), newHashSet(group2DN));
+    for (Entry userEntry : Arrays.asList(user1Entry, user2Entry, user5Entry))
+    {
+      assertEquals(getGroupDNs(groupManager, userEntry), getGroupDNsByMembership(groupManager, userEntry));
+    }
+  }
+
+  private Set<DN> getGroupDNs(GroupManager groupManager, Entry memberEntry)
+  {
+    Set<DN> groupDNs = new HashSet<>();
+    for (Group<?> group : groupManager.getGroupInstancesOfMember(memberEntry))
+    {
+      groupDNs.add(group.getGroupDN());
+    }
+    return groupDNs;
+  }
+
+  private Set<DN> getGroupDNsByMembership(GroupManager groupManager, Entry memberEntry) throws DirectoryException
+  {
+    Set<DN> groupDNs = new HashSet<>();
+    for (Group<?> group : groupManager.getGroupInstances())
+    {
+      if (group.isMember(memberEntry))
+      {
+        groupDNs.add(group.getGroupDN());
+      }
+    }
+    return groupDNs;
+  }
+
   /**
    * Invokes membership and nested group APIs using a group instance that has
    * been changed by the group manager via ldap modify.
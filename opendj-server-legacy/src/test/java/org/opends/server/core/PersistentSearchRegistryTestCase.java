@@ -0,0 +1,283 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.opends.server.util.CollectionUtils.*;
+import static org.testng.Assert.*;
+
+import java.util.EnumSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.protocols.internal.InternalSearchListener;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchResultEntry;
+import org.opends.server.types.SearchResultReference;
+import org.opends.server.util.TestTimer;
+import org.opends.server.util.TestTimer.CallableVoid;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests the indexing and the notifications of the persistent searches. */
+@SuppressWarnings("javadoc")
+public class PersistentSearchRegistryTestCase extends CoreTestCase
+{
+  private static final int MAX_PENDING_NOTIFICATIONS = 100;
+
+  private final BlockingQueue<Entry> notifiedEntries = new LinkedBlockingQueue<>();
+  private PersistentSearchRegistry registry;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void createRegistry()
+  {
+    registry = new PersistentSearchRegistry();
+    notifiedEntries.clear();
+  }
+
+  @AfterMethod
+  public void closeRegistry()
+  {
+    registry.close();
+  }
+
+  private PersistentSearch register(String baseDN, SearchScope scope, String filter)
+  {
+    return register(baseDN, scope, filter, new InternalSearchListener()
+    {
+      @Override
+      public void handleInternalSearchEntry(InternalSearchOperation searchOperation, SearchResultEntry searchEntry)
+          throws DirectoryException
+      {
+        notifiedEntries.add(searchEntry);
+      }
+
+      @Override
+      public void handleInternalSearchReference(InternalSearchOperation searchOperation,
+          SearchResultReference searchReference) throws DirectoryException
+      {
+        // No references
+      }
+    });
+  }
+
+  private PersistentSearch register(String baseDN, SearchScope scope, String filter, InternalSearchListener listener)
+  {
+    final InternalSearchOperation searchOperation = new InternalSearchOperation(
+        getRootConnection(), nextOperationID(), nextMessageID(), newSearchRequest(baseDN, scope, filter), listener);
+    final PersistentSearch psearch =
+        new PersistentSearch(searchOperation, EnumSet.allOf(PersistentSearchChangeType.class), true, false);
+    DirectoryServer.registerPersistentSearch();
+    registry.register(psearch);
+    return psearch;
+  }
+
+  private Entry user(String uid, String... extraLines) throws Exception
+  {
+    final String[] lines = new String[6 + extraLines.length];
+    lines[0] = "dn: uid=" + uid + ",ou=people,o=test";
+    lines[1] = "objectClass: top";
+    lines[2] = "objectClass: person";
+    lines[3] = "uid: " + uid;
+    lines[4] = "cn: " + uid;
+    lines[5] = "sn: " + uid;
+    System.arraycopy(extraLines, 0, lines, 6, extraLines.length);
+    return TestCaseUtils.makeEntry(lines);
+  }
+
+  @Test
+  public void testCandidatesByBaseDN() throws Exception
+  {
+    final PersistentSearch all = register("o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+    final PersistentSearch people = register("ou=people,o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=person)");
+    final PersistentSearch groups = register("ou=groups,o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+
+    final Entry entry = user("jdoe");
+    assertEquals(registry.getCandidates(entry.getName(), null, entry, null), newHashSet(all, people));
+
+    final DN newDN = DN.valueOf("uid=jdoe,ou=groups,o=test");
+    assertEquals(registry.getCandidates(entry.getName(), newDN, entry, null),
+        newHashSet(all, people, groups));
+  }
+
+  @Test
+  public void testCandidatesByTerm() throws Exception
+  {
+    final PersistentSearch jdoe = register("o=test", SearchScope.WHOLE_SUBTREE, "(uid=JDOE)");
+    final PersistentSearch jsmith =
+        register("o=test", SearchScope.WHOLE_SUBTREE, "(&(objectClass=person)(uid=jsmith))");
+    final PersistentSearch sales = register("o=test", SearchScope.WHOLE_SUBTREE, "(description=sales)");
+
+    final Entry entry = user("jdoe");
+    assertEquals(registry.getCandidates(entry.getName(), null, entry, null), newHashSet(jdoe));
+
+    final Entry modifiedEntry = user("jdoe", "description: Sales");
+    assertEquals(registry.getCandidates(entry.getName(), null, modifiedEntry, entry),
+        newHashSet(jdoe, sales));
+
+    // More values than terms
+    final Entry manyValues = user("jsmith", "description: marketing", "description: support", "description: sales");
+    assertEquals(registry.getCandidates(manyValues.getName(), null, manyValues, null),
+        newHashSet(jsmith, sales));
+
+    registry.deregister(jdoe);
+    assertTrue(registry.getCandidates(entry.getName(), null, entry, null).isEmpty());
+    assertFalse(registry.getPersistentSearches().contains(jdoe));
+  }
+
+  @Test
+  public void testNotifications() throws Exception
+  {
+    register("ou=people,o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=person)");
+    register("o=test", SearchScope.WHOLE_SUBTREE, "(uid=jdoe)");
+    register("ou=groups,o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+
+    final Entry entry = user("jdoe");
+    registry.notifyAdd(entry);
+    assertEquals(notifiedEntries.poll(10, TimeUnit.SECONDS).getName(), entry.getName());
+    assertEquals(notifiedEntries.poll(10, TimeUnit.SECONDS).getName(), entry.getName());
+    assertNull(notifiedEntries.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testCancelledSearchesAreDeregistered() throws Exception
+  {
+    final PersistentSearch psearch = register("o=test", SearchScope.WHOLE_SUBTREE, "(uid=jdoe)");
+    psearch.registerCancellationCallback(new PersistentSearch.CancellationCallback()
+    {
+      @Override
+      public void persistentSearchCancelled(PersistentSearch cancelled)
+      {
+        registry.deregister(cancelled);
+      }
+    });
+
+    psearch.cancel();
+    assertTrue(registry.getPersistentSearches().isEmpty());
+
+    final Entry entry = user("jdoe");
+    assertTrue(registry.getCandidates(entry.getName(), null, entry, null).isEmpty());
+  }
+
+  /** Registers a persistent search whose client is stuck on its first notification until the latch is released. */
+  private CountDownLatch registerStuckSearch(final PersistentSearch[] psearch) throws Exception
+  {
+    final CountDownLatch notified = new CountDownLatch(1);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    psearch[0] = register("o=test", SearchScope.WHOLE_SUBTREE, "(uid=jdoe)",
+        new InternalSearchListener()
+        {
+          @Override
+          public void handleInternalSearchEntry(InternalSearchOperation searchOperation,
+              SearchResultEntry searchEntry) throws DirectoryException
+          {
+            notified.countDown();
+            try
+            {
+              unblock.await();
+            }
+            catch (InterruptedException e)
+            {
+              Thread.currentThread().interrupt();
+            }
+          }
+
+          @Override
+          public void handleInternalSearchReference(InternalSearchOperation searchOperation,
+              SearchResultReference searchReference) throws DirectoryException
+          {
+            // No references
+          }
+        });
+
+    // The dispatcher thread is stuck sending the first notification to the client
+    registry.notifyAdd(user("jdoe"));
+    assertTrue(notified.await(10, TimeUnit.SECONDS));
+    return unblock;
+  }
+
+  @Test
+  public void testSlowSearchIsNotCancelledByDefault() throws Exception
+  {
+    final PersistentSearch[] psearch = new PersistentSearch[1];
+    final CountDownLatch unblock = registerStuckSearch(psearch);
+
+    // The updates do not wait for the client, and the notifications are kept until it catches up
+    final Entry entry = user("jdoe");
+    for (int i = 0; i < 2 * MAX_PENDING_NOTIFICATIONS; i++)
+    {
+      registry.notifyAdd(entry);
+    }
+    assertFalse(psearch[0].isCancelled());
+    unblock.countDown();
+  }
+
+  @Test
+  public void testSlowSearchIsCancelledInsteadOfBlockingUpdates() throws Exception
+  {
+    TestCaseUtils.dsconfig("set-global-configuration-prop",
+        "--set", "max-psearch-pending-notifications:" + MAX_PENDING_NOTIFICATIONS);
+    try
+    {
+      final PersistentSearch[] psearch = new PersistentSearch[1];
+      final CountDownLatch unblock = registerStuckSearch(psearch);
+
+      // The updates must not wait for the client
+      final Entry entry = user("jdoe");
+      for (int i = 0; i < MAX_PENDING_NOTIFICATIONS; i++)
+      {
+        registry.notifyAdd(entry);
+      }
+      assertTrue(psearch[0].isCancelled());
+
+      unblock.countDown();
+      final TestTimer timer = new TestTimer.Builder()
+        .maxSleep(10, TimeUnit.SECONDS)
+        .sleepTimes(100, TimeUnit.MILLISECONDS)
+        .toTimer();
+      timer.repeatUntilSuccess(new CallableVoid()
+      {
+        @Override
+        public void call() throws Exception
+        {
+          assertEquals(psearch[0].getSearchOperation().getResultCode(), ResultCode.ADMIN_LIMIT_EXCEEDED);
+        }
+      });
+    }
+    finally
+    {
+      TestCaseUtils.dsconfig("set-global-configuration-prop", "--reset", "max-psearch-pending-notifications");
+    }
+  }
+}
@@ -126,6 +126,43 @@ public class SubentryManagerTestCase extends CoreTestCase
     assertThat(subentryList).isEmpty();
   }
 
+  @Test
+  public void testSubentriesAreUpdatedAfterChanges() throws Exception
+  {
+    SubentryManager manager = DirectoryServer.getSubentryManager();
+
+    // Fill the cached results
+    assertThat(getDns(manager.getSubentries(testEntry.getName())))
+        .containsExactly(ldapSubentry.getName(), legacyLdapSubentry.getName());
+
+    Entry refinedSubentry = addEntry(
+         "dn: cn=Refined Subentry," + BASE,
+         "objectClass: top",
+         "objectclass: subentry",
+         "subtreeSpecification: {specificationFilter \"(title=Marketing)\"}",
+         "cn: Refined Subentry");
+    try
+    {
+      // The refinements are only evaluated against the entries
+      assertThat(getDns(manager.getSubentries(testEntry.getName())))
+          .containsExactly(ldapSubentry.getName(), refinedSubentry.getName(), legacyLdapSubentry.getName());
+      assertThat(getDns(manager.getSubentries(testEntry)))
+          .containsExactly(ldapSubentry.getName(), legacyLdapSubentry.getName());
+
+      Entry marketingEntry = testEntry.duplicate(false);
+      marketingEntry.replaceAttribute(Attributes.create("title", "Marketing"));
+      assertThat(getDns(manager.getSubentries(marketingEntry)))
+          .containsExactly(ldapSubentry.getName(), refinedSubentry.getName(), legacyLdapSubentry.getName());
+    }
+    finally
+    {
+      TestCaseUtils.deleteEntry(refinedSubentry.getName());
+    }
+
+    assertThat(getDns(manager.getSubentries(testEntry.getName())))
+        .containsExactly(ldapSubentry.getName(), legacyLdapSubentry.getName());
+  }
+
   private List<Entry> getEntries(List<SubEntry> subentries)
   {
     final List<Entry> results = new ArrayList<>();
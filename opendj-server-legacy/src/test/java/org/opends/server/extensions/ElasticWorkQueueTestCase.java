@@ -0,0 +1,161 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.meta.ElasticWorkQueueCfgDefn;
+import org.forgerock.opendj.server.config.server.ElasticWorkQueueCfg;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.plugins.DelayPreOpPlugin;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.protocols.internal.SearchRequest;
+import org.opends.server.types.Entry;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the elastic work queue.
+ */
+public class ElasticWorkQueueTestCase
+       extends ExtensionsTestCase
+{
+  private ElasticWorkQueue workQueue;
+  /** The monitor of the server work queue, replaced by the monitor of the tested work queue. */
+  private MonitorProvider<?> serverWorkQueueMonitor;
+
+  /**
+   * Ensures that the Directory Server is running, and creates the tested work
+   * queue alongside the server work queue.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProviders().get("work queue");
+
+    workQueue = new ElasticWorkQueue();
+    workQueue.initializeWorkQueue(getConfiguration(2, 1000));
+  }
+
+  /**
+   * Shuts down the tested work queue.
+   */
+  @AfterClass
+  public void shutDownWorkQueue()
+  {
+    workQueue.finalizeWorkQueue(LocalizableMessage.raw("Test finished"));
+    DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+  }
+
+  private ElasticWorkQueueCfg getConfiguration(int maxConcurrentOperations, int maxCapacity) throws Exception
+  {
+    Entry configEntry = TestCaseUtils.makeEntry(
+        "dn: cn=Work Queue,cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-work-queue",
+        "objectClass: ds-cfg-elastic-work-queue",
+        "cn: Work Queue",
+        "ds-cfg-java-class: org.opends.server.extensions.ElasticWorkQueue",
+        "ds-cfg-max-concurrent-operations: " + maxConcurrentOperations,
+        "ds-cfg-max-work-queue-capacity: " + maxCapacity);
+    return InitializationUtils.getConfiguration(ElasticWorkQueueCfgDefn.getInstance(), configEntry);
+  }
+
+  private InternalSearchOperation newSearchOperation(long delay)
+  {
+    SearchRequest request = newSearchRequest(DN.valueOf("o=test"), SearchScope.BASE_OBJECT);
+    if (delay > 0)
+    {
+      request.addControl(DelayPreOpPlugin.createDelayControlList(delay));
+    }
+    return new InternalSearchOperation(getRootConnection(), nextOperationID(), nextMessageID(), request);
+  }
+
+  /**
+   * Tests that no more operations than the configured limit run concurrently,
+   * the other operations being queued until a running operation completes.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test(timeOut = 30000)
+  public void testMaxConcurrentOperations() throws Exception
+  {
+    List<InternalSearchOperation> operations = new ArrayList<>();
+    for (int i = 0; i < 6; i++)
+    {
+      InternalSearchOperation operation = newSearchOperation(500);
+      operations.add(operation);
+      workQueue.submitOperation(operation);
+    }
+
+    assertTrue(workQueue.getActiveOperations() <= 2);
+    assertTrue(workQueue.getCurrentNumWorkerThreads() <= 2);
+    assertFalse(workQueue.isIdle());
+
+    assertTrue(workQueue.waitUntilIdle(10000));
+    for (InternalSearchOperation operation : operations)
+    {
+      assertEquals(operation.getResultCode(), ResultCode.SUCCESS);
+    }
+    assertEquals(workQueue.size(), 0);
+  }
+
+  /**
+   * Tests that operations are rejected once both the running operations and
+   * the queue reached their limits, and accepted again after a configuration
+   * change raising the limits.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test(timeOut = 30000)
+  public void testQueueFullAndConfigurationChange() throws Exception
+  {
+    long rejected = workQueue.getOpsRejectedDueToQueueFull();
+    workQueue.applyConfigurationChange(getConfiguration(1, 1));
+    try
+    {
+      assertTrue(workQueue.trySubmitOperation(newSearchOperation(1000)));
+      assertTrue(workQueue.trySubmitOperation(newSearchOperation(0)));
+      assertFalse(workQueue.trySubmitOperation(newSearchOperation(0)));
+      assertEquals(workQueue.getOpsRejectedDueToQueueFull(), rejected + 1);
+
+      workQueue.applyConfigurationChange(getConfiguration(4, 1));
+      assertEquals(workQueue.getNumWorkerThreads(), 4);
+      assertTrue(workQueue.trySubmitOperation(newSearchOperation(0)));
+      assertTrue(workQueue.waitUntilIdle(10000));
+    }
+    finally
+    {
+      workQueue.applyConfigurationChange(getConfiguration(2, 1000));
+    }
+  }
+}
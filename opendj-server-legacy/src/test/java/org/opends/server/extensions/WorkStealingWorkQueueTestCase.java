@@ -0,0 +1,195 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.meta.WorkStealingWorkQueueCfgDefn;
+import org.forgerock.opendj.server.config.server.WorkStealingWorkQueueCfg;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.WorkStealingWorkQueueMonitor;
+import org.opends.server.plugins.DelayPreOpPlugin;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.protocols.internal.SearchRequest;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the work stealing work queue.
+ */
+public class WorkStealingWorkQueueTestCase
+       extends ExtensionsTestCase
+{
+  private WorkStealingWorkQueue workQueue;
+  /** The monitor of the server work queue, replaced by the monitor of the tested work queue. */
+  private MonitorProvider<?> serverWorkQueueMonitor;
+
+  /**
+   * Ensures that the Directory Server is running, and creates the tested work
+   * queue alongside the server work queue.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProviders().get("work queue");
+
+    workQueue = new WorkStealingWorkQueue();
+    workQueue.initializeWorkQueue(getConfiguration(4));
+  }
+
+  /**
+   * Shuts down the tested work queue.
+   */
+  @AfterClass
+  public void shutDownWorkQueue()
+  {
+    workQueue.finalizeWorkQueue(LocalizableMessage.raw("Test finished"));
+    DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+  }
+
+  private WorkStealingWorkQueueCfg getConfiguration(int numWorkerThreads) throws Exception
+  {
+    Entry configEntry = TestCaseUtils.makeEntry(
+        "dn: cn=Work Queue,cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-work-queue",
+        "objectClass: ds-cfg-work-stealing-work-queue",
+        "cn: Work Queue",
+        "ds-cfg-java-class: org.opends.server.extensions.WorkStealingWorkQueue",
+        "ds-cfg-num-worker-threads: " + numWorkerThreads,
+        "ds-cfg-max-work-queue-capacity: 1000");
+    return InitializationUtils.getConfiguration(WorkStealingWorkQueueCfgDefn.getInstance(), configEntry);
+  }
+
+  private InternalSearchOperation newSearchOperation(long delay)
+  {
+    SearchRequest request = newSearchRequest(DN.valueOf("o=test"), SearchScope.BASE_OBJECT);
+    if (delay > 0)
+    {
+      request.addControl(DelayPreOpPlugin.createDelayControlList(delay));
+    }
+    return new InternalSearchOperation(getRootConnection(), nextOperationID(), nextMessageID(), request);
+  }
+
+  /**
+   * Tests that operations queued behind a slow operation of the same client
+   * connection are stolen by the idle worker threads.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test(groups = { "slow" }, timeOut = 30000)
+  public void testIdleWorkerThreadsStealOperations() throws Exception
+  {
+    long stolen = workQueue.getOpsStolen();
+
+    List<InternalSearchOperation> operations = new ArrayList<>();
+    operations.add(newSearchOperation(3000));
+    for (int i = 0; i < 10; i++)
+    {
+      operations.add(newSearchOperation(0));
+    }
+    long startTime = System.currentTimeMillis();
+    for (InternalSearchOperation operation : operations)
+    {
+      workQueue.submitOperation(operation);
+    }
+
+    // The fast operations must not wait for the slow one.
+    for (InternalSearchOperation operation : operations.subList(1, operations.size()))
+    {
+      while (operation.getResultCode() == ResultCode.UNDEFINED)
+      {
+        Thread.sleep(10);
+      }
+      assertEquals(operation.getResultCode(), ResultCode.SUCCESS);
+    }
+    assertTrue(System.currentTimeMillis() - startTime < 2000);
+
+    assertTrue(workQueue.waitUntilIdle(10000));
+    assertEquals(operations.get(0).getResultCode(), ResultCode.SUCCESS);
+    assertTrue(workQueue.getOpsStolen() > stolen);
+    assertEquals(workQueue.size(), 0);
+  }
+
+  /**
+   * Tests that the number of worker threads can be changed, with the operations
+   * being processed during and after the change.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testChangingNumWorkerThreads() throws Exception
+  {
+    for (int numWorkerThreads : new int[] { 8, 2, 4 })
+    {
+      List<InternalSearchOperation> operations = new ArrayList<>();
+      for (int i = 0; i < 20; i++)
+      {
+        InternalSearchOperation operation = newSearchOperation(0);
+        operations.add(operation);
+        workQueue.submitOperation(operation);
+      }
+      workQueue.applyConfigurationChange(getConfiguration(numWorkerThreads));
+      assertEquals(workQueue.getNumWorkerThreads(), numWorkerThreads);
+
+      assertTrue(workQueue.waitUntilIdle(10000));
+      for (InternalSearchOperation operation : operations)
+      {
+        assertEquals(operation.getResultCode(), ResultCode.SUCCESS);
+      }
+      assertEquals(workQueue.getWorkerThreadBacklogs().size(), numWorkerThreads);
+    }
+  }
+
+  /**
+   * Tests that the work queue monitor exposes the stealing statistics.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testMonitorData() throws Exception
+  {
+    WorkStealingWorkQueueMonitor monitor = new WorkStealingWorkQueueMonitor(workQueue);
+    boolean foundStolen = false;
+    boolean foundWorkerBacklog = false;
+    for (Attribute attribute : monitor.getMonitorData())
+    {
+      String name = attribute.getAttributeDescription().getNameOrOID();
+      foundStolen |= name.equals(WorkStealingWorkQueueMonitor.ATTR_OPS_STOLEN);
+      foundWorkerBacklog |= name.equals(WorkStealingWorkQueueMonitor.ATTR_WORKER_THREAD_BACKLOG);
+    }
+    assertTrue(foundStolen);
+    assertTrue(foundWorkerBacklog);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.testng.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PendingResponsesTestCase extends LdapTestCase
+{
+  /** A channel recording each write, which may block until it is unblocked. */
+  private static final class RecordingChannel implements WritableByteChannel
+  {
+    private final BlockingQueue<ByteString> writes = new LinkedBlockingQueue<>();
+    private final CountDownLatch unblocked;
+
+    private RecordingChannel(boolean blocked)
+    {
+      unblocked = new CountDownLatch(blocked ? 1 : 0);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+      try
+      {
+        unblocked.await();
+      }
+      catch (InterruptedException e)
+      {
+        throw new IOException(e);
+      }
+      final int length = src.remaining();
+      writes.add(new ByteStringBuilder().appendBytes(src, length).toByteString());
+      return length;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+      // Nothing to do
+    }
+  }
+
+  private static PendingResponses newPendingResponses(WritableByteChannel channel, int bufferSize, long lingerMillis)
+  {
+    return new PendingResponses(channel, bufferSize, lingerMillis, TimeUnit.MILLISECONDS)
+    {
+      @Override
+      boolean isClosed()
+      {
+        return false;
+      }
+
+      @Override
+      void flushFailed(Exception error)
+      {
+        fail("Unexpected error", error);
+      }
+    };
+  }
+
+  private static ByteStringBuilder response(String value)
+  {
+    return new ByteStringBuilder().appendUtf8(value);
+  }
+
+  @Test
+  public void testBufferedResponsesAreWrittenWithTheNextResponse() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel(false);
+    final PendingResponses responses = newPendingResponses(channel, 1024, TimeUnit.HOURS.toMillis(1));
+
+    responses.write(response("entry1"), true);
+    responses.write(response("entry2"), true);
+    responses.write(response("reference"), true);
+    assertTrue(channel.writes.isEmpty());
+
+    responses.write(response("done"), false);
+    assertEquals(channel.writes.poll().toString(), "entry1entry2referencedone");
+    assertTrue(channel.writes.isEmpty());
+  }
+
+  @Test
+  public void testFullBufferIsWrittenBeforeTheNextResponse() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel(false);
+    final PendingResponses responses = newPendingResponses(channel, 12, TimeUnit.HOURS.toMillis(1));
+
+    responses.write(response("entry1"), true);
+    responses.write(response("entry2"), true);
+    assertTrue(channel.writes.isEmpty());
+    responses.write(response("entry3"), true);
+    assertEquals(channel.writes.poll().toString(), "entry1entry2");
+
+    // Too large to be buffered: written after the buffered responses
+    responses.write(response("a large entry"), true);
+    assertEquals(channel.writes.poll().toString(), "entry3");
+    assertEquals(channel.writes.poll().toString(), "a large entry");
+    assertTrue(channel.writes.isEmpty());
+  }
+
+  @Test
+  public void testBufferedResponsesAreWrittenOnceTheirLingerTimeHasElapsed() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel(false);
+    final PendingResponses responses = newPendingResponses(channel, 1024, 10);
+
+    responses.write(response("entry1"), true);
+    responses.write(response("entry2"), true);
+    assertEquals(channel.writes.poll(10, TimeUnit.SECONDS).toString(), "entry1entry2");
+
+    responses.write(response("done"), false);
+    assertEquals(channel.writes.poll().toString(), "done");
+    assertTrue(channel.writes.isEmpty());
+  }
+
+  @Test
+  public void testBlockedClientDoesNotDelayOtherConnections() throws Exception
+  {
+    final RecordingChannel blockedChannel = new RecordingChannel(true);
+    final RecordingChannel channel = new RecordingChannel(false);
+    final PendingResponses blockedResponses = newPendingResponses(blockedChannel, 1024, 10);
+    final PendingResponses responses = newPendingResponses(channel, 1024, 10);
+    try
+    {
+      blockedResponses.write(response("blocked"), true);
+      // Let the flush of the blocked connection start
+      Thread.sleep(50);
+      responses.write(response("entry"), true);
+      assertEquals(channel.writes.poll(10, TimeUnit.SECONDS).toString(), "entry");
+      assertTrue(blockedChannel.writes.isEmpty());
+    }
+    finally
+    {
+      blockedChannel.unblocked.countDown();
+    }
+    assertEquals(blockedChannel.writes.poll(10, TimeUnit.SECONDS).toString(), "blocked");
+  }
+}
@@ -472,6 +472,7 @@ public class AssuredReplicationPluginTest extends ReplicationTestCase
         {
           session.stopEncryption();
         }
+        session.startFraming(false);
 
         ReplicationMsg msg = session.receive();
         if (msg instanceof StopMsg){
@@ -326,6 +326,12 @@ public class DomainFakeCfg implements ReplicationDomainCfg
     return 1440;
   }
 
+  @Override
+  public int getConflictsHistoricalPurgeRate()
+  {
+    return 0;
+  }
+
   @Override
   public String toString()
   {
@@ -526,6 +526,32 @@ public class HistoricalTest extends ReplicationTestCase
     waitForSearchResult(TEST_ROOT_DN_STRING, WHOLE_SUBTREE, "(ds-sync-hist=*)", SUCCESS, expectedNumberOfEntries);
   }
 
+  /**
+   * Test the background purge of the replication historical stored in the user
+   * entries.
+   * Steps :
+   * - creates entries containing historical
+   * - run a sweep of the background purge with a purge delay already elapsed
+   * - verify that all historical has been purged without running the purge task
+   */
+  @Test(enabled=true)
+  public void testBackgroundPurge() throws Exception
+  {
+    int entryCount = 10;
+    addEntriesWithHistorical(2, entryCount);
+
+    // Let's go past the purge delay
+    final long purgeDelay = 1;
+    Thread.sleep(purgeDelay + 100);
+
+    LDAPReplicationDomain domain = MultimasterReplication.findDomain(DN.valueOf(TEST_ROOT_DN_STRING), null);
+    Assertions.assertThat(domain.getHistoricalPurger().purgeAll(purgeDelay)).isGreaterThanOrEqualTo(entryCount);
+
+    // every entry should be purged from its hist
+    int expectedNumberOfEntries = 0;
+    waitForSearchResult(TEST_ROOT_DN_STRING, WHOLE_SUBTREE, "(ds-sync-hist=*)", SUCCESS, expectedNumberOfEntries);
+  }
+
   /**
    * Add a provided number of generated entries containing historical.
    * @param dnSuffix A suffix to be added to the dn
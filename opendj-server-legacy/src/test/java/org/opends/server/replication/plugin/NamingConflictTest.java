@@ -55,7 +55,7 @@ public class NamingConflictTest extends ReplicationTestCase
   private LDAPReplicationDomain domain;
   private CSNGenerator gen;
 
-  private TestSynchronousReplayQueue queue;
+  private PartitionedReplayQueue queue;
 
   @BeforeMethod
   public void setUpLocal() throws Exception
@@ -64,7 +64,7 @@ public class NamingConflictTest extends ReplicationTestCase
 
     TestCaseUtils.initializeTestBackend(true);
 
-    queue = new TestSynchronousReplayQueue();
+    queue = new PartitionedReplayQueue(100, 1);
 
     final DomainFakeCfg conf = new DomainFakeCfg(baseDN, 1, new TreeSet<String>());
     conf.setIsolationPolicy(IsolationPolicy.ACCEPT_ALL_UPDATES);
@@ -362,7 +362,7 @@ public class NamingConflictTest extends ReplicationTestCase
   private void replayMsg(UpdateMsg updateMsg) throws InterruptedException
   {
     domain.processUpdate(updateMsg);
-    LDAPUpdateMsg ldapUpdate = queue.take().getUpdateMessage();
+    LDAPUpdateMsg ldapUpdate = queue.poll().getUpdateMessage();
     domain.markInProgress(ldapUpdate);
     domain.replay(ldapUpdate, SHUTDOWN);
   }
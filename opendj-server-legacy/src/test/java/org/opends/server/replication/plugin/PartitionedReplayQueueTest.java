@@ -0,0 +1,145 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PartitionedReplayQueueTest extends ReplicationTestCase
+{
+  private int seqNum;
+
+  @Test
+  public void testUpdatesOfAnEntryStayInOrder() throws Exception
+  {
+    final PartitionedReplayQueue queue = new PartitionedReplayQueue(100, 4);
+    final List<UpdateToReplay> updates = new ArrayList<>();
+    for (int i = 0; i < 20; i++)
+    {
+      final UpdateToReplay update = newUpdate("cn=entry" + (i % 5) + ",dc=example,dc=com");
+      updates.add(update);
+      assertThat(queue.offer(update)).isTrue();
+    }
+    assertThat(queue.size()).isEqualTo(20);
+
+    final List<UpdateToReplay> replayed = pollAll(queue);
+    assertThat(replayed).containsOnlyElementsOf(updates).hasSize(updates.size());
+    assertThat(queue.size()).isEqualTo(0);
+    assertUpdatesOfEachEntryInOrder(updates, replayed);
+  }
+
+  @Test
+  public void testCapacityIsSharedByThePartitions() throws Exception
+  {
+    final PartitionedReplayQueue queue = new PartitionedReplayQueue(3, 2);
+    for (int i = 0; i < 3; i++)
+    {
+      assertThat(queue.offer(newUpdate("cn=entry" + i + ",dc=example,dc=com"))).isTrue();
+    }
+    assertThat(queue.remainingCapacity()).isEqualTo(0);
+    assertThat(queue.offer(newUpdate("cn=entry3,dc=example,dc=com"), 10, TimeUnit.MILLISECONDS)).isFalse();
+
+    assertThat(queue.poll()).isNotNull();
+    assertThat(queue.offer(newUpdate("cn=entry3,dc=example,dc=com"))).isTrue();
+  }
+
+  @Test
+  public void testSetPartitionCountKeepsTheQueuedUpdates() throws Exception
+  {
+    final PartitionedReplayQueue queue = new PartitionedReplayQueue(100, 2);
+    final List<UpdateToReplay> updates = new ArrayList<>();
+    for (int i = 0; i < 30; i++)
+    {
+      final UpdateToReplay update = newUpdate("cn=entry" + (i % 7) + ",dc=example,dc=com");
+      updates.add(update);
+      queue.put(update);
+    }
+
+    queue.setPartitionCount(5);
+    assertThat(queue.getPartitionCount()).isEqualTo(5);
+    assertThat(queue.size()).isEqualTo(30);
+
+    final List<UpdateToReplay> replayed = pollAll(queue);
+    assertThat(replayed).hasSize(updates.size());
+    assertUpdatesOfEachEntryInOrder(updates, replayed);
+  }
+
+  @Test
+  public void testPollRemovedPartition() throws Exception
+  {
+    final PartitionedReplayQueue queue = new PartitionedReplayQueue(100, 4);
+    for (int i = 0; i < 10; i++)
+    {
+      queue.put(newUpdate("cn=entry" + i + ",dc=example,dc=com"));
+    }
+
+    queue.setPartitionCount(2);
+    assertThat(queue.poll(3, 0, TimeUnit.MILLISECONDS)).isNull();
+    assertThat(pollAll(queue)).hasSize(10);
+    assertThat(queue.remainingCapacity()).isEqualTo(100);
+  }
+
+  private List<UpdateToReplay> pollAll(PartitionedReplayQueue queue) throws InterruptedException
+  {
+    final List<UpdateToReplay> updates = new ArrayList<>();
+    for (int partition = 0; partition < queue.getPartitionCount(); partition++)
+    {
+      UpdateToReplay update;
+      while ((update = queue.poll(partition, 0, TimeUnit.MILLISECONDS)) != null)
+      {
+        updates.add(update);
+      }
+    }
+    return updates;
+  }
+
+  private void assertUpdatesOfEachEntryInOrder(List<UpdateToReplay> queued, List<UpdateToReplay> replayed)
+  {
+    for (UpdateToReplay update : queued)
+    {
+      final DN dn = update.getUpdateMessage().getDN();
+      assertThat(updatesOf(dn, replayed)).containsExactlyElementsOf(updatesOf(dn, queued));
+    }
+  }
+
+  private List<UpdateToReplay> updatesOf(DN dn, List<UpdateToReplay> updates)
+  {
+    final List<UpdateToReplay> results = new ArrayList<>();
+    for (UpdateToReplay update : updates)
+    {
+      if (update.getUpdateMessage().getDN().equals(dn))
+      {
+        results.add(update);
+      }
+    }
+    return results;
+  }
+
+  private UpdateToReplay newUpdate(String dn)
+  {
+    return new UpdateToReplay(new DeleteMsg(DN.valueOf(dn), new CSN(1000, seqNum++, 1), "uuid"), null);
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.common.ServerState;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.ModifyDNMsg;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class RemotePendingChangesTest extends ReplicationTestCase
+{
+  @Test
+  public void testDependencyOnChangeNotReplayedYet() throws Exception
+  {
+    final RemotePendingChanges changes = new RemotePendingChanges(new ServerState());
+    final DeleteMsg deleteMsg = new DeleteMsg(DN.valueOf("cn=b,dc=example,dc=com"), new CSN(1000, 1, 1), "uuid-b");
+    final ModifyDNMsg modDNMsg = new ModifyDNMsg(
+        DN.valueOf("cn=a,dc=example,dc=com"), new CSN(1000, 2, 1), "uuid-a", null, true, null, "cn=b");
+    final ModifyDNMsg otherModDNMsg = new ModifyDNMsg(
+        DN.valueOf("cn=c,dc=example,dc=com"), new CSN(1000, 3, 1), "uuid-c", null, true, null, "cn=d");
+    assertThat(changes.putRemoteUpdate(deleteMsg)).isTrue();
+    assertThat(changes.putRemoteUpdate(modDNMsg)).isTrue();
+    assertThat(changes.putRemoteUpdate(otherModDNMsg)).isTrue();
+
+    // The delete is neither replayed nor in progress: the rename to its DN must wait anyway
+    changes.markInProgress(modDNMsg);
+    assertThat(changes.checkDependencies(modDNMsg)).isTrue();
+    changes.markInProgress(otherModDNMsg);
+    assertThat(changes.checkDependencies(otherModDNMsg)).isFalse();
+    assertThat(changes.getDependentChangesSize()).isEqualTo(1);
+    assertThat(changes.getDependencyStallCount()).isEqualTo(1);
+    assertThat(changes.getNextUpdate()).isNull();
+
+    changes.markInProgress(deleteMsg);
+    changes.commit(deleteMsg.getCSN());
+    assertThat(changes.getNextUpdate()).isSameAs(modDNMsg);
+    assertThat(changes.getDependentChangesSize()).isEqualTo(0);
+  }
+}
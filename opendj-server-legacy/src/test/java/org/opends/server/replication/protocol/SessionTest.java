@@ -0,0 +1,233 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.protocol;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import static org.opends.server.replication.protocol.ProtocolVersion.*;
+import static org.testng.Assert.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+
+import org.opends.server.replication.ReplicationTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/** Tests the messages sent and received by {@link Session}, with and without frames. */
+@SuppressWarnings("javadoc")
+public class SessionTest extends ReplicationTestCase
+{
+  private static final int TIMEOUT_MS = 10000;
+  /** Small messages, and messages larger than a frame and than the initial compression buffer. */
+  private static final int[] MESSAGE_LENGTHS = { 1, 100, 10, 70 * 1024, 5, 200 * 1024, 1000 };
+
+  private Socket clientSocket;
+  private Session client;
+  private Session server;
+
+  @AfterMethod
+  public void closeSessions()
+  {
+    if (client != null)
+    {
+      client.close();
+      client = null;
+    }
+    if (server != null)
+    {
+      server.close();
+      server = null;
+    }
+  }
+
+  /** Opens a client and a server session to each other, as done before the start messages are exchanged. */
+  private void openSessions() throws Exception
+  {
+    final ReplSessionSecurity security = getReplSessionSecurity();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+    {
+      final Future<Session> serverSession = executor.submit(new Callable<Session>()
+      {
+        @Override
+        public Session call() throws Exception
+        {
+          return security.createServerSession(serverSocket.accept(), TIMEOUT_MS);
+        }
+      });
+      clientSocket = new Socket();
+      clientSocket.connect(serverSocket.getLocalSocketAddress(), TIMEOUT_MS);
+      client = security.createClientSession(clientSocket, TIMEOUT_MS);
+      server = serverSession.get(TIMEOUT_MS, MILLISECONDS);
+      assertNotNull(server);
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  private static EntryMsg newEntryMsg(int msgId, int length)
+  {
+    // entry bytes are zero terminated
+    final byte[] entryBytes = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      entryBytes[i] = (byte) ('a' + i % 26);
+    }
+    return new EntryMsg(1, 2, entryBytes, msgId);
+  }
+
+  private static void assertReceived(Session session, int msgId, int length) throws Exception
+  {
+    final ReplicationMsg msg = session.receive();
+    assertTrue(msg instanceof EntryMsg, "Unexpected message " + msg);
+    final EntryMsg entryMsg = (EntryMsg) msg;
+    assertEquals(entryMsg.getMsgId(), msgId);
+    assertEquals(entryMsg.getEntryBytes(), newEntryMsg(msgId, length).getEntryBytes());
+  }
+
+  /** Sends the messages one at a time, so that a blocked write cannot prevent the receiver from reading. */
+  private static void assertRoundTrip(Session from, Session to) throws Exception
+  {
+    for (int msgId = 0; msgId < MESSAGE_LENGTHS.length; msgId++)
+    {
+      from.publish(newEntryMsg(msgId, MESSAGE_LENGTHS[msgId]));
+      assertReceived(to, msgId, MESSAGE_LENGTHS[msgId]);
+    }
+  }
+
+  /** Exchanges the start messages, which are never framed, then starts framing on both sides. */
+  private void startFraming(boolean clientCompress, boolean serverCompress) throws Exception
+  {
+    client.publish(new WindowMsg(1));
+    assertEquals(((WindowMsg) server.receive()).getNumAck(), 1);
+    server.publish(new WindowMsg(2));
+    assertEquals(((WindowMsg) client.receive()).getNumAck(), 2);
+
+    client.startFraming(clientCompress);
+    server.startFraming(serverCompress);
+  }
+
+  @DataProvider
+  public Object[][] compressions()
+  {
+    return new Object[][] {
+      { false, false },
+      { true, false },
+      { false, true },
+      { true, true },
+    };
+  }
+
+  @Test(dataProvider = "compressions")
+  public void testFramedRoundTrip(boolean clientCompress, boolean serverCompress) throws Exception
+  {
+    openSessions();
+    startFraming(clientCompress, serverCompress);
+    assertEquals(client.isCompressed(), clientCompress);
+    assertEquals(server.isCompressed(), serverCompress);
+
+    assertRoundTrip(client, server);
+    assertRoundTrip(server, client);
+    // compression goes on with the same stream
+    assertRoundTrip(client, server);
+  }
+
+  @Test(dataProvider = "compressions")
+  public void testBatchedRoundTrip(boolean clientCompress, boolean serverCompress) throws Exception
+  {
+    openSessions();
+    client.stopEncryption();
+    server.stopEncryption();
+    startFraming(clientCompress, serverCompress);
+
+    // messages are queued, then sent by the session thread several at a time
+    client.start();
+    client.waitForStartup();
+    final int nbMessages = 200;
+    for (int msgId = 0; msgId < nbMessages; msgId++)
+    {
+      client.publish(newEntryMsg(msgId, MESSAGE_LENGTHS[msgId % MESSAGE_LENGTHS.length]));
+    }
+    for (int msgId = 0; msgId < nbMessages; msgId++)
+    {
+      assertReceived(server, msgId, MESSAGE_LENGTHS[msgId % MESSAGE_LENGTHS.length]);
+    }
+
+    server.publish(new WindowMsg(3));
+    assertEquals(((WindowMsg) client.receive()).getNumAck(), 3);
+  }
+
+  @DataProvider
+  public Object[][] invalidFrameHeaders()
+  {
+    return new Object[][] {
+      // length beyond any frame sent
+      { new byte[] { 0x00, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff } },
+      // compressed frame of 8 bytes claiming to uncompress to 256MB
+      { new byte[] { 0x01, 0x00, 0x00, 0x00, 0x08, 0x10, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 } },
+    };
+  }
+
+  @Test(dataProvider = "invalidFrameHeaders")
+  public void testInvalidFrameLengthClosesSession(byte[] frameHeader) throws Exception
+  {
+    openSessions();
+    client.stopEncryption();
+    server.stopEncryption();
+    startFraming(false, false);
+
+    // a faulty peer sends a frame length which must not be allocated
+    clientSocket.getOutputStream().write(frameHeader);
+    clientSocket.getOutputStream().flush();
+    try
+    {
+      server.receive();
+      fail("Expected the frame to be rejected");
+    }
+    catch (DataFormatException expected)
+    {
+      assertTrue(server.closeInitiated());
+    }
+  }
+
+  @Test
+  public void testRoundTripWithV8Peer() throws Exception
+  {
+    openSessions();
+    // the protocol version agreed on is the lowest of both peers
+    client.setProtocolVersion(REPLICATION_PROTOCOL_V8);
+    server.setProtocolVersion(REPLICATION_PROTOCOL_V8);
+    client.publish(new WindowMsg(1));
+    assertEquals(((WindowMsg) server.receive()).getNumAck(), 1);
+
+    // a V8 peer does not know about frames: the V9 peer must keep sending unframed messages
+    client.startFraming(true);
+    assertFalse(client.isCompressed());
+
+    assertRoundTrip(client, server);
+    assertRoundTrip(server, client);
+  }
+}
@@ -848,6 +848,7 @@ public class AssuredReplicationServerTest
         {
           session.stopEncryption();
         }
+        session.startFraming(false);
 
         // Send our topo mesg
         RSInfo rsInfo = new RSInfo(serverId, fakeUrl, generationId, groupId, 1);
@@ -0,0 +1,184 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.server;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.UpdateMsg;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ConcurrentMsgQueueTest extends ReplicationTestCase
+{
+  @Test
+  public void testMessagesAreRemovedInCSNOrder() throws Exception
+  {
+    final ConcurrentMsgQueue queue = new ConcurrentMsgQueue(100, 100000);
+    for (int time : new int[] { 1, 2, 5, 3, 6, 4, 7, 2 })
+    {
+      queue.add(newMsg(time, 1));
+    }
+    assertThat(queue.count()).isEqualTo(8);
+    assertThat(queue.getOldestCSN()).isEqualTo(newCSN(1, 1));
+
+    // the duplicate is discarded
+    assertThat(queue.drain()).isFalse();
+    assertThat(queue.count()).isEqualTo(7);
+    assertThat(removeAll(queue)).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L);
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(queue.bytesCount()).isEqualTo(0);
+    assertThat(queue.getOldestCSN()).isNull();
+  }
+
+  @Test
+  public void testOldestMessagesAreDroppedAboveBounds() throws Exception
+  {
+    final ConcurrentMsgQueue queue = new ConcurrentMsgQueue(5, 100000);
+    for (int time = 1; time <= 8; time++)
+    {
+      queue.add(newMsg(time, 1));
+    }
+    assertThat(queue.isAboveBounds()).isTrue();
+
+    assertThat(queue.drain()).isTrue();
+    assertThat(queue.count()).isEqualTo(5);
+    assertThat(queue.drain()).isFalse();
+
+    // newer changes than the dropped ones are required to follow the queue again
+    assertThat(queue.canFollowFrom(newMsg(3, 1))).isFalse();
+    assertThat(queue.canFollowFrom(newMsg(4, 1))).isTrue();
+    assertThat(queue.canFollowFrom(newMsg(9, 1))).isFalse();
+
+    queue.consumeUpTo(newMsg(6, 1));
+    assertThat(removeAll(queue)).containsExactly(7L, 8L);
+  }
+
+  @Test
+  public void testProducersDropMessagesWhenConsumerLags() throws Exception
+  {
+    final ConcurrentMsgQueue queue = new ConcurrentMsgQueue(5, 100000);
+    for (int time = 1; time <= 20; time++)
+    {
+      queue.add(newMsg(time, 1));
+    }
+    assertThat(queue.count()).isEqualTo(10);
+
+    assertThat(queue.drain()).isTrue();
+    assertThat(queue.canFollowFrom(newMsg(16, 1))).isTrue();
+    assertThat(removeAll(queue)).containsExactly(16L, 17L, 18L, 19L, 20L);
+  }
+
+  @Test(timeOut = 30000)
+  public void testConcurrentProducers() throws Exception
+  {
+    final int nbProducers = 4;
+    final int nbMsgsPerProducer = 1000;
+    final ConcurrentMsgQueue queue = new ConcurrentMsgQueue(nbProducers * nbMsgsPerProducer, Long.MAX_VALUE / 2);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> producers = new ArrayList<>();
+    for (int i = 1; i <= nbProducers; i++)
+    {
+      final int serverId = i;
+      final Thread producer = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            start.await();
+            for (int time = 1; time <= nbMsgsPerProducer; time++)
+            {
+              queue.add(newMsg(time, serverId));
+            }
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      producer.start();
+      producers.add(producer);
+    }
+    start.countDown();
+
+    final List<CSN> received = new ArrayList<>();
+    while (received.size() < nbProducers * nbMsgsPerProducer)
+    {
+      assertThat(queue.drain()).isFalse();
+      final UpdateMsg msg = queue.removeFirst();
+      if (msg != null)
+      {
+        received.add(msg.getCSN());
+      }
+      else
+      {
+        assertThat(queue.awaitMessages(10, TimeUnit.MILLISECONDS)).isTrue();
+      }
+    }
+    for (Thread producer : producers)
+    {
+      producer.join();
+    }
+
+    assertThat(queue.isEmpty()).isTrue();
+    // the changes of each replica are received in order
+    for (int serverId = 1; serverId <= nbProducers; serverId++)
+    {
+      long lastTime = 0;
+      for (CSN csn : received)
+      {
+        if (csn.getServerId() == serverId)
+        {
+          assertThat(csn.getTime()).isEqualTo(lastTime + 1);
+          lastTime = csn.getTime();
+        }
+      }
+      assertThat(lastTime).isEqualTo(nbMsgsPerProducer);
+    }
+  }
+
+  private List<Long> removeAll(ConcurrentMsgQueue queue)
+  {
+    queue.drain();
+    final List<Long> times = new ArrayList<>();
+    for (UpdateMsg msg = queue.removeFirst(); msg != null; msg = queue.removeFirst())
+    {
+      times.add(msg.getCSN().getTime());
+    }
+    return times;
+  }
+
+  private static CSN newCSN(long time, int serverId)
+  {
+    return new CSN(time, 0, serverId);
+  }
+
+  private static UpdateMsg newMsg(long time, int serverId)
+  {
+    return new DeleteMsg(DN.valueOf("cn=entry" + time + ",dc=example,dc=com"), newCSN(time, serverId), "uid");
+  }
+}
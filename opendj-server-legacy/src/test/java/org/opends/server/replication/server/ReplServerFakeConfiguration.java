@@ -24,6 +24,7 @@ import org.forgerock.opendj.config.Configuration;
 import org.forgerock.opendj.config.server.ConfigurationChangeListener;
 import org.forgerock.opendj.config.server.ServerManagedObject;
 import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.config.meta.ReplicationServerCfgDefn.SessionCompression;
 import org.forgerock.opendj.server.config.server.ReplicationServerCfg;
 
 /**
@@ -215,6 +216,12 @@ public class ReplServerFakeConfiguration implements ReplicationServerCfg
     return confidentialityEnabled;
   }
 
+  @Override
+  public SessionCompression getSessionCompression()
+  {
+    return SessionCompression.NONE;
+  }
+
   @Override
   public long getAssuredTimeout()
   {
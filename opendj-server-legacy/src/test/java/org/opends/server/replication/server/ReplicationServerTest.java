@@ -876,6 +876,7 @@ public class ReplicationServerTest extends ReplicationTestCase
       {
         session.stopEncryption();
       }
+      session.startFraming(false);
 
       // Send StartSessionMsg
       StartSessionMsg startSessionMsg = new StartSessionMsg(
@@ -25,9 +25,14 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.assertj.core.api.SoftAssertions;
 import org.forgerock.opendj.ldap.ByteSequenceReader;
@@ -251,6 +256,29 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
     }
   }
 
+  @Test(dataProvider = "recordsForSeek")
+  public void testSeekToRecordWithMappedFile(int blockSize, List<Record<Integer, Integer>> records, int key,
+      KeyMatchingStrategy matchingStrategy, PositionStrategy positionStrategy, Record<Integer, Integer> expectedRecord,
+      boolean shouldBeFound) throws Exception
+  {
+    writeRecords(blockSize, records);
+
+    // the second reader uses the block start keys found by the first one
+    final ConcurrentMap<Long, Integer> blockStartKeys = new ConcurrentHashMap<>();
+    for (int i = 0; i < 2; i++)
+    {
+      try (BlockLogReader<Integer, Integer> reader = newMappedReader(blockSize, blockStartKeys))
+      {
+        Pair<Boolean, Record<Integer, Integer>> result = reader.seekToRecord(key, matchingStrategy, positionStrategy);
+
+        final SoftAssertions softly = new SoftAssertions();
+        softly.assertThat(result.getFirst()).isEqualTo(shouldBeFound);
+        softly.assertThat(result.getSecond()).isEqualTo(expectedRecord);
+        softly.assertAll();
+      }
+    }
+  }
+
   @Test
   public void testGetClosestBlockStartBeforeOrAtPosition() throws Exception
   {
@@ -518,6 +546,17 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
         RECORD_PARSER, blockSize);
   }
 
+  private BlockLogReader<Integer, Integer> newMappedReader(int blockSize, ConcurrentMap<Long, Integer> blockStartKeys)
+      throws IOException
+  {
+    try (RandomAccessFile file = new RandomAccessFile(TEST_FILE, "r");
+        FileChannel channel = file.getChannel())
+    {
+      final ByteBuffer mappedFile = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      return BlockLogReader.newMappedReaderForTests(TEST_FILE, mappedFile, RECORD_PARSER, blockSize, blockStartKeys);
+    }
+  }
+
   private BlockLogReader<Integer, Integer> newReaderWithNullFile(int blockSize) throws FileNotFoundException
   {
     return BlockLogReader.newReaderForTests(null, null, RECORD_PARSER, blockSize);
@@ -211,6 +211,24 @@ public class LogFileTest extends DirectoryServerTestCase
     }
   }
 
+  @Test
+  public void testReadOnlyLogFileCanBeDeletedOnceClosed() throws Exception
+  {
+    final LogFile<String, String> changelog = LogFile.newReadOnlyLogFile(TEST_LOG_FILE, RECORD_PARSER);
+    final DBCursor<Record<String, String>> cursor = changelog.getCursor();
+    try (DBCursor<Record<String, String>> cursor2 = changelog.getCursor())
+    {
+      assertThatCursorCanBeFullyRead(cursor2, 1, 10);
+    }
+    // the memory mapping is still read by the first cursor
+    changelog.close();
+    assertThatCursorCanBeFullyRead(cursor, 1, 10);
+    cursor.close();
+
+    changelog.delete();
+    assertThat(TEST_LOG_FILE).doesNotExist();
+  }
+
   @DataProvider(name = "corruptedRecordData")
   Object[][] corruptedRecordData()
   {
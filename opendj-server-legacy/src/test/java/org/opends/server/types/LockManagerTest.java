@@ -29,6 +29,7 @@ import java.util.concurrent.TimeoutException;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.TestCaseUtils;
 import org.opends.server.types.LockManager.DNLock;
+import org.opends.server.types.LockManager.LockStatistics;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -95,6 +96,26 @@ public class LockManagerTest extends TypesTestCase
     unlockUsingThread(thread1, lock1);
   }
 
+  @Test
+  public void testLockStatistics() throws Exception
+  {
+    final LockManager lockManager = new LockManager(100, TimeUnit.MILLISECONDS);
+    DNLock lock1 = lockUsingThread(thread1, lockManager, LockType.WRITE_ENTRY, dnABC).get();
+    DNLock lock2 = lockUsingThread(thread2, lockManager, LockType.WRITE_ENTRY, dnABC).get();
+    assertThat(lock2).isNull(); // Timed out.
+    unlockUsingThread(thread1, lock1);
+
+    final LockStatistics writeEntryStats = lockManager.getStatistics(LockManager.LockType.WRITE_ENTRY);
+    assertThat(writeEntryStats.getRequestCount()).isEqualTo(2);
+    assertThat(writeEntryStats.getWaitCount()).isEqualTo(1);
+    assertThat(writeEntryStats.getWaitTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(100);
+    assertThat(writeEntryStats.getTimeoutCount()).isEqualTo(1);
+
+    final LockStatistics readEntryStats = lockManager.getStatistics(LockManager.LockType.READ_ENTRY);
+    assertThat(readEntryStats.getRequestCount()).isZero();
+    assertThat(readEntryStats.getWaitCount()).isZero();
+  }
+
   @DataProvider
   private Object[][] multiThreadedLockCombinationsWhichShouldBlock()
   {